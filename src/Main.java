@@ -4,6 +4,7 @@
  * and open the template in the editor.
  */
 
+import gcodeeditor.HeadlessBatch;
 import gcodeeditor.gui.JEditorFrame;
 import gelements.GArc;
 import gelements.GMixedPath;
@@ -24,6 +25,12 @@ public class Main {
      * @param args the command line arguments
      */
     public static void main(String[] args) {
+            if ( (args.length > 0) && args[0].equals(HeadlessBatch.HEADLESS_OPTION)) {
+                // don't load any GUI class
+                HeadlessBatch.main(args);
+                return;
+            }
+            
           /* Set<Thread> threads = Thread.getAllStackTraces().keySet();
             
             for (Thread t : threads) {
@@ -16,14 +16,13 @@
  */
 package gcodeeditor;
 
+import java.awt.EventQueue;
 import java.awt.geom.Rectangle2D;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.imageio.ImageIO;
 
 /**
  * Used to manage background picture content
@@ -39,7 +38,8 @@ public class BackgroundPictureParameters {
     private boolean visible;
     private final ArrayList<ParameterChangedListenerInterface> listeners;
     
-    BufferedImage img;
+    /** The picture, decoded by tiles in background. */
+    PicturePyramid img;
     double width, height;
     
     public BackgroundPictureParameters() {
@@ -101,7 +101,10 @@ public class BackgroundPictureParameters {
         fileName = param.fileName;
         rotation = param.rotation;       
         if ((param.img == null) && (fileName != null) && ! fileName.isEmpty()) reloadImage();
-        else img = param.img;
+        else {
+            img = param.img;
+            if ( img != null) img.setOnLoad(() -> EventQueue.invokeLater(this::informTilesLoaded));
+        }
         informChanged();
     }
     
@@ -109,11 +112,16 @@ public class BackgroundPictureParameters {
         boolean oldVisible = visible;
         visible = false;
         img = null;
-        img = ImageIO.read(new File(fileName));
+        img = loadPicture(fileName);
         //width = height = 0;
         visible = oldVisible;
     }
     
+    private PicturePyramid loadPicture(String path) throws IOException {
+        // repaint the views when new tiles are ready
+        return new PicturePyramid(new File(path), () -> EventQueue.invokeLater(this::informTilesLoaded));
+    }
+    
     public boolean isLoaded() {
         return img != null;
     }
@@ -124,7 +132,7 @@ public class BackgroundPictureParameters {
         if ( (img==null) || (fileName==null) || ! fileName.equals(filePath)) {
             
             if ( loadImage && (filePath != null)) {
-                img = ImageIO.read(new File(filePath));
+                img = loadPicture(filePath);
                 if ( (width == 0) && (height == 0)) {
                     this.width = img.getWidth();
                     this.height = img.getHeight();
@@ -212,6 +220,12 @@ public class BackgroundPictureParameters {
         });
     }
     
+    private void informTilesLoaded() {
+        listeners.forEach((l) -> {
+            l.backgroundPictureTilesLoaded();
+        });
+    }
+    
     @Override
     public BackgroundPictureParameters clone() {
         BackgroundPictureParameters clone = new BackgroundPictureParameters();
@@ -239,7 +253,10 @@ public class BackgroundPictureParameters {
         return (img == null) ? 0 : img.getHeight();
     }
 
-    public BufferedImage getImage() {
+    /**
+     * @return the picture or null if not loaded
+     */
+    public PicturePyramid getPicture() {
         return img;
     }
 
@@ -257,5 +274,8 @@ public class BackgroundPictureParameters {
     public interface ParameterChangedListenerInterface {
         /** Called when a parameter has change. */
         public void backgroundPictureParameterChanged();
+        
+        /** Called on the EDT when new tiles of the picture are decoded (only the views need to repaint). */
+        public default void backgroundPictureTilesLoaded() { }
     }
 }
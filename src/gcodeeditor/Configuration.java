@@ -17,6 +17,7 @@
 package gcodeeditor;
 
 import gcodeeditor.gui.JProjectEditorPanel;
+import gelements.UndoManager;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -65,6 +66,9 @@ public class Configuration  {
     public double minG1move;
     public String CNCnotes;
     public String guiTheme;
+    /** Memory used by the undo history, and if its old records can be written on disk. */
+    public int undoMemoryMB;
+    public boolean undoSpillToDisk;
 
     public Configuration() {  
         getDefault();
@@ -99,6 +103,8 @@ public class Configuration  {
         minG1move = prefs.getDouble("minG1move", 1);
         guiTheme  = prefs.get("guiTheme", "");
         CNCnotes = prefs.get("CNCnote", "");
+        undoMemoryMB = prefs.getInt("undoMemoryMB", UndoManager.DEFAULT_MEMORY_MB);
+        undoSpillToDisk = prefs.getBoolean("undoSpillToDisk", true);
     }
     
     public ArrayList<String> getSavedNames() {
@@ -238,6 +244,8 @@ public class Configuration  {
             prefs.putDouble("minG1move", minG1move);
             prefs.put("guiTheme", guiTheme);
             prefs.put("CNCnotes", CNCnotes);
+            prefs.putInt("undoMemoryMB", undoMemoryMB);
+            prefs.putBoolean("undoSpillToDisk", undoSpillToDisk);
             prefs.sync();
             prefs.flush();
         } catch (BackingStoreException ex) {
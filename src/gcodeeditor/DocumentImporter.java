@@ -0,0 +1,939 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gcodeeditor;
+
+import gelements.G1Path;
+import gelements.GArc;
+import gelements.GDrillPoint;
+import gelements.GElement;
+import gelements.GGroup;
+import gelements.GMixedPath;
+import gelements.GSpline;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Arc2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.kabeja.dxf.DXFArc;
+import org.kabeja.dxf.DXFCircle;
+import org.kabeja.dxf.DXFDocument;
+import org.kabeja.dxf.DXFEntity;
+import org.kabeja.dxf.DXFLWPolyline;
+import org.kabeja.dxf.DXFLayer;
+import org.kabeja.dxf.DXFLine;
+import org.kabeja.dxf.DXFPolyline;
+import org.kabeja.dxf.DXFSpline;
+import org.kabeja.dxf.helpers.Point;
+import org.kabeja.dxf.helpers.SplinePoint;
+import org.kabeja.parser.DXFParser;
+import org.kabeja.parser.ParseException;
+import org.kabeja.parser.Parser;
+import org.kabeja.parser.ParserBuilder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.traversal.DocumentTraversal;
+import org.w3c.dom.traversal.NodeFilter;
+import org.w3c.dom.traversal.TreeWalker;
+import org.xml.sax.SAXException;
+
+/**
+ * Read G-Code/project, DXF and SVG files into GElements (without any GUI).
+ * 
+ * @author Clément
+ */
+public class DocumentImporter {
+    
+    public static final String CONTENT_HEADER = "(Content-Type: ";
+    public static final String SVGE_HEADER = "(Simple G-Code Visual Editor Project: ";
+    
+    /** Used to flatten SVG ellipses. */
+    private final double minG1move;
+
+    /**
+     * @param minG1move the length of segments used to convert SVG ellipses
+     */
+    public DocumentImporter(double minG1move) {
+        this.minG1move = minG1move;
+    }
+    
+    /**
+     * @return the exception thrown while reading the content of the last SVG file or null
+     */
+    public Exception getSVGError() {
+        return svgError;
+    }
+    
+    public static final int GCREADER_UNKNOW_STATE = 0;
+    public static final int GCREADER_WAIT_EOL_STATE = 1;
+    public static final int GCREADER_READCMD_STATE = 2;
+    public static final int GCREADER_READCOORD_STATE = 3;
+    /**
+     * Try to import GCode blocks from raw GCODE file, or from a VGE Project file.
+     * @param gCodeFileName
+     * @param background the background image paramter. use reloadImage() to use it.
+     * @return the imported content
+     * @throws FileNotFoundException
+     * @throws IOException 
+     */
+    public static GGroup importGCODE( String gCodeFileName, BackgroundPictureParameters background) throws FileNotFoundException, IOException {
+
+        int lineno=0;
+        String name = (gCodeFileName.lastIndexOf('/') != -1) ? gCodeFileName.substring( gCodeFileName.lastIndexOf('/')+1) : gCodeFileName;    
+        if ( name.lastIndexOf('.')!=-1) name = name.substring(0, name.lastIndexOf('.'));
+        GGroup currentGroup, doc = new GGroup(name);
+        GElement currentBlock = null;
+        GCode currentState = new GCode(-1, 0,0);
+        
+        BufferedReader br = new java.io.BufferedReader( new FileReader(gCodeFileName));
+        String line = "";
+        
+        currentGroup = doc;
+        do
+        { 
+            lineno++;
+            line = line.trim();            
+            while ( (line != null) && line.isBlank()) line = br.readLine(); // skip empty lines
+            if ( line == null) break;
+            
+            if ( line.startsWith(SVGE_HEADER) || line.startsWith( CONTENT_HEADER)) {
+                // Loading properties of document
+                line = br.readLine();
+                if ( line == null) 
+                    break;
+                if ( line.startsWith(BackgroundPictureParameters.BACK_PICTURE_HEADER)) {
+                    BackgroundPictureParameters b = BackgroundPictureParameters.decode(line);
+                    if ((background != null) && (b != null)) background.setAll(b);
+                    line = br.readLine();
+                }
+                line = currentGroup.loadProperties(br, line);
+                continue;
+            }
+                
+            if ( line.startsWith(GGroup.END_HEADER_STRING)) {
+                if ( (currentBlock!=null) && ! currentBlock.isEmpty())
+                    currentGroup.add( currentBlock);          
+                currentBlock = null;
+                currentGroup = doc.getParent(currentGroup); 
+            } else {
+                GElement el = GElement.buildGElement(line);
+                if ( el != null) {
+                    // Load GElement
+                    if ( (currentBlock!=null) && ! currentBlock.isEmpty()) currentGroup.add( currentBlock); 
+                    currentBlock = null;
+                    
+                    line = el.loadFromStream(br, currentState);
+                    currentGroup.add(el);
+                    
+                    if ( el instanceof GGroup) currentGroup = (GGroup)el;  
+                    else currentState.updateGXYWith(el.getLastPoint());
+                    continue;
+                } else {
+                    // Read GCODE an try to make GElement or append to currentPath
+                    GCode gcl = new GCode(line, currentState);
+                    if ( gcl.isComment()) {
+                        if (currentBlock!=null) {
+                            if (currentBlock.getNbPoints() > 0) {
+                                currentGroup.add( currentBlock); 
+                                currentBlock = new G1Path("path " + name);  
+                            }
+                        } else
+                            currentBlock = new G1Path("path " + name); 
+
+                        currentBlock.add( gcl);
+
+                    } else if ( gcl.isAnArc()) {
+                        if ((currentBlock!=null) && ! currentBlock.isEmpty() && ! (currentBlock instanceof GArc )) {
+                            currentGroup.add( currentBlock);  
+                        }
+                        currentGroup.add(currentBlock = new GArc(name, currentState, gcl));
+                        currentState = currentBlock.getLastPoint();
+                        currentBlock=null;
+
+                    } else if ( gcl.isADrill() ) {
+                        if ((currentBlock!=null) && ! currentBlock.isEmpty()) {
+                            currentGroup.add( currentBlock);
+                        }
+                        currentGroup.add( currentBlock = new GDrillPoint("drill", gcl));          
+                        currentState = currentBlock.getLastPoint();
+                        currentBlock = null;
+
+                    } else if ( gcl.isASpline()) {
+                        if ((currentBlock!=null) && ! currentBlock.isEmpty()) {
+                            currentGroup.add( currentBlock);
+                        }
+                        currentBlock = new GSpline("curve", currentState, gcl);
+                        currentState.updateGXYWith(currentBlock.getLastPoint());
+                        currentBlock = null;
+
+                    } else if (gcl.isAMove() && (gcl.isSet('X') || gcl.isSet('Y'))) {
+                        if (gcl.getG() == 0) {               
+                            // Have we read an Header ?
+                            if ( doc.isEmpty() && (currentBlock != null) && (currentBlock.getClass() == G1Path.class) && ! currentBlock.isEmpty() && (currentBlock.getNbPoints()==0)) {
+                                currentBlock.setName("Header");
+                                doc.add(currentBlock);
+                                currentBlock = new G1Path(name + "-p" + GElement.getUniqID());
+                            } else {
+                                // No, start a new block
+                                if ((currentBlock!=null) && ! currentBlock.isEmpty() && (currentBlock.getNbPoints()>0) &&
+                                        (gcl.containsXorYCoordinate() || 
+                                            ((currentBlock.getNbPoints()!=0)) && currentBlock.getLastPoint().getG()==0)) {
+                                    currentGroup.add(currentBlock);
+                                    currentBlock=null;
+                                }
+                                if ( currentBlock == null)
+                                    currentBlock = new G1Path("path " + name); 
+                            }
+                        } else {
+                            // G1 move then add G0 first
+                            if ( currentBlock == null) 
+                                currentBlock = new G1Path("path " + name);
+                            
+                            if ( (currentBlock.getFirstPoint() == null) && gcl.isAPoint() && ! currentState.isAtSamePosition(gcl)) // Add G0 start point
+                                currentBlock.add(new GCode(0, gcl.getX(), gcl.getY()));
+                        }                       
+                        currentState.updateGXYWith(gcl); 
+                        currentBlock.add(gcl);                       
+
+                    } else {
+                        // line is not a G{0,1,2,3,5,8x} mouvment (to X,Y)
+                        // start a new block ?
+                        // TODO: take care of G54 X0 Y0 line
+                        if ( gcl.isPercent() ) {
+                            if ( (currentBlock != null) && ! currentBlock.isEmpty()) currentGroup.add(currentBlock);
+                            currentBlock = new G1Path(name);
+                        } else {                             
+                            if ( currentBlock==null) 
+                                currentBlock = new G1Path("path " + name);
+                            if ( gcl.isAPoint() && (currentBlock.getFirstPoint()==null) && ( ! gcl.isSet('G') || (gcl.getG()!=0))) {
+                                // add G0 to start new path
+                                currentBlock.add(new GCode(0, gcl.getX(), gcl.getY()));
+                            }    
+                            
+                            currentState.updateGXYWith(gcl);   
+                            currentBlock.add(gcl);                       
+                        }
+                    }
+                }
+            }
+            line = br.readLine();
+        } while( line != null);
+        
+        if ( (currentBlock != null) && ! currentBlock.isEmpty()) currentGroup.add(currentBlock);
+        return doc;
+    }
+
+    /**
+     * Read the entities of a DXF file.
+     * @param fileName
+     * @return the paths read
+     * @throws ParseException 
+     */
+    public static ArrayList<GElement> importDXF(String fileName) throws ParseException
+    {
+        Parser parser = ParserBuilder.createDefaultParser();
+        parser.parse(fileName, DXFParser.DEFAULT_ENCODING);
+        //System.out.println("Loading " + fileName);
+        String[] l = fileName.split("/");
+        String blockName = l[l.length-1];
+        
+        DXFDocument doc = parser.getDocument();
+        
+        ArrayList<GElement> newBlocks = new ArrayList<>();
+        G1Path lastBlock = null;
+        
+        for( @SuppressWarnings("unchecked") Iterator<DXFLayer> i = doc.getDXFLayerIterator(); i.hasNext(); )
+        {
+            DXFLayer layer = i.next();
+            
+            for( Iterator e = layer.getDXFEntityTypeIterator(); e.hasNext();)
+            {
+                Object type = e.next();
+                @SuppressWarnings("unchecked") List<DXFEntity> le = layer.getDXFEntities( type.toString());
+                for( DXFEntity el : le)
+                {
+                    if ( el instanceof DXFLWPolyline) {
+                        DXFLWPolyline poly = (DXFLWPolyline)el;
+                        if ( poly.getVertexCount() < 2) continue;
+                        
+                        G1Path s;
+                        if ((lastBlock != null) && G1Path.isEquals(lastBlock.getLastPoint(),poly.getVertex(0).getPoint()))
+                            s = lastBlock;
+                        else 
+                            s = new G1Path(blockName);
+                        
+                        for( int n = (s==lastBlock)?1:0; n < poly.getVertexCount(); n++)
+                            s.add(poly.getVertex(n).getPoint());
+                             
+                        if ( lastBlock != s) newBlocks.add(lastBlock = s);
+                        
+                    } else if ( el instanceof DXFLine) {
+                        DXFLine line = (DXFLine)el;
+                        
+                        G1Path s;
+                        if ((lastBlock != null) && G1Path.isEquals(lastBlock.getLastPoint(),line.getStartPoint()))
+                        {
+                            s = lastBlock;
+                            s.add( line.getEndPoint());
+                        } else {
+                            s = new G1Path(blockName);
+                            s.add( line.getStartPoint());
+                            s.add( line.getEndPoint());
+                        }
+                        if ( lastBlock != s) newBlocks.add(lastBlock = s);
+                        
+                    } else if ( el instanceof DXFSpline) {
+                        DXFSpline spline = (DXFSpline)el;
+                        GCode pts[] = new GCode[spline.getControlPointSize()];
+                        
+                        @SuppressWarnings("unchecked") Iterator<SplinePoint> spi = spline.getSplinePointIterator();
+                        int i2 = 0;
+                        while ( spi.hasNext()) {
+                            SplinePoint p = spi.next();
+                            pts[i2++] = new GCode(p.getX(), p.getY());
+                        }
+                        
+                        GSpline spl = null;
+                        switch( pts.length) {
+                            case 2: 
+                                //spl = new GSpline(blockName+"_curve", pts[0], pts[1]); 
+                                break;
+                            case 3: 
+                                //spl = new GSpline(blockName+"_curve", pts[0], pts[1], pts[2]); 
+                                break;
+                            case 4: 
+                                
+                                spl = new GSpline(blockName+"_curve", pts[0], pts[1], pts[2], pts[3]); 
+                                break;    
+                        }
+                            
+                        if ( spl != null) newBlocks.add(spl);
+                    } else if ( el instanceof DXFCircle) {
+                        DXFCircle circle = (DXFCircle)el;
+                        Point p = circle.getCenterPoint();
+                        double r = circle.getRadius();
+                        int nbP = (int)(2*Math.PI*r);
+                        double a = 2*Math.PI / nbP;
+                        lastBlock = new G1Path(blockName + "_circle");
+                        for( int pt = 0; pt < nbP; pt++) {
+                            lastBlock.add(new Point(p.getX()+Math.cos(a*pt)*r, p.getY()+Math.sin(a*pt)*r,0));
+                            
+                        } 
+                        newBlocks.add(lastBlock);
+                    } else if ( el instanceof DXFPolyline) {
+                        DXFPolyline poly = (DXFPolyline)el;
+                        
+                        G1Path s;
+                        if ((lastBlock != null) && G1Path.isEquals(lastBlock.getLastPoint(),poly.getVertex(0).getPoint()))
+                        {
+                            s = lastBlock;
+                        } else {
+                            s = new G1Path(blockName);
+                        }
+                        for( int n = (s==lastBlock)?1:0; n < poly.getVertexCount(); n++)
+                        { 
+                            Point p = poly.getVertex(n).getPoint();
+                            s.add(poly.getVertex(n).getPoint());                          
+                        }
+                        if ( lastBlock != s) newBlocks.add(lastBlock = s);
+                    } else if ( el instanceof DXFArc) {
+                        DXFArc arc = (DXFArc)el;
+                        Point center = arc.getCenterPoint();
+                        //Point endP = arc.getEndPoint();
+                        //Point startP = arc.getStartPoint();
+                        double radius = arc.getRadius();
+                        double startA = 360 - arc.getStartAngle();
+                        double arcLen = (arc.isCounterClockwise() ? 360 - arc.getTotalAngle() : arc.getTotalAngle() - 360);                        
+                        //boolean cc = arc.isCounterClockwise();
+                        GCode c = new GCode(center.getX(), center.getY());
+                        //System.out.println("c=("+c.getX()+","+c.getY()+")  s="+startA+"  rad="+Math.toRadians(startA)+"   l="+arcLen);
+                        newBlocks.add(new GArc("_arc", c, radius, startA, arcLen));
+                    } else
+                        System.err.println("Impossible de charger l'entité '" + el.getType() + "'");
+                    
+                }
+            }
+        }
+        
+        // clear empty blocks
+        Iterator<GElement> i = newBlocks.iterator();
+        while ( i.hasNext()) {
+            GElement b = i.next();
+            if ( b instanceof G1Path && b.isEmpty()) i.remove();
+        }
+        
+        boolean concat;
+        do {
+            concat = false;
+            for( int s1 = 0; s1 < newBlocks.size()-1; s1++ )
+                for( int s2 = 0; s2 < newBlocks.size()-1; s2++ )
+                {
+                    if ((s1 != s2) && (newBlocks.get(s1) instanceof G1Path) && (newBlocks.get(s2) instanceof G1Path)) {
+                        if ( newBlocks.get(s1).getFirstPoint() == null || newBlocks.get(s2).getFirstPoint() == null)
+                            System.out.println("importDXF: ERROR1");
+                        
+                        if ( newBlocks.get(s1).getFirstPoint().equals( newBlocks.get(s2).getFirstPoint()) ||
+                                newBlocks.get(s1).getLastPoint().equals( newBlocks.get(s2).getFirstPoint()) ||
+                                newBlocks.get(s1).getLastPoint().equals( newBlocks.get(s2).getLastPoint())) {
+                            //System.out.print("concat ");
+                            newBlocks.get(s1).concat(newBlocks.get(s2), 0.00001);
+                            newBlocks.remove(s2);
+                            concat=true;
+                        }
+                    }
+                }
+        } while( concat);
+        
+        return newBlocks;
+    }
+    
+    private GCode currentPosition;
+    /** The exception thrown while reading the last SVG file (its content is partial). */
+    private Exception svgError;
+    /**
+     * Read SVG file and return his content, if an error occurs during the reading
+     * of the content, the elements read before are returned and getSVGError() is set.
+     * 
+     * @param svgFileName
+     * @return
+     * @throws FileNotFoundException
+     * @throws IOException
+     * @throws ParserConfigurationException
+     * @throws SAXException 
+     */
+    public GGroup readSVGfile( String svgFileName) throws FileNotFoundException, IOException, ParserConfigurationException, SAXException {
+
+        String name = (svgFileName.lastIndexOf('/') != -1) ? svgFileName.substring( svgFileName.lastIndexOf('/')+1) : svgFileName;    
+        if ( name.lastIndexOf('.')!=-1) name = name.substring(0, name.lastIndexOf('.'));
+        GGroup res = new GGroup(name);
+       
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File( svgFileName));
+        document.getDocumentElement().normalize();  
+        DocumentTraversal traversal = (DocumentTraversal) document;
+        TreeWalker walker = traversal.createTreeWalker(
+                document.getDocumentElement(), NodeFilter.SHOW_ALL, null, true);
+                
+        Node xx = document.getElementsByTagName("svg").item(0).getAttributes().getNamedItem("viewBox");
+        //if ( xx != null) System.out.println("SVG Box= " + xx.getNodeValue());
+        
+        svgError = null;
+        try {
+            readSVGtree(walker, "", res);  
+        } catch ( Exception e) {
+            svgError = e;
+            e.printStackTrace();
+        }
+        
+        res.removeExtraGroups();
+        return res;
+    }
+
+    private void readSVGtree(TreeWalker walker, String indent, GGroup parent) {
+        Node node = walker.getCurrentNode();
+        if (node instanceof Element) {
+            Element element = (Element)node;
+            
+            String id = element.getAttribute("id"); 
+            String transform = element.getAttribute("transform");
+            
+            //System.out.println(indent + "- " + element.getTagName() + "(" + id + ") transform="+transform);                      
+
+            switch ( element.getTagName()) {
+                case "g":
+                    GGroup g = new GGroup( (id == null) ? "g" : id);
+                    parent.add(g);
+                    parent = g;
+                    for (Node n = walker.firstChild(); n != null; n = walker.nextSibling()) {
+                        readSVGtree(walker, indent + "  ", parent);
+                    }
+                    walker.setCurrentNode(node);
+                    applySVGTransformation(transform, g);
+                    break;
+                    
+                case "polyline":                        
+                case "path": 
+                    if ( element.getTagName().equals("polyline")) {
+                        String pts = "M " + element.getAttribute("points");
+                        g = readSVGPath( id, pts);
+                    } else {
+                        String d = element.getAttribute("d");
+                        g = readSVGPath( id, d);
+                    }
+                    
+                    applySVGTransformation(transform, g);                    
+                    if ( g.size() == 1) parent.add( g.get(0));
+                    else parent.add( g);
+                    break;
+
+                case "rect":
+                    double x = Double.parseDouble(element.getAttribute("x"));
+                    double y = Double.parseDouble(element.getAttribute("y"));
+                    double w = Double.parseDouble(element.getAttribute("width"));
+                    double h = Double.parseDouble(element.getAttribute("height"));  
+                    
+                    double rx = Double.NaN, ry = Double.NaN;
+                    if ( !  element.getAttribute("rx").isBlank()) {
+                        rx = Double.parseDouble(element.getAttribute("rx"));                        
+                    }
+                    if ( !  element.getAttribute("ry").isBlank()) {
+                        ry = Double.parseDouble(element.getAttribute("ry"));                        
+                    }
+                    
+                    G1Path g1p;
+                    if ( ! Double.isNaN(rx) || ! Double.isNaN(ry)) {
+                        if ( Double.isNaN(rx)) rx = ry;
+                        if ( Double.isNaN(ry)) ry = rx;
+                        g1p = G1Path.makeRounRect(w, h, Math.max(rx, ry)); // TODO: use ry !
+                        g1p.translate(x, y);
+                    } else                    
+                        g1p = G1Path.newRectangle(new GCode(x, y), new GCode(x+w, y+h));
+                    
+                    applySVGTransformation(transform, g1p);
+                    parent.add( g1p);
+                    break;
+                    
+                case "ellipse":
+                    double cx = Double.parseDouble(element.getAttribute("cx"));
+                    double cy = Double.parseDouble(element.getAttribute("cy"));
+                    rx = Double.parseDouble(element.getAttribute("rx"));
+                    ry = Double.parseDouble(element.getAttribute("ry")); 
+                    
+                    g1p = G1Path.makeOval(new Point2D.Double(cx, cy), rx, ry, minG1move);
+                    applySVGTransformation(transform, g1p);
+                    parent.add( g1p );   
+                    break;
+                case "circle":
+                    cx = Double.parseDouble(element.getAttribute("cx"));
+                    cy = Double.parseDouble(element.getAttribute("cy"));
+                    rx = Double.parseDouble(element.getAttribute("r"));
+                    GArc garc = new GArc("circle"+GElement.getUniqID(), new GCode(cx,cy), rx, 0, 360);
+                    applySVGTransformation(transform, garc);
+                    parent.add( garc);   
+                    break;
+
+                case "svg":
+                    /*if ( ! element.getAttribute("height").isBlank()) {
+                        double height = Double.parseDouble(element.getAttribute("height"));
+                        double width = Double.parseDouble(element.getAttribute("width"));
+                    }*/
+                    for (Node n = walker.firstChild(); n != null; n = walker.nextSibling()) {
+                        readSVGtree(walker, indent + "  ", parent);
+                    }
+                    break;
+                default:
+                    System.out.println("(info) importSVG: ignoring <"+element.getTagName()+"...");  
+                    for (Node n = walker.firstChild(); n != null; n = walker.nextSibling()) {
+                        readSVGtree(walker, indent + "  ", parent);
+                    }
+            }            
+        }
+        walker.setCurrentNode(node);
+    }      
+    
+    /**
+     * Read a SVG Path as described here https://svg-path-visualizer.netlify.app/
+     * 
+     * @return the group containing all draw of this data
+    */
+    public GGroup readSVGPath( String name, String dataPathString) {
+        GGroup res = new GGroup(name);
+        GMixedPath mixPath = new GMixedPath( name);
+        
+        currentPosition = new GCode(0,0,0);
+        
+        char currentMode = '?';
+        boolean absolute = false;
+        GCode p, firstPoint = null, pt[] = new GCode[4], lastBezierPoint2 = null, lastBezierEnd = null;
+        int patchNumber = 0, spNumber = 0, idSubPath = 1;
+        
+        String[] commands = dataPathString.split(" ");
+        for( int cn = 0; cn < commands.length; ) {
+            
+            while ( commands[cn].isBlank() && (cn < commands.length)) cn++;
+            
+            if ( cn < commands.length) {
+                String s = commands[cn];
+                //System.out.println("S=["+s+"]");
+
+                // get next command ?
+                if ( ! s.isEmpty() ) {  
+                    char t = s.toUpperCase().charAt(0);
+
+                    if ( ! (((t>='0') && (t<='9')) || (t=='-'))) {                    
+                        currentMode = s.toUpperCase().charAt(0);    
+                        absolute = s.charAt(0) == currentMode; // absolute if cmd is UPPERCASE
+
+                        if ( s.length() > 1) commands[cn] = s.substring(1);
+                        else cn++;
+                    }
+                }
+
+                // get next position ?
+                switch( currentMode) {
+                        //if ( firstPoint != null) System.err.println("SVGImport : moveTo in path");
+                    case 'H':                        
+                        if ( absolute) currentPosition.setX(Double.parseDouble( commands[cn++]));
+                        else currentPosition.translate(Double.parseDouble( commands[cn++]), 0);
+                        mixPath.add( currentPosition.clone());
+                        break;
+                    case 'V':   
+                        if ( absolute) currentPosition.setY(Double.parseDouble( commands[cn++]));
+                        else currentPosition.translate(0, Double.parseDouble( commands[cn++]));
+                        mixPath.add( currentPosition.clone());  
+                        break;
+                    case 'M':   
+                        if ( firstPoint != null) {
+                            res.add( mixPath);
+                            mixPath = new GMixedPath( name + "." + idSubPath++);
+                        }                      
+                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);
+                        mixPath.add( firstPoint = currentPosition.clone()); 
+                        currentMode = 'L'; // for polyline implementation
+                        break;
+                    case 'L':
+                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);                                   
+                        mixPath.add( currentPosition.clone());      
+                        break;
+                    case 'C': // bezier
+                        pt[0] = currentPosition.clone();                        
+                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);
+                        pt[1] = currentPosition.clone();
+                        if ( ! absolute) currentPosition = pt[0].clone();
+                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);
+                        lastBezierPoint2 = pt[2] = currentPosition.clone();
+                        if ( ! absolute) currentPosition = pt[0].clone();
+                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);
+                        lastBezierEnd = pt[3] = currentPosition.clone();
+                        GElement el = new GSpline("sp"+spNumber++, pt[0], pt[1], pt[2], pt[3]);
+                        if ( ! mixPath.add(el)) {
+                            res.add( mixPath);
+                            res.add(el);
+                            mixPath = new GMixedPath( name + "." + idSubPath++);
+                            mixPath.add( currentPosition.clone());
+                        }
+                        break;
+
+                    case 'S': // bezier chained
+                        pt[0] = lastBezierEnd.clone();
+                        pt[1] = lastBezierEnd.getMirrorPoint(lastBezierPoint2 );
+                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);
+                        lastBezierPoint2 = pt[2] = currentPosition.clone();
+                        if ( ! absolute) currentPosition = pt[0].clone();
+                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);
+                        lastBezierEnd = pt[3] = currentPosition.clone();
+                        mixPath.add(new GSpline("s"+spNumber++, pt[0], pt[1], pt[2], pt[3]));
+                        break;
+                    case 'Q': // quad
+                        pt[0] = currentPosition.clone();
+                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);
+                        lastBezierPoint2 = pt[1] = currentPosition.clone();
+                        if ( ! absolute) currentPosition = pt[0].clone();
+                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);
+                        lastBezierEnd = pt[2] = currentPosition.clone();
+                        mixPath.add(new GSpline("q"+spNumber++, pt[0], pt[1], pt[2]));
+                        break;                        
+                    case 'T': // quad chained
+                        pt[0] = lastBezierEnd.clone();
+                        lastBezierPoint2 = pt[1] = lastBezierEnd.getMirrorPoint(lastBezierPoint2 );
+                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);
+                        lastBezierEnd = pt[2] = currentPosition.clone();
+                        el = new GSpline("q"+spNumber++, pt[0], pt[1], pt[2]);
+                        if ( ! mixPath.add( el)) {                                
+                            res.add( mixPath);
+                            res.add(el);
+                            mixPath = new GMixedPath( name + "." + idSubPath++);
+                            mixPath.add( currentPosition.clone());
+                        } 
+                        break;
+                    case 'A': // elliptical Arc (rx,ry rotate LargeArcFlag SweepFlag fx,fy)    
+                        pt[1] = currentPosition.clone();
+                        
+                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, true);
+                        pt[0] = currentPosition.clone(); // radiusX,radiusY
+                                                        
+                        float rotate = Float.parseFloat(commands[cn++]);
+                        
+                        boolean largeArcFlag,sweepFlag;
+                        if ( commands[cn].contains(",")) {
+                            String[] vals = commands[cn++].split(",");
+                            largeArcFlag= Integer.parseInt(vals[0]) == 1;
+                            sweepFlag = Integer.parseInt(vals[1]) == 1;                            
+                        } else {
+                            largeArcFlag= Integer.parseInt(commands[cn++]) == 1;
+                            sweepFlag = Integer.parseInt(commands[cn++]) == 1;
+                        }
+    
+                        if ( ! absolute) currentPosition = pt[1].clone();
+                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);
+                        pt[2] = currentPosition.clone(); // last point 
+                        
+                        // radiusx, radiusy, xAxisRotation, boolean largeArcFlag, boolean sweepFlag, x, y                     
+                        el = arcTo(pt[1], (float)pt[0].getX(), (float)pt[0].getY(), rotate, largeArcFlag, 
+                                        sweepFlag, (float)currentPosition.getX(), (float)currentPosition.getY());
+                                                
+                        if ( ! mixPath.add( el)) {                                
+                            res.add( mixPath);
+                            res.add(el);
+                            mixPath = new GMixedPath( name + "." + idSubPath++);
+                            mixPath.add( currentPosition.clone());
+                        }                           
+                        break;
+                    case 'Z':
+                        if ( firstPoint != null) {
+                            currentPosition.set(firstPoint.clone());
+                            mixPath.add( currentPosition.clone());                           
+                        }
+                        break;
+                    default:
+                        System.err.println("importSVG: command '"+currentMode+"' in path is not implemented yet.");
+                        cn++;
+                }
+            }
+        }
+        res.add( mixPath);
+        return res;
+    } 
+    
+    private void applySVGTransformation(String transform, GElement elem) {
+        if ( (transform != null) && ! transform.isBlank() ) {
+            Pattern pat = Pattern.compile("^([^\\(]+)\\(([^\\)]+)\\)"); 
+            Matcher m = pat.matcher(transform);
+            if( m.matches()) {
+                //System.out.println(m.group(1) + " et " + m.group(2));
+
+                switch( m.group(1)) {
+                    case "translate":
+                        String vals[] = new String[2];
+                        vals[1] = m.group(2);
+                        vals = extractNumberFrom(vals[1]);
+                        double tx = Double.parseDouble( vals[0]);
+                        vals = extractNumberFrom(vals[1]);
+                        double ty = Double.parseDouble(vals[0]);
+                        elem.translate(tx, ty);
+                        break;
+                        
+                    case "matrix":
+                        double matrix[] = new double[6];
+                        vals = new String[2];
+                        vals[1] = m.group(2);
+                        for( int i = 0; i < 6; i++) {
+                            vals = extractNumberFrom(vals[1]);
+                            matrix[i] = Double.parseDouble(vals[0]);
+                        }
+                        AffineTransform t = new AffineTransform(matrix);
+                        elem.transform( t);
+                        break;
+                        
+                    case "scale":
+                        vals = new String[2];
+                        vals[1] = m.group(2);
+                        vals = extractNumberFrom(vals[1]);
+                        double sx = Double.parseDouble( vals[0]);
+                        vals = extractNumberFrom(vals[1]);
+                        double sy = Double.parseDouble(vals[0]);                                                
+                        elem.scale(new Point2D.Double(), sx, sy);
+                        break;
+                        
+                    default: 
+                        System.out.println("importSVG: unknow transform="+transform);
+                }
+            }                                                            
+        }    
+    }
+    
+    /**
+     * Update the current position accordint to the SVG d:path:element[number]
+     * @param number            the current element in path
+     * @param commands          the elements of the path
+     * @param currentCommand    the current SVG:d:path command
+     * @param currentPosition   the current position
+     * @param absolute          read an absolute position ?
+     * @return the next element position to read after
+     */
+    private static int getNextSVGPosition(int number, String[] commands, char currentCommand, GCode currentPosition, boolean absolute) {
+        int cn = number;
+        while( cn < commands.length ) {
+            String p = commands[cn++];
+            if ( ! p.isBlank()) {
+                String[] v2, v1 = extractNumberFrom( p);                
+                if ( v1[1].isBlank()) {
+                    v2 = extractNumberFrom( commands[cn++]);
+                } else {
+                    v2 = extractNumberFrom(v1[1]);
+                }
+                if ( ! v2[1].isBlank()) {
+                    cn--;
+                    commands[cn] = v2[1];
+                }
+                
+                currentPosition.set(currentCommand=='M'?0:1,
+                                    Double.parseDouble(v1[0]) + (absolute ? 0 : currentPosition.getX()),
+                                    Double.parseDouble(v2[0]) + (absolute ? 0 : currentPosition.getY()));
+               
+                return cn;
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+    
+    
+    /**
+     * Extract a number from 'input' string.
+     * 
+     * @param input the string to read the number
+     * @return String[0] == the number, String[1] == the rest of 'input'
+     */
+    public static String[] extractNumberFrom( String input) {
+        Pattern pat = Pattern.compile("^[,\\s]*(-?(([\\d]+\\.[\\d]+)|([\\d]+)|(\\.\\d+))([Ee]-?\\d+)?)(.*)$");
+        Matcher m = pat.matcher(input);
+        String res[] = new String[2];
+        if( m.matches()) {
+            res[0] = m.group(1).isEmpty() ? m.group(2) : m.group(1);
+            res[1] = m.group(7);
+        } else {
+            res[1] = input;
+        }       
+        return res;
+    }
+    
+    /**
+     * Taken from internet.
+     * 
+     * @param startPoint
+     * @param rx
+     * @param ry
+     * @param theta
+     * @param largeArcFlag
+     * @param sweepFlag
+     * @param x
+     * @param y
+     * @return 
+     */
+    public static final GElement arcTo(GCode startPoint, float rx, float ry, float theta, boolean largeArcFlag, boolean sweepFlag, float x, float y) {
+            
+            // Ensure radii are valid
+            if (rx == 0 || ry == 0) return new G1Path("arc"+GElement.getUniqID());
+                  
+            // Get the current (x, y) coordinates of the path
+            Point2D p2d = startPoint;
+            float x0 = (float) p2d.getX();
+            float y0 = (float) p2d.getY();
+            // Compute the half distance between the current and the final point
+            float dx2 = (x0 - x) / 2.0f;
+            float dy2 = (y0 - y) / 2.0f;
+            // Convert theta from degrees to radians
+            theta = (float) Math.toRadians(theta % 360f);
+
+            //
+            // Step 1 : Compute (x1, y1)
+            //
+            float x1 = (float) (Math.cos(theta) * (double) dx2 + Math.sin(theta)
+                            * (double) dy2);
+            float y1 = (float) (-Math.sin(theta) * (double) dx2 + Math.cos(theta)
+                            * (double) dy2);
+            // Ensure radii are large enough
+            rx = Math.abs(rx);
+            ry = Math.abs(ry);
+            float Prx = rx * rx;
+            float Pry = ry * ry;
+            float Px1 = x1 * x1;
+            float Py1 = y1 * y1;
+            double d = Px1 / Prx + Py1 / Pry;
+            if (d > 1) {
+                    rx = Math.abs((float) (Math.sqrt(d) * (double) rx));
+                    ry = Math.abs((float) (Math.sqrt(d) * (double) ry));
+                    Prx = rx * rx;
+                    Pry = ry * ry;
+            }
+
+            //
+            // Step 2 : Compute (cx1, cy1)
+            //
+            double sign = (largeArcFlag == sweepFlag) ? -1d : 1d;
+            float coef = (float) (sign * Math
+                            .sqrt(((Prx * Pry) - (Prx * Py1) - (Pry * Px1))
+                                            / ((Prx * Py1) + (Pry * Px1))));
+            float cx1 = coef * ((rx * y1) / ry);
+            float cy1 = coef * -((ry * x1) / rx);
+
+            //
+            // Step 3 : Compute (cx, cy) from (cx1, cy1)
+            //
+            float sx2 = (x0 + x) / 2.0f;
+            float sy2 = (y0 + y) / 2.0f;
+            float cx = sx2 + (float) (Math.cos(theta) * (double) cx1 - Math.sin(theta)
+                                            * (double) cy1);
+            float cy = sy2 + (float) (Math.sin(theta) * (double) cx1 + Math.cos(theta)
+                                            * (double) cy1);
+
+            //
+            // Step 4 : Compute the angleStart (theta1) and the angleExtent (dtheta)
+            //
+            float ux = (x1 - cx1) / rx;
+            float uy = (y1 - cy1) / ry;
+            float vx = (-x1 - cx1) / rx;
+            float vy = (-y1 - cy1) / ry;
+            float p, n;
+            // Compute the angle start
+            n = (float) Math.sqrt((ux * ux) + (uy * uy));
+            p = ux; // (1 * ux) + (0 * uy)
+            sign = (uy < 0) ? -1d : 1d;
+            float angleStart = (float) Math.toDegrees(sign * Math.acos(p / n));
+            // Compute the angle extent
+            n = (float) Math.sqrt((ux * ux + uy * uy) * (vx * vx + vy * vy));
+            p = ux * vx + uy * vy;
+            sign = (ux * vy - uy * vx < 0) ? -1d : 1d;
+            float angleExtent = (float) Math.toDegrees(sign * Math.acos(p / n));
+            if (!sweepFlag && angleExtent > 0) {
+                    angleExtent -= 360f;
+            } else if (sweepFlag && angleExtent < 0) {
+                    angleExtent += 360f;
+            }
+            angleExtent %= 360f;
+            angleStart %= 360f;
+
+            Arc2D.Float arc = new Arc2D.Float();
+            arc.x = cx - rx;
+            arc.y = cy - ry;
+            arc.width = rx * 2.0f;
+            arc.height = ry * 2.0f;
+            arc.start = -angleStart;
+            arc.extent = -angleExtent;
+            
+            if ( rx == ry) {
+                // Create GArc                
+                return new GArc("arc", new GCode(cx,cy), rx, angleStart, -angleExtent);
+                        
+            } else {
+                Path2D path = new Path2D.Double();
+                path.moveTo((float)startPoint.getX(), (float)startPoint.getY());                        
+                path.append(arc, true);
+                return G1Path.makeFromShape( "ea"+GElement.getUniqID(), path, "").get(0);
+            }
+    }
+}
@@ -18,6 +18,7 @@ package gcodeeditor;
 
 import gcodeeditor.Configuration;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Contains GCODE engraving properties
@@ -39,6 +40,9 @@ public class EngravingProperties {
     
     PropertieChangeListener listener;
     
+    /** Incremented each time an enabled state change (used to validate cached enabled bounds). */
+    private static final AtomicInteger enableChanges = new AtomicInteger();
+    
     public interface PropertieChangeListener {
         public static final int ENABLE = 0;
         public static final int ALL = 1;
@@ -103,7 +107,7 @@ public class EngravingProperties {
             p[i] = p[i].trim();
             if ( p[i].length()!=0)
                 switch(i) {
-                    case 0: ep.enabled = p[i].equals("1"); break;
+                    case 0: ep.enabled = p[i].equals("1"); enableChanges.incrementAndGet(); break;
                     case 1: ep.power = Integer.parseInt(p[i]); break;
                     case 2: ep.feed = Double.parseDouble(p[i]); break;
                     case 3: ep.passCount = Integer.parseInt(p[i]); break;
@@ -240,10 +244,18 @@ public class EngravingProperties {
     public void setEnabled(boolean enabled) {
         if ( this.enabled != enabled) {
             this.enabled = enabled;
+            enableChanges.incrementAndGet();
             if ( listener != null) listener.propertyChanged(PropertieChangeListener.ENABLE);
         }
     }
     
+    /**
+     * @return a counter incremented each time an enabled state has changed
+     */
+    public static int getEnableChanges() {
+        return enableChanges.get();
+    }
+    
     public void setAllAtOnce(boolean allAtOnce) {
         if ( this.allAtOnce != allAtOnce) {
             this.allAtOnce = allAtOnce;
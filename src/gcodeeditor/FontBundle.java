@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gcodeeditor;
+
+import gelements.G1Path;
+import gelements.GArc;
+import gelements.GElement;
+import gelements.GGroup;
+import java.awt.Point;
+import java.awt.geom.Point2D;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * All the fonts of <i>src/fonts</i> compiled into one binary file (made by the build with <i>main()</i>)
+ * and read through a memory map : the fonts read only the glyphs they use, when they use them.<br>
+ * Content (big endian) :<pre>
+ *  header    : MAGIC, VERSION, nbFonts, tablesStart, dataStart
+ *  fonts     : nbFonts x (name, type, table offset from tablesStart)
+ *  tables    : [LibreCAD: letterSpacing, wordSpacing] nbGlyphs, nbGlyphs x (code, glyph offset from dataStart) sorted by code
+ *  glyphs    : Hershey  : id, nverts, leftpos, rightpos, nbStrokes, nbStrokes x (nbPoints, nbPoints x (x, y as bytes))
+ *              LibreCAD : width, element
+ *  element   : PATH nbPoints, nbPoints x (x, y) | ARC clockwise, start, end, center | GROUP nbElements, elements
+ *  name      : length, UTF-8 bytes</pre>
+ * The coordinates of LibreCAD glyphs are floats.
+ *
+ * @author Clément
+ */
+public final class FontBundle {
+
+    public static final String RESOURCE = "/fonts/fonts.bundle";
+    static final int MAGIC = 0x56474546; // VGEF
+    static final int VERSION = 1;
+    static final byte HERSHEY = 0, LIBRECAD = 1;
+    static final byte PATH = 0, ARC = 1, GROUP = 2;
+
+    private static FontBundle bundle;
+    private static boolean loaded;
+
+    /**
+     * @return the bundle of the application or null if it has not been built
+     */
+    public static synchronized FontBundle getBundle() {
+        if ( ! loaded) {
+            loaded = true;
+            final URL url = FontBundle.class.getResource(RESOURCE);
+            if ( url != null) {
+                try {
+                    bundle = new FontBundle(url);
+                } catch ( IOException | URISyntaxException | IllegalArgumentException ex) {
+                    Logger.getLogger(FontBundle.class.getName()).log(Level.WARNING, "Font bundle not usable, the fonts will be parsed", ex);
+                }
+            }
+        }
+        return bundle;
+    }
+
+    /**
+     * A font of the bundle.
+     */
+    public final class Font {
+        public final String name;
+        final byte type;
+        private final int table, nbGlyphs, entries;
+
+        Font(String name, byte type, int table) {
+            this.name = name;
+            this.type = type;
+            this.table = table;
+            entries = table + ((type == LIBRECAD) ? 8 : 0) + 4;
+            nbGlyphs = buf.getInt(entries - 4);
+        }
+
+        public int getNbGlyphs() {
+            return nbGlyphs;
+        }
+
+        /** @return the code of the n-th glyph */
+        public int getCode(int n) {
+            return buf.getInt(entries + 8 * n);
+        }
+
+        double getLetterSpacing() {
+            return buf.getFloat(table);
+        }
+
+        double getWordSpacing() {
+            return buf.getFloat(table + 4);
+        }
+
+        /** @return the position of the glyph in the bundle or -1 if this font has no glyph for code */
+        private int find(int code) {
+            int lo = 0, hi = nbGlyphs - 1;
+            while ( lo <= hi) {
+                final int mid = (lo + hi) >>> 1, c = getCode(mid);
+                if ( c < code) lo = mid + 1;
+                else if ( c > code) hi = mid - 1;
+                else return data + buf.getInt(entries + 8 * mid + 4);
+            }
+            return -1;
+        }
+
+        /**
+         * @param letter
+         * @return the glyph of letter or null if not found
+         */
+        HersheyGlyph getHersheyGlyph(char letter) {
+            int p = find(letter - ' ');
+            if ( p == -1) return null;
+            final int id = buf.getInt(p), nverts = buf.getShort(p + 4);
+            final int left = buf.get(p + 6), right = buf.get(p + 7);
+            final int nbStrokes = buf.getShort(p + 8);
+            p += 10;
+            final ArrayList<ArrayList<Point>> paths = new ArrayList<>(nbStrokes);
+            for( int s = 0; s < nbStrokes; s++) {
+                final int n = buf.getShort(p);
+                p += 2;
+                final ArrayList<Point> path = new ArrayList<>(n);
+                for( int i = 0; i < n; i++, p += 2) path.add(new Point(buf.get(p), buf.get(p + 1)));
+                paths.add(path);
+            }
+            return new HersheyGlyph(letter, id, nverts, left, right, paths);
+        }
+
+        /**
+         * @param font the font to create the glyph for
+         * @param code
+         * @return the glyph of code or null if not found
+         */
+        LibreCadFont.Glyph getLibreCadGlyph(LibreCadFont font, int code) {
+            final int p = find(code);
+            if ( p == -1) return null;
+            final int pos[] = { p + 4 };
+            final GElement e = readElement(pos, "" + (char)code);
+            return font.new Glyph(buf.getFloat(p), e);
+        }
+    }
+
+    private final ByteBuffer buf;
+    private final int data;
+    private final HashMap<String, Font> fonts = new HashMap<>();
+
+    private FontBundle(URL url) throws IOException, URISyntaxException {
+        Path file;
+        if ( "file".equals(url.getProtocol())) file = Paths.get(url.toURI());
+        else {
+            // a file is needed to map the bundle (the application is in a JAR)
+            file = Files.createTempFile("vge-fonts", ".bundle");
+            file.toFile().deleteOnExit();
+            try ( InputStream in = url.openStream()) {
+                Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        try ( FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        }
+        if ( (buf.getInt(0) != MAGIC) || (buf.getInt(4) != VERSION)) throw new IOException("Bad font bundle " + url);
+        final int nb = buf.getInt(8), tables = buf.getInt(12);
+        data = buf.getInt(16);
+        int p = 20;
+        for( int i = 0; i < nb; i++) {
+            final int len = buf.getShort(p);
+            final byte name[] = new byte[len];
+            buf.get(p + 2, name);
+            p += 2 + len;
+            final Font f = new Font(new String(name, StandardCharsets.UTF_8), buf.get(p), tables + buf.getInt(p + 1));
+            fonts.put(f.name, f);
+            p += 5;
+        }
+    }
+
+    /**
+     * @param name the name of the font ("Hershey;futural", "LCAD;standard", ...)
+     * @return the font or null if it is not in the bundle
+     */
+    public Font getFont(String name) {
+        return fonts.get(name);
+    }
+
+    private GElement readElement(int pos[], String name) {
+        int p = pos[0];
+        final GElement res;
+        switch ( buf.get(p++)) {
+            case PATH:
+                final int n = buf.getShort(p);
+                p += 2;
+                final G1Path path = new G1Path(name);
+                for( int i = 0; i < n; i++, p += 8) path.add(new GCode(buf.getFloat(p), buf.getFloat(p + 4)));
+                res = path;
+                break;
+            case ARC:
+                final boolean clockwise = buf.get(p) != 0;
+                res = new GArc(name, clockwise, new GCode(buf.getFloat(p + 1), buf.getFloat(p + 5)),
+                                                new GCode(buf.getFloat(p + 9), buf.getFloat(p + 13)),
+                                                new GCode(buf.getFloat(p + 17), buf.getFloat(p + 21)));
+                p += 25;
+                break;
+            default:
+                final int nb = buf.getShort(p);
+                final GGroup g = new GGroup(name);
+                pos[0] = p + 2;
+                for( int i = 0; i < nb; i++) g.add(readElement(pos, name + i));
+                return g;
+        }
+        pos[0] = p;
+        return res;
+    }
+
+    private static void writeElement(DataOutputStream out, GElement e) throws IOException {
+        if ( e instanceof GGroup) {
+            out.writeByte(GROUP);
+            out.writeShort(((GGroup)e).size());
+            for( GElement c : ((GGroup)e).getAll()) writeElement(out, c);
+        } else if ( e instanceof GArc) {
+            final GArc a = (GArc)e;
+            out.writeByte(ARC);
+            out.writeBoolean(a.isClockwise());
+            for( Point2D p : new Point2D[] { a.getFirstPoint(), a.getLastPoint(), a.getCenter() }) {
+                out.writeFloat((float)p.getX());
+                out.writeFloat((float)p.getY());
+            }
+        } else {
+            final ArrayList<GCode> pts = new ArrayList<>();
+            for( GCode p : e.getPointsIterator()) pts.add(p);
+            out.writeByte(PATH);
+            out.writeShort(pts.size());
+            for( GCode p : pts) {
+                out.writeFloat((float)p.getX());
+                out.writeFloat((float)p.getY());
+            }
+        }
+    }
+
+    /**
+     * Compile the fonts into a bundle (called by the build, see build.xml).
+     * @param args the fonts directory (containing hershey/*.jhf and librecad/*.lff) and the bundle file to write
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        final long t = System.currentTimeMillis();
+        final File dir = new File(args[0]);
+        final TreeMap<String, byte[]> tables = new TreeMap<>();
+        final TreeMap<String, Byte> types = new TreeMap<>();
+        final ByteArrayOutputStream glyphs = new ByteArrayOutputStream();
+        final DataOutputStream data = new DataOutputStream(glyphs);
+
+        File files[] = new File(dir, "hershey").listFiles((d, n) -> n.endsWith(".jhf"));
+        if ( files != null) {
+            Arrays.sort(files);
+            for( File f : files) {
+                final HersheyFont font = new HersheyFont(f);
+                final TreeMap<Integer, Integer> index = new TreeMap<>();
+                for( int i = 0; i < font.glyphs.size(); i++) {
+                    final HersheyGlyph g = font.glyphs.get(i);
+                    index.put(i, data.size());
+                    data.writeInt(g.id);
+                    data.writeShort(g.nverts);
+                    data.writeByte(g.leftpos);
+                    data.writeByte(g.rightpos);
+                    data.writeShort(g.paths.size());
+                    for( ArrayList<Point> s : g.paths) {
+                        data.writeShort(s.size());
+                        for( Point p : s) {
+                            data.writeByte(p.x);
+                            data.writeByte(p.y);
+                        }
+                    }
+                }
+                final String name = "Hershey;" + f.getName().substring(0, f.getName().length() - 4);
+                tables.put(name, makeTable(index, null));
+                types.put(name, HERSHEY);
+            }
+        }
+
+        files = new File(dir, "librecad").listFiles((d, n) -> n.endsWith(".lff"));
+        if ( files != null) {
+            Arrays.sort(files);
+            for( File f : files) {
+                final String name = f.getName().substring(0, f.getName().length() - 4);
+                final LibreCadFont font;
+                try ( InputStream in = new FileInputStream(f)) {
+                    font = new LibreCadFont(name, in);
+                }
+                final TreeMap<Integer, Integer> index = new TreeMap<>();
+                for( Map.Entry<Integer, LibreCadFont.Glyph> g : new TreeMap<>(font.glyphs).entrySet()) {
+                    index.put(g.getKey(), data.size());
+                    data.writeFloat((float)g.getValue().width);
+                    writeElement(data, g.getValue().paths);
+                }
+                tables.put(font.getName(), makeTable(index, font));
+                types.put(font.getName(), LIBRECAD);
+            }
+        }
+
+        // header and directory
+        final ByteArrayOutputStream dirBytes = new ByteArrayOutputStream();
+        final DataOutputStream d = new DataOutputStream(dirBytes);
+        int tablesSize = 0;
+        for( Map.Entry<String, byte[]> e : tables.entrySet()) {
+            final byte name[] = e.getKey().getBytes(StandardCharsets.UTF_8);
+            d.writeShort(name.length);
+            d.write(name);
+            d.writeByte(types.get(e.getKey()));
+            d.writeInt(tablesSize);
+            tablesSize += e.getValue().length;
+        }
+        final File out = new File(args[1]);
+        if ( out.getParentFile() != null) out.getParentFile().mkdirs();
+        try ( DataOutputStream o = new DataOutputStream(new FileOutputStream(out))) {
+            final int tablesStart = 20 + dirBytes.size();
+            o.writeInt(MAGIC);
+            o.writeInt(VERSION);
+            o.writeInt(tables.size());
+            o.writeInt(tablesStart);
+            o.writeInt(tablesStart + tablesSize);
+            dirBytes.writeTo(o);
+            for( byte[] b : tables.values()) o.write(b);
+            glyphs.writeTo(o);
+        }
+        System.out.println(tables.size() + " fonts compiled into " + out + " (" + out.length() / 1024 + " KB) in " + (System.currentTimeMillis() - t) + " ms");
+    }
+
+    private static byte[] makeTable(TreeMap<Integer, Integer> index, LibreCadFont font) throws IOException {
+        final ByteArrayOutputStream b = new ByteArrayOutputStream();
+        final DataOutputStream o = new DataOutputStream(b);
+        if ( font != null) {
+            o.writeFloat((float)font.getLetterSpacing());
+            o.writeFloat((float)font.getWordSpacing());
+        }
+        o.writeInt(index.size());
+        for( Map.Entry<Integer, Integer> e : index.entrySet()) {
+            o.writeInt(e.getKey());
+            o.writeInt(e.getValue());
+        }
+        return b.toByteArray();
+    }
+}
@@ -497,10 +497,10 @@ public class GCode extends Point2D implements Iterable<GWord> {
     }
     
     public void transform(AffineTransform t) {
-        if ( isAPoint()) {            
-            Point2D r = t.transform(new Point2D.Double(getX(), getY()), null);
-            setX( r.getX());
-            setY( r.getY());
+        if ( isAPoint()) {
+            final double px = x.value, py = y.value;
+            x.value = t.getScaleX() * px + t.getShearX() * py + t.getTranslateX();
+            y.value = t.getShearY() * px + t.getScaleY() * py + t.getTranslateY();
         }
     }
 
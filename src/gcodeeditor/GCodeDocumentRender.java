@@ -23,11 +23,13 @@ import gcodeeditor.gui.JProjectEditorPanel;
 import gelements.G1Path;
 import gelements.GDrillPoint;
 import gelements.GElement;
+import gelements.GInstance;
 import gelements.GGroup;
 import gelements.GPocket3D;
-import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Iterator;
 import java.util.concurrent.TimeUnit;
 import javax.swing.SwingUtilities;
@@ -40,7 +42,7 @@ public class GCodeDocumentRender implements Runnable {
     GRBLControler grbl;
     Configuration conf;           
     ParserState state;
-    boolean stopThread;
+    volatile boolean stopThread;
     
     // Read only variables to know what is currently doing.
     GGroup document, currentGroup;
@@ -52,7 +54,8 @@ public class GCodeDocumentRender implements Runnable {
     boolean laserMode;   
     double currentZ, currentZStart, currentZEnd, currentZPassDepth;
 
-    private FileWriter outputFile;
+    private String outputFileName;
+    private GCodeExportEngine exportEngine;
     
     
     public GCodeDocumentRender(Configuration conf,  RenderListener l) {
@@ -74,7 +77,7 @@ public class GCodeDocumentRender implements Runnable {
         currentGLine=null;
         currentPass=0;
         currentZ=currentZStart=currentZEnd=Double.NaN;   
-        outputFile = null;
+        outputFileName = null;
         stopThread = false;
         updateGUI();
     }
@@ -86,16 +89,17 @@ public class GCodeDocumentRender implements Runnable {
      */
     public void setParam(boolean laserMode, String fileName) throws FileNotFoundException, IOException {
         this.laserMode = laserMode;
-        if ( fileName != null) outputFile = new FileWriter( new File(fileName));
-        else {
-            if ( outputFile != null) outputFile.close();
-            outputFile = null;
+        if ( fileName != null) { // verify we can write it (without touching an existing file)
+            final Path f = Paths.get(fileName).toAbsolutePath();
+            if ( ! Files.isWritable(Files.exists(f) ? f : f.getParent())) throw new FileNotFoundException(fileName + " is not writable");
         }
+        outputFileName = fileName;
     }
 
     /** Stop as soon as possible the job. (stop sending en exit thread) */
     public void stop() {
         stopThread = true;       
+        if ( exportEngine != null) exportEngine.stop();
     }
     
     /**
@@ -104,39 +108,27 @@ public class GCodeDocumentRender implements Runnable {
     @Override
     @SuppressWarnings({"CallToPrintStackTrace", "SleepWhileInLoop"})
     public void run() {
+        if ( outputFileName != null) {
+            // save to file
+            exportToFile();
+            listener.executionFinished();
+            return;
+        }
+        
         try {     
             long t1 = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
             
-            if (outputFile == null) {        
-                // send to GRBL
-                state = grbl.getParserState();
-            } else
-                // save to file
-                state = new ParserState();
+            // send to GRBL
+            state = grbl.getParserState();
             
             //grbl.startFileLogger( outputFileName);
             
-            currentZ = currentZStart = currentZEnd = currentZPassDepth = Double.NaN;
-            sendCmd("; Generated with SimpleGCodeVisualEditor " + JProjectEditorPanel.SVGE_RELEASE);
-
-            if ( laserMode) {
-                sendCmd(conf.adaptativePower ? "M4" : "M3");
-                sendCmd("G0S0"); 
-            } else {
-                sendCmd("G0Z"+GWord.GCODE_NUMBER_FORMAT.format(conf.safeZHeightForMoving)+"M5S0");
-            }
+            sendHeader();
             
             // Execute laser/milling job with defaults values
             sendGroup(document, new EngravingProperties(conf), true);
 
-            if ( ! laserMode) {
-                // Return to safe Z position
-                sendCmd("G0Z"+GWord.GCODE_NUMBER_FORMAT.format(conf.safeZHeightForMoving)+"M5S0");
-            } else
-                sendCmd("G0M5S0"); 
-
-            sendCmd("M2");
-            sendCmd(";End of Job");
+            sendFooter();
             long t2 = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
             System.out.println("Rendering duration (s) = " + (t2-t1)/1000);
                         
@@ -153,40 +145,85 @@ public class GCodeDocumentRender implements Runnable {
         catch ( Exception e) { 
             e.printStackTrace(); 
             grbl.holdAndReset();
-            
-            if (outputFile != null) {
-                try {
-                    outputFile.close();
-                } catch (IOException ex) {
-                    listener.error("IOError :\n"+ex.getLocalizedMessage());
-                }
-                outputFile = null;
-            } else {
-                //grbl.stopFileLogger();
-                grbl.softReset();  
-            }
+            //grbl.stopFileLogger();
+            grbl.softReset();  
             listener.error("Exception in GCode Execution Thread :\n"+e.getLocalizedMessage());
         }    
         listener.executionFinished();
     }
+    
+    /**
+     * Render the whole document into <i>outputFileName</i> with a GCodeExportEngine.
+     */
+    private void exportToFile() {
+        try {
+            exportEngine = new GCodeExportEngine(conf, laserMode);
+            exportEngine.export(document, outputFileName, (done, total) -> {
+                currentBlockNumber = done;
+                updateGUI();
+            });
+        } catch ( IOException | RuntimeException e) {
+            e.printStackTrace(); 
+            listener.error("IOError :\n"+e.getLocalizedMessage());
+        } finally {
+            exportEngine = null;
+        }
+    }
+    
+    /**
+     * Send the first lines of the job (spindle/laser initialisation).
+     * @throws IOException 
+     */
+    void sendHeader() throws IOException {
+        currentZ = currentZStart = currentZEnd = currentZPassDepth = Double.NaN;
+        sendCmd("; Generated with SimpleGCodeVisualEditor " + JProjectEditorPanel.SVGE_RELEASE);
+
+        if ( laserMode) {
+            sendCmd(conf.adaptativePower ? "M4" : "M3");
+            sendCmd("G0S0"); 
+        } else {
+            sendCmd("G0Z"+GWord.formatGCodeNumber(conf.safeZHeightForMoving)+"M5S0");
+        }
+    }
+    
+    /**
+     * Send the last lines of the job (go to safe position and stop).
+     * @throws IOException 
+     */
+    void sendFooter() throws IOException {
+        if ( ! laserMode) {
+            // Return to safe Z position
+            sendCmd("G0Z"+GWord.formatGCodeNumber(conf.safeZHeightForMoving)+"M5S0");
+        } else
+            sendCmd("G0M5S0"); 
+
+        sendCmd("M2");
+        sendCmd(";End of Job");
+    }
 
     /**
-     * Used to send GCode to GRBL or into outputFile.
+     * Used to send GCode with output() and update the parser state.
      * @param cmd The gcode line to send
      * @throws IOException 
      */
-    @SuppressWarnings("SleepWhileInLoop")
-    private void sendCmd(String cmd) throws IOException {
+    void sendCmd(String cmd) throws IOException {
         if ( stopThread) return;
         
-        if ( outputFile != null) outputFile.append(cmd);
-        else {    
-            while ( grbl.isConnected() && (grbl.getWaitingCommandQueueSize() > 3)) 
-                try { Thread.sleep(20); } catch ( InterruptedException e) { }
-            grbl.pushCmd( cmd);
-        }
+        output(cmd);
         state.updateContextWith(new GCode(cmd)); // TODO: use grbl.parserState ?
     }
+    
+    /**
+     * Write one line of the job to its destination (GRBL here, buffers in GCodeExportEngine).
+     * @param cmd The gcode line to send
+     * @throws IOException 
+     */
+    @SuppressWarnings("SleepWhileInLoop")
+    void output(String cmd) throws IOException {
+        while ( grbl.isConnected() && (grbl.getWaitingCommandQueueSize() > 3)) 
+            try { Thread.sleep(20); } catch ( InterruptedException e) { }
+        grbl.pushCmd( cmd);
+    }
 
     /**
      * Send the GCode corresponding of this group (with sendCmd function)
@@ -195,7 +232,7 @@ public class GCodeDocumentRender implements Runnable {
      * @param firstPass
      * @throws IOException 
      */
-    private void sendGroup(GGroup group, EngravingProperties currentProperties, boolean firstPass) throws IOException {                                                                                                 
+    void sendGroup(GGroup group, EngravingProperties currentProperties, boolean firstPass) throws IOException {                                                                                                 
         if ( ! group.isEnabled()) return;
         currentGroup=group;
         
@@ -232,7 +269,7 @@ public class GCodeDocumentRender implements Runnable {
                 if ( ! laserMode && Double.isNaN(currentZ)) throw new Error("Can find zLevel for element " + group);
                 
                 currentPass = ++cP;
-                currentZStart = currentProperties.getZStart();     
+                setCurrentZStart( currentProperties.getZStart());     
                 currentZEnd   = currentProperties.getZEnd();
                 currentZPassDepth = currentProperties.getPassDepth();                 
             
@@ -255,16 +292,35 @@ public class GCodeDocumentRender implements Runnable {
             currentProperties = EngravingProperties.udateHeritedProps(currentProperties, group.properties);
 
             for ( GElement b : group.getAll()) {
-                currentGroup=group;
-                
-                if ( b instanceof GGroup) 
-                    sendGroup((GGroup) b, currentProperties.clone(), true);
-                else 
-                    sendElement(b,  currentProperties.clone(), true);
+                sendChild(group, b, currentProperties);
                 if ( stopThread) return;
             }
         }                   
     }
+    
+    /**
+     * Send one element of a group in normal sequential mode.
+     * @param group the parent of <i>b</i>
+     * @param b the element to send
+     * @param currentProperties the properties of the group (will be cloned)
+     * @throws IOException 
+     */
+    void sendChild(GGroup group, GElement b, EngravingProperties currentProperties) throws IOException {
+        currentGroup=group;
+
+        if ( b instanceof GGroup) 
+            sendGroup((GGroup) b, currentProperties.clone(), true);
+        else 
+            sendElement(b,  currentProperties.clone(), true);
+    }
+    
+    /**
+     * Keep the start Z of the last grouped execution or drill (used by 3D pockets passes).
+     * @param zStart 
+     */
+    void setCurrentZStart(double zStart) {
+        currentZStart = zStart;
+    }
 
     /** 
      * Send an entire element one time (if onePass mode) or multiple times according to pass values.
@@ -275,6 +331,14 @@ public class GCodeDocumentRender implements Runnable {
     private void sendElement(GElement path, EngravingProperties currProps, boolean firstPass) throws IOException {
         if ( ! path.isEnabled()) return;
 
+        if ( path instanceof GInstance) {
+            // the real coordinates of an instance exist only while it is sent
+            final GElement e = ((GInstance)path).expand();
+            if ( e instanceof GGroup) sendGroup((GGroup)e, currProps, firstPass);
+            else sendElement(e, currProps, firstPass);
+            return;
+        }
+
         boolean onePass = currProps.isAllAtOnce();
 
         sendCmd(";BEGIN_ELEMENT: " + path.getName());
@@ -282,7 +346,7 @@ public class GCodeDocumentRender implements Runnable {
 
         // remplace Feed and Spindle if needed
         if ( ! Double.isNaN(currProps.getFeed())) sendCmd("F" + (currentFeed=currProps.getFeed()));
-        if ( currProps.getPower() != -1) sendCmd("S" + GWord.GCODE_NUMBER_FORMAT.format(currentPower=currProps.getPower()));
+        if ( currProps.getPower() != -1) sendCmd("S" + GWord.formatGCodeNumber(currentPower=currProps.getPower()));
 
         if ( onePass) {
             // flat execution mode of the path wiout Z positioning
@@ -319,7 +383,7 @@ public class GCodeDocumentRender implements Runnable {
                             ep.setZStart(currentZ);
                             ep.setPassCount(1);
                             ep.setAllAtOnce(true);
-                            sendGroup(G1Path.makePocket(l, conf.toolDiameter/2), ep, false);
+                            sendGroup(G1Path.linkPocketRings(G1Path.makePocket(l, conf.toolDiameter/2), conf.toolDiameter), ep, false);
                         }
                         
                     } else {                        
@@ -378,7 +442,7 @@ public class GCodeDocumentRender implements Runnable {
         EngravingProperties.udateHeritedProps(herited, path.properties);
                 
         currentPath = path;
-        currentZStart = herited.zStart;
+        setCurrentZStart( herited.zStart);
         currentZEnd = herited.zEnd;
  
         GCode l = path.getLine(1);
@@ -395,14 +459,14 @@ public class GCodeDocumentRender implements Runnable {
 
          // Go up if we must translate to destination
         safeMoveTo(l, safeZ, conf.safeZHeightForMoving);                     
-        if ( ! Double.isNaN(herited.getFeed())) sendCmd("F"+ GWord.GCODE_NUMBER_FORMAT.format(herited.getFeed()));
+        if ( ! Double.isNaN(herited.getFeed())) sendCmd("F"+ GWord.formatGCodeNumber(herited.getFeed()));
         
         if ( Double.isNaN(currentZPassDepth)) { 
             // one shot drill
-            sendCmd("G1Z"+GWord.GCODE_NUMBER_FORMAT.format(currentZEnd));
+            sendCmd("G1Z"+GWord.formatGCodeNumber(currentZEnd));
             if ( l.get('P') != null) // make a pause at botton of hole ?
                     sendCmd("G4 P"+ l.get('P').getIntValue());
-            sendCmd("G"+(laserMode?0:1)+"Z"+GWord.GCODE_NUMBER_FORMAT.format(safeZ));
+            sendCmd("G"+(laserMode?0:1)+"Z"+GWord.formatGCodeNumber(safeZ));
             
         } else { 
             // multi pass drill
@@ -410,12 +474,12 @@ public class GCodeDocumentRender implements Runnable {
             boolean finished;
             do {
                 if ( currentZ < currentZEnd) currentZ = currentZEnd;
-                sendCmd("G1Z"+GWord.GCODE_NUMBER_FORMAT.format(currentZ));
+                sendCmd("G1Z"+GWord.formatGCodeNumber(currentZ));
                 
                 if ( l.get('P') != null) // make a pause at botton of hole ?
                     sendCmd("G4 P"+ l.get('P').getIntValue());
 
-                sendCmd("G"+(laserMode?0:1)+"Z"+GWord.GCODE_NUMBER_FORMAT.format(safeZ));
+                sendCmd("G"+(laserMode?0:1)+"Z"+GWord.formatGCodeNumber(safeZ));
 
                 finished = Math.abs(currentZ - currentZEnd) < 0.00001;
                 currentZ -= currentZPassDepth;
@@ -437,7 +501,7 @@ public class GCodeDocumentRender implements Runnable {
      * @param zLevelDestination after translate, if not NaN, do a G1 to this Z if needed
      * @throws IOException 
      */
-    private void safeMoveTo(GCode destinationXYPoint, double zLevelDestination, double moveAtZSafeheight) throws IOException {
+    void safeMoveTo(GCode destinationXYPoint, double zLevelDestination, double moveAtZSafeheight) throws IOException {
         assert( destinationXYPoint.isAPoint());
         destinationXYPoint = new GCode(0, destinationXYPoint.getX(), destinationXYPoint.getY());
         
@@ -452,7 +516,7 @@ public class GCodeDocumentRender implements Runnable {
              
         final GCode curPos = state.getGXYPositon();
         final double curZ = curPos.contains('Z') ?  curPos.get('Z').getValue() : Double.NaN;     
-        if ( ! curPos.isAPoint() || ! curPos.isAtSamePosition(destinationXYPoint)) {
+        if ( needXYMoveTo(curPos, destinationXYPoint)) {
             // We have to move to dest (X,Y)                                              
                 
             if ( laserMode) {
@@ -461,7 +525,7 @@ public class GCodeDocumentRender implements Runnable {
 
             } else {
                 // goto Z level moveAtZheight before moving
-                sendCmd("G1Z"+GWord.GCODE_NUMBER_FORMAT.format(moveAtZSafeheight));  
+                sendCmd("G1Z"+GWord.formatGCodeNumber(moveAtZSafeheight));  
                 // then move to destination
                 sendCmd(destinationXYPoint.toGRBLString());  
             }                
@@ -470,18 +534,27 @@ public class GCodeDocumentRender implements Runnable {
         // We are in place now, juste change Z if needed
         if ( Double.isNaN(curZ) || (Math.abs(curZ - zLevelDestination) > 0.00001)) {  
             if (laserMode)
-                sendCmd("G0Z"+GWord.GCODE_NUMBER_FORMAT.format(zLevelDestination));
+                sendCmd("G0Z"+GWord.formatGCodeNumber(zLevelDestination));
             else
-                sendCmd("G1Z"+GWord.GCODE_NUMBER_FORMAT.format(zLevelDestination));
+                sendCmd("G1Z"+GWord.formatGCodeNumber(zLevelDestination));
 
         }                
         updateGUI();
     }
     
+    /**
+     * @param curPos the current position of the parser state
+     * @param destinationXYPoint
+     * @return true if safeMoveTo() must translate the head to go to <i>destinationXYPoint</i>
+     */
+    static boolean needXYMoveTo(GCode curPos, GCode destinationXYPoint) {
+        return ! curPos.isAPoint() || ! curPos.isAtSamePosition(destinationXYPoint);
+    }
+    
     /**
      * Update public variables and call updateGui of listeners.
      */
-    private void updateGUI() {
+    void updateGUI() {
         ExecutionState s = new ExecutionState();
         if ( currentGroup != null) {
             GGroup g, parent;
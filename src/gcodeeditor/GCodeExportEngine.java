@@ -0,0 +1,444 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gcodeeditor;
+
+import gelements.GElement;
+import gelements.GGroup;
+import gelements.GPocket3D;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Render a whole document into a G-Code file as fast as possible.<br>
+ *
+ * Each top level element of the document is rendered in parallel into its own buffer,
+ * then buffers are written in order into the file through a FileChannel.<br>
+ * The only state shared between two top level elements is the parser state (position
+ * of the head, motion mode, ...) : each chunk keeps track of the states it has set and
+ * defers its first <i>safeMoveTo()</i> (that depends on the previous position) until
+ * it is written. A chunk that really depends on the previous elements is simply
+ * rendered again sequentially, so the file is always the same as with one thread.
+ *
+ * @author Clément Gérardin @ Marseille.fr
+ */
+public class GCodeExportEngine {
+
+    /** Size (in chars) of the output buffer flushed into the channel. */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** Same charset as the FileWriter used before. */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    final Configuration conf;
+    final boolean laserMode;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private volatile boolean stopped;
+    private BufferedRender mainRender;
+
+    /** Statistics of the last export. */
+    private int parallelChunks, sequentialChunks;
+
+    /**
+     * Used to follow the export of a document.
+     */
+    public interface ProgressListener {
+        /**
+         * @param done number of top level elements written
+         * @param total number of top level elements of the document
+         */
+        void chunkWritten(int done, int total);
+    }
+
+    /**
+     * @param conf the machine configuration to use
+     * @param laserMode Use laser (without Z moves) ?
+     */
+    public GCodeExportEngine(Configuration conf, boolean laserMode) {
+        this.conf = conf;
+        this.laserMode = laserMode;
+    }
+
+    /**
+     * @param nbThreads the number of threads used to render the elements (1 for a sequential rendering)
+     */
+    public void setParallelism(int nbThreads) {
+        parallelism = Math.max(1, nbThreads);
+    }
+
+    /** Stop as soon as possible the export. */
+    public void stop() {
+        stopped = true;
+        if ( mainRender != null) mainRender.stop();
+    }
+
+    /**
+     * @return the number of top level elements that have been rendered in parallel by the last export.
+     */
+    public int getParallelChunksCount() {
+        return parallelChunks;
+    }
+
+    /**
+     * @return the number of top level elements that have been rendered sequentially by the last export.
+     */
+    public int getSequentialChunksCount() {
+        return sequentialChunks;
+    }
+
+    /**
+     * Render <i>document</i> into <i>fileName</i>.
+     * @param document the document to render
+     * @param fileName the file to create or overwrite (written into a temporary file moved at the end,
+     *                 so that a failed or stopped export leaves an existing file untouched)
+     * @param listener to follow the job (can be null)
+     * @throws IOException
+     */
+    public void export(GGroup document, String fileName, ProgressListener listener) throws IOException {
+        final Path file = Paths.get(fileName).toAbsolutePath();
+        final Path tmp = createTempFile(file);
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                export(document, channel, listener);
+            }
+            if ( stopped) return;
+            // keep the permissions of the replaced file
+            final PosixFileAttributeView view = Files.getFileAttributeView(file, PosixFileAttributeView.class);
+            if ( (view != null) && Files.exists(file))
+                Files.setPosixFilePermissions(tmp, view.readAttributes().permissions());
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch ( AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * @param file
+     * @return a new empty file near <i>file</i>, created with the default permissions of a new file
+     *         (Files.createTempFile() makes it readable by its owner only)
+     * @throws IOException
+     */
+    private static Path createTempFile(Path file) throws IOException {
+        for( int i = 0; ; i++) {
+            final Path tmp = file.resolveSibling("." + file.getFileName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+            try {
+                Files.newByteChannel(tmp, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW).close();
+                return tmp;
+            } catch ( FileAlreadyExistsException e) {
+                if ( i == 100) throw e;
+            }
+        }
+    }
+
+    /**
+     * Render <i>document</i> into <i>channel</i> (that is not closed).
+     * @param document the document to render
+     * @param channel where to write the G-Code lines
+     * @param listener to follow the job (can be null)
+     * @throws IOException
+     */
+    public void export(GGroup document, WritableByteChannel channel, ProgressListener listener) throws IOException {
+        stopped = false;
+        parallelChunks = sequentialChunks = 0;
+
+        try {
+            mainRender = new BufferedRender(this, new ParserState(), channel);
+            mainRender.sendHeader();
+
+            if ( (parallelism < 2) || ! document.isEnabled() || document.properties.isAllAtOnce()) {
+                // nothing to share between threads
+                mainRender.sendGroup(document, new EngravingProperties(conf), true);
+                sequentialChunks++;
+                if ( listener != null) listener.chunkWritten(1, 1);
+            } else
+                exportContent(document, listener);
+
+            mainRender.sendFooter();
+            mainRender.flush();
+        } finally {
+            mainRender = null;
+        }
+    }
+
+    /**
+     * Render all elements of the document (as GCodeDocumentRender.sendGroup() does in normal sequential mode).
+     */
+    private void exportContent(GGroup document, ProgressListener listener) throws IOException {
+        EngravingProperties props = EngravingProperties.udateHeritedProps(new EngravingProperties(conf), document.properties);
+        final EngravingProperties groupProps = EngravingProperties.udateHeritedProps(props, document.properties);
+        final ArrayList<GElement> elements = document.getAll();
+        final ArrayList<Future<ChunkRender>> chunks = new ArrayList<>(elements.size());
+
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, (r) -> {
+            Thread t = new Thread(r, "GCodeExportThread");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            for( int i = 0; (i < elements.size()) && ! stopped; i++) {
+                // keep a few chunks rendered in advance (without holding the whole file in memory)
+                while ( (chunks.size() < elements.size()) && (chunks.size() < i + 2 * parallelism)) {
+                    final GElement e = elements.get(chunks.size());
+                    if ( containsPocket3D(e))
+                        // its passes depend on the Z start of previous elements
+                        chunks.add(CompletableFuture.completedFuture(null));
+                    else
+                        chunks.add(pool.submit(() -> {
+                            ChunkRender chunk = new ChunkRender(this);
+                            chunk.sendChild(document, e, groupProps);
+                            chunk.close();
+                            return chunk;
+                        }));
+                }
+
+                ChunkRender chunk = chunks.set(i, null).get();
+                if ( (chunk != null) && chunk.writeInto(mainRender))
+                    parallelChunks++;
+                else {
+                    mainRender.sendChild(document, elements.get(i), groupProps);
+                    sequentialChunks++;
+                }
+                if ( listener != null) listener.chunkWritten(i+1, elements.size());
+            }
+        } catch ( InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export interrupted", e);
+        } catch ( ExecutionException e) {
+            if ( e.getCause() instanceof IOException) throw (IOException)e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static boolean containsPocket3D(GElement e) {
+        if ( e instanceof GPocket3D) return true;
+        if ( e instanceof GGroup)
+            return ((GGroup)e).toArray().stream().anyMatch((el) -> (el instanceof GPocket3D));
+        return false;
+    }
+
+    private static void write(WritableByteChannel channel, ByteBuffer bytes) throws IOException {
+        while ( bytes.hasRemaining()) channel.write(bytes);
+    }
+
+    /**
+     * A renderer that writes its lines into a buffer (flushed into <i>channel</i> if not null).
+     */
+    static class BufferedRender extends GCodeDocumentRender {
+        final GCodeExportEngine engine;
+        final StringBuilder buffer = new StringBuilder(BUFFER_SIZE + 256);
+        final WritableByteChannel channel;
+        /** Don't keep lines (but update the parser state). */
+        boolean discard;
+
+        BufferedRender(GCodeExportEngine engine, ParserState state, WritableByteChannel channel) {
+            super(engine.conf, null);
+            this.engine = engine;
+            this.laserMode = engine.laserMode;
+            this.state = state;
+            this.channel = channel;
+        }
+
+        @Override
+        void output(String cmd) throws IOException {
+            if ( engine.stopped) stopThread = true;
+            if ( discard) return;
+            buffer.append(cmd).append('\n');
+            if ( (channel != null) && (buffer.length() > BUFFER_SIZE)) flush();
+        }
+
+        /** Write pending lines into the channel. */
+        void flush() throws IOException {
+            if ( buffer.length() == 0) return;
+            GCodeExportEngine.write(channel, encodeBuffer());
+        }
+
+        /** Write pending lines then <i>bytes</i> into the channel. */
+        void write(ByteBuffer bytes) throws IOException {
+            flush();
+            GCodeExportEngine.write(channel, bytes);
+        }
+
+        /** @return the content of the buffer encoded, and clear the buffer. */
+        ByteBuffer encodeBuffer() {
+            ByteBuffer res = CHARSET.encode(CharBuffer.wrap(buffer));
+            buffer.setLength(0);
+            return res;
+        }
+
+        @Override
+        void updateGUI() { }
+    }
+
+    /**
+     * Render of one top level element into memory.
+     */
+    static class ChunkRender extends BufferedRender {
+        final TrackingParserState tracker;
+        /** The lines before and after the deferred move. */
+        ByteBuffer head, tail;
+
+        /** The first safeMoveTo() parameters, it can't be done without previous position. */
+        GCode deferredDestination;
+        double deferredZLevel, deferredSafeZ;
+        /** The states set before the deferred move. */
+        boolean[] headWritten;
+        GWord[] headStates;
+        /** The position used to render the lines after the deferred move. */
+        double xAfterMove, yAfterMove;
+
+        boolean zStartWritten;
+
+        ChunkRender(GCodeExportEngine engine) {
+            super(engine, new TrackingParserState(), null);
+            tracker = (TrackingParserState)state;
+        }
+
+        @Override
+        void safeMoveTo(GCode destinationXYPoint, double zLevelDestination, double moveAtZSafeheight) throws IOException {
+            if ( Double.isNaN(zLevelDestination) || Double.isNaN(moveAtZSafeheight) ||
+                 (tracker.isKnown(ParserState.X) && tracker.isKnown(ParserState.Y))) {
+                super.safeMoveTo(destinationXYPoint, zLevelDestination, moveAtZSafeheight);
+                return;
+            }
+
+            // The position is given by previous elements : let writeInto() do this move
+            headWritten = tracker.written.clone();
+            headStates = tracker.getStates();
+            head = encodeBuffer();
+            deferredDestination = destinationXYPoint;
+            deferredZLevel = zLevelDestination;
+            deferredSafeZ = moveAtZSafeheight;
+
+            // update our state as if the head had to move
+            tracker.states[ParserState.X] = tracker.states[ParserState.Y] = null;
+            discard = true;
+            super.safeMoveTo(destinationXYPoint, zLevelDestination, moveAtZSafeheight);
+            discard = false;
+            xAfterMove = tracker.getX();
+            yAfterMove = tracker.getY();
+        }
+
+        @Override
+        void setCurrentZStart(double zStart) {
+            super.setCurrentZStart(zStart);
+            zStartWritten = true;
+        }
+
+        /** Called at the end of the rendering. */
+        void close() {
+            if ( head == null) head = encodeBuffer();
+            else tail = encodeBuffer();
+        }
+
+        /**
+         * Write this chunk after the content already rendered by <i>render</i>, and update its states.
+         * @param render
+         * @return false if this chunk depends on previous elements (and must be rendered again with <i>render</i>)
+         * @throws IOException
+         */
+        boolean writeInto(BufferedRender render) throws IOException {
+            if ( tracker.dependsOnEntry ||
+                (tracker.readsEntryDistance && (render.state.states[ParserState.DISTANCE].value == 91))) return false;
+
+            if ( deferredDestination != null) {
+                ParserState s = render.state.clone();
+                TrackingParserState.overlay(s, headWritten, headStates);
+
+                GCode dest = new GCode(0, deferredDestination.getX(), deferredDestination.getY());
+                if ( ! needXYMoveTo(s.getGXYPositon(), dest) && ((s.getX() != xAfterMove) || (s.getY() != yAfterMove)))
+                    // no move and position not exactly the same as the one used to render the tail
+                    return false;
+
+                render.write(head);
+                render.state = s;
+                render.safeMoveTo(deferredDestination, deferredZLevel, deferredSafeZ);
+                render.write(tail);
+            } else
+                render.write(head);
+
+            TrackingParserState.overlay(render.state, tracker.written, tracker.states);
+            if ( zStartWritten) render.setCurrentZStart(currentZStart);
+            return true;
+        }
+    }
+
+    /**
+     * A parser state that knows which states have been set since its creation.
+     */
+    static class TrackingParserState extends ParserState {
+        final boolean[] written = new boolean[DEFAULT_GRBL_PARSER_STATE.length];
+        /** A coordinate has been set without knowing the distance mode. */
+        boolean readsEntryDistance;
+        /** A relative move has been done from an unknown position. */
+        boolean dependsOnEntry;
+
+        @Override
+        public boolean set(GWord w) {
+            final int type = getValueType(w);
+            if ( type == UNKNOW) return false;
+
+            if ( type >= X) {
+                if ( ! written[DISTANCE]) readsEntryDistance = true;
+                else if ( (states[DISTANCE].value == 91) && ! written[type]) dependsOnEntry = true;
+            }
+            written[type] = true;
+            return super.set(w);
+        }
+
+        boolean isKnown(int type) {
+            return written[type];
+        }
+
+        /** @return a copy of all states. */
+        GWord[] getStates() {
+            GWord[] res = new GWord[states.length];
+            for( int i = 0; i < states.length; i++)
+                if ( states[i] != null) res[i] = states[i].clone();
+            return res;
+        }
+
+        /**
+         * Set the written states into <i>target</i>.
+         */
+        static void overlay(ParserState target, boolean[] written, GWord[] states) {
+            for( int i = 0; i < written.length; i++)
+                if ( written[i]) target.states[i] = (states[i] == null) ? null : states[i].clone();
+        }
+    }
+}
@@ -36,6 +36,16 @@ public abstract class GFont {
     }
     
     abstract public GGroup getTextPaths( String text);
+    
+    /**
+     * @param text
+     * @return the text made of instances of the glyphs (see GInstance) : fast to build and to transform,
+     * the real paths are made only when they are needed.
+     */
+    public GGroup getTextInstances( String text) {
+        return getTextPaths(text);
+    }
+    
     abstract public void painText( PaintContext pc, int x, int y, String text);
     
     /** 
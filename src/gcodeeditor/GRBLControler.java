@@ -34,11 +34,13 @@ import com.fazecast.jSerialComm.SerialPortEvent;
 import com.fazecast.jSerialComm.SerialPortInvalidPortException;
 
 import java.awt.geom.Point2D;
+import java.io.BufferedInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.net.Socket;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Locale;
@@ -47,6 +49,7 @@ import java.util.Queue;
 import java.util.TooManyListenersException;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.swing.SwingUtilities;
@@ -177,10 +180,12 @@ public class GRBLControler implements Runnable,
     /** Realtime GRBL states. */
     int grblState = GRBL_STATE_DISCONNECTED;
     
-    int grblBufferFree = 128, grblBufferSize=128, grblSpindle, grblFeed;
+    int grblBufferSize=128, grblSpindle, grblFeed;
+    /** Free space of the GRBL RX buffer, updated by the sender and the reader threads. */
+    final AtomicInteger grblBufferFree = new AtomicInteger(128);
     
     /** Contains all the ligne sended to GRBL that have not been executed (no <i>ok</i> returned). */
-    ArrayList<String> grblBufferContent = new ArrayList<>();
+    final Queue<String> grblBufferContent = new ConcurrentLinkedQueue<>();
     
     /** Realtime GRBL positions. */
     Point3D grblMPos, grblWCO, grblWPos;
@@ -189,7 +194,9 @@ public class GRBLControler implements Runnable,
     HashMap<Integer,Point3D> grblWCOValues = new HashMap<>(9,1f);
     TreeMap<Integer, Double> grblSettings = new TreeMap<>();
     
-    boolean stopGRBLSenderThread;
+    volatile boolean stopGRBLSenderThread;
+    /** True while disconnect() waits the end of the sender (no new sender can start). */
+    private boolean disconnecting;
     String grblVersion, grblAccessory = "", grblOptions = "";
     
     /** Realtime GRBL Override values. */
@@ -220,7 +227,7 @@ public class GRBLControler implements Runnable,
     /** Thread that ask GRBL status each second when connected. */
     private Thread grblUpdateThread;
     /** If not null, a thread is sending commands actualy (or is waiting for GRBL to do it). */
-    private Thread cmdSenderThread;
+    private volatile Thread cmdSenderThread;
     
     /** The serial port for Arduino/GRBL comunication */
     
@@ -228,6 +235,16 @@ public class GRBLControler implements Runnable,
     //BufferedReader serialReader; // RXTX
     
     private SerialPort commPort;
+    
+    /** Prefix of a port name to join GRBL through TCP (an emulator or a serial bridge) : "socket://host:port" */
+    public static final String SOCKET_PORT_PREFIX = "socket://";
+    
+    /** Not null if connected to GRBL through TCP. */
+    private Socket commSocket;
+    /** true if connected to GRBL through streams instead of a serial port. */
+    private volatile boolean streamOpen;
+    /** Thread that read lines from GRBL when connected through streams. */
+    private Thread streamReaderThread;
 
     InputStream serialIn;
     OutputStream serialOut;
@@ -255,9 +272,18 @@ public class GRBLControler implements Runnable,
                                                         TooManyListenersException, IOException {
         
         try {
-            if (commPort != null) disconnect(true);           
+            if ( isComOpen()) disconnect(true);           
 
             if ( portName != null) {
+                if ( portName.startsWith(SOCKET_PORT_PREFIX)) {
+                    String hostPort[] = portName.substring(SOCKET_PORT_PREFIX.length()).split(":");
+                    Socket s = new Socket(hostPort[0], Integer.parseInt(hostPort[1]));
+                    s.setTcpNoDelay(true);
+                    connect(portName, s.getInputStream(), s.getOutputStream());
+                    commSocket = s;
+                    return true;
+                }
+                
                 commPort = SerialPort.getCommPort(portName);
                 commPort.setComPortParameters(115200, 8, 1, SerialPort.NO_PARITY);
                 commPort.setComPortTimeouts(SerialPort.TIMEOUT_NONBLOCKING, 0, 0);
@@ -269,31 +295,81 @@ public class GRBLControler implements Runnable,
                 serialOut =  commPort.getOutputStream();
                            
                 serialWriter = new PrintStream(serialOut);
-
-                grblUpdateThread = new Thread( () -> {
-                        do {
-                            sendRTCmd('?');
-                            try { Thread.sleep(1000); } catch (InterruptedException ex) { }
-                            
-                        } while( serialWriter != null );
-                    }, "grblUpdateStatusSenderThread");
-                grblUpdateThread.start();
-
+                startStatusUpdateThread();
                 setState(GRBL_STATE_INIT);
                 return true; 
             }
             
-        } catch ( SerialPortInvalidPortException | IOException ex) {            
+        } catch ( SerialPortInvalidPortException | IOException | NumberFormatException | ArrayIndexOutOfBoundsException ex) {            
             listeners.forEach((li) -> {
                 li.receivedMessage("COM: Can't connect to '" + portName + "' (" + ex.toString() + ")");
             });
             
             commPort = null;
-            throw ex;
+            if ( ex instanceof IOException) throw (IOException)ex;
+            throw new IOException("Bad port name : " + portName, ex);
         }
         return false;
     }
     
+    /**
+     * Connect to GRBL through already opened streams (a TCP socket, a local GRBL emulator...).
+     * @param name the name of the connection (used in messages)
+     * @param in the stream to read GRBL answers
+     * @param out the stream to send commands to GRBL
+     */
+    public void connect(String name, InputStream in, OutputStream out) {
+        if ( isComOpen()) disconnect(true);
+        
+        serialIn = new BufferedInputStream(in);
+        serialOut = out;
+        serialWriter = new PrintStream(serialOut);
+        streamOpen = true;
+        
+        final InputStream reader = serialIn;
+        streamReaderThread = Thread.ofVirtual().name("grblStreamReaderThread").unstarted( () -> {
+                StringBuilder line = new StringBuilder();
+                try {
+                    int c;
+                    while ( streamOpen && ((c = reader.read()) != -1)) {
+                        if ( c != '\n') line.append((char)c);
+                        else {
+                            String l = line.toString().trim();
+                            line.setLength(0);
+                            if ( ! l.isEmpty()) 
+                                try {
+                                    processReceivedLine(l);
+                                } catch ( Exception e) {
+                                    e.printStackTrace();
+                                }
+                        }
+                    }
+                } catch ( IOException ex) { }
+                
+                if ( streamOpen && (reader == serialIn)) {
+                    listeners.forEach((li) -> { li.receivedMessage("COM: '" + name + "' closed"); });
+                    disconnect(true);
+                }
+            });
+        streamReaderThread.start();
+        
+        startStatusUpdateThread();
+        setState(GRBL_STATE_INIT);
+    }
+    
+    /** Start the thread that ask GRBL status each second. */
+    private void startStatusUpdateThread() {
+        final PrintStream writer = serialWriter;
+        grblUpdateThread = Thread.ofVirtual().name("grblUpdateStatusSenderThread").unstarted( () -> {
+                do {
+                    sendRTCmd('?');
+                    try { Thread.sleep(1000); } catch (InterruptedException ex) { }
+
+                } while( (serialWriter != null) && (serialWriter == writer) );
+            });
+        grblUpdateThread.start();
+    }
+    
     
     /** Return all serial ports available to connet to Artuino.
      * @return  the list of available serials ports */
@@ -321,9 +397,10 @@ public class GRBLControler implements Runnable,
      * Eventualy start Thread to send new commands to GRBL if it was stopped.
      */
     private synchronized void restartSenderThread() {
+        if ( disconnecting) return;
         if ( cmdSenderThread == null ) { // start sender
             stopGRBLSenderThread = false;
-            cmdSenderThread = new Thread( this , "GRBLSenderThread");
+            cmdSenderThread = Thread.ofVirtual().name("GRBLSenderThread").unstarted(this);
             cmdSenderThread.start();
             //System.out.println("SenderThread started ("+senderThread+")");
         }
@@ -355,15 +432,15 @@ public class GRBLControler implements Runnable,
                 gcodeDebugFileLogger.write(s);
             
             if (isComOpen()) {
-                if ( s.length() > grblBufferFree) {
-                    while ( ! stopGRBLSenderThread && (s.length() > grblBufferFree)) {
+                if ( s.length() > grblBufferFree.get()) {
+                    while ( ! stopGRBLSenderThread && (s.length() > grblBufferFree.get())) {
                         try { Thread.sleep(10); } catch (InterruptedException ex) { }
                     }
                 } 
                 
                 if ( stopGRBLSenderThread) return;                              
                 grblBufferContent.add(s);
-                grblBufferFree -= s.length();
+                grblBufferFree.addAndGet(-s.length());
                 synchronized (serialOut) {
                     serialWriter.print(s);
                     serialWriter.flush();
@@ -540,13 +617,20 @@ public class GRBLControler implements Runnable,
         int s = 0;
         for ( String c : grblCmdQueue) s += c.length();
                 
-        return (grblBufferFree > (s + cmd.length()));
+        return (grblBufferFree.get() > (s + cmd.length()));
     }
     
     public int getWaitingCommandQueueSize() {
         return grblCmdQueue.size();
     }
     
+    /**
+     * @return the number of lines sent to GRBL and not yet acknowledged
+     */
+    public int getSentCommandCount() {
+        return grblBufferContent.size();
+    }
+    
     /**
      * @return thue if the controler and GRBL do nothing.
      */
@@ -568,7 +652,7 @@ public class GRBLControler implements Runnable,
     private void clearCmdQueue() {
         grblCmdQueue.clear();
         // grblBufferContent.clear(); // don't clear sended content here (perhaps only after reset) !
-        grblBufferFree = grblBufferSize;
+        grblBufferFree.set(grblBufferSize);
     }
     
     /** Update grblSettings map.
@@ -762,7 +846,7 @@ public class GRBLControler implements Runnable,
      * @return true if serial port is open.
      */
     public boolean isComOpen() {
-        return ( (commPort != null)
+        return streamOpen || ( (commPort != null)
                 && commPort.isOpen()    // jSerialComm
                 );
     }
@@ -781,14 +865,24 @@ public class GRBLControler implements Runnable,
     @SuppressWarnings("SleepWhileInLoop")
     public void disconnect(boolean forceClose) {
         clearCmdQueue();
-        if ( commPort == null) return;    
+        if ( (commPort == null) && ! streamOpen) return;    
         
-        stopGRBLSenderThread = true;
-        if ( cmdSenderThread != null) {
-            cmdSenderThread.interrupt();
+        synchronized (this) {
+            disconnecting = true;
+            stopGRBLSenderThread = true;
+        }
+        try {
+            final Thread sender = cmdSenderThread;
+            if ( sender != null) {
+                sender.interrupt();
 
-            while ( cmdSenderThread != null ) 
-                try { Thread.sleep(100); } catch (InterruptedException ex) { }
+                while ( cmdSenderThread != null ) 
+                    try { Thread.sleep(100); } catch (InterruptedException ex) { }
+            }
+        } finally {
+            synchronized (this) {
+                disconnecting = false;
+            }
         }
         
         serialWriter.close();
@@ -802,6 +896,13 @@ public class GRBLControler implements Runnable,
         
         if ( (commPort != null) && forceClose && commPort.isOpen()) commPort.closePort(); // close();
         commPort = null;
+        if ( streamOpen) {
+            streamOpen = false;
+            if ( (streamReaderThread != null) && (streamReaderThread != Thread.currentThread())) streamReaderThread.interrupt();
+            streamReaderThread = null;
+            if ( commSocket != null) try { commSocket.close(); } catch (IOException ex) { }
+            commSocket = null;
+        }
         grblVersion = null;
         grblWCO = grblMPos = null;
         lastCorrectedDestination = lastTrueDestination = null;
@@ -847,108 +948,8 @@ public class GRBLControler implements Runnable,
             //case SerialPortEvent.DATA_AVAILABLE:    // avec RXTX
             case SerialPort.LISTENING_EVENT_DATA_AVAILABLE:   
                 
-                while ( (line = readLineFromSerialComm()) != null)  {
-                    Matcher m;
-                    String l = line;
-                    // Read ACK
-                    //String l = readLineFromSerialComm();// serialReader.readLine();
-                    try {
-                        for( GRBLCommListennerInterface li : listeners) 
-                                li.receivedLine(l);  
-                    } catch (Exception e) {
-                        System.err.println("GRBLCtrl.serialEvent: a listener has thrown an exception "+ e.getLocalizedMessage());
-                        e.printStackTrace();
-                    }
-            
-                    if( l.startsWith("<")) updateGRBLStatus( l);
-                    else if( l.startsWith(GRBL_INIT_STRING_HEADER)) {
-                        grblCmdQueue.clear();
-                        grblBufferContent.clear();
-                        grblBufferFree = grblBufferSize;
-                        grblParserState = new ParserState();    // reset parserState
-                        System.out.println("reset");
-                    } else if( l.startsWith("[VER:")) {
-                        if ( (grblVersion==null) || ! grblVersion.equals(l.substring(1, l.length()-1))) {
-                            grblVersion = l.substring(1, l.length()-1);
-                            if ( isSettingsReady())
-                                for( GRBLCommListennerInterface li : listeners) 
-                                    li.settingsReady();
-                        }
-                        
-                    } else if( l.startsWith("$")) updateGRBLSetting(l);
-                    
-                    else if (l.startsWith("[MSG:")) 
-                                for( GRBLCommListennerInterface li : listeners) 
-                                    li.receivedMessage(l.substring(5, l.length()-1));  
-                    
-                    else if ( l.startsWith("[OPT:")) {
-                        String f[] = (grblOptions=l.substring(1, l.length()-1).split(":")[1]).split(",");
-                        if ( f.length == 3) 
-                            grblBufferSize = Integer.parseInt(f[2])-3; // TODO: why -3 ??
-                        
-                    } else if ( l.startsWith("[GC:")) {
-                        grblGC = l.substring(4, l.length()-1);
-                        grblParserState.updateContextWith(new GCode(grblGC));
-                        
-                        
-                    } else if ( (m=WCO_PATTERN.matcher(l)).matches()) {
-                        final int gNum = Integer.parseInt(m.group(1));
-                        final Point3D p3d = new Point3D(m.group(2));
-                        grblWCOValues.put( gNum, p3d);
-                        // Use this as WCO ... is it good idea ?
-                        if ( (gNum==54) && (grblParserState.get(ParserState.COORDINATE).getIntValue() == 54))
-                            updateWCO( l.substring(1, l.length()-1).split(":")[1]);    
-                        
-                        if ( (gNum==30))
-                            SwingUtilities.invokeLater( () ->  { listeners.forEach(GRBLCommListennerInterface::stateChanged); });
-                        
-                    } else if ( l.startsWith("[TLO:")) {
-                        grblTLO = l.substring(1, l.length()-1).split(":")[1];
-                        grblParserState.updateTLO( grblTLO);
-                    
-                    } else if ( l.startsWith("[PRB:")) {
-                        grblPRB = l.substring(5, l.length()-1);
-                        listeners.forEach( (li) -> { li.probFinished(l.substring(1, l.length()-1)); });
-                        
-                    } else if ( l.startsWith("ALARM:")) {
-                        if ( grblState != GRBL_STATE_IDLE)
-                            lastCorrectedDestination = lastTrueDestination = null;
-                        
-                        grblParserState.reset();
-                        setState( GRBL_STATE_ALARM);
-                        listeners.forEach((li) -> {
-                            li.receivedAlarm(Integer.parseInt(l.split(":")[1])); 
-                        });
-
-                        clearCmdQueue(); 
-                    } 
-                    else if (l.startsWith("error:")) {
-                        // Clear GRBBParserState
-                        grblParserState.reset();
-                        String wrongLine = grblBufferContent.remove(0);
-                        grblBufferFree += wrongLine.length(); 
-                        listeners.forEach((li) -> {
-                            li.receivedError(Integer.parseInt(l.split(":")[1]), wrongLine);
-                        });
-                           
-                        if ( ! grblCmdQueue.isEmpty()) restartSenderThread();
-                    }
-
-                    else if ( l.equals("ok")) {
-                        if ( ! grblBufferContent.isEmpty()) {
-                            String s = grblBufferContent.remove(0);
-                            grblBufferFree += s.length(); 
-                            if ( grblBufferFree > grblBufferSize) grblBufferFree = grblBufferSize;
-                            //s = s.substring(0, s.length()-1);
-                            //System.err.println("OK for (" + s + ")  =>  free " + grblBufferFree);
-                        } else
-                            throw new Exception("GRBLComm.serialEvent() : 'ok' received but grblBufferContent is empty !!");
-                        
-                        if ( ! grblCmdQueue.isEmpty()) restartSenderThread();
-                    } else {
-                        System.err.println("serialEvent() : Unknow input [" + l + ']');
-                    }
-                }
+                while ( (line = readLineFromSerialComm()) != null)
+                    processReceivedLine(line);
                 break;
             default:
                 System.err.println("SerialEvent("+spe.getEventType()+")");
@@ -959,6 +960,110 @@ public class GRBLControler implements Runnable,
         }
     }  
    
+    /**
+     * Decode a line received from GRBL and update the controler states.
+     * @param l the line without '\n'
+     * @throws Exception 
+     */
+    private void processReceivedLine(final String l) throws Exception {
+        Matcher m;
+        try {
+            for( GRBLCommListennerInterface li : listeners) 
+                    li.receivedLine(l);  
+        } catch (Exception e) {
+            System.err.println("GRBLCtrl.processReceivedLine: a listener has thrown an exception "+ e.getLocalizedMessage());
+            e.printStackTrace();
+        }
+
+        if( l.startsWith("<")) updateGRBLStatus( l);
+        else if( l.startsWith(GRBL_INIT_STRING_HEADER)) {
+            grblCmdQueue.clear();
+            grblBufferContent.clear();
+            grblBufferFree.set(grblBufferSize);
+            grblParserState = new ParserState();    // reset parserState
+            System.out.println("reset");
+        } else if( l.startsWith("[VER:")) {
+            if ( (grblVersion==null) || ! grblVersion.equals(l.substring(1, l.length()-1))) {
+                grblVersion = l.substring(1, l.length()-1);
+                if ( isSettingsReady())
+                    for( GRBLCommListennerInterface li : listeners) 
+                        li.settingsReady();
+            }
+            
+        } else if( l.startsWith("$")) updateGRBLSetting(l);
+        
+        else if (l.startsWith("[MSG:")) 
+                    for( GRBLCommListennerInterface li : listeners) 
+                        li.receivedMessage(l.substring(5, l.length()-1));  
+        
+        else if ( l.startsWith("[OPT:")) {
+            String f[] = (grblOptions=l.substring(1, l.length()-1).split(":")[1]).split(",");
+            if ( f.length == 3) 
+                grblBufferSize = Integer.parseInt(f[2])-3; // TODO: why -3 ??
+            
+        } else if ( l.startsWith("[GC:")) {
+            grblGC = l.substring(4, l.length()-1);
+            grblParserState.updateContextWith(new GCode(grblGC));
+            
+            
+        } else if ( (m=WCO_PATTERN.matcher(l)).matches()) {
+            final int gNum = Integer.parseInt(m.group(1));
+            final Point3D p3d = new Point3D(m.group(2));
+            grblWCOValues.put( gNum, p3d);
+            // Use this as WCO ... is it good idea ?
+            if ( (gNum==54) && (grblParserState.get(ParserState.COORDINATE).getIntValue() == 54))
+                updateWCO( l.substring(1, l.length()-1).split(":")[1]);    
+            
+            if ( (gNum==30))
+                SwingUtilities.invokeLater( () ->  { listeners.forEach(GRBLCommListennerInterface::stateChanged); });
+            
+        } else if ( l.startsWith("[TLO:")) {
+            grblTLO = l.substring(1, l.length()-1).split(":")[1];
+            grblParserState.updateTLO( grblTLO);
+        
+        } else if ( l.startsWith("[PRB:")) {
+            grblPRB = l.substring(5, l.length()-1);
+            listeners.forEach( (li) -> { li.probFinished(l.substring(1, l.length()-1)); });
+            
+        } else if ( l.startsWith("ALARM:")) {
+            if ( grblState != GRBL_STATE_IDLE)
+                lastCorrectedDestination = lastTrueDestination = null;
+            
+            grblParserState.reset();
+            setState( GRBL_STATE_ALARM);
+            listeners.forEach((li) -> {
+                li.receivedAlarm(Integer.parseInt(l.split(":")[1])); 
+            });
+
+            clearCmdQueue(); 
+        } 
+        else if (l.startsWith("error:")) {
+            // Clear GRBBParserState
+            grblParserState.reset();
+            final String wrongLine = (grblBufferContent.isEmpty()) ? "" : grblBufferContent.poll();
+            grblBufferFree.addAndGet(wrongLine.length());
+            listeners.forEach((li) -> {
+                li.receivedError(Integer.parseInt(l.split(":")[1]), wrongLine);
+            });
+               
+            if ( ! grblCmdQueue.isEmpty()) restartSenderThread();
+        }
+
+        else if ( l.equals("ok")) {
+            if ( ! grblBufferContent.isEmpty()) {
+                String s = grblBufferContent.poll();
+                grblBufferFree.updateAndGet((f) -> Math.min(grblBufferSize, f + s.length()));
+                //s = s.substring(0, s.length()-1);
+                //System.err.println("OK for (" + s + ")  =>  free " + grblBufferFree);
+            } else
+                throw new Exception("GRBLComm.processReceivedLine() : 'ok' received but grblBufferContent is empty !!");
+            
+            if ( ! grblCmdQueue.isEmpty()) restartSenderThread();
+        } else {
+            System.err.println("processReceivedLine() : Unknow input [" + l + ']');
+        }
+    }
+   
     /**
      * Return current machine position.
      * WPOS = MPOS - WCO
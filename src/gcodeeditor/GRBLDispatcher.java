@@ -0,0 +1,582 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gcodeeditor;
+
+import gelements.G1Path;
+import gelements.GGroup;
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Drive several GRBL machines at once.<br>
+ *
+ * Each machine has its own GRBLControler (so its own sender and status threads) and a
+ * worker (all are virtual threads) that takes the first waiting job compatible with it (same laser mode,
+ * document inside its workspace, and optionaly the machine asked) when the machine is idle.<br>
+ * Documents are compiled with the configuration of the machine that runs them.
+ * <pre>
+ *   GRBLDispatcher d = new GRBLDispatcher();
+ *   d.addMachine("laser A4", "/dev/ttyUSB0");
+ *   d.addMachine("laser A3", "socket://localhost:2300");
+ *   d.addJob("logo", document, true, null);
+ * </pre>
+ * @author Clément
+ */
+public class GRBLDispatcher {
+
+    public static final int JOB_WAITING  = 0;
+    public static final int JOB_RUNNING  = 1;
+    public static final int JOB_DONE     = 2;
+    public static final int JOB_FAILED   = 3;
+    public static final int JOB_CANCELED = 4;
+    public static final String[] JOB_STATE_STR = { "Waiting", "Running", "Done", "Failed", "Canceled" };
+
+    /** Maximum number of lines pushed in advance into the queue of a GRBLControler. */
+    static final int SENDER_WINDOW = 32;
+
+    private final ArrayList<Machine> machines = new ArrayList<>();
+    private final ArrayList<Job> jobs = new ArrayList<>();
+    private final List<DispatcherListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean shutdown;
+    private int nextJobId = 1;
+    /** Used by the workers to wait for a change (a monitor would pin their virtual thread). */
+    private final ReentrantLock changeLock = new ReentrantLock();
+    private final Condition changed = changeLock.newCondition();
+    private long changes;
+
+    /**
+     * Used to follow the jobs and the machines.
+     */
+    public interface DispatcherListener {
+        /** Called when a job is added or has changed of state. */
+        void jobChanged(Job job);
+        /** Called when a machine has changed of state or of job. */
+        void machineChanged(Machine machine);
+    }
+
+    /**
+     * A document (or already compiled G-Code lines) to run on a machine.
+     */
+    public static class Job {
+        final int id;
+        final String name;
+        final GGroup document;
+        final boolean laserMode;
+        /** The name of the machine that must run this job, or null for any compatible machine. */
+        final String machineName;
+        List<String> lines;
+        volatile int state = JOB_WAITING;
+        volatile Machine machine;
+        volatile int linesSent;
+        volatile long startTime, endTime;
+        volatile String error;
+
+        Job(int id, String name, GGroup document, List<String> lines, boolean laserMode, String machineName) {
+            this.id = id;
+            this.name = name;
+            this.document = document;
+            this.lines = lines;
+            this.laserMode = laserMode;
+            this.machineName = machineName;
+        }
+
+        public int getId() { return id; }
+        public String getName() { return name; }
+        public int getState() { return state; }
+        public Machine getMachine() { return machine; }
+        public String getError() { return error; }
+        public int getLinesSent() { return linesSent; }
+        /** @return the number of lines of the job (0 if not already compiled) */
+        public int getLinesCount() { return (lines == null) ? 0 : lines.size(); }
+
+        /** @return the duration of the job in ms (until now if it is running) */
+        public long getDuration() {
+            if ( startTime == 0) return 0;
+            return ((endTime == 0) ? System.currentTimeMillis() : endTime) - startTime;
+        }
+
+        @Override
+        public String toString() {
+            return "job#" + id + " '" + name + "' " + JOB_STATE_STR[state] +
+                    ((state == JOB_RUNNING) ? " " + linesSent + "/" + getLinesCount() + " lines" : "") +
+                    ((error != null) ? " (" + error + ")" : "");
+        }
+    }
+
+    /**
+     * A GRBL machine managed by the dispatcher.
+     */
+    public class Machine {
+        final String name;
+        final Configuration conf;
+        final String portName;
+        final GRBLControler controler = new GRBLControler();
+        volatile Job job;
+        volatile boolean alarm;
+        /** Number of lines acknowledged by GRBL and of status reports received. */
+        final AtomicLong linesDone = new AtomicLong(), statusReports = new AtomicLong();
+        private volatile Thread worker;
+        /** Used to compute the throughput. */
+        private long sampleTime = System.nanoTime(), sampleLines;
+        private double linesPerSecond;
+
+        Machine(String name, Configuration conf, String portName) {
+            this.name = name;
+            this.conf = conf;
+            this.portName = portName;
+        }
+
+        public String getName() { return name; }
+        public GRBLControler getControler() { return controler; }
+        public Job getJob() { return job; }
+        public long getLinesDone() { return linesDone.get(); }
+        /** @return true if the worker of this machine still runs (until disconnection or shutdown) */
+        public boolean isWorking() { return (worker != null) && worker.isAlive(); }
+
+        /**
+         * @return true if this machine is connected and doesn't run a job
+         */
+        public boolean isReady() {
+            return (job == null) && controler.isConnected() && controler.isSettingsReady() &&
+                    controler.isControlerIdle();
+        }
+
+        /**
+         * @param j
+         * @return true if this machine can run <i>j</i>
+         */
+        public boolean accept(Job j) {
+            if ( (j.machineName != null) && ! j.machineName.equals(name)) return false;
+            if ( controler.isSettingsReady() && (j.laserMode != controler.isLaserMode())) return false;
+            if ( (j.document != null) && (conf.workspaceWidth > 0) && (conf.workspaceHeight > 0)) {
+                Rectangle2D r = j.document.getBounds();
+                if ( (r != null) && ((r.getWidth() > conf.workspaceWidth) || (r.getHeight() > conf.workspaceHeight)))
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return the number of lines acknowledged by second since the last call (sampled each second)
+         */
+        public synchronized double getLinesPerSecond() {
+            long now = System.nanoTime();
+            if ( now - sampleTime >= 1000000000L) {
+                long l = linesDone.get();
+                linesPerSecond = (l - sampleLines) * 1e9 / (now - sampleTime);
+                sampleLines = l;
+                sampleTime = now;
+            }
+            return linesPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return name + " [" + (controler.isComOpen() ? controler.getStateStr() : "Disconnected") + "] " +
+                    ((job != null) ? job + ", " : "") +
+                    String.format(Locale.ROOT, "%.1f lines/s", getLinesPerSecond());
+        }
+    }
+
+    /**
+     * Add a machine using a saved configuration and connect it.
+     * @param configurationName the name of the saved configuration (or Configuration.DEFAULT)
+     * @param portName the serial port or "socket://host:port"
+     * @return the new machine
+     * @throws IOException if the configuration doesn't exist or if the connection failed
+     */
+    public Machine addMachine(String configurationName, String portName) throws IOException {
+        Configuration conf = new Configuration();
+        if ( ! Configuration.DEFAULT.equals(configurationName) && ! conf.restore(configurationName))
+            throw new IOException("Unknown machine configuration : " + configurationName);
+        return addMachine(configurationName, conf, portName);
+    }
+
+    /**
+     * Add a machine and connect it.
+     * @param name the name of the machine
+     * @param conf its configuration
+     * @param portName the serial port or "socket://host:port"
+     * @return the new machine
+     * @throws IOException if the connection failed
+     */
+    public Machine addMachine(String name, Configuration conf, String portName) throws IOException {
+        final Machine m = new Machine(name, conf, portName);
+        m.controler.setBackLashValues(conf.backLashX, conf.backLashY, conf.backLashZ);
+        m.controler.setBackLashEnabled(conf.useBackLash);
+        m.controler.addListenner(new GRBLControler.GRBLCommListennerAdapter() {
+            @Override
+            public void receivedLine(String l) {
+                if ( l.equals("ok")) m.linesDone.incrementAndGet();
+                else if ( l.startsWith("<")) m.statusReports.incrementAndGet();
+            }
+            @Override
+            public void receivedAlarm(int alarmno) {
+                m.alarm = true;
+                wakeUp();
+            }
+            @Override
+            public void receivedError(int errono, String line) {
+                Job j = m.job;
+                if ( j != null) j.error = "error:" + errono + " on " + line.trim();
+            }
+            @Override
+            public void stateChanged() {
+                if ( m.controler.isIdle()) m.alarm = false;
+                wakeUp();
+                listeners.forEach((li) -> { li.machineChanged(m); });
+            }
+            @Override
+            public void settingsReady() {
+                wakeUp();
+            }
+        });
+
+        try {
+            m.controler.connect(portName, 115200);
+        } catch ( Exception ex) {
+            throw new IOException("Can't connect " + name + " to " + portName, ex);
+        }
+
+        synchronized (this) {
+            machines.add(m);
+        }
+        m.worker = Thread.ofVirtual().name("GRBLDispatcher-" + name).start(() -> { runMachine(m); });
+        return m;
+    }
+
+    /**
+     * Add a document to the queue.
+     * @param name the name of the job
+     * @param document the document (it is cloned)
+     * @param laserMode must run on a laser machine ?
+     * @param machineName the machine to use or null for any compatible one
+     * @return the new job
+     */
+    public Job addJob(String name, GGroup document, boolean laserMode, String machineName) {
+        return addJob( new Job(0, name, document.clone(), null, laserMode, machineName));
+    }
+
+    /**
+     * Add an already compiled G-Code to the queue.
+     * @param name the name of the job
+     * @param lines the G-Code lines
+     * @param laserMode must run on a laser machine ?
+     * @param machineName the machine to use or null for any compatible one
+     * @return the new job
+     */
+    public Job addJob(String name, List<String> lines, boolean laserMode, String machineName) {
+        return addJob( new Job(0, name, null, new ArrayList<>(lines), laserMode, machineName));
+    }
+
+    private Job addJob(Job j) {
+        final Job job;
+        synchronized (this) {
+            job = new Job(nextJobId++, j.name, j.document, j.lines, j.laserMode, j.machineName);
+            jobs.add(job);
+        }
+        wakeUp();
+        fireJobChanged(job);
+        return job;
+    }
+
+    /**
+     * Cancel a job, a running job is stopped (hold and soft reset of its machine).
+     * @param job
+     */
+    public void cancel(Job job) {
+        synchronized (this) {
+            if ( (job.state != JOB_WAITING) && (job.state != JOB_RUNNING)) return;
+            job.state = JOB_CANCELED;
+        }
+        wakeUp();
+        if ( job.machine == null) fireJobChanged(job);
+    }
+
+    /** Disconnect all the machines (running jobs are canceled). */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            for( Job j : jobs)
+                if ( (j.state == JOB_WAITING) || (j.state == JOB_RUNNING)) j.state = JOB_CANCELED;
+        }
+        wakeUp();
+        for( Machine m : getMachines()) {
+            if ( m.worker != null) try { m.worker.join(5000); } catch (InterruptedException ex) { }
+            m.controler.disconnect(true);
+        }
+    }
+
+    public synchronized ArrayList<Machine> getMachines() {
+        return new ArrayList<>(machines);
+    }
+
+    public synchronized ArrayList<Job> getJobs() {
+        return new ArrayList<>(jobs);
+    }
+
+    /**
+     * @return the number of jobs waiting for a machine
+     */
+    public synchronized int getWaitingJobsCount() {
+        return (int)jobs.stream().filter((j) -> j.state == JOB_WAITING).count();
+    }
+
+    /**
+     * @return true if no job is waiting or running
+     */
+    public synchronized boolean isFinished() {
+        return jobs.stream().noneMatch((j) -> (j.state == JOB_WAITING) || (j.state == JOB_RUNNING));
+    }
+
+    /**
+     * @return the number of lines acknowledged by second by all the machines
+     */
+    public double getThroughput() {
+        double res = 0;
+        for( Machine m : getMachines()) res += m.getLinesPerSecond();
+        return res;
+    }
+
+    /**
+     * @return a text with the state of the dispatcher and of each machine
+     */
+    public String getStatusReport() {
+        ArrayList<Machine> ms = getMachines();
+        int running = 0;
+        StringBuilder res = new StringBuilder();
+        for( Machine m : ms) {
+            if ( m.job != null) running++;
+            res.append("\n  ").append(m);
+        }
+        return String.format(Locale.ROOT, "%d machines, %d running, %d jobs waiting, %.1f lines/s",
+                    ms.size(), running, getWaitingJobsCount(), getThroughput()) + res;
+    }
+
+    public void addListener(DispatcherListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(DispatcherListener listener) {
+        listeners.remove(listener);
+    }
+
+    /** Wake up the workers waiting for a job. */
+    private void wakeUp() {
+        changeLock.lock();
+        try {
+            changes++;
+            changed.signalAll();
+        } finally {
+            changeLock.unlock();
+        }
+    }
+
+    private void fireJobChanged(Job job) {
+        listeners.forEach((li) -> { li.jobChanged(job); });
+    }
+
+    /** Worker of a machine : run compatible jobs until shutdown or disconnection. */
+    private void runMachine(Machine m) {
+        try {
+            Job job;
+            while ( (job = nextJobFor(m)) != null) {
+                try {
+                    runJob(m, job);
+                } finally {
+                    m.job = null;
+                    fireJobChanged(job);
+                    listeners.forEach((li) -> { li.machineChanged(m); });
+                }
+            }
+        } catch ( InterruptedException ex) { }
+    }
+
+    /** Wait for a compatible job when <i>m</i> is ready. */
+    private Job nextJobFor(Machine m) throws InterruptedException {
+        while ( ! shutdown && m.controler.isComOpen()) {
+            long seen;
+            changeLock.lock();
+            try {
+                seen = changes;
+            } finally {
+                changeLock.unlock();
+            }
+            Job j = takeJobFor(m);
+            if ( j != null) return j;
+            changeLock.lock();
+            try {
+                if ( changes == seen) changed.await(500, TimeUnit.MILLISECONDS);
+            } finally {
+                changeLock.unlock();
+            }
+        }
+        return null;
+    }
+
+    /** @return the first waiting job <i>m</i> can run now (it becomes its job) or null. */
+    private synchronized Job takeJobFor(Machine m) {
+        if ( shutdown || ! m.isReady() || m.alarm) return null;
+        for( Job j : jobs)
+            if ( (j.state == JOB_WAITING) && m.accept(j)) {
+                j.state = JOB_RUNNING;
+                j.machine = m;
+                m.job = j;
+                return j;
+            }
+        return null;
+    }
+
+    private void runJob(Machine m, Job job) throws InterruptedException {
+        final GRBLControler ctrl = m.controler;
+        job.startTime = System.currentTimeMillis();
+        fireJobChanged(job);
+        listeners.forEach((li) -> { li.machineChanged(m); });
+        try {
+            if ( job.lines == null) job.lines = compile(job.document, m.conf, job.laserMode);
+
+            for( String l : job.lines) {
+                while ( (job.state == JOB_RUNNING) && (ctrl.getWaitingCommandQueueSize() > SENDER_WINDOW)) {
+                    checkMachine(m);
+                    Thread.sleep(5);
+                }
+                if ( job.state != JOB_RUNNING) break;
+                ctrl.pushCmd(l);
+                job.linesSent++;
+            }
+
+            // wait until all lines are executed : all acknowledged then a new status report with Idle
+            long reports = -1;
+            while ( job.state == JOB_RUNNING) {
+                checkMachine(m);
+                if ( (ctrl.getWaitingCommandQueueSize() == 0) && (ctrl.getSentCommandCount() == 0)) {
+                    if ( reports == -1) reports = m.statusReports.get();
+                    else if ( (m.statusReports.get() > reports) && ctrl.isIdle()) break;
+                }
+                Thread.sleep(20);
+            }
+
+            if ( job.state == JOB_CANCELED) ctrl.holdAndReset();
+            else job.state = JOB_DONE;
+
+        } catch ( InterruptedException ex) {
+            if ( job.state == JOB_RUNNING) job.state = JOB_CANCELED;
+            throw ex;
+        } catch ( Throwable ex) { // Error are thrown by the G-Code render
+            job.error = ((ex instanceof IOException) && (ex.getMessage() != null)) ? ex.getMessage() : ex.toString();
+            job.state = JOB_FAILED;
+            if ( ctrl.isComOpen()) ctrl.holdAndReset();
+        } finally {
+            job.endTime = System.currentTimeMillis();
+        }
+    }
+
+    private static void checkMachine(Machine m) throws IOException {
+        if ( ! m.controler.isComOpen()) throw new IOException("connection lost");
+        if ( m.alarm) throw new IOException("alarm");
+    }
+
+    /**
+     * Render a document into G-Code lines.
+     * @param document
+     * @param conf the configuration of the machine that will run it
+     * @param laserMode
+     * @return the lines of the program
+     * @throws IOException
+     */
+    static List<String> compile(GGroup document, Configuration conf, boolean laserMode) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new GCodeExportEngine(conf, laserMode).export(document, Channels.newChannel(bytes), null);
+        ArrayList<String> res = new ArrayList<>();
+        for( String l : bytes.toString(Charset.defaultCharset()).split("\n"))
+            if ( ! l.isBlank()) res.add(l.trim());
+        return res;
+    }
+    /**
+     * Check the dispatcher without hardware : run jobs on local GRBL emulators (half of them lasers)
+     * and verify that every job is done by a compatible machine.<br>
+     * Usage : <i>java -cp vge.jar gcodeeditor.GRBLDispatcher [nbMachines] [nbJobs]</i>
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        final int nbMachines = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+        final int nbJobs = (args.length > 1) ? Integer.parseInt(args[1]) : 3 * nbMachines;
+        final ArrayList<GRBLEmulator> emulators = new ArrayList<>();
+        final GRBLDispatcher d = new GRBLDispatcher();
+        final Configuration conf = new Configuration();
+        for( int i = 0; i < nbMachines; i++) {
+            GRBLEmulator emu = new GRBLEmulator("emu" + i, (i % 2) == 0);
+            emu.setSpeedFactor(50);
+            emulators.add(emu);
+            d.addMachine("emu" + i, conf, emu.getPortName());
+        }
+
+        long nbLines = 0;
+        for( int i = 0; i < nbJobs; i++) {
+            final boolean laser = (i % 2) == 0;
+            if ( i % 3 == 0) {
+                GGroup doc = new GGroup("doc" + i);
+                doc.add( new G1Path("square" + i, new GCode(0, 0), new GCode(10 + i, 0)));
+                d.addJob("doc" + i, doc, laser, null);
+            } else {
+                ArrayList<String> lines = new ArrayList<>();
+                lines.add("G21 G90");
+                for( int n = 0; n < 100; n++) lines.add(String.format(Locale.ROOT, "G1 X%d Y%d F3000", n % 10, n / 10));
+                lines.add("G0 X0 Y0");
+                nbLines += lines.size();
+                d.addJob("lines" + i, lines, laser, null);
+            }
+        }
+
+        final long t = System.currentTimeMillis();
+        while ( ! d.isFinished() && (System.currentTimeMillis() - t < 120000)) {
+            Thread.sleep(1000);
+            System.out.println(d.getStatusReport());
+        }
+
+        int errors = 0;
+        for( Job j : d.getJobs()) {
+            if ( (j.state != JOB_DONE) || (j.machine == null) || (j.machine.controler.isLaserMode() != j.laserMode)) {
+                System.out.println("Error : " + j + " on " + ((j.machine == null) ? "no machine" : j.machine.name));
+                errors++;
+            }
+        }
+        long received = 0;
+        for( GRBLEmulator e : emulators) received += e.getLinesReceived();
+        if ( received < nbLines) {
+            System.out.println("Error : " + received + " lines received by the emulators, " + nbLines + " expected at least");
+            errors++;
+        }
+        System.out.println(String.format(Locale.ROOT, "%d jobs on %d machines in %d ms, %d lines received, %d error(s)",
+                nbJobs, nbMachines, System.currentTimeMillis() - t, received, errors));
+        d.shutdown();
+        for( GRBLEmulator e : emulators) e.close();
+        System.exit((errors == 0) ? 0 : 1);
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gcodeeditor;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A very simple GRBL 1.1 emulator listening on a local TCP port.<br>
+ *
+ * It answers to the commands used by GRBLControler ($I, $$, $#, $G, ?, realtime commands)
+ * and simulates the moves with a 15 blocks planner, so several machines can be driven
+ * without hardware : <pre>
+ *   GRBLEmulator emu = new GRBLEmulator("laser1", true);
+ *   controler.connect(emu.getPortName(), 115200);
+ * </pre>
+ * Only absolute/relative linear moves are simulated (arcs use their end point).
+ *
+ * @author Clément
+ */
+public class GRBLEmulator implements Runnable, Closeable {
+
+    public static final String VERSION = "1.1h.20190825";
+    public static final int PLANNER_BLOCKS = 15;
+    public static final int RX_BUFFER_SIZE = 128;
+    public static final double RAPID_RATE = 5000;
+
+    private static final Pattern WORD_PATTERN = Pattern.compile("([A-Z])\\s*([-+]?[0-9]*\\.?[0-9]+)");
+
+    private final String name;
+    private final boolean laserMode;
+    private final ServerSocket server;
+    private final Thread serverThread;
+
+    /** Moves are executed <i>speedFactor</i> times faster than a real machine. */
+    private volatile double speedFactor = 1;
+    private volatile boolean closed, hold;
+
+    /** Current client. */
+    private Socket client;
+    private PrintStream out;
+
+    /** Planned moves : { x, y, z, duration in ms }. */
+    private final BlockingQueue<double[]> planner = new ArrayBlockingQueue<>(PLANNER_BLOCKS);
+    private volatile boolean executing;
+    private Thread executorThread;
+
+    /** Planned position and modal states. */
+    private final double pos[] = { 0, 0, 0 };
+    /** Position of the last executed move. */
+    private final double executedPos[] = { 0, 0, 0 };
+    private boolean relative;
+    private int motion;
+    private double feed, spindle;
+    private long linesReceived;
+
+    /**
+     * Create an emulator listening on a free local port.
+     * @param name the machine name returned by $I
+     * @param laserMode value of the setting $32
+     * @throws IOException
+     */
+    public GRBLEmulator(String name, boolean laserMode) throws IOException {
+        this(name, laserMode, 0);
+    }
+
+    /**
+     * Create an emulator listening on <i>port</i> (0 to use a free port).
+     * @param name the machine name returned by $I
+     * @param laserMode value of the setting $32
+     * @param port the TCP port
+     * @throws IOException
+     */
+    public GRBLEmulator(String name, boolean laserMode, int port) throws IOException {
+        this.name = name;
+        this.laserMode = laserMode;
+        server = new ServerSocket(port, 1, InetAddress.getLoopbackAddress());
+        serverThread = new Thread(this, "GRBLEmulator-" + name);
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    /**
+     * @return the port name to use with GRBLControler.connect()
+     */
+    public String getPortName() {
+        return GRBLControler.SOCKET_PORT_PREFIX + "localhost:" + server.getLocalPort();
+    }
+
+    /**
+     * @param factor 1 for real time moves, 100 for moves 100 times faster, Double.POSITIVE_INFINITY for instantaneous moves.
+     */
+    public void setSpeedFactor(double factor) {
+        speedFactor = factor;
+    }
+
+    /**
+     * @return the number of G-Code lines received since the creation.
+     */
+    public long getLinesReceived() {
+        return linesReceived;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        synchronized (this) {
+            if ( client != null) client.close();
+        }
+    }
+
+    @Override
+    public void run() {
+        executorThread = new Thread(this::executeMoves, "GRBLEmulatorPlanner-" + name);
+        executorThread.setDaemon(true);
+        executorThread.start();
+
+        while ( ! closed) {
+            try (Socket s = server.accept()) {
+                synchronized (this) {
+                    client = s;
+                    out = new PrintStream(s.getOutputStream(), false);
+                }
+                s.setTcpNoDelay(true);
+                reset();
+                readCommands(new BufferedInputStream(s.getInputStream()));
+            } catch ( IOException ex) {
+                // client disconnected, wait for the next one
+            } finally {
+                synchronized (this) {
+                    client = null;
+                    out = null;
+                }
+            }
+        }
+        executorThread.interrupt();
+    }
+
+    private void readCommands(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ( ! closed && ((c = in.read()) != -1)) {
+            switch ( c) {
+                case '?':  send(getStatus()); break;
+                case '!':  hold = true; break;
+                case '~':  hold = false; break;
+                case 0x18: reset(); break;
+                case '\r': break;
+                case '\n':
+                    String l = line.toString().trim().toUpperCase();
+                    line.setLength(0);
+                    try {
+                        execute(l);
+                    } catch ( InterruptedException ex) {
+                        return;
+                    }
+                    break;
+                default:
+                    if ( c < 0x80) line.append((char)c);
+            }
+        }
+    }
+
+    /** Soft reset : clear the planner and send the welcome message. */
+    private void reset() {
+        planner.clear();
+        hold = false;
+        relative = false;
+        motion = 0;
+        send("\r\nGrbl 1.1h ['$' for help]");
+    }
+
+    private void execute(String l) throws InterruptedException {
+        linesReceived++;
+        if ( l.startsWith("$")) {
+            switch ( l) {
+                case "$I":
+                    send("[VER:" + VERSION + ":" + name + "]");
+                    send("[OPT:V," + PLANNER_BLOCKS + "," + RX_BUFFER_SIZE + "]");
+                    break;
+                case "$#":
+                    for( String g : new String[] { "54", "55", "56", "57", "58", "59", "28", "30", "92" })
+                        send("[G" + g + ":0.000,0.000,0.000]");
+                    send("[TLO:0.000]");
+                    send("[PRB:0.000,0.000,0.000:0]");
+                    break;
+                case "$G":
+                    send("[GC:G" + motion + " G54 G17 G21 G" + (relative ? 91 : 90) + " G94 M5 M9 T0 F" +
+                            (int)feed + " S" + (int)spindle + "]");
+                    break;
+                case "$$":
+                    final int settings[] = { 0,1,2,3,4,5,6,10,11,12,13,20,21,22,23,24,25,26,27,30,31,32,
+                                             100,101,102,110,111,112,120,121,122,130,131,132 };
+                    for( int s : settings)
+                        send("$" + s + "=" + getSetting(s));
+                    break;
+                default:
+                    // $X, $H, $C, ... : nothing to do
+            }
+            send("ok");
+            return;
+        }
+
+        // G-Code line
+        double dest[] = pos.clone();
+        boolean set[] = { false, false, false }, move = false;
+        Matcher m = WORD_PATTERN.matcher(l.replaceAll("\\([^)]*\\)|;.*", ""));
+        while ( m.find()) {
+            final double v = Double.parseDouble(m.group(2));
+            switch ( m.group(1).charAt(0)) {
+                case 'G':
+                    if ( v == 90) relative = false;
+                    else if ( v == 91) relative = true;
+                    else if ( (v >= 0) && (v <= 3) && (v == (int)v)) motion = (int)v;
+                    break;
+                case 'X': dest[0] = v; set[0] = move = true; break;
+                case 'Y': dest[1] = v; set[1] = move = true; break;
+                case 'Z': dest[2] = v; set[2] = move = true; break;
+                case 'F': feed = v; break;
+                case 'S': spindle = v; break;
+                default:
+            }
+        }
+        if ( move) {
+            if ( relative) 
+                for( int i = 0; i < 3; i++)
+                    if ( set[i]) dest[i] += pos[i];
+            double len = Math.sqrt((dest[0]-pos[0])*(dest[0]-pos[0]) + (dest[1]-pos[1])*(dest[1]-pos[1]) +
+                                   (dest[2]-pos[2])*(dest[2]-pos[2]));
+            double rate = ((motion == 0) || (feed <= 0)) ? RAPID_RATE : feed;
+            System.arraycopy(dest, 0, pos, 0, 3);
+            // like GRBL, 'ok' is sent when the block enters the planner
+            planner.put(new double[] { dest[0], dest[1], dest[2], len / rate * 60000 });
+        }
+        send("ok");
+    }
+
+    /** Execute planned moves (in its own thread). */
+    private void executeMoves() {
+        try {
+            while ( ! closed) {
+                double move[] = planner.take();
+                executing = true;
+                long duration = (long)(move[3] / speedFactor);
+                while ( hold || (duration > 0)) {
+                    Thread.sleep(hold ? 10 : Math.min(duration, 10));
+                    if ( ! hold) duration -= 10;
+                }
+                synchronized (this) {
+                    executedPos[0] = move[0];
+                    executedPos[1] = move[1];
+                    executedPos[2] = move[2];
+                }
+                executing = ! planner.isEmpty();
+            }
+        } catch ( InterruptedException ex) { }
+    }
+
+    private synchronized String getStatus() {
+        final String state = hold ? "Hold:0" : ((executing || ! planner.isEmpty()) ? "Run" : "Idle");
+        return String.format(Locale.ROOT, "<%s|MPos:%.3f,%.3f,%.3f|FS:%d,%d|WCO:0.000,0.000,0.000>",
+                    state, executedPos[0], executedPos[1], executedPos[2], (int)feed, (int)spindle);
+    }
+
+    private String getSetting(int num) {
+        switch ( num) {
+            case 0:   return "10";
+            case 1:   return "25";
+            case 10:  return "1";
+            case 11:  return "0.010";
+            case 12:  return "0.002";
+            case 30:  return "1000";
+            case 32:  return laserMode ? "1" : "0";
+            case 100: case 101: case 102: return "250.000";
+            case 110: case 111: case 112: return "500.000";
+            case 120: case 121: case 122: return "10.000";
+            case 130: case 131: case 132: return "200.000";
+            default:  return "0";
+        }
+    }
+
+    private synchronized void send(String l) {
+        if ( out != null) {
+            out.print(l + "\r\n");
+            out.flush();
+        }
+    }
+}
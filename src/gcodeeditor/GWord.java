@@ -42,6 +42,10 @@ public class GWord {
         NOEXP_NUMBER_FORMAT.setRoundingMode(RoundingMode.HALF_DOWN);
     }
     
+    /** Per thread copies of the formats above (DecimalFormat is not thread safe). */
+    private static final ThreadLocal<DecimalFormat> GCODE_FORMAT = ThreadLocal.withInitial(() -> (DecimalFormat)GCODE_NUMBER_FORMAT.clone());
+    private static final ThreadLocal<DecimalFormat> NOEXP_FORMAT = ThreadLocal.withInitial(() -> (DecimalFormat)NOEXP_NUMBER_FORMAT.clone());
+    
     /** can be ';' or '(' for text, or any other normal uppercase G-Code cmd letter */
     char letter = UNDEF;
     double value = Double.NaN;
@@ -182,7 +186,7 @@ public class GWord {
                 if ( Double.isNaN(value)) return "" + letter;
                 else if ( value==Double.POSITIVE_INFINITY) return "" + letter;
                 else if ( value==Double.NEGATIVE_INFINITY) return "" + letter;
-                else return "" + letter + (isIntValue(value)?Integer.toString((int)value):NOEXP_NUMBER_FORMAT.format(round(value)));
+                else return "" + letter + (isIntValue(value)?Integer.toString((int)value):NOEXP_FORMAT.get().format(round(value)));
         }
     }
     
@@ -208,7 +212,7 @@ public class GWord {
                     double v = (Math.round(round(value) * d))/d;
                     return "" + letter + 
                         (isIntValue(value)?""+(int)round(value):
-                                    GCODE_NUMBER_FORMAT.format(v));
+                                    GCODE_FORMAT.get().format(v));
                 }               
         }
     }
@@ -226,7 +230,16 @@ public class GWord {
         // round value to avoid 10En output
         double d = Math.pow(10, GCODE_NUMBER_FORMAT.getMaximumFractionDigits());
         double v = (Math.round(val * d))/d;
-        return GCODE_NUMBER_FORMAT.format(v);
+        return GCODE_FORMAT.get().format(v);
+    }
+    
+    /**
+     * Same as <i>GCODE_NUMBER_FORMAT.format(val)</i> but can be used by several threads at once.
+     * @param val
+     * @return the formated value
+     */
+    public static String formatGCodeNumber( double val) {
+        return GCODE_FORMAT.get().format(val);
     }
     
     public int getIntValue() {
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gcodeeditor;
+
+import gelements.G1Path;
+import gelements.GElement;
+import gelements.GGroup;
+import gelements.PolygonOffset;
+import gelements.PolylineSimplifier;
+import java.awt.Shape;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Command line mode : import files, apply some actions then render the G-Code into a file
+ * or stream it to GRBL, without loading any Swing/GUI class.
+ * <pre>
+ *   java -jar vge.jar --headless -c "laser A4" --laser --join 0.1 --optimize -o out.gcode draw.svg
+ * </pre>
+ * Actions are applied on the whole document in the order of the command line.
+ *
+ * @author Clément
+ */
+public class HeadlessBatch {
+
+    public static final String HEADLESS_OPTION = "--headless";
+
+    public static final String USAGE =
+            "Usage: java -jar vge.jar --headless [options] [actions] file...\n" +
+            "  files          SVG, DXF, G-Code or project files, imported into one document\n" +
+            "Options:\n" +
+            "  -c <name>      use the saved machine configuration <name>\n" +
+            "  --laser        render for a laser (no Z moves)\n" +
+            "  --threads <n>  number of threads used to render the G-Code\n" +
+            "  -o <file>      write the G-Code into <file>\n" +
+            "  --port <port>  stream the G-Code to GRBL (serial port or socket://host:port)\n" +
+            "  --zstart <z>   Z level of the first pass of the pockets (default 0)\n" +
+            "  --zend <z>     Z level of the last pass of the pockets (needed to mill pockets)\n" +
+            "  --depth <d>    depth of each pass of the pockets (default one pass)\n" +
+            "  --simplify-algorithm <dp|vw|distance>\n" +
+            "                 Douglas-Peucker (default), Visvalingam or the old distance filter\n" +
+            "Actions:\n" +
+            "  --join <tolerance>     join paths whose ends are closer than <tolerance>\n" +
+            "  --simplify <tolerance> remove the polyline points not needed to stay within <tolerance>\n" +
+            "  --optimize             reorder paths to shorten moves\n" +
+            "  --pocket <offset>      add a pocket into each closed shape (inner shapes are islands)\n" +
+            "  --offset <distance>    replace closed shapes by their offset cut path (negative for inner cut)";
+
+    private final Configuration conf = new Configuration();
+    private final ArrayList<String> files = new ArrayList<>();
+    private final ArrayList<String[]> actions = new ArrayList<>();
+    private GGroup document;
+    private boolean laserMode, laserModeSet;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private String outputFile, portName, confName = Configuration.DEFAULT;
+    /** Z levels of the pockets. */
+    private double zStart = Double.NaN, zEnd = Double.NaN, passDepth = Double.NaN;
+    /** Algorithm of --simplify, null for the distance filter. */
+    private PolylineSimplifier.Algorithm simplifyAlgorithm = PolylineSimplifier.Algorithm.DOUGLAS_PEUCKER;
+
+    /**
+     * @param args the command line arguments (without --headless)
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        int res;
+        try {
+            res = new HeadlessBatch().run(args);
+        } catch ( Throwable e) { // Error are thrown by the G-Code render
+            System.err.println("Error: " + e.getLocalizedMessage());
+            e.printStackTrace();
+            res = 2;
+        }
+        System.exit(res);
+    }
+
+    /**
+     * Execute the command line.
+     * @param args
+     * @return the exit code (0 if done)
+     * @throws Exception
+     */
+    public int run(String[] args) throws Exception {
+        if ( ! parseArguments(args)) {
+            System.err.println(USAGE);
+            return 1;
+        }
+        final long t0 = System.nanoTime();
+
+        if ( ! Configuration.DEFAULT.equals(confName) && ! conf.restore(confName)) {
+            System.err.println("Unknown machine configuration : " + confName);
+            return 1;
+        }
+
+        long t1 = System.nanoTime();
+        importFiles();
+        printStep("Import", t1);
+
+        for( String[] action : actions) {
+            t1 = System.nanoTime();
+            apply(action[0], (action.length > 1) ? Double.parseDouble(action[1]) : 0);
+            printStep(action[0].substring(2), t1);
+        }
+
+        if ( outputFile != null) {
+            t1 = System.nanoTime();
+            GCodeExportEngine engine = new GCodeExportEngine(conf, laserMode);
+            engine.setParallelism(threads);
+            engine.export(document, outputFile, null);
+            printStep("Render into " + outputFile + " (" + engine.getParallelChunksCount() + " parallel, "
+                        + engine.getSequentialChunksCount() + " sequential chunks)", t1);
+        }
+
+        int res = 0;
+        if ( portName != null) {
+            t1 = System.nanoTime();
+            res = stream();
+            printStep("Stream to " + portName, t1);
+        }
+
+        System.out.println(String.format(Locale.ROOT, "Total duration (ms) = %d", (System.nanoTime() - t0) / 1000000));
+        return res;
+    }
+
+    private boolean parseArguments(String[] args) {
+        try {
+            for( int i = 0; i < args.length; i++) {
+                switch ( args[i]) {
+                    case HEADLESS_OPTION: break;
+                    case "-c":        confName = args[++i]; break;
+                    case "--laser":   laserMode = laserModeSet = true; break;
+                    case "--threads": threads = Integer.parseInt(args[++i]); break;
+                    case "-o":        outputFile = args[++i]; break;
+                    case "--port":    portName = args[++i]; break;
+                    case "--zstart":  zStart = Double.parseDouble(args[++i]); break;
+                    case "--zend":    zEnd = Double.parseDouble(args[++i]); break;
+                    case "--depth":   passDepth = Math.abs(Double.parseDouble(args[++i])); break;
+                    case "--simplify-algorithm":
+                        switch ( args[++i]) {
+                            case "dp":       simplifyAlgorithm = PolylineSimplifier.Algorithm.DOUGLAS_PEUCKER; break;
+                            case "vw":       simplifyAlgorithm = PolylineSimplifier.Algorithm.VISVALINGAM; break;
+                            case "distance": simplifyAlgorithm = null; break;
+                            default:
+                                System.err.println("Unknown simplification algorithm : " + args[i]);
+                                return false;
+                        }
+                        break;
+                    case "--optimize":
+                        actions.add(new String[] { args[i] });
+                        break;
+                    case "--join":
+                    case "--simplify":
+                    case "--pocket":
+                    case "--offset":
+                        Double.parseDouble(args[i+1]);
+                        actions.add(new String[] { args[i], args[++i] });
+                        break;
+                    case "-h":
+                    case "--help":
+                        return false;
+                    default:
+                        if ( args[i].startsWith("-")) {
+                            System.err.println("Unknown option : " + args[i]);
+                            return false;
+                        }
+                        files.add(args[i]);
+                }
+            }
+        } catch ( ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            System.err.println("Bad argument : " + e.getLocalizedMessage());
+            return false;
+        }
+        if ( laserModeSet || (portName == null))
+            for( String[] a : actions)
+                if ( a[0].equals("--pocket") && ! laserMode && Double.isNaN(zEnd)) {
+                    System.err.println("--pocket needs --zend <z> (or --laser) to render the pockets");
+                    return false;
+                }
+        return ! files.isEmpty() && ((outputFile != null) || (portName != null));
+    }
+
+    private void importFiles() throws Exception {
+        DocumentImporter importer = new DocumentImporter(conf.minG1move);
+        for( String f : files) {
+            GGroup g;
+            final String name = f.toLowerCase();
+            if ( name.endsWith(".svg")) {
+                g = importer.readSVGfile(f);
+                if ( importer.getSVGError() != null)
+                    throw new Exception("Error while reading " + f, importer.getSVGError());
+            } else if ( name.endsWith(".dxf")) {
+                String[] l = f.split("/");
+                g = new GGroup(l[l.length-1], DocumentImporter.importDXF(f));
+                g.sort(null, true);
+            } else
+                g = DocumentImporter.importGCODE(f, null);
+
+            if ( document == null) document = g;
+            else document.add(g);
+        }
+    }
+
+    private void apply(String action, double param) {
+        switch ( action) {
+            case "--join":
+                document.joinElements(param);
+                break;
+            case "--simplify":
+                if ( simplifyAlgorithm == null)
+                    document.toArray().stream().filter((e) -> (e instanceof G1Path)).forEach((e) -> {
+                        e.removeByDistance(null, param);
+                    });
+                else
+                    System.out.println(G1Path.simplify(document.toArray(), simplifyAlgorithm, param) + " points removed");
+                break;
+            case "--optimize":
+                GGroup.moveLength = 0;
+                final double before = GGroup.getMovesLength(document.getAll(), new Point2D.Double());
+                document.sort(new Point2D.Double(), true);
+                System.out.println(String.format(Locale.ROOT, "Move length = %.1f (was %.1f)", GGroup.moveLength, before));
+                break;
+            case "--pocket":
+                makePockets(param);
+                break;
+            case "--offset":
+                makeOffsetCuts(param);
+                break;
+        }
+    }
+
+    /** Make a pocket into each closed shape that is not inside another one. */
+    private void makePockets(double offset) {
+        final ArrayList<GGroup> pockets = G1Path.makePockets(G1Path.getPocketIslands(getClosedElements()), offset, () -> false, (n) -> { });
+        for( GGroup rings : pockets)
+            if ( ! rings.isEmpty()) {
+                final GGroup g = G1Path.linkPocketRings(rings, 2 * offset);
+                (g.properties=new EngravingProperties()).setAllAtOnce(true);
+                if ( ! Double.isNaN(zEnd)) {
+                    final double start = Double.isNaN(zStart) ? Math.max(0, zEnd) : zStart;
+                    // same order as the GUI : the count is needed to validate the depth
+                    g.properties.setPassCount((Double.isNaN(passDepth) || (passDepth <= 0)) ? 1 :
+                                    Math.max(1, (int)Math.ceil((start - zEnd) / passDepth - 0.001)));
+                    g.properties.setZStart(start);
+                    g.properties.setZEnd(zEnd);
+                    if ( ! Double.isNaN(passDepth)) g.properties.setPassDepth(passDepth);
+                }
+                document.add(g);
+            }
+    }
+
+    /** Same as the GUI action ACTION_MAKE_OFFSET_CUT applied on all closed shapes, that are removed. */
+    private void makeOffsetCuts(double distance) {
+        final ArrayList<GElement> closed = getClosedElements();
+        if ( closed.isEmpty()) return;
+        final boolean inner = distance < 0;
+
+        final Shape area = PolygonOffset.getOffsetPath(closed, Math.abs(distance));
+        Rectangle2D r = null;
+        for ( GElement b : closed) {
+            if ( r == null) r = b.getBounds();
+            else r.add(b.getBounds());
+        }
+
+        ArrayList<GElement> res = new ArrayList<>();
+        for( GElement b : G1Path.makeElementsFromArea("cut", area))
+            if ( b.getBounds().contains(r) != inner) res.add(b);
+
+        for( GElement e : closed) document.getParent(e).remove(e);
+        if ( ! res.isEmpty()) document.add(new GGroup("cutPath", res));
+    }
+
+    private ArrayList<GElement> getClosedElements() {
+        ArrayList<GElement> res = new ArrayList<>();
+        document.toArray().stream().filter((e) -> (e.getFirstPoint() != null) && e.isClosed()).forEach(res::add);
+        return res;
+    }
+
+    /** Stream the document to GRBL and wait the end of the job. */
+    private int stream() throws Exception {
+        GRBLDispatcher dispatcher = new GRBLDispatcher();
+        try {
+            GRBLDispatcher.Machine m = dispatcher.addMachine(confName, conf, portName);
+            for( int i = 0; (i < 100) && ! m.getControler().isSettingsReady(); i++) Thread.sleep(100);
+            if ( ! m.getControler().isSettingsReady()) {
+                System.err.println("GRBL doesn't answer on " + portName);
+                return 3;
+            }
+            if ( ! laserModeSet) laserMode = m.getControler().isLaserMode();
+
+            GRBLDispatcher.Job job = dispatcher.addJob(document.getName(), document, laserMode, confName);
+            if ( ! m.accept(job)) {
+                dispatcher.cancel(job);
+                System.err.println("The machine can't run the document (laser mode $32 or workspace too small)");
+                return 4;
+            }
+            long lastReport = 0;
+            while ( ! dispatcher.isFinished()) {
+                Thread.sleep(100);
+                if ( ! dispatcher.isFinished() && (! m.getControler().isComOpen() || ! m.isWorking())) {
+                    dispatcher.cancel(job);
+                    System.err.println("Connection lost with " + portName + " : " + job);
+                    return 4;
+                }
+                if ( System.currentTimeMillis() - lastReport > 5000) {
+                    lastReport = System.currentTimeMillis();
+                    System.out.println(dispatcher.getStatusReport());
+                }
+            }
+            System.out.println(job + " (" + job.getLinesCount() + " lines in " + job.getDuration() + " ms)");
+            return (job.getState() == GRBLDispatcher.JOB_DONE) ? 0 : 4;
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    private void printStep(String step, long start) {
+        System.out.println(String.format(Locale.ROOT, "%s duration (ms) = %d  (%d elements, %d points)", step,
+                (System.nanoTime() - start) / 1000000, document.toArray().size(), document.getNbPoints()));
+    }
+}
@@ -18,6 +18,8 @@ package gcodeeditor;
 
 import gelements.GElement;
 import gelements.GGroup;
+import gelements.GInstance;
+import java.awt.geom.AffineTransform;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
@@ -26,6 +28,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.function.ObjDoubleConsumer;
 
 /**
  * Represent a Hershey type font
@@ -51,7 +54,11 @@ public class HersheyFont extends GFont {
      * @throws IOException 
      */
     public static HersheyFont getFont( Class<?> aClass, int index) throws IOException {
-        if ( HFONTS[index] == null) HFONTS[index] =  new HersheyFont(aClass, index);
+        if ( HFONTS[index] == null) {
+            final FontBundle b = FontBundle.getBundle();
+            final FontBundle.Font f = (b == null) ? null : b.getFont("Hershey;" + FONTS[index]);
+            HFONTS[index] = (f != null) ? new HersheyFont(f) : new HersheyFont(aClass, index);
+        }
         return HFONTS[index];
     }
     
@@ -66,6 +73,8 @@ public class HersheyFont extends GFont {
     }
    
     ArrayList<HersheyGlyph> glyphs;
+    /** The bundle font to read the missing glyphs from (or null) */
+    private FontBundle.Font bundleFont;
     
     public HersheyFont( Class<?> me, int fontNumber) throws IOException {
         this(me.getResourceAsStream("/fonts/hershey/" + FONTS[fontNumber] + ".jhf"));
@@ -83,26 +92,63 @@ public class HersheyFont extends GFont {
         in.close();
     }
     
+    /**
+     * Create a font whose glyphs are read from the bundle when used.
+     */
+    HersheyFont( FontBundle.Font font) {
+        bundleFont = font;
+        name = font.name;
+        glyphs = new ArrayList<>(font.getNbGlyphs());
+        for( int i = 0; i < font.getNbGlyphs(); i++) glyphs.add(null);
+    }
+    
+    /**
+     * @param ch the glyph index (letter - ' ')
+     * @return the glyph, read from the bundle if not done yet
+     */
+    synchronized HersheyGlyph getGlyph(int ch) {
+        HersheyGlyph g = glyphs.get(ch);
+        if ( g == null) glyphs.set(ch, g = bundleFont.getHersheyGlyph((char)(ch + ' ')));
+        return g;
+    }
+    
     public HersheyFont(File fromFile) throws FileNotFoundException, IOException {
         this( new FileInputStream(fromFile));
     }
     
-    @Override
-    public GGroup getTextPaths( String text) {
-        GGroup res = new GGroup(text);
+    /**
+     * Give the shared geometry of each visible glyph of the text with its position.
+     * @param text
+     * @param glyph called with the geometry (must not be modified) and its X position
+     */
+    private void layout( String text, ObjDoubleConsumer<GElement> glyph) {
         int x = 0;
         for( int i = 0; i < text.length(); i++) {
             int ch = text.charAt(i) - 32;
             if ( (ch >=0) && (glyphs.size() > ch)) {
-                HersheyGlyph g = glyphs.get(ch);
-                GElement gg = g.toGGroup(""+(char)(' '+ch));
-                if ( ! gg.isEmpty()) {
-                    gg.translate(x, 0);
-                    res.add( gg);
-                }
+                HersheyGlyph g = getGlyph(ch);
+                GElement gg = g.getGeometry();
+                if ( ! gg.isEmpty()) glyph.accept(gg, x);
                 x += g.getWidth();
             }
         }
+    }
+    
+    @Override
+    public GGroup getTextPaths( String text) {
+        final GGroup res = new GGroup(text);
+        layout(text, (g, x) -> {
+            final GElement gg = g.clone();
+            gg.translate(x, 0);
+            res.add( gg);
+        });
+        return res;
+    }
+    
+    @Override
+    public GGroup getTextInstances( String text) {
+        final GGroup res = new GGroup(text);
+        layout(text, (g, x) -> res.add( new GInstance(g, AffineTransform.getTranslateInstance(x, 0))));
         return res;
     }
    
@@ -111,7 +157,7 @@ public class HersheyFont extends GFont {
         for( int i = 0; i < text.length(); i++) {
             int ch = text.charAt(i) - 32;
             if ( (ch >=0) && (glyphs.size() > ch)) {
-                HersheyGlyph hg = glyphs.get(ch); 
+                HersheyGlyph hg = getGlyph(ch);
                 hg.paintGlyph(pc.g, pc.zoomFactor, x, y);
                 x += hg.getWidth();
             }
@@ -33,9 +33,10 @@ public class HersheyGlyph {
     public char letter;
     int id, nverts, leftpos, rightpos;
     ArrayList<ArrayList<Point>>paths;
-    GGroup ggroup;
+    private GElement geometry;
 
     public HersheyGlyph( char letter, String jhfLine ) {
+        this.letter = letter;
         id = getInt(jhfLine.substring(0, 5));
         nverts = getInt(jhfLine.substring(5, 8));
         leftpos = jhfLine.charAt(8) - 'R';
@@ -52,9 +53,25 @@ public class HersheyGlyph {
         }
     }  
     
-    public GElement toGGroup(String name) {
-        if ( ggroup == null) {
-            ggroup = new GGroup(name);
+    /**
+     * Create a glyph read from the font bundle.
+     */
+    HersheyGlyph( char letter, int id, int nverts, int leftpos, int rightpos, ArrayList<ArrayList<Point>> paths) {
+        this.letter = letter;
+        this.id = id;
+        this.nverts = nverts;
+        this.leftpos = leftpos;
+        this.rightpos = rightpos;
+        this.paths = paths;
+    }
+    
+    /**
+     * @return the paths of this glyph, made once and shared by all texts (must not be modified)
+     */
+    public synchronized GElement getGeometry() {
+        if ( geometry == null) {
+            final String name = "" + letter;
+            final GGroup ggroup = new GGroup(name);
             int n = 0;
             for( ArrayList<Point> p : paths) {
                 n++;
@@ -64,13 +81,19 @@ public class HersheyGlyph {
 
                 ggroup.add(path);
             }
+            if ( ggroup.size()==1) {
+                geometry = ggroup.get(0);
+                geometry.setName(name);
+            } else 
+                geometry = ggroup;
         }
-        if ( ggroup.size()==1) {
-            final GElement e = ggroup.get(0).clone();
-            e.setName(name);
-            return e;
-        } else 
-             return ggroup.clone();
+        return geometry;
+    }
+    
+    public GElement toGGroup(String name) {
+        final GElement e = getGeometry().clone();
+        e.setName(name);
+        return e;
     }
     
     private static int getInt(String substring) {
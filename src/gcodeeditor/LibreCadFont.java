@@ -20,7 +20,9 @@ package gcodeeditor;
 import gelements.GArc;
 import gelements.GElement;
 import gelements.GGroup;
+import gelements.GInstance;
 import gelements.G1Path;
+import java.awt.geom.AffineTransform;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
@@ -30,6 +32,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.function.ObjDoubleConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -67,6 +70,8 @@ public class LibreCadFont extends GFont {
     Pattern NAME_PAT = Pattern.compile("#\\s*Name\\s*:\\s*(.*)");
     private double letterSpacing = 3, wordSpacing = 7;
     private double ascent, descent;
+    /** The bundle font to read the missing glyphs from (or null) */
+    private FontBundle.Font bundleFont;
     
     /**
      * Load a LibreCadFont
@@ -88,10 +93,15 @@ public class LibreCadFont extends GFont {
     public static LibreCadFont getFont(Class<?> me, int fontNumber) throws IOException {    
         //loadAvailableFonts();
         if ( fontNumber > LIBRECAD_FONTS.length) return null;
-        if ( FONTS.get(fontNumber) == null)
-            FONTS.put( fontNumber, new LibreCadFont(LIBRECAD_FONTS[fontNumber], 
+        if ( FONTS.get(fontNumber) == null) {
+            final FontBundle b = FontBundle.getBundle();
+            final FontBundle.Font f = (b == null) ? null : b.getFont("LCAD;" + LIBRECAD_FONTS[fontNumber]);
+            if ( f != null) FONTS.put( fontNumber, new LibreCadFont(f));
+            else
+                FONTS.put( fontNumber, new LibreCadFont(LIBRECAD_FONTS[fontNumber], 
                             me.getResourceAsStream("/fonts/librecad/" 
                             + "/" + LIBRECAD_FONTS[fontNumber]+".lff")));
+        }
         
         return FONTS.get(fontNumber);
     }
@@ -198,6 +208,36 @@ public class LibreCadFont extends GFont {
     }
     
     
+    /**
+     * Create a font whose glyphs are read from the bundle when used.
+     */
+    LibreCadFont( FontBundle.Font font) {
+        bundleFont = font;
+        name = font.name;
+        letterSpacing = font.getLetterSpacing();
+        wordSpacing = font.getWordSpacing();
+        glyphs = new HashMap<>();
+    }
+    
+    /**
+     * @param code
+     * @return the glyph of this code (read from the bundle if not done yet) or null
+     */
+    synchronized Glyph getGlyph(int code) {
+        Glyph g = glyphs.get(code);
+        if ( (g == null) && (bundleFont != null) && ! glyphs.containsKey(code))
+            glyphs.put(code, g = bundleFont.getLibreCadGlyph(this, code));
+        return g;
+    }
+    
+    double getLetterSpacing() {
+        return letterSpacing;
+    }
+
+    double getWordSpacing() {
+        return wordSpacing;
+    }
+    
     public LibreCadFont(File fromFile) throws FileNotFoundException, IOException {
         this( "file|"+fromFile.getAbsolutePath(), new FileInputStream( fromFile));
     }
@@ -214,31 +254,47 @@ public class LibreCadFont extends GFont {
         return val;
     }
     
-    @Override
-    public GGroup getTextPaths( String text) {
-        GGroup res = new GGroup(text);
+    /**
+     * Give the shared geometry of each visible glyph of the text with its position.
+     * @param text
+     * @param glyph called with the geometry (must not be modified) and its X position
+     */
+    private void layout( String text, ObjDoubleConsumer<GElement> glyph) {
         int x = 0;
         for( int i = 0; i < text.length(); i++) {
             int ch = text.charAt(i);
-            Glyph g = glyphs.get(ch);
+            Glyph g = getGlyph(ch);
             if (g != null) {
-                GElement pth = g.paths.clone();
-                if (! pth.isEmpty()) {
-                    pth.translate(x, 0);
-                    res.add( pth);
-                }
+                if (! g.paths.isEmpty()) glyph.accept(g.paths, x);
                 x += g.width + letterSpacing;
                 
             }
             if ( ch == ' ') 
                     x += wordSpacing;
         }
+    }
+    
+    @Override
+    public GGroup getTextPaths( String text) {
+        final GGroup res = new GGroup(text);
+        layout(text, (g, x) -> {
+            final GElement pth = g.clone();
+            pth.translate(x, 0);
+            res.add( pth);
+        });
+        return res;
+    }
+    
+    @Override
+    public GGroup getTextInstances( String text) {
+        final GGroup res = new GGroup(text);
+        layout(text, (g, x) -> res.add( new GInstance(g, AffineTransform.getTranslateInstance(x, 0))));
         return res;
     }
     
     @Override
     public void painText( PaintContext pc, int x, int y, String text) {
-        GElement e = getTextPaths(text);
+        GElement e = getTextInstances(text);
         e.translate(new GCode(x, -y));
         e.paint(pc);
     }
@@ -136,7 +136,7 @@ public class ParserState {
         return false;
     }
     
-    private int getValueType( GWord w) {
+    int getValueType( GWord w) {
         switch ( w.letter) {
             case 'X': return X;
             case 'Y': return Y;
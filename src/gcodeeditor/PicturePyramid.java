@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gcodeeditor;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * A big picture decoded by tiles, at the resolution needed by the view.<br>
+ * Level <i>n</i> of the pyramid is the picture subsampled by 2^n. The smallest level
+ * (less than 1024 pixels wide) is always in memory, the other tiles are decoded by a
+ * background thread when they become visible and evicted when the memory budget is full.
+ * Tiles are stored with the alpha of the picture already applied.
+ *
+ * @author Clément
+ */
+public class PicturePyramid {
+
+    /** Size of the tiles in pixels of their level. */
+    public static final int TILE_SIZE = 512;
+    /** Max size of the smallest level. */
+    private static final int BASE_SIZE = 1024;
+    /** Memory used by the tiles of a picture. */
+    private static final long MEMORY_BUDGET = Math.min(256L << 20, Runtime.getRuntime().maxMemory() / 8);
+
+    private static final ExecutorService LOADER = Executors.newSingleThreadExecutor((r) -> {
+        Thread t = new Thread(r, "PictureLoaderThread");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final File file;
+    private final int width, height, baseLevel;
+    private volatile Runnable onLoad;
+
+    private volatile BufferedImage base, baseComposite;
+    private volatile float alpha = 1;
+    private volatile int loadCount;
+
+    /** Decoded tiles in LRU order (guarded by this). */
+    private final LinkedHashMap<Long, BufferedImage> tiles = new LinkedHashMap<>(64, 0.75f, true);
+    private final HashSet<Long> pending = new HashSet<>();
+    private long memory;
+    private boolean loading;
+
+    /**
+     * Read the size of the picture and start decoding its smallest level.
+     * @param file
+     * @param onLoad called by the loader thread when new tiles are available
+     * @throws IOException if the file is not found or not a picture
+     */
+    public PicturePyramid(File file, Runnable onLoad) throws IOException {
+        this.file = file;
+        this.onLoad = onLoad;
+        if ( ! file.canRead()) throw new FileNotFoundException(file.getPath());
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            final ImageReader r = getReader(in);
+            try {
+                width = r.getWidth(0);
+                height = r.getHeight(0);
+            } finally {
+                r.dispose();
+            }
+        }
+        int l = 0;
+        while ( (Math.max(width, height) >> l) > BASE_SIZE) l++;
+        baseLevel = l;
+
+        LOADER.submit(() -> {
+            try {
+                base = read(null, 1 << baseLevel);
+                baseComposite = composite(base, alpha);
+                loadCount++;
+                this.onLoad.run();
+            } catch ( IOException e) {
+                System.err.println("Can't read picture " + file + " : " + e);
+            }
+        });
+    }
+
+    /**
+     * @param onLoad called by the loader thread when new tiles are available
+     */
+    public void setOnLoad(Runnable onLoad) {
+        this.onLoad = onLoad;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** @return a number changing each time new tiles are loaded. */
+    public int getLoadCount() {
+        return loadCount;
+    }
+
+    /**
+     * Paint the visible part of the picture with the tiles of the level closer to the
+     * resolution of <i>g</i>. Missing tiles are painted from the smallest level, then loaded.
+     * @param g a graphics whose user space is in pixels of the picture
+     * @param alpha the transparency of the picture
+     */
+    public void paint(Graphics2D g, float alpha) {
+        setAlpha(alpha);
+        final BufferedImage b = baseComposite;
+        if ( b == null) return;
+
+        Rectangle visible = g.getClipBounds();
+        visible = (visible == null) ? new Rectangle(width, height) : visible.intersection(new Rectangle(width, height));
+        if ( visible.isEmpty()) return;
+
+        // screen pixels for one pixel of the picture
+        final double d = Math.sqrt(Math.abs(g.getTransform().getDeterminant()));
+        final int level = (d >= 1) ? 0 : Math.min(baseLevel, (int)Math.floor(Math.log(1 / d) / Math.log(2)));
+
+        final Object oldHint = g.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        final int bs = 1 << baseLevel;
+        if ( level == baseLevel)
+            g.drawImage(b, 0, 0, b.getWidth() * bs, b.getHeight() * bs, null);
+        else {
+            final int ts = TILE_SIZE << level;
+            boolean missing = false;
+            synchronized ( this) {
+                // forget the tiles not visible anymore
+                pending.clear();
+            }
+            for( int ty = visible.y / ts; ty <= (visible.y + visible.height - 1) / ts; ty++)
+                for( int tx = visible.x / ts; tx <= (visible.x + visible.width - 1) / ts; tx++) {
+                    final int x0 = tx * ts, y0 = ty * ts;
+                    final int x1 = Math.min(width, x0 + ts), y1 = Math.min(height, y0 + ts);
+                    final BufferedImage t;
+                    synchronized ( this) {
+                        t = tiles.get(getKey(level, tx, ty));
+                        if ( t == null) pending.add(getKey(level, tx, ty));
+                    }
+                    if ( t != null)
+                        g.drawImage(t, x0, y0, x1, y1, 0, 0, t.getWidth(), t.getHeight(), null);
+                    else {
+                        g.drawImage(b, x0, y0, x1, y1, x0 / bs, y0 / bs, (x1 + bs - 1) / bs, (y1 + bs - 1) / bs, null);
+                        missing = true;
+                    }
+                }
+            if ( missing) startLoading();
+        }
+        if ( oldHint != null) g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, oldHint);
+    }
+
+    private void setAlpha(float a) {
+        if ( a == alpha) return;
+        synchronized ( this) {
+            alpha = a;
+            tiles.clear();
+            memory = 0;
+        }
+        if ( base != null) baseComposite = composite(base, a);
+    }
+
+    private static long getKey(int level, int tx, int ty) {
+        return ((long)level << 48) | ((long)ty << 24) | tx;
+    }
+
+    private synchronized void startLoading() {
+        if ( ! loading && ! pending.isEmpty()) {
+            loading = true;
+            LOADER.submit(this::loadPendingTiles);
+        }
+    }
+
+    /** Decode the pending tiles of a level at once (the decoder reads the file only one time). */
+    private void loadPendingTiles() {
+        while ( true) {
+            final ArrayList<Long> keys = new ArrayList<>();
+            final float a;
+            synchronized ( this) {
+                if ( pending.isEmpty()) {
+                    loading = false;
+                    return;
+                }
+                final int level = (int)(pending.iterator().next() >> 48);
+                for( Iterator<Long> i = pending.iterator(); i.hasNext(); ) {
+                    final long k = i.next();
+                    if ( (k >> 48) == level) {
+                        keys.add(k);
+                        i.remove();
+                    }
+                }
+                a = alpha;
+            }
+
+            final int level = (int)(keys.get(0) >> 48), s = 1 << level, ts = TILE_SIZE << level;
+            Rectangle region = null;
+            for( long k : keys) {
+                final Rectangle r = new Rectangle((int)(k & 0xFFFFFF) * ts, (int)((k >> 24) & 0xFFFFFF) * ts, ts, ts);
+                if ( region == null) region = r;
+                else region.add(r);
+            }
+            region = region.intersection(new Rectangle(width, height));
+
+            final BufferedImage img;
+            try {
+                img = read(region, s);
+            } catch ( IOException | RuntimeException e) {
+                System.err.println("Can't read picture " + file + " : " + e);
+                synchronized ( this) {
+                    loading = false;
+                }
+                return;
+            }
+
+            synchronized ( this) {
+                if ( a == alpha)
+                    for( long k : keys) {
+                        final int x = ((int)(k & 0xFFFFFF) * ts - region.x) / s, y = ((int)((k >> 24) & 0xFFFFFF) * ts - region.y) / s;
+                        final int w = Math.min(TILE_SIZE, img.getWidth() - x), h = Math.min(TILE_SIZE, img.getHeight() - y);
+                        if ( (w <= 0) || (h <= 0)) continue;
+                        final BufferedImage t = composite(img.getSubimage(x, y, w, h), a);
+                        if ( tiles.put(k, t) == null) memory += 4L * w * h;
+                        evict(k);
+                    }
+                loadCount++;
+            }
+            onLoad.run();
+        }
+    }
+
+    /** Remove the least recently used tiles until the memory budget is respected. */
+    private void evict(long keep) {
+        for( Iterator<Long> i = tiles.keySet().iterator(); (memory > MEMORY_BUDGET) && i.hasNext(); ) {
+            final long k = i.next();
+            if ( k == keep) continue;
+            final BufferedImage t = tiles.get(k);
+            memory -= 4L * t.getWidth() * t.getHeight();
+            i.remove();
+        }
+    }
+
+    /**
+     * @param region the part to decode in pixels of the picture (null for all)
+     * @param subsampling
+     */
+    private BufferedImage read(Rectangle region, int subsampling) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            final ImageReader r = getReader(in);
+            try {
+                final ImageReadParam p = r.getDefaultReadParam();
+                if ( region != null) p.setSourceRegion(region);
+                p.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return r.read(0, p);
+            } finally {
+                r.dispose();
+            }
+        }
+    }
+
+    private ImageReader getReader(ImageInputStream in) throws IOException {
+        final Iterator<ImageReader> readers = (in == null) ? null : ImageIO.getImageReaders(in);
+        if ( (readers == null) || ! readers.hasNext()) throw new IOException("Unknown picture format : " + file);
+        final ImageReader r = readers.next();
+        r.setInput(in, true, true);
+        return r;
+    }
+
+    /** @return a copy of <i>img</i> with <i>alpha</i> applied. */
+    private static BufferedImage composite(BufferedImage img, float alpha) {
+        final BufferedImage res = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB_PRE);
+        final Graphics2D g = res.createGraphics();
+        g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC, alpha));
+        g.drawImage(img, 0, 0, null);
+        g.dispose();
+        return res;
+    }
+}
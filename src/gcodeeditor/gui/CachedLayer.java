@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gcodeeditor.gui;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * An offscreen image of a part of the view, painted again only when its key changes.<br>
+ * The key contains everything the painting depends on (size, zoom, document version, ...).
+ *
+ * @author Clément
+ */
+class CachedLayer {
+
+    private final boolean transparent;
+    private BufferedImage image;
+    private Object key;
+    private double scaleX = 1, scaleY = 1;
+
+    /**
+     * @param transparent true if the layer is painted over another one
+     */
+    CachedLayer(boolean transparent) {
+        this.transparent = transparent;
+    }
+
+    /**
+     * Paint the cached image on <i>g</i>, after calling <i>painter</i> if <i>newKey</i> has changed.
+     * @param g the graphics of the component (without translation)
+     * @param w width of the component
+     * @param h height of the component
+     * @param newKey the current state of what is painted
+     * @param painter paint the layer in component coordinates
+     */
+    void paint(Graphics g, int w, int h, Object newKey, Consumer<Graphics> painter) {
+        final AffineTransform t = ((Graphics2D)g).getTransform();
+        // HiDPI screens : use the device resolution
+        final double sx = t.getScaleX(), sy = t.getScaleY();
+        final int iw = Math.max(1, (int)Math.ceil(w * sx)), ih = Math.max(1, (int)Math.ceil(h * sy));
+
+        if ( (image == null) || (image.getWidth() < iw) || (image.getHeight() < ih) ||
+                (sx != scaleX) || (sy != scaleY) || ! Objects.equals(key, newKey)) {
+            if ( (image == null) || (image.getWidth() < iw) || (image.getHeight() < ih))
+                image = new BufferedImage(iw, ih, transparent ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+
+            final Graphics2D g2 = image.createGraphics();
+            if ( transparent) {
+                g2.setComposite(AlphaComposite.Clear);
+                g2.fillRect(0, 0, image.getWidth(), image.getHeight());
+                g2.setComposite(AlphaComposite.SrcOver);
+            }
+            g2.scale(sx, sy);
+            g2.setRenderingHints(((Graphics2D)g).getRenderingHints());
+            try {
+                painter.accept(g2);
+            } finally {
+                g2.dispose();
+            }
+            key = newKey;
+            scaleX = sx;
+            scaleY = sy;
+        }
+
+        final Graphics2D g2 = (Graphics2D)g.create();
+        try {
+            g2.scale(1 / sx, 1 / sy);
+            g2.drawImage(image, 0, 0, null);
+        } finally {
+            g2.dispose();
+        }
+    }
+
+    /** Free the image. */
+    void clear() {
+        image = null;
+        key = null;
+    }
+}
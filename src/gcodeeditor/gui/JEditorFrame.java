@@ -43,6 +43,7 @@ import gcodeeditor.gui.dialogs.JMovePanel;
 import gcodeeditor.gui.dialogs.ManagedPanel;
 import gelements.GMixedPath;
 import gelements.GTextOnPath;
+import gelements.PolylineSimplifier;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.EventQueue;
@@ -2553,8 +2554,12 @@ public class JEditorFrame extends javax.swing.JFrame implements JProjectEditorPa
 
     private void jMenuItemSimplifyPActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItemSimplifyPActionPerformed
         try {
-            double d = Double.parseDouble(JOptionPane.showInputDialog(this, "Enter the tolerance (0=no change)", "1.0"));
-            projectViewer.doAction(JProjectEditorPanel.ACTION_SIMPLIFY, d, null);
+            final Object algorithm = JOptionPane.showInputDialog(this, "Simplification algorithm", "Simplify", JOptionPane.QUESTION_MESSAGE, 
+                    null, PolylineSimplifier.Algorithm.values(), PolylineSimplifier.Algorithm.DOUGLAS_PEUCKER);
+            if ( algorithm == null) return;
+            final String v = JOptionPane.showInputDialog(this, "Enter the tolerance (0=no change)", "1.0");
+            if ( v == null) return;
+            projectViewer.doAction(JProjectEditorPanel.ACTION_SIMPLIFY, Double.parseDouble(v), algorithm);
         } catch ( NumberFormatException e) {
             JOptionPane.showMessageDialog(this, "Invalid number", "Error", JOptionPane.ERROR_MESSAGE);
         }
@@ -2970,7 +2975,7 @@ public class JEditorFrame extends javax.swing.JFrame implements JProjectEditorPa
         if ( moveDialog != null) {
             projectViewer.moveCopySelection(Double.isNaN(moveDialog.deltaX) ? 0 : moveDialog.deltaX,
                                            Double.isNaN(moveDialog.deltaY) ? 0 : moveDialog.deltaY,
-                                           moveDialog.nbCopies, moveDialog.packed, moveDialog.grouped, true);
+                                           moveDialog.nbCopies, moveDialog.packed, moveDialog.grouped, moveDialog.instances, true);
         }        
     }//GEN-LAST:event_jMenuItemDuplicateActionPerformed
 
@@ -3345,7 +3350,7 @@ public class JEditorFrame extends javax.swing.JFrame implements JProjectEditorPa
     }//GEN-LAST:event_jMenuItemAddPocketActionPerformed
 
     private void jMenuItemSimplifyActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItemSimplifyActionPerformed
-        String l = JOptionPane.showInputDialog(this, "Distance min between points ?", projectViewer.getConfiguration().toolDiameter/2);
+        String l = JOptionPane.showInputDialog(this, "Maximal divergence from the path ?", projectViewer.getConfiguration().toolDiameter/10);
         double value;
         if ( l != null) {
             try {
@@ -3892,7 +3897,7 @@ public class JEditorFrame extends javax.swing.JFrame implements JProjectEditorPa
         if ( p != null) {
             projectViewer.moveCopySelection(Double.isNaN(p.deltaX) || p.deltaX == Double.NEGATIVE_INFINITY ? 0 : p.deltaX,
                                             Double.isNaN(p.deltaY) || p.deltaY == Double.NEGATIVE_INFINITY ? 0 : p.deltaY,
-                                           0, false, false, false);
+                                           0, false, false, false, false);
         }
     }//GEN-LAST:event_jMenuItemMoveActionPerformed
 
@@ -4287,6 +4292,8 @@ public class JEditorFrame extends javax.swing.JFrame implements JProjectEditorPa
         jMenuItemOptimizeMoves.setEnabled((block|blocks)&& noEdition);
         jMenuItemUndo.setEnabled(canUndo && noEdition);
         jMenuItemUndo.setEnabled(canUndo&& noEdition);
+        jMenuItemUndo.setToolTipText(projectViewer.getUndoInfo());
+        jButtonUndo.setToolTipText("<html>Undo<br>" + projectViewer.getUndoInfo() + "</html>");
         jMenuItemUngroup.setEnabled((block|blocks) && noEdition);
         jMenuMakeCutPath.setEnabled( (block|blocks)& noEdition);        
         jToggleButtonAddCircles.setSelected(! edit && projectViewer.getMouseMode() == JProjectEditorPanel.MOUSE_MODE_ADD_OVAL); 
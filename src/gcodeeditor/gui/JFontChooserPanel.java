@@ -80,7 +80,7 @@ public class JFontChooserPanel extends javax.swing.JPanel {
                 AffineTransform t = pc.g.getTransform();
                 g.setColor(Color.black);
                 
-                GElement gText = font.getTextPaths(text);
+                GElement gText = font.getTextInstances(text);
                 Rectangle2D b = gText.getBounds();
                 if ( b != null) {
                     pc.zoomFactor = 1;
@@ -18,34 +18,43 @@ package gcodeeditor.gui;
 
 import gcodeeditor.BackgroundPictureParameters;
 import gcodeeditor.Configuration;
+import gcodeeditor.DocumentImporter;
 import gcodeeditor.GCode;
 import gcodeeditor.GWord;
 import gcodeeditor.JarvisMarchHull;
 import gcodeeditor.Point3D;
 import gelements.UndoManager;
+import gelements.BulkTransform;
 import gcodeeditor.EngravingProperties;
 import gelements.GArc;
 import gelements.G1Path;
 import gelements.GMixedPath;
-import gelements.GDrillPoint;
 import gelements.GElement;
 import gelements.GGroup;
+import gelements.GInstance;
 import gelements.GPocket3D;
 import gelements.GSpline;
+import gelements.SpatialIndex;
 import gelements.GTextOnPath;
+import gelements.PathJoiner;
+import gelements.PolygonOffset;
+import gelements.PolylineSimplifier;
+import gelements.SegmentIntersector;
 import gcodeeditor.PaintContext;
-import java.awt.AlphaComposite;
+import gcodeeditor.PicturePyramid;
+import gcodeeditor.gui.dialogs.LongTaskJobPanel;
 import java.awt.BasicStroke;
 import java.awt.Color;
-import java.awt.Composite;
 import java.awt.Cursor;
 import java.awt.Dimension;
 import java.awt.EventQueue;
+import java.awt.Frame;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Rectangle;
 import java.awt.Toolkit;
+import java.awt.Window;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
@@ -55,24 +64,28 @@ import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
 import java.awt.geom.AffineTransform;
-import java.awt.geom.Arc2D;
-import java.awt.geom.Area;
-import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
-import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 import javax.swing.JList;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
@@ -82,29 +95,10 @@ import javax.swing.event.ListDataEvent;
 import javax.swing.event.ListDataListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import org.kabeja.dxf.DXFArc;
-import org.kabeja.dxf.DXFCircle;
 import org.kabeja.dxf.DXFDocument;
-import org.kabeja.dxf.DXFEntity;
-import org.kabeja.dxf.DXFLWPolyline;
-import org.kabeja.dxf.DXFLayer;
-import org.kabeja.dxf.DXFLine;
-import org.kabeja.dxf.DXFPolyline;
-import org.kabeja.dxf.DXFSpline;
 import org.kabeja.dxf.helpers.Point;
-import org.kabeja.dxf.helpers.SplinePoint;
-import org.kabeja.parser.DXFParser;
 import org.kabeja.parser.ParseException;
-import org.kabeja.parser.Parser;
-import org.kabeja.parser.ParserBuilder;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.traversal.DocumentTraversal;
-import org.w3c.dom.traversal.NodeFilter;
-import org.w3c.dom.traversal.TreeWalker;
 import org.xml.sax.SAXException;
 
 /**
@@ -114,8 +108,8 @@ import org.xml.sax.SAXException;
  */
 public final class JProjectEditorPanel extends javax.swing.JPanel implements BackgroundPictureParameters.ParameterChangedListenerInterface, MouseListener, MouseMotionListener, MouseWheelListener, KeyListener {
 
-    public static final String CONTENT_HEADER = "(Content-Type: ";
-    public static final String SVGE_HEADER = "(Simple G-Code Visual Editor Project: ";
+    public static final String CONTENT_HEADER = DocumentImporter.CONTENT_HEADER;
+    public static final String SVGE_HEADER = DocumentImporter.SVGE_HEADER;
     public static final String SVGE_RELEASE = "0.8.8";
 
     Configuration conf = new Configuration();
@@ -123,6 +117,13 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
     
     /** List of all elements of the document. */
     GGroup document;
+    /** Used to find quickly the elements and the points under the mouse. */
+    SpatialIndex spatialIndex;
+    /** Offscreen images of the static part of the view. */
+    private final CachedLayer backgroundLayer = new CachedLayer(false);
+    private final TiledLayer geometryLayer = new TiledLayer(this::repaint);
+    /** Incremented by invalidate() to repaint the geometry layer. */
+    private int paintVersion;
     GGroup editedGroup;
     
     /** Visual Zoom factor of the view. */
@@ -264,6 +265,7 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
         selectedElements = new ArrayList<>(10);
         selectedPoints = new ArrayList<>(100);
         undoManager = new UndoManager();
+        undoManager.setMemoryBudget((long)conf.undoMemoryMB << 20, conf.undoSpillToDisk);
         
         editedElementListener = new ListDataListener() {
             @Override
@@ -323,6 +325,12 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
         undoManager.clear();
     }
 
+    /** @return the size of the undo history */
+    public String getUndoInfo() {
+        return String.format(Locale.ROOT, "%d record(s), %.1f MB in memory, %.1f MB on disk", undoManager.size(),
+                undoManager.getMemoryUsed() / 1048576., undoManager.getDiskUsed() / 1048576.);
+    }
+
     public double getSelectionSurfaceValue() {
         if ( ! selectedElements.isEmpty() && (selectedElements.get(0) instanceof G1Path)) {
             return ((G1Path)(selectedElements.get(0))).getSurfaceValue();
@@ -365,6 +373,11 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
         repaint();
     }
     
+    @Override
+    public void backgroundPictureTilesLoaded() {
+        repaint();
+    }
+    
     public static final Cursor createCrossCursor(String info) {
         int m = 12, d= 7;
         Image customImage = new BufferedImage(2*m+1,2*m+1, BufferedImage.TYPE_INT_ARGB);
@@ -479,117 +492,25 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
                 }
             }         
         }
-        g.setColor(Color.black);
-        g.fillRect(0,0,getWidth(),getHeight());
-        
-        if ( (backgroundPictureParameter != null) && (backgroundPictureParameter.getImage() != null) && backgroundPictureParameter.isImageVisible()) {
-            Graphics2D g2 = (Graphics2D)g;
-            AffineTransform t = g2.getTransform();
-            Composite comp = g2.getComposite();
-            java.awt.Point o = coordToScreenPoint( getBackgroundPictureParameters().getViewX(), getBackgroundPictureParameters().getViewY());
-            g2.translate(o.getX(), o.getY());
-            AlphaComposite acomp = AlphaComposite.getInstance(
-                                        AlphaComposite.SRC_OVER, getBackgroundPictureParameters().getAlpha());
-            g2.setComposite( acomp);
-            g2.rotate(Math.toRadians(backgroundPictureParameter.getRotation()));
-            
-            double w = backgroundPictureParameter.getWidth();
-            double h = backgroundPictureParameter.getHeight();
-            if ( (w == 0) || (h == 0)) { 
-                w = backgroundPictureParameter.getImage().getWidth();
-                h = backgroundPictureParameter.getImage().getHeight();
-            }
-            g2.drawImage(backgroundPictureParameter.getImage(), 0, 0, 
-                            (int)(w*zoomFactor),
-                            (int)(h*zoomFactor),
-                            this);
-            g2.setComposite(comp);
-            g2.setTransform(t);
-        }
-        
-        // paint axis
-        g.setColor(Color.lightGray);
-        g.drawLine(0, dy, getWidth(), dy);
-        g.drawLine(dx, 0, dx, getHeight());        
-        
-        // paint workspace
-        if ( showWorkspace) {
-            g.setColor(Color.yellow);
-            int wsW = (int)(conf.workspaceWidth * zoomFactor);
-            int wsH = (int) (conf.workspaceHeight * zoomFactor);
-            switch ( conf.workspaceOrigin) {
-                case 0: g.drawRect(dx, dy, wsW, wsH); break;
-                case 1: g.drawRect(dx-wsW, dy, wsW, wsH); break;
-                case 2: g.drawRect(dx, dy-wsH, wsW, wsH); break;
-                case 3: g.drawRect(dx-wsW, dy-wsH, wsW, wsH); break;
-            }
-        }
-        
-        // paint rotating object workspace
-        if ( showObjectSurface) {           
-            g.setColor(Color.red);
-            Point2D o = coordToScreenPoint(0,0);
-            Point2D p = coordToScreenPoint(conf.objectLength, conf.objectDiameter * Math.PI);
-            int w = (int)(p.getX()-o.getX());
-            int h = (int)(o.getY()-p.getY());
-            g.drawRect((int)o.getX()-w, (int)o.getY()-h, 2 * w, 2 * h);
-        } 
-               
-        // paint Grid
         if ( showGrid) {
             gridStep = 10;
             while( (gridStep * zoomFactor) < 10) gridStep *= 10;
             while( (gridStep * zoomFactor) > 100) gridStep /= 10;
-
-            Point2D upleft = screenToCoordPoint( 0, 0);
-            Point2D downRight = screenToCoordPoint(getWidth(), getHeight());
-  //          System.out.println(upleft + "   " + downRight + gridStep / zoomFactor);
-
-            for ( double x = Math.floor((upleft.getX() / gridStep))*gridStep; x < downRight.getX() + gridStep; x += gridStep) {
-                //g.drawLine((int)(x * zoomFactor), 0, (int) (x * zoomFactor), getHeight());
-                for ( double y = Math.floor((upleft.getY() / gridStep))*gridStep; y > downRight.getY() + gridStep; y -= gridStep) {
-                    //g.drawLine(0, (int)(y * zoomFactor), getWidth(), (int) (y * zoomFactor));
-                    if ( (Math.abs((x / (10*gridStep))-Math.round(x / (10*gridStep)))<0.00001) ||
-                         (Math.abs((y / (10*gridStep))-Math.round(y / (10*gridStep)))<0.00001))
-                        g.setColor(Color.white); //Color.lightGray);
-                    else 
-                        g.setColor(new Color(100,100,100));
-                      
-                    g.drawRect((int)(x* zoomFactor) + dx,  dy - (int)(y* zoomFactor), 0, 0);
-                }
-            }
         }
-              
-        ((Graphics2D)g).translate(dx, dy); 
         
-        if ( showMoves && (editedElement==null)) paintMoves(g, document, null);          
-        /* Show boudaries ? 
-        if ( ! selectedElements.isEmpty()) {
-            g.setColor(Color.orange);
-            Rectangle r = coordToScreen(getSelectionBoundary(true));
-            g.drawRect(r.x, r.y, r.width, r.height);
-        }
-        /* */    
-              
-        // paint document without selection
-        final PaintContext pc = new PaintContext(g, zoomFactor, showStartPoints, highlitedPoint, selectedPoints, conf.toolDiameter);
-        pc.editedElement = editedElement;
-        // paintDisabled before
-        paintGroup(pc, document, false, true, null);
-        // paint non selected
-        paintGroup(pc, document, false, false, null);
-        // paint selection after
-        if ( ! selectedElements.isEmpty()) {
-            paintGroup(pc, document, true, true, null);     
-            paintGroup(pc, document, true, false, null);      
-        }
+        // static layers are repainted only when the view or the document change
+        backgroundLayer.paint(g, getWidth(), getHeight(), getBackgroundLayerKey(), this::paintBackground);
+        geometryLayer.paint(g, getWidth(), getHeight(), getGeometryLayerKey(), zoomFactor, dx, dy, this::makeGeometrySnapshot);
+        
         // last paint edited element
         if ( editedElement != null) {
+            ((Graphics2D)g).translate(dx, dy); 
+            final PaintContext pc = new PaintContext(g, zoomFactor, showStartPoints, highlitedPoint, selectedPoints, conf.toolDiameter);
+            pc.editedElement = editedElement;
             pc.color = PaintContext.EDIT_COLOR;
             editedElement.paint(pc);
+            ((Graphics2D)g).translate(-dx, -dy);
         }
-
-        ((Graphics2D)g).translate(-dx, -dy);
         
         // paint mouse repere
         if ( mouseMode != MOUSE_MODE_NONE) {
@@ -843,10 +764,6 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
     }
     
     
-    public static final int GCREADER_UNKNOW_STATE = 0;
-    public static final int GCREADER_WAIT_EOL_STATE = 1;
-    public static final int GCREADER_READCMD_STATE = 2;
-    public static final int GCREADER_READCOORD_STATE = 3;
     /**
      * Try to import GCode blocks from raw GCODE file, or from a VGE Project file.
      * @param gCodeFileName
@@ -856,311 +773,20 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
      * @throws IOException 
      */
     public static GGroup importGCODE( String gCodeFileName, BackgroundPictureParameters background) throws FileNotFoundException, IOException {
-
-        int lineno=0;
-        String name = (gCodeFileName.lastIndexOf('/') != -1) ? gCodeFileName.substring( gCodeFileName.lastIndexOf('/')+1) : gCodeFileName;    
-        if ( name.lastIndexOf('.')!=-1) name = name.substring(0, name.lastIndexOf('.'));
-        GGroup currentGroup, doc = new GGroup(name);
-        GElement currentBlock = null;
-        GCode currentState = new GCode(-1, 0,0);
-        
-        BufferedReader br = new java.io.BufferedReader( new FileReader(gCodeFileName));
-        String line = "";
-        
-        currentGroup = doc;
-        do
-        { 
-            lineno++;
-            line = line.trim();            
-            while ( (line != null) && line.isBlank()) line = br.readLine(); // skip empty lines
-            if ( line == null) break;
-            
-            if ( line.startsWith(SVGE_HEADER) || line.startsWith( CONTENT_HEADER)) {
-                // Loading properties of document
-                line = br.readLine();
-                if ( line == null) 
-                    break;
-                if ( line.startsWith(BackgroundPictureParameters.BACK_PICTURE_HEADER)) {
-                    BackgroundPictureParameters b = BackgroundPictureParameters.decode(line);
-                    if ((background != null) && (b != null)) background.setAll(b);
-                    line = br.readLine();
-                }
-                line = currentGroup.loadProperties(br, line);
-                continue;
-            }
-                
-            if ( line.startsWith(GGroup.END_HEADER_STRING)) {
-                if ( (currentBlock!=null) && ! currentBlock.isEmpty())
-                    currentGroup.add( currentBlock);          
-                currentBlock = null;
-                currentGroup = doc.getParent(currentGroup); 
-            } else {
-                GElement el = GElement.buildGElement(line);
-                if ( el != null) {
-                    // Load GElement
-                    if ( (currentBlock!=null) && ! currentBlock.isEmpty()) currentGroup.add( currentBlock); 
-                    currentBlock = null;
-                    
-                    line = el.loadFromStream(br, currentState);
-                    currentGroup.add(el);
-                    
-                    if ( el instanceof GGroup) currentGroup = (GGroup)el;  
-                    else currentState.updateGXYWith(el.getLastPoint());
-                    continue;
-                } else {
-                    // Read GCODE an try to make GElement or append to currentPath
-                    GCode gcl = new GCode(line, currentState);
-                    if ( gcl.isComment()) {
-                        if (currentBlock!=null) {
-                            if (currentBlock.getNbPoints() > 0) {
-                                currentGroup.add( currentBlock); 
-                                currentBlock = new G1Path("path " + name);  
-                            }
-                        } else
-                            currentBlock = new G1Path("path " + name); 
-
-                        currentBlock.add( gcl);
-
-                    } else if ( gcl.isAnArc()) {
-                        if ((currentBlock!=null) && ! currentBlock.isEmpty() && ! (currentBlock instanceof GArc )) {
-                            currentGroup.add( currentBlock);  
-                        }
-                        currentGroup.add(currentBlock = new GArc(name, currentState, gcl));
-                        currentState = currentBlock.getLastPoint();
-                        currentBlock=null;
-
-                    } else if ( gcl.isADrill() ) {
-                        if ((currentBlock!=null) && ! currentBlock.isEmpty()) {
-                            currentGroup.add( currentBlock);
-                        }
-                        currentGroup.add( currentBlock = new GDrillPoint("drill", gcl));          
-                        currentState = currentBlock.getLastPoint();
-                        currentBlock = null;
-
-                    } else if ( gcl.isASpline()) {
-                        if ((currentBlock!=null) && ! currentBlock.isEmpty()) {
-                            currentGroup.add( currentBlock);
-                        }
-                        currentBlock = new GSpline("curve", currentState, gcl);
-                        currentState.updateGXYWith(currentBlock.getLastPoint());
-                        currentBlock = null;
-
-                    } else if (gcl.isAMove() && (gcl.isSet('X') || gcl.isSet('Y'))) {
-                        if (gcl.getG() == 0) {               
-                            // Have we read an Header ?
-                            if ( doc.isEmpty() && (currentBlock != null) && (currentBlock.getClass() == G1Path.class) && ! currentBlock.isEmpty() && (currentBlock.getNbPoints()==0)) {
-                                currentBlock.setName("Header");
-                                doc.add(currentBlock);
-                                currentBlock = new G1Path(name + "-p" + GElement.getUniqID());
-                            } else {
-                                // No, start a new block
-                                if ((currentBlock!=null) && ! currentBlock.isEmpty() && (currentBlock.getNbPoints()>0) &&
-                                        (gcl.containsXorYCoordinate() || 
-                                            ((currentBlock.getNbPoints()!=0)) && currentBlock.getLastPoint().getG()==0)) {
-                                    currentGroup.add(currentBlock);
-                                    currentBlock=null;
-                                }
-                                if ( currentBlock == null)
-                                    currentBlock = new G1Path("path " + name); 
-                            }
-                        } else {
-                            // G1 move then add G0 first
-                            if ( currentBlock == null) 
-                                currentBlock = new G1Path("path " + name);
-                            
-                            if ( (currentBlock.getFirstPoint() == null) && gcl.isAPoint() && ! currentState.isAtSamePosition(gcl)) // Add G0 start point
-                                currentBlock.add(new GCode(0, gcl.getX(), gcl.getY()));
-                        }                       
-                        currentState.updateGXYWith(gcl); 
-                        currentBlock.add(gcl);                       
-
-                    } else {
-                        // line is not a G{0,1,2,3,5,8x} mouvment (to X,Y)
-                        // start a new block ?
-                        // TODO: take care of G54 X0 Y0 line
-                        if ( gcl.isPercent() ) {
-                            if ( (currentBlock != null) && ! currentBlock.isEmpty()) currentGroup.add(currentBlock);
-                            currentBlock = new G1Path(name);
-                        } else {                             
-                            if ( currentBlock==null) 
-                                currentBlock = new G1Path("path " + name);
-                            if ( gcl.isAPoint() && (currentBlock.getFirstPoint()==null) && ( ! gcl.isSet('G') || (gcl.getG()!=0))) {
-                                // add G0 to start new path
-                                currentBlock.add(new GCode(0, gcl.getX(), gcl.getY()));
-                            }    
-                            
-                            currentState.updateGXYWith(gcl);   
-                            currentBlock.add(gcl);                       
-                        }
-                    }
-                }
-            }
-            line = br.readLine();
-        } while( line != null);
-        
-        if ( (currentBlock != null) && ! currentBlock.isEmpty()) currentGroup.add(currentBlock);
-        return doc;
+        return DocumentImporter.importGCODE(gCodeFileName, background);
     }
         
     public void importDXF(String fileName) throws ParseException
     {
-        Parser parser = ParserBuilder.createDefaultParser();
-        parser.parse(fileName, DXFParser.DEFAULT_ENCODING);
-        //System.out.println("Loading " + fileName);
+        ArrayList<GElement> newBlocks = DocumentImporter.importDXF(fileName);
         String[] l = fileName.split("/");
         String blockName = l[l.length-1];
         
-        DXFDocument doc = parser.getDocument();
-        
-        ArrayList<GElement> newBlocks = new ArrayList<>();
-        G1Path lastBlock = null;
-        
-        for( @SuppressWarnings("unchecked") Iterator<DXFLayer> i = doc.getDXFLayerIterator(); i.hasNext(); )
-        {
-            DXFLayer layer = i.next();
-            
-            for( Iterator e = layer.getDXFEntityTypeIterator(); e.hasNext();)
-            {
-                Object type = e.next();
-                @SuppressWarnings("unchecked") List<DXFEntity> le = layer.getDXFEntities( type.toString());
-                for( DXFEntity el : le)
-                {
-                    if ( el instanceof DXFLWPolyline) {
-                        DXFLWPolyline poly = (DXFLWPolyline)el;
-                        if ( poly.getVertexCount() < 2) continue;
-                        
-                        G1Path s;
-                        if ((lastBlock != null) && G1Path.isEquals(lastBlock.getLastPoint(),poly.getVertex(0).getPoint()))
-                            s = lastBlock;
-                        else 
-                            s = new G1Path(blockName);
-                        
-                        for( int n = (s==lastBlock)?1:0; n < poly.getVertexCount(); n++)
-                            s.add(poly.getVertex(n).getPoint());
-                             
-                        if ( lastBlock != s) newBlocks.add(lastBlock = s);
-                        
-                    } else if ( el instanceof DXFLine) {
-                        DXFLine line = (DXFLine)el;
-                        
-                        G1Path s;
-                        if ((lastBlock != null) && G1Path.isEquals(lastBlock.getLastPoint(),line.getStartPoint()))
-                        {
-                            s = lastBlock;
-                            s.add( line.getEndPoint());
-                        } else {
-                            s = new G1Path(blockName);
-                            s.add( line.getStartPoint());
-                            s.add( line.getEndPoint());
-                        }
-                        if ( lastBlock != s) newBlocks.add(lastBlock = s);
-                        
-                    } else if ( el instanceof DXFSpline) {
-                        DXFSpline spline = (DXFSpline)el;
-                        GCode pts[] = new GCode[spline.getControlPointSize()];
-                        
-                        @SuppressWarnings("unchecked") Iterator<SplinePoint> spi = spline.getSplinePointIterator();
-                        int i2 = 0;
-                        while ( spi.hasNext()) {
-                            SplinePoint p = spi.next();
-                            pts[i2++] = new GCode(p.getX(), p.getY());
-                        }
-                        
-                        GSpline spl = null;
-                        switch( pts.length) {
-                            case 2: 
-                                //spl = new GSpline(blockName+"_curve", pts[0], pts[1]); 
-                                break;
-                            case 3: 
-                                //spl = new GSpline(blockName+"_curve", pts[0], pts[1], pts[2]); 
-                                break;
-                            case 4: 
-                                
-                                spl = new GSpline(blockName+"_curve", pts[0], pts[1], pts[2], pts[3]); 
-                                break;    
-                        }
-                            
-                        if ( spl != null) newBlocks.add(spl);
-                    } else if ( el instanceof DXFCircle) {
-                        DXFCircle circle = (DXFCircle)el;
-                        Point p = circle.getCenterPoint();
-                        double r = circle.getRadius();
-                        int nbP = (int)(2*Math.PI*r);
-                        double a = 2*Math.PI / nbP;
-                        lastBlock = new G1Path(blockName + "_circle");
-                        for( int pt = 0; pt < nbP; pt++) {
-                            lastBlock.add(new Point(p.getX()+Math.cos(a*pt)*r, p.getY()+Math.sin(a*pt)*r,0));
-                            
-                        } 
-                        newBlocks.add(lastBlock);
-                    } else if ( el instanceof DXFPolyline) {
-                        DXFPolyline poly = (DXFPolyline)el;
-                        
-                        G1Path s;
-                        if ((lastBlock != null) && G1Path.isEquals(lastBlock.getLastPoint(),poly.getVertex(0).getPoint()))
-                        {
-                            s = lastBlock;
-                        } else {
-                            s = new G1Path(blockName);
-                        }
-                        for( int n = (s==lastBlock)?1:0; n < poly.getVertexCount(); n++)
-                        { 
-                            Point p = poly.getVertex(n).getPoint();
-                            s.add(poly.getVertex(n).getPoint());                          
-                        }
-                        if ( lastBlock != s) newBlocks.add(lastBlock = s);
-                    } else if ( el instanceof DXFArc) {
-                        DXFArc arc = (DXFArc)el;
-                        Point center = arc.getCenterPoint();
-                        //Point endP = arc.getEndPoint();
-                        //Point startP = arc.getStartPoint();
-                        double radius = arc.getRadius();
-                        double startA = 360 - arc.getStartAngle();
-                        double arcLen = (arc.isCounterClockwise() ? 360 - arc.getTotalAngle() : arc.getTotalAngle() - 360);                        
-                        //boolean cc = arc.isCounterClockwise();
-                        GCode c = new GCode(center.getX(), center.getY());
-                        //System.out.println("c=("+c.getX()+","+c.getY()+")  s="+startA+"  rad="+Math.toRadians(startA)+"   l="+arcLen);
-                        newBlocks.add(new GArc("_arc", c, radius, startA, arcLen));
-                    } else
-                        System.err.println("Impossible de charger l'entité '" + el.getType() + "'");
-                    
-                }
-            }
-            if ( gcodeFooter != null) { //TODO: verify that
-                document.remove(gcodeFooter);
-                document.add(gcodeFooter);
-            }
-        }
-        
-        // clear empty blocks
-        Iterator<GElement> i = newBlocks.iterator();
-        while ( i.hasNext()) {
-            GElement b = i.next();
-            if ( b instanceof G1Path && b.isEmpty()) i.remove();
+        if ( gcodeFooter != null) { //TODO: verify that
+            document.remove(gcodeFooter);
+            document.add(gcodeFooter);
         }
         
-        boolean concat;
-        do {
-            concat = false;
-            for( int s1 = 0; s1 < newBlocks.size()-1; s1++ )
-                for( int s2 = 0; s2 < newBlocks.size()-1; s2++ )
-                {
-                    if ((s1 != s2) && (newBlocks.get(s1) instanceof G1Path) && (newBlocks.get(s2) instanceof G1Path)) {
-                        if ( newBlocks.get(s1).getFirstPoint() == null || newBlocks.get(s2).getFirstPoint() == null)
-                            System.out.println("importDXF: ERROR1");
-                        
-                        if ( newBlocks.get(s1).getFirstPoint().equals( newBlocks.get(s2).getFirstPoint()) ||
-                                newBlocks.get(s1).getLastPoint().equals( newBlocks.get(s2).getFirstPoint()) ||
-                                newBlocks.get(s1).getLastPoint().equals( newBlocks.get(s2).getLastPoint())) {
-                            //System.out.print("concat ");
-                            newBlocks.get(s1).concat(newBlocks.get(s2), 0.00001);
-                            newBlocks.remove(s2);
-                            concat=true;
-                        }
-                    }
-                }
-        } while( concat);
-        
         if ( ! newBlocks.isEmpty()) {
             GGroup g = new GGroup(blockName, newBlocks);
             g.sort(null, true);
@@ -1170,8 +796,6 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
         }
     }
     
-    
-    private GCode currentPosition;
     /**
      * Read SVG file and return his content
      * 
@@ -1183,23 +807,10 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
      * @throws SAXException 
      */
     public GGroup readSVGfile( String svgFileName) throws FileNotFoundException, IOException, ParserConfigurationException, SAXException {
-
-        String name = (svgFileName.lastIndexOf('/') != -1) ? svgFileName.substring( svgFileName.lastIndexOf('/')+1) : svgFileName;    
-        if ( name.lastIndexOf('.')!=-1) name = name.substring(0, name.lastIndexOf('.'));
-        GGroup res = new GGroup(name);
-       
-        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File( svgFileName));
-        document.getDocumentElement().normalize();  
-        DocumentTraversal traversal = (DocumentTraversal) document;
-        TreeWalker walker = traversal.createTreeWalker(
-                document.getDocumentElement(), NodeFilter.SHOW_ALL, null, true);
-                
-        Node xx = document.getElementsByTagName("svg").item(0).getAttributes().getNamedItem("viewBox");
-        //if ( xx != null) System.out.println("SVG Box= " + xx.getNodeValue());
-        
-        try {
-            readSVGtree(walker, "", res);  
-        } catch ( Exception e) {
+        DocumentImporter importer = new DocumentImporter(conf.minG1move);
+        GGroup res = importer.readSVGfile(svgFileName);
+        final Exception e = importer.getSVGError();
+        if ( e != null)
             EventQueue.invokeLater( new Runnable() {
                 @Override
                 public void run() {
@@ -1207,498 +818,9 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
                             "Error while reading the file : \n\n" + svgFileName + "\n\n" + e.getLocalizedMessage()+
                                     "\n\nTry plain/simple SVG format (with Inkscape)", 
                             "Error", JOptionPane.INFORMATION_MESSAGE);
-                    
-                    e.printStackTrace();
                 } });
-        }
-        
-        res.removeExtraGroups();
         return res;
     }
-
-    private void readSVGtree(TreeWalker walker, String indent, GGroup parent) {
-        Node node = walker.getCurrentNode();
-        if (node instanceof Element) {
-            Element element = (Element)node;
-            
-            String id = element.getAttribute("id"); 
-            String transform = element.getAttribute("transform");
-            
-            //System.out.println(indent + "- " + element.getTagName() + "(" + id + ") transform="+transform);                      
-
-            switch ( element.getTagName()) {
-                case "g":
-                    GGroup g = new GGroup( (id == null) ? "g" : id);
-                    parent.add(g);
-                    parent = g;
-                    for (Node n = walker.firstChild(); n != null; n = walker.nextSibling()) {
-                        readSVGtree(walker, indent + "  ", parent);
-                    }
-                    walker.setCurrentNode(node);
-                    applySVGTransformation(transform, g);
-                    break;
-                    
-                case "polyline":                        
-                case "path": 
-                    if ( element.getTagName().equals("polyline")) {
-                        String pts = "M " + element.getAttribute("points");
-                        g = readSVGPath( id, pts);
-                    } else {
-                        String d = element.getAttribute("d");
-                        g = readSVGPath( id, d);
-                    }
-                    
-                    applySVGTransformation(transform, g);                    
-                    if ( g.size() == 1) parent.add( g.get(0));
-                    else parent.add( g);
-                    break;
-
-                case "rect":
-                    double x = Double.parseDouble(element.getAttribute("x"));
-                    double y = Double.parseDouble(element.getAttribute("y"));
-                    double w = Double.parseDouble(element.getAttribute("width"));
-                    double h = Double.parseDouble(element.getAttribute("height"));  
-                    
-                    double rx = Double.NaN, ry = Double.NaN;
-                    if ( !  element.getAttribute("rx").isBlank()) {
-                        rx = Double.parseDouble(element.getAttribute("rx"));                        
-                    }
-                    if ( !  element.getAttribute("ry").isBlank()) {
-                        ry = Double.parseDouble(element.getAttribute("ry"));                        
-                    }
-                    
-                    G1Path g1p;
-                    if ( ! Double.isNaN(rx) || ! Double.isNaN(ry)) {
-                        if ( Double.isNaN(rx)) rx = ry;
-                        if ( Double.isNaN(ry)) ry = rx;
-                        g1p = G1Path.makeRounRect(w, h, Math.max(rx, ry)); // TODO: use ry !
-                        g1p.translate(x, y);
-                    } else                    
-                        g1p = G1Path.newRectangle(new GCode(x, y), new GCode(x+w, y+h));
-                    
-                    applySVGTransformation(transform, g1p);
-                    parent.add( g1p);
-                    break;
-                    
-                case "ellipse":
-                    double cx = Double.parseDouble(element.getAttribute("cx"));
-                    double cy = Double.parseDouble(element.getAttribute("cy"));
-                    rx = Double.parseDouble(element.getAttribute("rx"));
-                    ry = Double.parseDouble(element.getAttribute("ry")); 
-                    
-                    g1p = G1Path.makeOval(new Point2D.Double(cx, cy), rx, ry, conf.minG1move);
-                    applySVGTransformation(transform, g1p);
-                    parent.add( g1p );   
-                    break;
-                case "circle":
-                    cx = Double.parseDouble(element.getAttribute("cx"));
-                    cy = Double.parseDouble(element.getAttribute("cy"));
-                    rx = Double.parseDouble(element.getAttribute("r"));
-                    GArc garc = new GArc("circle"+GElement.getUniqID(), new GCode(cx,cy), rx, 0, 360);
-                    applySVGTransformation(transform, garc);
-                    parent.add( garc);   
-                    break;
-
-                case "svg":
-                    /*if ( ! element.getAttribute("height").isBlank()) {
-                        double height = Double.parseDouble(element.getAttribute("height"));
-                        double width = Double.parseDouble(element.getAttribute("width"));
-                    }*/
-                    for (Node n = walker.firstChild(); n != null; n = walker.nextSibling()) {
-                        readSVGtree(walker, indent + "  ", parent);
-                    }
-                    break;
-                default:
-                    System.out.println("(info) importSVG: ignoring <"+element.getTagName()+"...");  
-                    for (Node n = walker.firstChild(); n != null; n = walker.nextSibling()) {
-                        readSVGtree(walker, indent + "  ", parent);
-                    }
-            }            
-        }
-        walker.setCurrentNode(node);
-    }      
-    
-    /**
-     * Read a SVG Path as described here https://svg-path-visualizer.netlify.app/
-     * 
-     * @return the group containing all draw of this data
-    */
-    public GGroup readSVGPath( String name, String dataPathString) {
-        GGroup res = new GGroup(name);
-        GMixedPath mixPath = new GMixedPath( name);
-        
-        currentPosition = new GCode(0,0,0);
-        
-        char currentMode = '?';
-        boolean absolute = false;
-        GCode p, firstPoint = null, pt[] = new GCode[4], lastBezierPoint2 = null, lastBezierEnd = null;
-        int patchNumber = 0, spNumber = 0, idSubPath = 1;
-        
-        String[] commands = dataPathString.split(" ");
-        for( int cn = 0; cn < commands.length; ) {
-            
-            while ( commands[cn].isBlank() && (cn < commands.length)) cn++;
-            
-            if ( cn < commands.length) {
-                String s = commands[cn];
-                //System.out.println("S=["+s+"]");
-
-                // get next command ?
-                if ( ! s.isEmpty() ) {  
-                    char t = s.toUpperCase().charAt(0);
-
-                    if ( ! (((t>='0') && (t<='9')) || (t=='-'))) {                    
-                        currentMode = s.toUpperCase().charAt(0);    
-                        absolute = s.charAt(0) == currentMode; // absolute if cmd is UPPERCASE
-
-                        if ( s.length() > 1) commands[cn] = s.substring(1);
-                        else cn++;
-                    }
-                }
-
-                // get next position ?
-                switch( currentMode) {
-                        //if ( firstPoint != null) System.err.println("SVGImport : moveTo in path");
-                    case 'H':                        
-                        if ( absolute) currentPosition.setX(Double.parseDouble( commands[cn++]));
-                        else currentPosition.translate(Double.parseDouble( commands[cn++]), 0);
-                        mixPath.add( currentPosition.clone());
-                        break;
-                    case 'V':   
-                        if ( absolute) currentPosition.setY(Double.parseDouble( commands[cn++]));
-                        else currentPosition.translate(0, Double.parseDouble( commands[cn++]));
-                        mixPath.add( currentPosition.clone());  
-                        break;
-                    case 'M':   
-                        if ( firstPoint != null) {
-                            res.add( mixPath);
-                            mixPath = new GMixedPath( name + "." + idSubPath++);
-                        }                      
-                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);
-                        mixPath.add( firstPoint = currentPosition.clone()); 
-                        currentMode = 'L'; // for polyline implementation
-                        break;
-                    case 'L':
-                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);                                   
-                        mixPath.add( currentPosition.clone());      
-                        break;
-                    case 'C': // bezier
-                        pt[0] = currentPosition.clone();                        
-                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);
-                        pt[1] = currentPosition.clone();
-                        if ( ! absolute) currentPosition = pt[0].clone();
-                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);
-                        lastBezierPoint2 = pt[2] = currentPosition.clone();
-                        if ( ! absolute) currentPosition = pt[0].clone();
-                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);
-                        lastBezierEnd = pt[3] = currentPosition.clone();
-                        GElement el = new GSpline("sp"+spNumber++, pt[0], pt[1], pt[2], pt[3]);
-                        if ( ! mixPath.add(el)) {
-                            res.add( mixPath);
-                            res.add(el);
-                            mixPath = new GMixedPath( name + "." + idSubPath++);
-                            mixPath.add( currentPosition.clone());
-                        }
-                        break;
-
-                    case 'S': // bezier chained
-                        pt[0] = lastBezierEnd.clone();
-                        pt[1] = lastBezierEnd.getMirrorPoint(lastBezierPoint2 );
-                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);
-                        lastBezierPoint2 = pt[2] = currentPosition.clone();
-                        if ( ! absolute) currentPosition = pt[0].clone();
-                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);
-                        lastBezierEnd = pt[3] = currentPosition.clone();
-                        mixPath.add(new GSpline("s"+spNumber++, pt[0], pt[1], pt[2], pt[3]));
-                        break;
-                    case 'Q': // quad
-                        pt[0] = currentPosition.clone();
-                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);
-                        lastBezierPoint2 = pt[1] = currentPosition.clone();
-                        if ( ! absolute) currentPosition = pt[0].clone();
-                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);
-                        lastBezierEnd = pt[2] = currentPosition.clone();
-                        mixPath.add(new GSpline("q"+spNumber++, pt[0], pt[1], pt[2]));
-                        break;                        
-                    case 'T': // quad chained
-                        pt[0] = lastBezierEnd.clone();
-                        lastBezierPoint2 = pt[1] = lastBezierEnd.getMirrorPoint(lastBezierPoint2 );
-                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);
-                        lastBezierEnd = pt[2] = currentPosition.clone();
-                        el = new GSpline("q"+spNumber++, pt[0], pt[1], pt[2]);
-                        if ( ! mixPath.add( el)) {                                
-                            res.add( mixPath);
-                            res.add(el);
-                            mixPath = new GMixedPath( name + "." + idSubPath++);
-                            mixPath.add( currentPosition.clone());
-                        } 
-                        break;
-                    case 'A': // elliptical Arc (rx,ry rotate LargeArcFlag SweepFlag fx,fy)    
-                        pt[1] = currentPosition.clone();
-                        
-                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, true);
-                        pt[0] = currentPosition.clone(); // radiusX,radiusY
-                                                        
-                        float rotate = Float.parseFloat(commands[cn++]);
-                        
-                        boolean largeArcFlag,sweepFlag;
-                        if ( commands[cn].contains(",")) {
-                            String[] vals = commands[cn++].split(",");
-                            largeArcFlag= Integer.parseInt(vals[0]) == 1;
-                            sweepFlag = Integer.parseInt(vals[1]) == 1;                            
-                        } else {
-                            largeArcFlag= Integer.parseInt(commands[cn++]) == 1;
-                            sweepFlag = Integer.parseInt(commands[cn++]) == 1;
-                        }
-    
-                        if ( ! absolute) currentPosition = pt[1].clone();
-                        cn = getNextSVGPosition( cn, commands, currentMode, currentPosition, absolute);
-                        pt[2] = currentPosition.clone(); // last point 
-                        
-                        // radiusx, radiusy, xAxisRotation, boolean largeArcFlag, boolean sweepFlag, x, y                     
-                        el = arcTo(pt[1], (float)pt[0].getX(), (float)pt[0].getY(), rotate, largeArcFlag, 
-                                        sweepFlag, (float)currentPosition.getX(), (float)currentPosition.getY());
-                                                
-                        if ( ! mixPath.add( el)) {                                
-                            res.add( mixPath);
-                            res.add(el);
-                            mixPath = new GMixedPath( name + "." + idSubPath++);
-                            mixPath.add( currentPosition.clone());
-                        }                           
-                        break;
-                    case 'Z':
-                        if ( firstPoint != null) {
-                            currentPosition.set(firstPoint.clone());
-                            mixPath.add( currentPosition.clone());                           
-                        }
-                        break;
-                    default:
-                        System.err.println("importSVG: command '"+currentMode+"' in path is not implemented yet.");
-                        cn++;
-                }
-            }
-        }
-        res.add( mixPath);
-        return res;
-    } 
-    
-        private void applySVGTransformation(String transform, GElement elem) {
-        if ( (transform != null) && ! transform.isBlank() ) {
-            Pattern pat = Pattern.compile("^([^\\(]+)\\(([^\\)]+)\\)"); 
-            Matcher m = pat.matcher(transform);
-            if( m.matches()) {
-                //System.out.println(m.group(1) + " et " + m.group(2));
-
-                switch( m.group(1)) {
-                    case "translate":
-                        String vals[] = new String[2];
-                        vals[1] = m.group(2);
-                        vals = extractNumberFrom(vals[1]);
-                        double tx = Double.parseDouble( vals[0]);
-                        vals = extractNumberFrom(vals[1]);
-                        double ty = Double.parseDouble(vals[0]);
-                        elem.translate(tx, ty);
-                        break;
-                        
-                    case "matrix":
-                        double matrix[] = new double[6];
-                        vals = new String[2];
-                        vals[1] = m.group(2);
-                        for( int i = 0; i < 6; i++) {
-                            vals = extractNumberFrom(vals[1]);
-                            matrix[i] = Double.parseDouble(vals[0]);
-                        }
-                        AffineTransform t = new AffineTransform(matrix);
-                        elem.transform( t);
-                        break;
-                        
-                    case "scale":
-                        vals = new String[2];
-                        vals[1] = m.group(2);
-                        vals = extractNumberFrom(vals[1]);
-                        double sx = Double.parseDouble( vals[0]);
-                        vals = extractNumberFrom(vals[1]);
-                        double sy = Double.parseDouble(vals[0]);                                                
-                        elem.scale(new Point2D.Double(), sx, sy);
-                        break;
-                        
-                    default: 
-                        System.out.println("importSVG: unknow transform="+transform);
-                }
-            }                                                            
-        }    
-    }
-    
-    /**
-     * Update the current position accordint to the SVG d:path:element[number]
-     * @param number            the current element in path
-     * @param commands          the elements of the path
-     * @param currentCommand    the current SVG:d:path command
-     * @param currentPosition   the current position
-     * @param absolute          read an absolute position ?
-     * @return the next element position to read after
-     */
-    private static int getNextSVGPosition(int number, String[] commands, char currentCommand, GCode currentPosition, boolean absolute) {
-        int cn = number;
-        while( cn < commands.length ) {
-            String p = commands[cn++];
-            if ( ! p.isBlank()) {
-                String[] v2, v1 = extractNumberFrom( p);                
-                if ( v1[1].isBlank()) {
-                    v2 = extractNumberFrom( commands[cn++]);
-                } else {
-                    v2 = extractNumberFrom(v1[1]);
-                }
-                if ( ! v2[1].isBlank()) {
-                    cn--;
-                    commands[cn] = v2[1];
-                }
-                
-                currentPosition.set(currentCommand=='M'?0:1,
-                                    Double.parseDouble(v1[0]) + (absolute ? 0 : currentPosition.getX()),
-                                    Double.parseDouble(v2[0]) + (absolute ? 0 : currentPosition.getY()));
-               
-                return cn;
-            }
-        }
-        return Integer.MAX_VALUE;
-    }
-    
-    
-    /**
-     * Extract a number from 'input' string.
-     * 
-     * @param input the string to read the number
-     * @return String[0] == the number, String[1] == the rest of 'input'
-     */
-    public static String[] extractNumberFrom( String input) {
-        Pattern pat = Pattern.compile("^[,\\s]*(-?(([\\d]+\\.[\\d]+)|([\\d]+)|(\\.\\d+))([Ee]-?\\d+)?)(.*)$");
-        Matcher m = pat.matcher(input);
-        String res[] = new String[2];
-        if( m.matches()) {
-            res[0] = m.group(1).isEmpty() ? m.group(2) : m.group(1);
-            res[1] = m.group(7);
-        } else {
-            res[1] = input;
-        }       
-        return res;
-    }
-    
-    /**
-     * Taken from internet.
-     * 
-     * @param startPoint
-     * @param rx
-     * @param ry
-     * @param theta
-     * @param largeArcFlag
-     * @param sweepFlag
-     * @param x
-     * @param y
-     * @return 
-     */
-    public static final GElement arcTo(GCode startPoint, float rx, float ry, float theta, boolean largeArcFlag, boolean sweepFlag, float x, float y) {
-            
-            // Ensure radii are valid
-            if (rx == 0 || ry == 0) return new G1Path("arc"+GElement.getUniqID());
-                  
-            // Get the current (x, y) coordinates of the path
-            Point2D p2d = startPoint;
-            float x0 = (float) p2d.getX();
-            float y0 = (float) p2d.getY();
-            // Compute the half distance between the current and the final point
-            float dx2 = (x0 - x) / 2.0f;
-            float dy2 = (y0 - y) / 2.0f;
-            // Convert theta from degrees to radians
-            theta = (float) Math.toRadians(theta % 360f);
-
-            //
-            // Step 1 : Compute (x1, y1)
-            //
-            float x1 = (float) (Math.cos(theta) * (double) dx2 + Math.sin(theta)
-                            * (double) dy2);
-            float y1 = (float) (-Math.sin(theta) * (double) dx2 + Math.cos(theta)
-                            * (double) dy2);
-            // Ensure radii are large enough
-            rx = Math.abs(rx);
-            ry = Math.abs(ry);
-            float Prx = rx * rx;
-            float Pry = ry * ry;
-            float Px1 = x1 * x1;
-            float Py1 = y1 * y1;
-            double d = Px1 / Prx + Py1 / Pry;
-            if (d > 1) {
-                    rx = Math.abs((float) (Math.sqrt(d) * (double) rx));
-                    ry = Math.abs((float) (Math.sqrt(d) * (double) ry));
-                    Prx = rx * rx;
-                    Pry = ry * ry;
-            }
-
-            //
-            // Step 2 : Compute (cx1, cy1)
-            //
-            double sign = (largeArcFlag == sweepFlag) ? -1d : 1d;
-            float coef = (float) (sign * Math
-                            .sqrt(((Prx * Pry) - (Prx * Py1) - (Pry * Px1))
-                                            / ((Prx * Py1) + (Pry * Px1))));
-            float cx1 = coef * ((rx * y1) / ry);
-            float cy1 = coef * -((ry * x1) / rx);
-
-            //
-            // Step 3 : Compute (cx, cy) from (cx1, cy1)
-            //
-            float sx2 = (x0 + x) / 2.0f;
-            float sy2 = (y0 + y) / 2.0f;
-            float cx = sx2 + (float) (Math.cos(theta) * (double) cx1 - Math.sin(theta)
-                                            * (double) cy1);
-            float cy = sy2 + (float) (Math.sin(theta) * (double) cx1 + Math.cos(theta)
-                                            * (double) cy1);
-
-            //
-            // Step 4 : Compute the angleStart (theta1) and the angleExtent (dtheta)
-            //
-            float ux = (x1 - cx1) / rx;
-            float uy = (y1 - cy1) / ry;
-            float vx = (-x1 - cx1) / rx;
-            float vy = (-y1 - cy1) / ry;
-            float p, n;
-            // Compute the angle start
-            n = (float) Math.sqrt((ux * ux) + (uy * uy));
-            p = ux; // (1 * ux) + (0 * uy)
-            sign = (uy < 0) ? -1d : 1d;
-            float angleStart = (float) Math.toDegrees(sign * Math.acos(p / n));
-            // Compute the angle extent
-            n = (float) Math.sqrt((ux * ux + uy * uy) * (vx * vx + vy * vy));
-            p = ux * vx + uy * vy;
-            sign = (ux * vy - uy * vx < 0) ? -1d : 1d;
-            float angleExtent = (float) Math.toDegrees(sign * Math.acos(p / n));
-            if (!sweepFlag && angleExtent > 0) {
-                    angleExtent -= 360f;
-            } else if (sweepFlag && angleExtent < 0) {
-                    angleExtent += 360f;
-            }
-            angleExtent %= 360f;
-            angleStart %= 360f;
-
-            Arc2D.Float arc = new Arc2D.Float();
-            arc.x = cx - rx;
-            arc.y = cy - ry;
-            arc.width = rx * 2.0f;
-            arc.height = ry * 2.0f;
-            arc.start = -angleStart;
-            arc.extent = -angleExtent;
-            
-            if ( rx == ry) {
-                // Create GArc                
-                return new GArc("arc", new GCode(cx,cy), rx, angleStart, -angleExtent);
-                        
-            } else {
-                Path2D path = new Path2D.Double();
-                path.moveTo((float)startPoint.getX(), (float)startPoint.getY());                        
-                path.append(arc, true);
-                return G1Path.makeFromShape( "ea"+GElement.getUniqID(), path, "").get(0);
-            }
-    }
     
     
     public void saveDocument(String filename) throws IOException
@@ -1732,7 +854,7 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
             if ( (e.getClickCount() == 1) ) { // point/block selection
                 
                 if (editedElement != null) { // point selection
-                    GCode sel =  editedElement.getCloserPoint(screenToCoordPoint(e.getX(), e.getY()), 10 / zoomFactor, null, false);
+                    GCode sel =  spatialIndex.getCloserPoint(editedElement, screenToCoordPoint(e.getX(), e.getY()), 10 / zoomFactor);
                     if ((e.getModifiersEx() & (MouseEvent.CTRL_DOWN_MASK|MouseEvent.SHIFT_DOWN_MASK)) != 0) // add/remove from/to selection
                     {
                         if (sel != null) {
@@ -1754,7 +876,7 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
                 else    // block selection
                 {
                     if ( mouseMode != MOUSE_MODE_NONE) return;
-                    GElement sel = editedGroup.getElementFromPoint(screenToCoordPoint(e.getX(), e.getY()), 10 / zoomFactor, null);
+                    GElement sel = spatialIndex.getElementFromPoint(editedGroup, screenToCoordPoint(e.getX(), e.getY()), 10 / zoomFactor, null);
 
                     if (ctrlDown | shiftDown) // add/remove from/to selection
                     {
@@ -1784,7 +906,7 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
             } else { // (e.getClickCount() != 1)
                 
                 if ( (e.getModifiersEx() & (MouseEvent.ALT_DOWN_MASK | MouseEvent.CTRL_DOWN_MASK | MouseEvent.SHIFT_DOWN_MASK)) == 0)
-                    setEditedElement(editedGroup.getElementFromPoint(screenToCoordPoint(e.getX(), e.getY()), 10 / zoomFactor, null));         
+                    setEditedElement(spatialIndex.getElementFromPoint(editedGroup, screenToCoordPoint(e.getX(), e.getY()), 10 / zoomFactor, null));         
                 
             }
         } else // button != BUTTON1
@@ -1950,7 +1072,7 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
                             GElement p;  
                             
                             if ( ! (shiftDown | ctrlDown) &&
-                                 ((p=editedGroup.getElementFromPoint(screenToCoordPoint(e.getX(), e.getY()),
+                                 ((p=spatialIndex.getElementFromPoint(editedGroup, screenToCoordPoint(e.getX(), e.getY()),
                                          7 / zoomFactor, selectedElements))!=null)) {
                                 if ( selectedElements.isEmpty()) selectedElements.add(p);
                                 coordMouseOrigin = getCoordSnapPointFor(e.getX(), e.getY());
@@ -2241,7 +1363,7 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
 
                     } else {
                         // find new elements selected
-                        for( GElement el : editedGroup.getIterable()) {
+                        for( GElement el : spatialIndex.getElementsIn(editedGroup, r)) {
                             Rectangle2D r2 = el.getBounds();
                             if ( r2 == null) continue;
                             //System.out.println(s.getID() + " = " + r2);
@@ -2351,9 +1473,7 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
                     a = Math.toRadians((Math.round(Math.toDegrees(a))));
                 
                 if ( editedElement == null) {
-                    for ( GElement s : selectedElements) {
-                        s.rotate(transformationOrigin, a - lastRotationAngle);
-                    } 
+                    BulkTransform.rotate(selectedElements, transformationOrigin, a - lastRotationAngle);
                 
                 } else {                   
                     for ( GCode p : selectedPoints) {
@@ -2386,9 +1506,7 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
                 if ((ratioX==lastScaleRatioX) && (ratioY==lastScaleRatioY)) return;
                 
                 if ( editedElement == null) {                  
-                    for ( GElement s : selectedElements) {
-                        s.scale(transformationOrigin, ratioX/lastScaleRatioX, ratioY/lastScaleRatioY);
-                    }                        
+                    BulkTransform.scale(selectedElements, transformationOrigin, ratioX/lastScaleRatioX, ratioY/lastScaleRatioY);
                 } else {
                     // scale points
                     for ( GCode p : selectedPoints) {
@@ -2413,7 +1531,7 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
             case MOUSE_MODE_MOVE_SEL:
                 if ( coordSnapPosition.distance(coordMouseOrigin) > 10e-8) {
                     moveCopySelection(coordSnapPosition.getX() - coordMouseOrigin.getX(),
-                            coordSnapPosition.getY() - coordMouseOrigin.getY(), 0, false, false, false);
+                            coordSnapPosition.getY() - coordMouseOrigin.getY(), 0, false, false, false, false);
                                                            
                     coordMouseOrigin = coordSnapPosition;
                 }
@@ -2458,7 +1576,7 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
         
         if (editedElement != null) {
             GCode old = highlitedPoint;
-            highlitedPoint = editedElement.getCloserPoint(screenToCoordPoint(e.getPoint()), 10 / zoomFactor, null, false);       
+            highlitedPoint = spatialIndex.getCloserPoint(editedElement, screenToCoordPoint(e.getPoint()), 10 / zoomFactor);       
             if ( old != highlitedPoint) {
                 if ( highlitedPoint != null)
                 {
@@ -2635,7 +1753,7 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
             }
         } else
             if ( ! selectedElements.isEmpty()) {
-                selectedElements.forEach((s) -> { s.translate(screenDx/zoomFactor, screenDy/zoomFactor); });
+                BulkTransform.translate(selectedElements, screenDx/zoomFactor, screenDy/zoomFactor);
                 invalidate();
             }
     }      
@@ -2648,9 +1766,10 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
      * @param nbCopies if 0 juste move selection
      * @param packed
      * @param grouped
+     * @param instances make copies that share the geometry of the selected elements (see GInstance)
      * @param saveState 
      */
-    public void moveCopySelection( double deltaX, double deltaY, int nbCopies, boolean packed, boolean grouped, boolean saveState) {
+    public void moveCopySelection( double deltaX, double deltaY, int nbCopies, boolean packed, boolean grouped, boolean instances, boolean saveState) {
         final double tx = Double.isNaN(deltaX) ? 0 : deltaX;
         final double ty = Double.isNaN(deltaY) ? 0 : deltaY;
         
@@ -2660,7 +1779,7 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
             if ( selectedElements.isEmpty()) return;
             
             if ( nbCopies == 0) { // simple move
-                selectedElements.forEach((s) -> { s.translate(tx, ty); });
+                BulkTransform.translate(selectedElements, tx, ty);
                 stateHasChanged=true;
             } else {
                 ArrayList<GElement> copies = new ArrayList<>(nbCopies * (packed ? 1 : selectedElements.size()));
@@ -2671,8 +1790,12 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
                     GGroup g =null;
                     if ( packed) g = new GGroup("copy"+nbCopies);
                     for ( GElement s : selectedElements) { 
-                        GElement c = s.clone();
-                        c.translate(dX, dY);
+                        GElement c;
+                        if ( instances) c = new GInstance(s, AffineTransform.getTranslateInstance(dX, dY));
+                        else {
+                            c = s.clone();
+                            c.translate(dX, dY);
+                        }
                         if ( packed) g.add(c);
                         else copies.add(c);
                     }
@@ -2840,23 +1963,42 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
                 break;
                 
             case ACTION_ADD_INTERSECTION_POINTS:
-                if ( (selectedElements.size()>1) &&
-                        (selectedElements.get(0) instanceof G1Path)) {
-                    
-                    G1Path el = (G1Path)selectedElements.get(0);
-                    selectedElements.remove(el);
-                    
-                    ArrayList<GElement> tmp = new GGroup(selectedElements, false).flatten().toArray();
-                    ArrayList<G1Path> others = new ArrayList<>( tmp.size());
-                    for ( GElement e : tmp ) if (e instanceof G1Path) others.add((G1Path)e);
+                if ( selectedElements.size()>1) {
+                    // points are added to the paths, the other shapes are flattened
+                    final long t0 = System.currentTimeMillis();
+                    final SegmentIntersector si = new SegmentIntersector();
+                    final ArrayList<G1Path> paths = new ArrayList<>();
+                    final ArrayList<GElement> others = new ArrayList<>();
+                    for ( GElement e : selectedElements)
+                        if ( e.getClass() == G1Path.class) {
+                            si.add((G1Path)e, paths.size());
+                            paths.add((G1Path)e);
+                        } else
+                            others.add(e);
+                    if ( paths.isEmpty()) return false;
+                    for ( GElement e : new GGroup(others, false).flatten().toArray())
+                        if (e instanceof G1Path) si.add((G1Path)e, paths.size());
                     
-                    ArrayList<GCode> pts = ((G1Path)selectedElements.get(0)).addIntersectionPointsWith(others);
-                    if ( ! pts.isEmpty()) {                      
-                        setEditedElement(selectedElements.get(0));
-                        selectedPoints = pts;
+                    final ArrayList<ArrayList<SegmentIntersector.Crossing>> crossings = si.getCrossings();
+                    final ArrayList<GCode> pts = new ArrayList<>();
+                    G1Path modified = null;
+                    int nbModified = 0;
+                    for( int i = 0; i < paths.size(); i++) {
+                        final ArrayList<GCode> added = paths.get(i).addCrossings(crossings.get(i));
+                        if ( ! added.isEmpty()) {
+                            pts.addAll(added);
+                            modified = paths.get(i);
+                            nbModified++;
+                        }
+                    }
+                    if ( ! pts.isEmpty()) {
+                        if ( nbModified == 1) {
+                            setEditedElement(modified);
+                            selectedPoints = pts;
+                        }
                         saveState(true);  
                     }
-                    inform(pts.size() + " point(s) added");
+                    inform(pts.size() + " point(s) added in " + (System.currentTimeMillis() - t0) + " ms");
                     break;
                 } else
                     return false;
@@ -3229,14 +2371,14 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
             case ACTION_FLIP_H:
                 if ( selectedElements.isEmpty()) return false;
                 center = getCenterOfSelection();
-                selectedElements.forEach((s) -> { s.scale(center, -1, 1); }); 
+                BulkTransform.scale(selectedElements, center, -1, 1);
                 saveState(false);
                 break;
                 
             case ACTION_FLIP_V:
                 if ( selectedElements.isEmpty()) return false;
                 center = getCenterOfSelection();
-                selectedElements.forEach((s) -> { s.scale(center, 1, -1); });
+                BulkTransform.scale(selectedElements, center, 1, -1);
                 saveState(false);
                 break;
 
@@ -3308,61 +2450,49 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
                 }
                 else if ( selectedElements.size() > 1)
                 {
-                    boolean joined;
                     int joinCount=0;
-                    do
-                    {
-                        joined=false;
-                        for (GElement s1 : selectedElements) {
-                            if ( s1 instanceof GGroup) { 
-                                if (((GGroup) s1).joinElements(param)) {
-                                    if ( s1.size()==1) {
-                                        editedGroup.add(((GGroup) s1).get(0));
-                                        editedGroup.remove(s1);                               
-                                        joined=true;
-                                    } 
-                                    joinCount++;
-                                    break;
-                                }
+                    final ArrayList<GElement> paths = new ArrayList<>();
+                    for (GElement s1 : selectedElements) {
+                        if ( s1 instanceof GGroup) { 
+                            if (((GGroup) s1).joinElements(param)) {
+                                if ( s1.size()==1) {
+                                    final GGroup p = document.getParent(s1);
+                                    final int i = p.indexOf(s1);
+                                    p.remove(s1);
+                                    p.add(i, s1 = ((GGroup) s1).get(0));
+                                } 
+                                joinCount++;
                             }
-                            if ( ! ((s1 instanceof G1Path)||(s1 instanceof GSpline)||(s1 instanceof GMixedPath)) || (s1 instanceof GPocket3D)) continue;
-                            if (s1.getFirstPoint() == null) continue;
-                            
-                            for( GElement s2 : selectedElements) {
-                                if ( ! ((s2 instanceof G1Path)||(s1 instanceof GSpline)||(s1 instanceof GMixedPath)) || (s1 instanceof GPocket3D)) continue;
-                                if (s2.getFirstPoint() == null) continue;
-                                
-                                if ( s1 != s2) {
-                                    if ( s1.getFirstPoint().distance( s2.getFirstPoint()) < param)
-                                        s2.reverse();
-                                    
-                                    if ( (s1.getLastPoint().distance(s2.getFirstPoint()) < param) ||
-                                         (s1.getLastPoint().distance(s2.getLastPoint()) < param)) {       
-                                        
-                                        if (  (s1 instanceof GSpline) ||
-                                             ((s2 instanceof GSpline) && ! (s2 instanceof GMixedPath)) || 
-                                             ((s1 instanceof G1Path)  && ! (s2 instanceof G1Path))) {
-                                            GMixedPath mp = GMixedPath.makeFromGElement(s1);                                          
-                                            GGroup p = document.getParent(s1);
-                                            int i = p.indexOf(s1);
-                                            p.remove(s1);                                            
-                                            p.add(i, mp);
-                                            selectedElements.add(selectedElements.indexOf(s1), mp);
-                                            selectedElements.remove(s1);
-                                            s1=mp;                                                                                     
-                                        }
-                                        document.getParent(s2).remove(s2);
-                                        selectedElements.remove(s2);
-                                        if (s1.getLastPoint().distance(s2.getLastPoint()) < param) s2.reverse();                                      
-                                        joined=s1.concat(s2, param);
-                                        joinCount++;
-                                        break;
-                                    } 
-                                }   
+                        }
+                        if ( ! ((s1 instanceof G1Path)||(s1 instanceof GSpline)||(s1 instanceof GMixedPath)) || (s1 instanceof GPocket3D)) continue;
+                        if (s1.getFirstPoint() != null) paths.add(s1);
+                    }
+                    
+                    final IdentityHashMap<GGroup, Set<GElement>> joined = new IdentityHashMap<>();
+                    for( int[] chain : PathJoiner.getChains(paths, param)) {
+                        GElement s1 = paths.get(chain[0] >> 1);
+                        if ( (chain[0] & 1) != 0) s1.reverse();
+                        boolean mixed = s1 instanceof GSpline;
+                        for( int i = 1; i < chain.length; i++) mixed |= ! (paths.get(chain[i] >> 1) instanceof G1Path);
+                        if ( mixed && ! (s1 instanceof GMixedPath)) {
+                            GMixedPath mp = GMixedPath.makeFromGElement(s1);                                          
+                            GGroup p = document.getParent(s1);
+                            int i = p.indexOf(s1);
+                            p.remove(s1);                                            
+                            p.add(i, mp);
+                            s1=mp;                                                                                     
+                        }
+                        for( int i = 1; i < chain.length; i++) {
+                            final GElement s2 = paths.get(chain[i] >> 1);
+                            // G1Path.concat() reverses it itself
+                            if ( ((chain[i] & 1) != 0) && (s1 instanceof GMixedPath)) s2.reverse();
+                            if ( s1.concat(s2, param)) {
+                                joined.computeIfAbsent(document.getParent(s2), (p) -> Collections.newSetFromMap(new IdentityHashMap<>())).add(s2);
+                                joinCount++;
                             }
-                            if ( joined) break;
                         }
-                    } while ( joined);
+                    }
+                    joined.forEach((p, els) -> { p.removeElements(els); });
                     
                     if ( joinCount > 0) {
                         selectedElements.clear();
@@ -3386,49 +2516,60 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
                 
                 
             case ACTION_MAKE_POCKET:
-                if ( selectedElements.size() < 1) return false;
-                if ( ! selectedElements.get(0).isClosed()) return false;
+                final ArrayList<ArrayList<GElement>> islands = G1Path.getPocketIslands(selectedElements);
+                if ( islands.isEmpty()) return false;
                 
-                g = G1Path.makePocket(selectedElements, param);
-                if ( ! g.isEmpty()) {
-                    editedGroup.add( g);
-                    (g.properties=new EngravingProperties()).setAllAtOnce(true);
-                }             
-                saveState(true);
-                inform(g.size() + "path(s) created.");
+                final double pocketOffset = param;
+                final double savedTime[] = new double[1];
+                runLongTask(islands.size(), (cancelled, progress) -> {
+                    final ArrayList<GGroup> rings = G1Path.makePockets(islands, pocketOffset, cancelled, progress);
+                    if ( rings == null) return null;
+                    // rings linked without retract when possible
+                    final ArrayList<GGroup> linked = new ArrayList<>(rings.size());
+                    for( GGroup p : rings) {
+                        final GGroup l = G1Path.linkPocketRings(p, 2 * pocketOffset);
+                        savedTime[0] += getMachiningTime(p) - getMachiningTime(l);
+                        linked.add(l);
+                    }
+                    return linked;
+                }, (pockets) -> {
+                    int nbPaths = 0;
+                    for( GGroup p : pockets) 
+                        if ( ! p.isEmpty()) {
+                            editedGroup.add( p);
+                            (p.properties=new EngravingProperties()).setAllAtOnce(true);
+                            nbPaths += p.size();
+                        }
+                    saveState(true);
+                    inform(nbPaths + "path(s) created" + (Double.isNaN(savedTime[0]) ? "." : 
+                            String.format(Locale.ROOT, ", about %.0f s saved by pass with linked rings.", savedTime[0])));
+                });
                 break;
                 
             case ACTION_MAKE_OFFSET_CUT:
                 if ( selectedElements.size() < 1) return false;
-                boolean inner = false;
-                if ( param < 0) {
-                    inner=true;
-                    param=-param;
-                }
+                final boolean inner = param < 0;
+                final double cutOffset = Math.abs(param);
+                @SuppressWarnings("unchecked") final ArrayList<GElement> cutElements = (ArrayList<GElement>) selectedElements.clone();
+                final Rectangle2D selectionBounds = getSelectionBoundary(false);
                 
-                Area area = null;
-                for ( GElement b : selectedElements) {
-                        Area a = b.getOffsetArea(param);
-                        if ( area == null) area = a;
-                        else area.add(a);   
-                }
-                 
-                r = getSelectionBoundary(false);
-                ArrayList<GElement> offsets = G1Path.makeElementsFromArea( "cut", area);
-                @SuppressWarnings("unchecked") ArrayList<GElement> res = (ArrayList<GElement>) offsets.clone();
-                for( GElement b : offsets)
-                    if ( b.getBounds().contains(r)) { 
-                        if ( inner) res.remove(b);
-                    } else 
-                        if ( ! inner) res.remove(b);
+                runLongTask(cutElements.size(), (cancelled, progress) -> PolygonOffset.getOffsetPath(cutElements, cutOffset, cancelled, progress), (area) -> {
+                    ArrayList<GElement> offsets = G1Path.makeElementsFromArea( "cut", area);
+                    @SuppressWarnings("unchecked") ArrayList<GElement> res = (ArrayList<GElement>) offsets.clone();
+                    for( GElement b : offsets)
+                        if ( b.getBounds().contains(selectionBounds)) { 
+                            if ( inner) res.remove(b);
+                        } else 
+                            if ( ! inner) res.remove(b);
 
-                selectedElements.clear();
-                if ( ! res.isEmpty()) {
-                    if ( res.size() == 1) add(res.get(0));
-                    else add(new GGroup("cutPath", res));
-                }
-                saveState(true);
-                inform(res.size() + " cut path(s) created.");
+                    selectedElements.clear();
+                    if ( ! res.isEmpty()) {
+                        if ( res.size() == 1) add(res.get(0));
+                        else add(new GGroup("cutPath", res));
+                    }
+                    saveState(true);
+                    inform(res.size() + " cut path(s) created.");
+                });
                 break;
                 
             case ACTION_MAP_TEXT_TO_PATH:
@@ -3628,12 +2769,20 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
                 break;
                 
             case ACTION_SIMPLIFY:
+                final PolylineSimplifier.Algorithm algorithm = (object instanceof PolylineSimplifier.Algorithm) ? 
+                        (PolylineSimplifier.Algorithm)object : PolylineSimplifier.Algorithm.DOUGLAS_PEUCKER;
                 if ((selectedPoints.size() > 2) && ( editedElement instanceof G1Path))
                 {
-                    ArrayList<GCode> extraPoints = ((G1Path)editedElement).keepToSimplify(selectedPoints, param);
+                    ArrayList<GCode> extraPoints = ((G1Path)editedElement).getPointsToSimplify(selectedPoints, algorithm, param);
                     clearSelectedPoints();
                     selectedPoints.addAll(extraPoints); 
                     saveState(true);
+                    
+                } else if ( ! selectedElements.isEmpty()) {
+                    final long t = System.currentTimeMillis();
+                    final int nb = G1Path.simplify(selectedElements, algorithm, param);
+                    saveState(false);
+                    inform(nb + " point(s) removed in " + (System.currentTimeMillis() - t) + " ms");
                 }
                 break;
             case ACTION_SHOW_MOVES:
@@ -3653,41 +2802,43 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
                 invalidate();
                 break;
             case ACTION_SIMPLIFY_ANGLE:
-                if ( (editedElement != null) && (editedElement instanceof G1Path) ) {
-                      
-                    editedElement.removeByDistance(selectedPoints.isEmpty()?
-                                    ((G1Path)editedElement).getPointsByAngle(150) 
-                                    : selectedPoints, param);
+                // remove the points diverging less than param from the path (same engine as ACTION_SIMPLIFY)
+                final long ts = System.currentTimeMillis();
+                final int nbRemoved;
+                if ( editedElement instanceof G1Path) {
+                    final G1Path path = (G1Path)editedElement;
+                    if ( selectedPoints.isEmpty()) 
+                        nbRemoved = path.simplify(PolylineSimplifier.Algorithm.DOUGLAS_PEUCKER, param);
+                    else {
+                        nbRemoved = path.simplify(selectedPoints, PolylineSimplifier.Algorithm.DOUGLAS_PEUCKER, param);
+                        clearSelectedPoints();
+                    }
                     saveState(true);
-                 
                 } else {
-                    for( GElement b : selectedElements) {
-                        b.removeByDistance(null, param);
-                    }
-                  saveState(false);
-                 
+                    nbRemoved = G1Path.simplify(selectedElements, PolylineSimplifier.Algorithm.DOUGLAS_PEUCKER, param);
+                    saveState(false);
                 }
+                inform(nbRemoved + " point(s) removed in " + (System.currentTimeMillis() - ts) + " ms");
                 break;
             case ACTION_OPTIMIZE_MOVES:
-                if ( selectedElements.isEmpty() ) editedGroup.sort(coord2DCursor, true);
-                else if ( (selectedElements.size() == 1) && (selectedElements.get(0) instanceof GGroup))
-                    ((GGroup)selectedElements.get(0)).sort(coord2DCursor, true);
-                else {
+                final long t0 = System.currentTimeMillis();
+                final double before, after;
+                if ( selectedElements.isEmpty() || ((selectedElements.size() == 1) && (selectedElements.get(0) instanceof GGroup))) {
+                    final GGroup group = selectedElements.isEmpty() ? editedGroup : (GGroup)selectedElements.get(0);
+                    before = GGroup.getMovesLength(group.getAll(), coord2DCursor);
+                    group.sort(coord2DCursor, true, GGroup.OPTIMIZE_TIME_LIMIT_MS);
+                    after = GGroup.getMovesLength(group.getAll(), coord2DCursor);
+                } else {
                     @SuppressWarnings("unchecked")
                     final ArrayList<GElement> el = (ArrayList<GElement>) selectedElements.clone();
-                    GGroup.moveLength=0;
-                    GGroup.optimizeMoves(el.isEmpty() ? (ArrayList<GElement>)editedGroup.getAll().clone() : el, coord2DCursor, true);
+                    before = GGroup.getMovesLength(el, coord2DCursor);
+                    GGroup.optimizeMoves(el, coord2DCursor, true, GGroup.OPTIMIZE_TIME_LIMIT_MS);
+                    after = GGroup.getMovesLength(el, coord2DCursor);
                     // reorder selection in EditedGroup
-                    for(int i = 0; i < el.size(); i++) {
-                        int pos1 = editedGroup.indexOf(selectedElements.get(i));
-                        int pos2 = editedGroup.indexOf(el.get(i));
-                        editedGroup.remove(pos1);
-                        editedGroup.add(pos1, el.get(i));
-                        editedGroup.remove(pos2);
-                        editedGroup.add(pos2, selectedElements.get(i));
-                    }
+                    editedGroup.reorder(el);
                 }
                 saveState(true);
+                inform(String.format(Locale.ROOT, "Moves : %.1f mm -> %.1f mm in %d ms", before, after, System.currentTimeMillis() - t0));
                 break;
             case ACTION_UNDO:
                 if ( undoManager.canUndo()) {
@@ -3756,6 +2907,70 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
         return true;
     }
     
+    /**
+     * Estimate the time to cut all paths of <i>g</i> one time at the same Z, with a retract,
+     * a rapid move and a plunge (see GCodeDocumentRender.safeMoveTo) between them.
+     * @param g
+     * @return the time in seconds, or NaN if the speeds are not configured
+     */
+    private double getMachiningTime(GGroup g) {
+        final double feed = conf.feedRate / 60, jog = conf.jogSpeed / 60.;
+        if ( ! (feed > 0) || ! (jog > 0)) return Double.NaN;
+        final double retract = 2 * Math.abs(conf.safeZHeightForMoving - conf.engravingHeight) / feed;
+        double t = 0;
+        GCode last = null;
+        for( GElement e : g.getAll()) {
+            GCode prev = null;
+            for( int i = 0; i < e.size(); i++) {
+                final GCode p = e.getLine(i);
+                if ( ! p.isAPoint()) continue;
+                if ( prev != null) t += prev.distance(p) / feed;
+                else if ( last != null) t += retract + last.distance(p) / jog;
+                prev = p;
+            }
+            if ( prev != null) last = prev;
+        }
+        return t;
+    }
+    
+    /** Time the EDT waits for a job before showing the progress dialog. */
+    private static final long LONG_TASK_DELAY_MS = 300;
+
+    /**
+     * Run a long job in the fork-join pool. If it is not finished quickly, a modal dialog shows
+     * its progression and allows to cancel it (the EDT continue to paint the view).
+     * @param total the number of steps of the job
+     * @param job called by a worker thread with the cancel flag and the progress listener
+     * @param done called on the EDT with the result if the job has not been cancelled
+     */
+    private <T> void runLongTask(int total, BiFunction<BooleanSupplier, IntConsumer, T> job, Consumer<T> done) {
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final Window w = SwingUtilities.getWindowAncestor(this);
+        final LongTaskJobPanel dialog = new LongTaskJobPanel((w instanceof Frame) ? (Frame)w : null);
+        final CompletableFuture<T> f = CompletableFuture.supplyAsync(() -> job.apply(cancelled::get, dialog::update), ForkJoinPool.commonPool());
+        try {
+            T res;
+            try {
+                res = f.get(LONG_TASK_DELAY_MS, TimeUnit.MILLISECONDS);
+            } catch ( TimeoutException e) {
+                f.whenComplete((r, ex) -> EventQueue.invokeLater(dialog::close));
+                dialog.showComputingWindowMessage(total, () -> cancelled.set(true));
+                if ( cancelled.get()) {
+                    inform("Action cancelled.");
+                    return;
+                }
+                res = f.get();
+            }
+            if ( res != null) done.accept(res);
+        } catch ( InterruptedException e) {
+            cancelled.set(true);
+            Thread.currentThread().interrupt();
+        } catch ( ExecutionException e) {
+            e.getCause().printStackTrace();
+            inform("Error : " + e.getCause());
+        }
+    }
+    
     /**
      * Save the current state of the document into undoStack and invalidate()
      * @param updateSelection if true, remplace EditListViewer 
@@ -3884,6 +3099,7 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
             gCodeListViewer.repaint();           
         }
         selectionHasChanged=false;
+        paintVersion++;
         super.invalidate();
         repaint();
     }
@@ -4112,10 +3328,10 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
             
             if ( snapToPoints) {
                     if ( editedElement != null) {
-                        pPath = editedElement.getCloserPoint(p, 10 / zoomFactor, null, false);
+                        pPath = spatialIndex.getCloserPoint(editedElement, p, 10 / zoomFactor);
                     }
                     if ( pPath == null)
-                        pPath = document.getCloserPoint(p, 10 / zoomFactor,  
+                        pPath = spatialIndex.getCloserPoint(p, 10 / zoomFactor,  
                                         snapWithoutSelection ? selectedElements : null,
                                          snapWithoutSelection ? selectedPoints : null);
                     
@@ -4197,7 +3413,7 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
             else {
                 editedElement = element;
                 editedElement.addListDataListener( editedElementListener);
-                highlitedPoint=editedElement.getCloserPoint(coordSnapPosition, 10 / zoomFactor, null, false);
+                highlitedPoint=spatialIndex.getCloserPoint(editedElement, coordSnapPosition, 10 / zoomFactor);
             }    
         } else {
             editedGroup = document;            
@@ -4363,7 +3579,9 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
     public void setContent(GGroup content, boolean saveState) {
         boolean newDoc = (document == null);
         if ( ! newDoc) setEditedElement(null);           
+        if ( spatialIndex != null) spatialIndex.dispose();
         document = content;
+        spatialIndex = new SpatialIndex(document);
         stateHasChanged = true;
         
         if (content.isEmpty())
@@ -4756,80 +3974,262 @@ public final class JProjectEditorPanel extends javax.swing.JPanel implements Bac
     }
     
     /**
-     * Paint the G0 moving path between feedPaths.
-     * @param g
+     * Collect the G0 moving path between feedPaths.
      * @param group
      * @param lastPoint
+     * @param moves receive the start and end of each move
      * @return the last position of the path of this group
      */
-    private GCode paintMoves(Graphics g, GGroup group, GCode lastPoint) {
+    private GCode collectMoves(GGroup group, GCode lastPoint, ArrayList<Point2D> moves) {
         for ( GElement e : group.getIterable()) {
             if ( ! isGElementEnabled(e) || (e.getFirstPoint() == null)) continue;
             if ( e instanceof GGroup) 
-                lastPoint = paintMoves(g, (GGroup) e, lastPoint);
+                lastPoint = collectMoves((GGroup) e, lastPoint, moves);
             else {
-                if ( (lastPoint != null) && showMoves) {               
-                    Point2D p2=e.getFirstPoint();
-                    g.setColor(MOVE_COLOR);
-                    g.drawLine((int)(lastPoint.getX()*zoomFactor), (int)(-lastPoint.getY()*zoomFactor), (int)(p2.getX()*zoomFactor), (int)(-p2.getY()*zoomFactor));
+                if ( lastPoint != null) {
+                    moves.add(lastPoint);
+                    moves.add(e.getFirstPoint());
+                }
+                lastPoint = e.getLastPoint();
+            }
+        } 
+        return lastPoint; 
+    }
+    
+    /** Paint a G0 move with an arrow at its center. */
+    private static void paintMove(Graphics g, double zoomFactor, Point2D lastPoint, Point2D p2) {
+        g.setColor(MOVE_COLOR);
+        g.drawLine((int)(lastPoint.getX()*zoomFactor), (int)(-lastPoint.getY()*zoomFactor), (int)(p2.getX()*zoomFactor), (int)(-p2.getY()*zoomFactor));
 
-                    // Calcul du centre du segment
-                    final double centerX = (lastPoint.getX() + p2.getX()) / 2;
-                    final double centerY = (lastPoint.getY() + p2.getY()) / 2;
+        // Calcul du centre du segment
+        final double centerX = (lastPoint.getX() + p2.getX()) / 2;
+        final double centerY = (lastPoint.getY() + p2.getY()) / 2;
 
-                    // Calcul de la direction du segment (vecteur direction)
-                    final double dx = lastPoint.getX() - p2.getX();
-                    final double dy = lastPoint.getY() - p2.getY() ;
-                    
-                    // Calcul des coordonnées des segments de la tête de la flèche
-                    final double arrowLength = 20/zoomFactor;  // Longueur de la flèche
-                    final double arrowAngle = Math.toRadians(30);  // Angle de la flèche par rapport au segment
+        // Calcul de la direction du segment (vecteur direction)
+        final double dx = lastPoint.getX() - p2.getX();
+        final double dy = lastPoint.getY() - p2.getY() ;
 
-                    // Calcul des coordonnées des deux segments de la flèche (à partir du centre)
-                    final double arrowX1 = centerX + arrowLength * Math.cos(Math.atan2(dy, dx) + arrowAngle);
-                    final double arrowY1 = centerY + arrowLength * Math.sin(Math.atan2(dy, dx) + arrowAngle);
+        // Calcul des coordonnées des segments de la tête de la flèche
+        final double arrowLength = 20/zoomFactor;  // Longueur de la flèche
+        final double arrowAngle = Math.toRadians(30);  // Angle de la flèche par rapport au segment
 
-                    final double arrowX2 = centerX + arrowLength * Math.cos(Math.atan2(dy, dx) - arrowAngle);
-                    final double arrowY2 = centerY + arrowLength * Math.sin(Math.atan2(dy, dx) - arrowAngle);
+        // Calcul des coordonnées des deux segments de la flèche (à partir du centre)
+        final double arrowX1 = centerX + arrowLength * Math.cos(Math.atan2(dy, dx) + arrowAngle);
+        final double arrowY1 = centerY + arrowLength * Math.sin(Math.atan2(dy, dx) + arrowAngle);
 
-                    // Dessiner les segments de la tête de flèche
-                    g.drawLine((int) (centerX*zoomFactor), (int) (-centerY*zoomFactor), (int)(arrowX1*zoomFactor), (int)( -arrowY1*zoomFactor));
-                    g.drawLine((int) (centerX*zoomFactor), (int) (-centerY*zoomFactor), (int)(arrowX2*zoomFactor), (int)( -arrowY2*zoomFactor));
+        final double arrowX2 = centerX + arrowLength * Math.cos(Math.atan2(dy, dx) - arrowAngle);
+        final double arrowY2 = centerY + arrowLength * Math.sin(Math.atan2(dy, dx) - arrowAngle);
 
-                }
-                lastPoint = e.getLastPoint();
+        // Dessiner les segments de la tête de flèche
+        g.drawLine((int) (centerX*zoomFactor), (int) (-centerY*zoomFactor), (int)(arrowX1*zoomFactor), (int)( -arrowY1*zoomFactor));
+        g.drawLine((int) (centerX*zoomFactor), (int) (-centerY*zoomFactor), (int)(arrowX2*zoomFactor), (int)( -arrowY2*zoomFactor));
+    }
+
+    /** Background picture, axis, workspace and grid. */
+    private void paintBackground(Graphics g) {
+        g.setColor(Color.black);
+        g.fillRect(0,0,getWidth(),getHeight());
+        
+        if ( (backgroundPictureParameter != null) && (backgroundPictureParameter.getPicture() != null) && backgroundPictureParameter.isImageVisible()) {
+            Graphics2D g2 = (Graphics2D)g;
+            AffineTransform t = g2.getTransform();
+            final java.awt.Shape clip = g2.getClip();
+            g2.clipRect(0, 0, getWidth(), getHeight());
+            final PicturePyramid picture = backgroundPictureParameter.getPicture();
+            java.awt.Point o = coordToScreenPoint( getBackgroundPictureParameters().getViewX(), getBackgroundPictureParameters().getViewY());
+            g2.translate(o.getX(), o.getY());
+            g2.rotate(Math.toRadians(backgroundPictureParameter.getRotation()));
+            
+            double w = backgroundPictureParameter.getWidth();
+            double h = backgroundPictureParameter.getHeight();
+            if ( (w == 0) || (h == 0)) { 
+                w = picture.getWidth();
+                h = picture.getHeight();
             }
+            // only the visible tiles, with the alpha already applied
+            g2.scale(w * zoomFactor / picture.getWidth(), h * zoomFactor / picture.getHeight());
+            picture.paint(g2, getBackgroundPictureParameters().getAlpha());
+            g2.setTransform(t);
+            g2.setClip(clip);
+        }
+        
+        // paint axis
+        g.setColor(Color.lightGray);
+        g.drawLine(0, dy, getWidth(), dy);
+        g.drawLine(dx, 0, dx, getHeight());        
+        
+        // paint workspace
+        if ( showWorkspace) {
+            g.setColor(Color.yellow);
+            int wsW = (int)(conf.workspaceWidth * zoomFactor);
+            int wsH = (int) (conf.workspaceHeight * zoomFactor);
+            switch ( conf.workspaceOrigin) {
+                case 0: g.drawRect(dx, dy, wsW, wsH); break;
+                case 1: g.drawRect(dx-wsW, dy, wsW, wsH); break;
+                case 2: g.drawRect(dx, dy-wsH, wsW, wsH); break;
+                case 3: g.drawRect(dx-wsW, dy-wsH, wsW, wsH); break;
+            }
+        }
+        
+        // paint rotating object workspace
+        if ( showObjectSurface) {           
+            g.setColor(Color.red);
+            Point2D o = coordToScreenPoint(0,0);
+            Point2D p = coordToScreenPoint(conf.objectLength, conf.objectDiameter * Math.PI);
+            int w = (int)(p.getX()-o.getX());
+            int h = (int)(o.getY()-p.getY());
+            g.drawRect((int)o.getX()-w, (int)o.getY()-h, 2 * w, 2 * h);
         } 
-        return lastPoint; 
+               
+        // paint Grid
+        if ( showGrid) {
+            Point2D upleft = screenToCoordPoint( 0, 0);
+            Point2D downRight = screenToCoordPoint(getWidth(), getHeight());
+  //          System.out.println(upleft + "   " + downRight + gridStep / zoomFactor);
+
+            for ( double x = Math.floor((upleft.getX() / gridStep))*gridStep; x < downRight.getX() + gridStep; x += gridStep) {
+                //g.drawLine((int)(x * zoomFactor), 0, (int) (x * zoomFactor), getHeight());
+                for ( double y = Math.floor((upleft.getY() / gridStep))*gridStep; y > downRight.getY() + gridStep; y -= gridStep) {
+                    //g.drawLine(0, (int)(y * zoomFactor), getWidth(), (int) (y * zoomFactor));
+                    if ( (Math.abs((x / (10*gridStep))-Math.round(x / (10*gridStep)))<0.00001) ||
+                         (Math.abs((y / (10*gridStep))-Math.round(y / (10*gridStep)))<0.00001))
+                        g.setColor(Color.white); //Color.lightGray);
+                    else 
+                        g.setColor(new Color(100,100,100));
+                      
+                    g.drawRect((int)(x* zoomFactor) + dx,  dy - (int)(y* zoomFactor), 0, 0);
+                }
+            }
+        }
+              
+    }
+    
+    /** 
+     * Snapshot of the moves and all elements of the document except editedElement, 
+     * made on the EDT and painted by the tile threads. 
+     * The caches of the elements are built here, the tiles read them while they are not changed.
+     */
+    private TiledLayer.Snapshot makeGeometrySnapshot() {
+        final ArrayList<Point2D> moves = new ArrayList<>();
+        if ( showMoves && (editedElement==null)) collectMoves(document, null, moves);
+        
+        // the highlited point is painted with editedElement
+        final PaintContext pc = new PaintContext(null, zoomFactor, showStartPoints, null, new ArrayList<>(selectedPoints), conf.toolDiameter);
+        pc.editedElement = editedElement;
+        collectPaintLayers(pc);
+        
+        int n = 0;
+        for( int i = 0; i < PAINT_LAYERS; i++) n += layerElements[i].size();
+        final GElement elements[] = new GElement[n];
+        final Color colors[] = new Color[n];
+        final Rectangle2D bounds[] = new Rectangle2D[n];
+        n = 0;
+        for( int i = 0; i < PAINT_LAYERS; i++) {
+            for( int k = 0; k < layerElements[i].size(); k++, n++) {
+                elements[n] = layerElements[i].get(k);
+                colors[n] = layerColors[i].get(k);
+                elements[n].preparePaint(pc);
+                bounds[n] = elements[n].getBounds();
+            }
+            layerElements[i].clear();
+            layerColors[i].clear();
+        }
+        
+        final double zoom = zoomFactor;
+        final int ox = dx, oy = dy;
+        return (g, tile, cancelled) -> {
+            // visible part of the document (with the size of start points and reperes)
+            final double margin = 12 / zoom;
+            final double x0 = (tile.x - ox) / zoom - margin, x1 = (tile.x + tile.width - ox) / zoom + margin;
+            final double y0 = (oy - tile.y - tile.height) / zoom - margin, y1 = (oy - tile.y) / zoom + margin;
+            g.translate(ox, oy);
+            
+            for( int i = 0; i < moves.size(); i += 2) {
+                final Point2D p1 = moves.get(i), p2 = moves.get(i+1);
+                if ( (Math.max(p1.getX(), p2.getX()) >= x0) && (Math.min(p1.getX(), p2.getX()) <= x1) &&
+                     (Math.max(p1.getY(), p2.getY()) >= y0) && (Math.min(p1.getY(), p2.getY()) <= y1))
+                    paintMove(g, zoom, p1, p2);
+            }
+            
+            final PaintContext tpc = pc.clone();
+            tpc.g = g;
+            tpc.editedElement = pc.editedElement;
+            for( int i = 0; i < elements.length; i++) {
+                final Rectangle2D r = bounds[i];
+                if ( (r != null) && ((r.getMaxX() < x0) || (r.getX() > x1) || (r.getMaxY() < y0) || (r.getY() > y1))) continue;
+                if ( cancelled.getAsBoolean()) return;
+                tpc.color = colors[i];
+                elements[i].paint(tpc);
+            }
+        };
+    }
+    
+    private Object getBackgroundLayerKey() {
+        final ArrayList<Object> key = new ArrayList<>();
+        Collections.addAll(key, getWidth(), getHeight(), zoomFactor, dx, dy, showWorkspace, showObjectSurface, showGrid,
+                conf.workspaceWidth, conf.workspaceHeight, conf.workspaceOrigin, conf.objectLength, conf.objectDiameter);
+        final BackgroundPictureParameters b = backgroundPictureParameter;
+        if ( (b != null) && (b.getPicture() != null) && b.isImageVisible())
+            Collections.addAll(key, b.getPicture(), b.getPicture().getLoadCount(), b.getViewX(), b.getViewY(), b.getAlpha(), b.getRotation(), b.getWidth(), b.getHeight());
+        return key;
+    }
+    
+    private Object getGeometryLayerKey() {
+        final ArrayList<Object> key = new ArrayList<>();
+        Collections.addAll(key, getWidth(), getHeight(), zoomFactor, dx, dy, paintVersion, GElement.getChangeCount(), 
+                EngravingProperties.getEnableChanges(), document, editedGroup, editedElement, showMoves, showStartPoints, 
+                conf.toolDiameter, selectedElements.size(), selectedPoints.size());
+        // identity of selected elements and points
+        selectedElements.forEach((e) -> { key.add(System.identityHashCode(e)); });
+        selectedPoints.forEach((p) -> { key.add(System.identityHashCode(p)); });
+        return key;
     }
 
-    private void paintGroup(PaintContext pc, GGroup group, boolean paintSelection, boolean paintDisabled, GCode lastPoint) {
+    /** Paint layers : disabled, enabled, disabled selected and enabled selected elements. */
+    private static final int PAINT_LAYERS = 4;
+    @SuppressWarnings("unchecked")
+    private final ArrayList<GElement> layerElements[] = new ArrayList[PAINT_LAYERS];
+    @SuppressWarnings("unchecked")
+    private final ArrayList<Color> layerColors[] = new ArrayList[PAINT_LAYERS];
+    
+    /**
+     * Sort the document (without editedElement) into the paint layers in one traversal : 
+     * the selection, enabled and edited states are inherited from the parents, then each 
+     * element is painted in its layer (disabled before, selection after).
+     * @param pc 
+     */
+    private void collectPaintLayers(PaintContext pc) {
+        final Set<GElement> selection = Collections.newSetFromMap(new IdentityHashMap<>());
+        selection.addAll(selectedElements);
+        for( int i = 0; i < PAINT_LAYERS; i++)
+            if ( layerElements[i] == null) {
+                layerElements[i] = new ArrayList<>();
+                layerColors[i] = new ArrayList<>();
+            }
+        
+        collectPaintLayers(pc, document, selection, document.isEnabled(), selection.contains(document), editedGroup == document);
+    }
     
+    private void collectPaintLayers(PaintContext pc, GGroup group, Set<GElement> selection, boolean enabled, boolean selected, boolean edited) {
         for ( GElement el : group.getIterable()) {
             if ( el.getFirstPoint() == null) continue;
             
+            final boolean sel = selected || selection.contains(el);
+            final boolean en = enabled && el.isEnabled();
             if ( el instanceof GGroup) 
-                paintGroup(pc, (GGroup) el, paintSelection, paintDisabled, lastPoint);
+                collectPaintLayers(pc, (GGroup) el, selection, en, sel, edited || (el == editedGroup));
             
             else {
                 if ( pc.editedElement == el) continue; // dont paint editedElement here
                 
-                boolean selected = (selectedElements.stream().anyMatch((e) 
-                                        -> ((e==el) || ((e instanceof GGroup) && ((GGroup)e).isParentOf(el)))));    
-                
-                boolean enabled = isGElementEnabled(el);
-                
-                if ( paintDisabled ^ (enabled && editedGroup.isParentOf(el)))
-                    if ( paintSelection ^ ! selected ) {
-                        if ( pc.editedElement != null )
-                            pc.color = Color.DARK_GRAY;
-                        else
-                            pc.color = ! editedGroup.isParentOf(el) ? Color.darkGray :
-                                            selected ? (enabled ? PaintContext.SEL_COLOR1 : PaintContext.SEL_DISABLED_COLOR) : 
-                                                       (enabled ? Color.white : Color.gray);
-
-                        el.paint(pc);
-                    }
+                final int layer = (sel ? 2 : 0) + ((en && edited) ? 1 : 0);
+                layerElements[layer].add(el);
+                if ( pc.editedElement != null )
+                    layerColors[layer].add(Color.DARK_GRAY);
+                else
+                    layerColors[layer].add( ! edited ? Color.darkGray :
+                                                sel ? (en ? PaintContext.SEL_COLOR1 : PaintContext.SEL_DISABLED_COLOR) : 
+                                                      (en ? Color.white : Color.gray));
             }
         } 
     }
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gcodeeditor.gui;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A transparent layer of the view rendered by a pool of threads, tile by tile.<br>
+ * When the key changes, the frame being rendered is cancelled and a new one is started
+ * from a snapshot made on the EDT. Until it is finished, the last complete frame is shown
+ * stretched to the new zoom and origin, and replaced by the new tiles as soon as they are done.
+ *
+ * @author Clément
+ */
+class TiledLayer {
+
+    /** Paint a part of the layer, called by several threads at once. */
+    interface Snapshot {
+        /**
+         * @param g graphics in component coordinates, clipped to <i>tile</i>
+         * @param tile the part of the component to paint
+         * @param cancelled true when this frame is no more needed
+         */
+        void paint(Graphics2D g, Rectangle tile, BooleanSupplier cancelled);
+    }
+
+    /** Size of the tiles in device pixels. */
+    private static final int TILE_SIZE = 256;
+    /** Time the EDT waits for the tiles before showing a partial frame. */
+    private static final long SYNC_DELAY_MS = 30;
+
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1), (r) -> {
+                Thread t = new Thread(r, "TileRenderThread");
+                t.setDaemon(true);
+                t.setPriority(Thread.NORM_PRIORITY - 1);
+                return t;
+            });
+
+    private final Runnable repaint;
+    /** The frame shown or being rendered, and the last complete one. */
+    private Frame current, previous;
+
+    /**
+     * @param repaint called (from any thread) when new tiles are available
+     */
+    TiledLayer(Runnable repaint) {
+        this.repaint = repaint;
+    }
+
+    /**
+     * Paint the layer on <i>g</i>, starting a new frame if <i>newKey</i> has changed.
+     * @param g the graphics of the component (without translation)
+     * @param w width of the component
+     * @param h height of the component
+     * @param newKey the current state of what is painted
+     * @param zoom the zoom factor of the view
+     * @param ox the screen X of the origin of the view
+     * @param oy the screen Y of the origin of the view
+     * @param snapshot called on the EDT to get what to paint in the new frame
+     */
+    void paint(Graphics g, int w, int h, Object newKey, double zoom, double ox, double oy, Supplier<Snapshot> snapshot) {
+        final AffineTransform t = ((Graphics2D)g).getTransform();
+        final double sx = t.getScaleX(), sy = t.getScaleY();
+        final int iw = Math.max(1, (int)Math.ceil(w * sx)), ih = Math.max(1, (int)Math.ceil(h * sy));
+
+        if ( (current == null) || (current.image.getWidth() != iw) || (current.image.getHeight() != ih) ||
+                (current.sx != sx) || (current.sy != sy) || ! Objects.equals(current.key, newKey)) {
+            if ( current != null) {
+                current.cancel();
+                if ( current.isComplete()) previous = current;
+            }
+            current = new Frame(newKey, iw, ih, sx, sy, zoom, ox, oy, ((Graphics2D)g).getRenderingHints());
+            current.start(snapshot.get());
+            // small documents : don't show a partial frame
+            current.waitTiles(System.nanoTime() + SYNC_DELAY_MS * 1000000);
+        }
+        current.update();
+
+        final Graphics2D g2 = (Graphics2D)g.create();
+        try {
+            g2.scale(1 / sx, 1 / sy);
+            if ( current.isComplete()) previous = null;
+            else if ( (previous != null) && (previous.sx == sx) && (previous.sy == sy)) {
+                // stretch the last frame where the new one is not painted yet
+                final double z = current.zoom / previous.zoom;
+                for( Tile tile : current.tiles)
+                    if ( ! tile.done) {
+                        final Graphics2D g3 = (Graphics2D)g2.create();
+                        g3.clip(tile.bounds);
+                        g3.translate((current.ox - previous.ox * z) * sx, (current.oy - previous.oy * z) * sy);
+                        g3.scale(z, z);
+                        g3.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                        g3.drawImage(previous.image, 0, 0, null);
+                        g3.dispose();
+                    }
+            }
+            g2.drawImage(current.image, 0, 0, null);
+        } finally {
+            g2.dispose();
+        }
+    }
+
+    /** Cancel the rendering and free the images. */
+    void clear() {
+        if ( current != null) current.cancel();
+        current = previous = null;
+    }
+
+    private class Tile {
+        final Rectangle bounds;
+        Future<?> future;
+        /** Set by the worker when the tile is rendered. */
+        volatile BufferedImage result;
+        volatile boolean failed;
+        /** Copied into the frame (EDT only). */
+        boolean done;
+
+        Tile(Rectangle bounds) {
+            this.bounds = bounds;
+        }
+    }
+
+    private class Frame {
+        final Object key;
+        final BufferedImage image;
+        final double sx, sy, zoom, ox, oy;
+        final RenderingHints hints;
+        final ArrayList<Tile> tiles = new ArrayList<>();
+        Snapshot snapshot;
+        volatile boolean cancelled;
+        int remaining;
+
+        Frame(Object key, int iw, int ih, double sx, double sy, double zoom, double ox, double oy, RenderingHints hints) {
+            this.key = key;
+            this.sx = sx;
+            this.sy = sy;
+            this.zoom = zoom;
+            this.ox = ox;
+            this.oy = oy;
+            this.hints = hints;
+            image = new BufferedImage(iw, ih, BufferedImage.TYPE_INT_ARGB);
+            for( int y = 0; y < ih; y += TILE_SIZE)
+                for( int x = 0; x < iw; x += TILE_SIZE)
+                    tiles.add(new Tile(new Rectangle(x, y, Math.min(TILE_SIZE, iw - x), Math.min(TILE_SIZE, ih - y))));
+            // the center of the view first
+            final double cx = iw / 2., cy = ih / 2.;
+            tiles.sort((a, b) -> Double.compare(
+                    Math.hypot(a.bounds.getCenterX() - cx, a.bounds.getCenterY() - cy),
+                    Math.hypot(b.bounds.getCenterX() - cx, b.bounds.getCenterY() - cy)));
+            remaining = tiles.size();
+        }
+
+        void start(Snapshot s) {
+            snapshot = s;
+            for( Tile tile : tiles)
+                tile.future = POOL.submit(() -> {
+                    if ( cancelled) return;
+                    try {
+                        tile.result = render(tile);
+                    } catch ( RuntimeException e) {
+                        // the document has been modified while painting : done again by the EDT
+                        tile.failed = true;
+                    }
+                    if ( ! cancelled) repaint.run();
+                });
+        }
+
+        private BufferedImage render(Tile tile) {
+            final Rectangle r = tile.bounds;
+            final BufferedImage img = new BufferedImage(r.width, r.height, BufferedImage.TYPE_INT_ARGB);
+            final Graphics2D g = img.createGraphics();
+            try {
+                g.setRenderingHints(hints);
+                g.translate(-r.x, -r.y);
+                g.scale(sx, sy);
+                final int x = (int)Math.floor(r.x / sx), y = (int)Math.floor(r.y / sy);
+                final Rectangle clip = new Rectangle(x, y,
+                        (int)Math.ceil((r.x + r.width) / sx) - x, (int)Math.ceil((r.y + r.height) / sy) - y);
+                g.clip(clip);
+                snapshot.paint(g, clip, () -> cancelled);
+            } finally {
+                g.dispose();
+            }
+            return img;
+        }
+
+        /** Wait the end of the tiles until <i>deadline</i>. */
+        void waitTiles(long deadline) {
+            try {
+                for( Tile tile : tiles) {
+                    final long d = deadline - System.nanoTime();
+                    if ( d <= 0) return;
+                    tile.future.get(d, TimeUnit.NANOSECONDS);
+                }
+            } catch ( InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch ( ExecutionException | TimeoutException e) {
+                // shown later
+            }
+        }
+
+        /** Copy the rendered tiles into the frame. */
+        void update() {
+            if ( remaining == 0) return;
+            final Graphics2D g = image.createGraphics();
+            try {
+                g.setComposite(AlphaComposite.Src);
+                for( Tile tile : tiles) {
+                    if ( tile.done) continue;
+                    BufferedImage img = tile.result;
+                    if ( (img == null) && tile.failed) img = render(tile);
+                    if ( img != null) {
+                        g.drawImage(img, tile.bounds.x, tile.bounds.y, null);
+                        tile.result = null;
+                        tile.done = true;
+                        remaining--;
+                    }
+                }
+            } finally {
+                g.dispose();
+            }
+            if ( remaining == 0) snapshot = null;
+        }
+
+        boolean isComplete() {
+            return remaining == 0;
+        }
+
+        void cancel() {
+            if ( isComplete()) return;
+            cancelled = true;
+            for( Tile tile : tiles) tile.future.cancel(false);
+        }
+    }
+}
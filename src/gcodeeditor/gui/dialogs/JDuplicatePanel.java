@@ -24,7 +24,7 @@ public class JDuplicatePanel extends ManagedPanel {
 
     public double deltaX, deltaY;
     public int nbCopies;
-    public boolean packed, grouped;
+    public boolean packed, grouped, instances;
 
     public JDuplicatePanel() {
         super("Duplicate path");
@@ -39,6 +39,7 @@ public class JDuplicatePanel extends ManagedPanel {
             
             packed = jCheckBoxPacked.isSelected();
             grouped = jCheckBoxGrouped.isSelected();
+            instances = jCheckBoxInstances.isSelected();
             
             return ! ((nbCopies == Integer.MAX_VALUE) || Double.isNaN(deltaX) || Double.isNaN(deltaY));    
     } 
@@ -61,6 +62,7 @@ public class JDuplicatePanel extends ManagedPanel {
         jLabel3 = new javax.swing.JLabel();
         jTextFieldCopies = new javax.swing.JTextField();
         jCheckBoxPacked = new javax.swing.JCheckBox();
+        jCheckBoxInstances = new javax.swing.JCheckBox();
 
         setLayout(new java.awt.GridBagLayout());
 
@@ -128,11 +130,21 @@ public class JDuplicatePanel extends ManagedPanel {
         gridBagConstraints.gridy = 2;
         gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
         add(jCheckBoxPacked, gridBagConstraints);
+
+        jCheckBoxInstances.setText("Instances");
+        jCheckBoxInstances.setToolTipText("The copies share the geometry of the original and follow its changes");
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 1;
+        gridBagConstraints.gridy = 3;
+        gridBagConstraints.anchor = java.awt.GridBagConstraints.WEST;
+        gridBagConstraints.insets = new java.awt.Insets(0, 0, 0, 3);
+        add(jCheckBoxInstances, gridBagConstraints);
     }// </editor-fold>//GEN-END:initComponents
 
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JCheckBox jCheckBoxGrouped;
+    private javax.swing.JCheckBox jCheckBoxInstances;
     private javax.swing.JCheckBox jCheckBoxPacked;
     private javax.swing.JLabel jLabel1;
     private javax.swing.JLabel jLabel2;
@@ -17,9 +17,10 @@
 package gcodeeditor.gui.dialogs;
 
 import java.awt.Frame;
+import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.awt.event.WindowListener;
 import javax.swing.JDialog;
+import javax.swing.SwingUtilities;
 
 /**
  * a panel used to show long task working
@@ -36,45 +37,49 @@ public class LongTaskJobPanel extends javax.swing.JPanel {
      */
     public LongTaskJobPanel(Frame parent) {
         initComponents();
-        window = new JDialog(parent, true);
-        window.addWindowListener(new WindowListener() {
+        window = new JDialog(parent, "Computing", true);
+        window.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
+        window.add(this);
+        window.pack();
+        window.setLocationRelativeTo(parent);
+        window.addWindowListener(new WindowAdapter() {
             @Override
-            public void windowOpened(WindowEvent e) { }
-
-            @Override
-            public void windowClosing(WindowEvent e) { }
-
-            @Override
-            public void windowClosed(WindowEvent e) {
-                listener.cancelJob();
+            public void windowClosing(WindowEvent e) {
+                cancel();
             }
-
-            @Override
-            public void windowIconified(WindowEvent e) {  }
-
-            @Override
-            public void windowDeiconified(WindowEvent e) {  }
-
-            @Override
-            public void windowActivated(WindowEvent e) {  }
-
-            @Override
-            public void windowDeactivated(WindowEvent e) { }
         });
     }
     
+    /**
+     * Show the modal dialog, returns when the job is finished or cancelled.
+     * @param finishAt the progression value of the end of the job
+     * @param l called if the user cancel the job
+     */
     public void showComputingWindowMessage(int finishAt, CancelListener l) {
         listener = l;
         jProgressBar1.setMaximum(finishAt);
         window.setVisible(true);
     }
     
+    /**
+     * Can be called by any thread.
+     * @param advancement the progression of the job
+     */
     public void update(int advancement) {
-        if ( advancement >= jProgressBar1.getMaximum()) {
-            window.setVisible(false);
-            listener.cancelJob();
-        }
-        else jProgressBar1.setValue(advancement);
+        SwingUtilities.invokeLater(() -> {
+            jProgressBar1.setValue(advancement);
+            jLabel1.setText("Computing ... " + advancement + "/" + jProgressBar1.getMaximum());
+        });
+    }
+    
+    /** Hide the dialog at the end of the job (EDT only). */
+    public void close() {
+        window.dispose();
+    }
+    
+    private void cancel() {
+        if ( listener != null) listener.cancelJob();
+        close();
     }
 
     /**
@@ -93,6 +98,11 @@ public class LongTaskJobPanel extends javax.swing.JPanel {
         jLabel1.setText("Computing ...");
 
         jButton1.setText("Cancel action");
+        jButton1.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                jButton1ActionPerformed(evt);
+            }
+        });
 
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(this);
         this.setLayout(layout);
@@ -122,6 +132,10 @@ public class LongTaskJobPanel extends javax.swing.JPanel {
         );
     }// </editor-fold>//GEN-END:initComponents
 
+    private void jButton1ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButton1ActionPerformed
+        cancel();
+    }//GEN-LAST:event_jButton1ActionPerformed
+
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JButton jButton1;
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gelements;
+
+import gcodeeditor.GCode;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Move, rotate or scale a lot of elements at once.<br>
+ * The points of the G1Path (also inside the groups) are packed into one array of coordinates,
+ * transformed in parallel by chunks, then written back, and each path is informed once of its change.
+ * The other elements are transformed by their own methods.
+ *
+ * @author Clément
+ */
+public class BulkTransform {
+
+    /** Number of points transformed by each task. */
+    static final int CHUNK = 1 << 15;
+
+    public static void translate(Collection<? extends GElement> elements, double dx, double dy) {
+        apply(elements, AffineTransform.getTranslateInstance(dx, dy), (e) -> e.translate(dx, dy));
+    }
+
+    /**
+     * @param elements
+     * @param origin
+     * @param angle in radian
+     */
+    public static void rotate(Collection<? extends GElement> elements, Point2D origin, double angle) {
+        apply(elements, AffineTransform.getRotateInstance(angle, origin.getX(), origin.getY()), (e) -> e.rotate(origin, angle));
+    }
+
+    public static void scale(Collection<? extends GElement> elements, Point2D origin, double ratioX, double ratioY) {
+        apply(elements, getScaleInstance(origin, ratioX, ratioY), (e) -> e.scale(origin, ratioX, ratioY));
+    }
+
+    public static void transform(Collection<? extends GElement> elements, AffineTransform t) {
+        apply(elements, t, (e) -> e.transform(t));
+    }
+
+    static AffineTransform getScaleInstance(Point2D origin, double ratioX, double ratioY) {
+        final AffineTransform t = AffineTransform.getTranslateInstance(origin.getX(), origin.getY());
+        t.scale(ratioX, ratioY);
+        t.translate(-origin.getX(), -origin.getY());
+        return t;
+    }
+
+    /**
+     * Transform the points of one path.
+     * @param path
+     * @param t
+     */
+    static void transform(G1Path path, AffineTransform t) {
+        transformPaths(Collections.singletonList(path), t);
+    }
+
+    /**
+     * @param elements
+     * @param t the transformation to apply to the points of the paths
+     * @param others called with the elements that must transform themselves
+     */
+    private static void apply(Collection<? extends GElement> elements, AffineTransform t, Consumer<GElement> others) {
+        final ArrayList<G1Path> paths = new ArrayList<>();
+        gather(elements, paths, others);
+        transformPaths(paths, t);
+    }
+
+    /**
+     * Collect the plain G1Path (their class is not specialised) found in elements and groups.
+     */
+    private static void gather(Collection<? extends GElement> elements, ArrayList<G1Path> paths, Consumer<GElement> others) {
+        for( GElement e : elements) {
+            if ( e.getClass() == G1Path.class) paths.add((G1Path)e);
+            else if ( e.getClass() == GGroup.class) gather(((GGroup)e).elements, paths, others);
+            else others.accept(e);
+        }
+    }
+
+    private static void transformPaths(Collection<G1Path> paths, AffineTransform t) {
+        int n = 0;
+        for( G1Path p : paths)
+            for( GCode l : p.lines) if ( l.isAPoint()) n++;
+
+        final GCode pts[] = new GCode[n];
+        final double xy[] = new double[2 * n];
+        int i = 0;
+        for( G1Path p : paths)
+            for( GCode l : p.lines)
+                if ( l.isAPoint()) {
+                    pts[i] = l;
+                    xy[2 * i] = l.getX();
+                    xy[2 * i++ + 1] = l.getY();
+                }
+
+        final int nb = n;
+        if ( n <= CHUNK) transform(t, xy, pts, 0, n);
+        else IntStream.range(0, (n + CHUNK - 1) / CHUNK).parallel().forEach((c) -> {
+            transform(t, xy, pts, c * CHUNK, Math.min(nb, (c + 1) * CHUNK));
+        });
+        paths.forEach((p) -> p.informAboutChange());
+    }
+
+    private static void transform(AffineTransform t, double xy[], GCode pts[], int from, int to) {
+        t.transform(xy, 2 * from, xy, 2 * from, to - from);
+        for( int k = from; k < to; k++) pts[k].setLocation(xy[2 * k], xy[2 * k + 1]);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gelements;
+
+import gcodeeditor.GCode;
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.util.function.DoubleFunction;
+
+/**
+ * Flatten the curves into G1Path whose segments are never further than a tolerance
+ * (the chord error) from the curve, and cache them into their element.
+ *
+ * @author Clément
+ */
+public class Flattener {
+
+    /** Default maximal distance between a curve and its flat path (in mm). */
+    public static final double DEFAULT_TOLERANCE = 0.01;
+
+    private static volatile double tolerance = DEFAULT_TOLERANCE;
+
+    public static double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Change the chord error of the next flattenings (the cached paths are recalculated when used).
+     * @param chordError a value &gt; 0
+     */
+    public static void setTolerance(double chordError) {
+        if ( chordError > 0) tolerance = chordError;
+    }
+
+    /**
+     * @param radius
+     * @param extent the angle of the arc in radian
+     * @param chordError
+     * @return the number of segments needed to keep the arc at less than chordError of them
+     */
+    static int getArcSegments(double radius, double extent, double chordError) {
+        if ( ! (radius > chordError)) return 1;
+        final double step = 2 * Math.acos(1 - chordError / radius);
+        return Math.max(1, (int)Math.ceil(Math.abs(extent) / step));
+    }
+
+    /**
+     * @param name
+     * @param center
+     * @param radius
+     * @param startAngle in degre
+     * @param extent in degre (counter clockwise if &gt; 0)
+     * @param chordError
+     * @return the arc as a G1Path, with its start and end point
+     */
+    static G1Path arc(String name, Point2D center, double radius, double startAngle, double extent, double chordError) {
+        final double a0 = Math.toRadians(startAngle), da = Math.toRadians(extent);
+        final int n = getArcSegments(radius, da, chordError);
+        final G1Path res = new G1Path(name, n + 1);
+        for( int i = 0; i <= n; i++) {
+            final double a = a0 + da * i / n;
+            res.lines.add(new GCode(i == 0 ? 0 : 1, center.getX() + Math.cos(a) * radius, center.getY() + Math.sin(a) * radius));
+        }
+        return res;
+    }
+
+    /**
+     * The curves are split until their control points are closer than chordError of their chord,
+     * so the error is never bigger.
+     * @param name
+     * @param shape an open shape made of one subpath
+     * @param chordError
+     * @return the shape as a G1Path
+     */
+    static G1Path curve(String name, Shape shape, double chordError) {
+        final G1Path res = new G1Path(name);
+        final double c[] = new double[6];
+        for( PathIterator pi = shape.getPathIterator(null, chordError); ! pi.isDone(); pi.next()) {
+            switch ( pi.currentSegment(c)) {
+                case PathIterator.SEG_MOVETO:
+                    if ( ! res.lines.isEmpty()) return res;
+                case PathIterator.SEG_LINETO:
+                    res.lines.add(new GCode(res.lines.isEmpty() ? 0 : 1, c[0], c[1]));
+                    break;
+                default:
+            }
+        }
+        return res;
+    }
+
+    /**
+     * The flat path of an element kept until the element or the tolerance change.<br>
+     * The path is shared : it must not be modified by the users of the cache.
+     */
+    static final class Cache {
+        private G1Path path;
+        private int version;
+        private double chordError;
+
+        /**
+         * @param e the owner of the cache
+         * @param maker called with the tolerance to make the path when needed
+         * @return the cached path
+         */
+        synchronized G1Path get(GElement e, DoubleFunction<G1Path> maker) {
+            final double t = tolerance;
+            final int v = e.getVersion();
+            if ( (path == null) || (version != v) || (chordError != t)) {
+                // the version is read first : a change made while making the path is seen by the next call
+                path = maker.apply(t);
+                version = v;
+                chordError = t;
+            }
+            return path;
+        }
+
+        synchronized void clear() {
+            path = null;
+        }
+    }
+}
@@ -30,7 +30,6 @@ import java.awt.font.TextLayout;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
 import java.awt.geom.CubicCurve2D;
-import java.awt.geom.Ellipse2D;
 import java.awt.geom.FlatteningPathIterator;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.PathIterator;
@@ -42,8 +41,16 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
 import org.kabeja.dxf.helpers.Point;
 
 /**
@@ -57,11 +64,14 @@ public class G1Path extends GElement implements Iterable<GCode> {
     /** List of all points of the shape. */
     protected ArrayList<GCode> lines;
     
-    /** The current bounding box value. */
-    protected Rectangle2D.Double bounds;
+    /** The current bounding box value (built before being shared : read by the tile threads). */
+    private volatile Versioned<Rectangle2D.Double> bounds;
     private double length = Double.NaN;
     
-    GeneralPath.Double renderedShape;
+    /** The shape of the path and its decimated shapes used when zoomed out (made by preparePaint()). */
+    private volatile Versioned<PolylineLOD> renderedLOD;
+    /** Width 0 : the thinnest line whatever the zoom is. */
+    private static final BasicStroke PATH_STROKE = new BasicStroke(0f);
        
     public G1Path(String name) {
         this(name, 10);
@@ -125,14 +135,13 @@ public class G1Path extends GElement implements Iterable<GCode> {
 
     @Override
     public void reverse() {
-        int first = indexOf(getFirstPoint());
-        int last = indexOf(getLastPoint());
-        while( first < last) {
-            GCode l2 = remove(last);
-            GCode l1 = remove(first);
-            add(first++,l2);
-            add(last--,l1);
-        }
+        final int first = lines.indexOf(getFirstPoint());
+        final int last = lines.lastIndexOf(getLastPoint());
+        if ( first >= last) return;
+        Collections.reverse(lines.subList(first, last + 1));
+        for( int i = first; i <= last; i++)
+            if ( lines.get(i).isAMove()) lines.get(i).setG((i == first) ? 0 : 1);
+        informAboutChange();
     }
     
     @Override
@@ -278,35 +287,31 @@ public class G1Path extends GElement implements Iterable<GCode> {
      * @param dy */
     @Override
     public void translate(double dx, double dy) {
-       lines.forEach((p) -> {
-           if ( p.isAPoint()) p.setLocation(p.getX() + dx, p.getY() + dy);
-        });
-        informAboutChange();
+        BulkTransform.transform(this, AffineTransform.getTranslateInstance(dx, dy));
     }
    
     @Override
    public void transform(AffineTransform t) {
-        lines.forEach((p) -> {
-           if ( p.isAPoint()) p.transform( t);
-        });
-        informAboutChange();    
+        BulkTransform.transform(this, t);
     }    
    
     /** 
      * @return  the bounding box of this shape.*/
     @Override
     public Rectangle2D getBounds() {
-        if ( bounds == null) {
+        final int version = getVersion();
+        Rectangle2D.Double b = Versioned.get(bounds, version);
+        if ( b == null) {
             if ( getNbPoints() == 0) return null;
-            lines.forEach((p) -> {
+            for( GCode p : lines)
                 if ( p.isAPoint()) {
-                    if ( bounds == null) 
-                        bounds = new Rectangle2D.Double(p.getX(), p.getY(), 10e-6, 10e-6);
-                    else bounds.add(p);
+                    if ( b == null) 
+                        b = new Rectangle2D.Double(p.getX(), p.getY(), 10e-6, 10e-6);
+                    else b.add(p);
                 }
-            });
+            bounds = new Versioned<>(b, version);
         }
-        return (Rectangle2D) bounds.clone();        
+        return (Rectangle2D) b.clone();        
     }
 
     /**
@@ -431,7 +436,7 @@ public class G1Path extends GElement implements Iterable<GCode> {
     @Override
     protected void informAboutChange() {
         modified=true;
-        renderedShape=null;
+        renderedLOD=null;
         bounds=null;
         length = Double.NaN;
         super.informAboutChange();
@@ -472,7 +477,6 @@ public class G1Path extends GElement implements Iterable<GCode> {
         clone.id =  id;
         if ( properties != null) clone.properties = (EngravingProperties) properties.clone();
         lines.forEach((l) -> { clone.add(new GCode(l)); });
-        if ( bounds != null) clone.bounds = (Rectangle2D.Double) bounds.clone();
         return clone;
     }
     
@@ -483,6 +487,11 @@ public class G1Path extends GElement implements Iterable<GCode> {
         return clone;
     }
 
+    @Override
+    public G1Path getFlatView() {
+        return this;
+    }
+
        
     
     public static G1Path cloneArrayOfGLines(ArrayList<GCode> points) {
@@ -527,7 +536,8 @@ public class G1Path extends GElement implements Iterable<GCode> {
         ArrayList<GCode> res = new ArrayList<>();
         GCode lastPoint = null;
         GCode center = null;
-        for( GCode p : getPointsIterator()) {
+        for( GCode p : lines) {
+            if ( ! p.isAPoint()) continue;
             if ((lastPoint!=null) && (center!=null) && (getAngleInDegre(center, lastPoint, p) > angleMin))
                 res.add(center);
             lastPoint=center;
@@ -539,7 +549,120 @@ public class G1Path extends GElement implements Iterable<GCode> {
     
     @Override
     public void simplify( double angleMin, double distanceMax) {
-        lines.removeAll( keepToSimplify(getPointsByAngle(angleMin), distanceMax));
+        removeLines( keepToSimplify(getPointsByAngle(angleMin), distanceMax));
+    }
+    
+    /**
+     * Remove the points not needed to stay at less than <i>tolerance</i> from the path, the
+     * ends of the path are kept.
+     * @param algorithm
+     * @param tolerance 
+     * @return the number of points removed
+     */
+    public int simplify(PolylineSimplifier.Algorithm algorithm, double tolerance) {
+        return keepLines(getSimplification(algorithm, tolerance));
+    }
+    
+    /**
+     * Simplify the paths of all elements (and of their children), computed in parallel.
+     * @param elements
+     * @param algorithm
+     * @param tolerance
+     * @return the number of points removed
+     */
+    public static int simplify(Collection<GElement> elements, PolylineSimplifier.Algorithm algorithm, double tolerance) {
+        final ArrayList<G1Path> paths = new ArrayList<>();
+        for( GElement e : elements) {
+            if ( e instanceof GGroup) {
+                for( GElement c : ((GGroup)e).toArray())
+                    if ( c instanceof G1Path) paths.add((G1Path)c);
+            } else if ( e instanceof G1Path) paths.add((G1Path)e);
+        }
+        final List<boolean[]> keep = paths.parallelStream().map((p) -> p.getSimplification(algorithm, tolerance)).collect(Collectors.toList());
+        // modifications in this thread (they inform the parents)
+        int res = 0;
+        for( int i = 0; i < paths.size(); i++) res += paths.get(i).keepLines(keep.get(i));
+        return res;
+    }
+    
+    /**
+     * @param points a part of this path
+     * @param algorithm
+     * @param tolerance
+     * @return the points of <i>points</i> that can be removed (the ends are kept)
+     */
+    public ArrayList<GCode> getPointsToSimplify(ArrayList<GCode> points, PolylineSimplifier.Algorithm algorithm, double tolerance) {
+        final ArrayList<GCode> pts = new ArrayList<>(points.size());
+        for( GCode p : points) if ( p.isAPoint()) pts.add(p);
+        final double x[] = new double[pts.size()], y[] = new double[pts.size()];
+        for( int i = 0; i < x.length; i++) {
+            x[i] = pts.get(i).getX();
+            y[i] = pts.get(i).getY();
+        }
+        final boolean keep[] = PolylineSimplifier.simplify(x, y, x.length, false, algorithm, tolerance);
+        final ArrayList<GCode> res = new ArrayList<>();
+        for( int i = 0; i < keep.length; i++) if ( ! keep[i]) res.add(pts.get(i));
+        return res;
+    }
+    
+    /**
+     * Remove the points of <i>points</i> not needed to stay at less than <i>tolerance</i> from this part of the path.
+     * @param points a part of this path
+     * @param algorithm
+     * @param tolerance
+     * @return the number of points removed
+     */
+    public int simplify(ArrayList<GCode> points, PolylineSimplifier.Algorithm algorithm, double tolerance) {
+        final int n = lines.size();
+        removeLines(getPointsToSimplify(points, algorithm, tolerance));
+        return n - lines.size();
+    }
+    
+    /** @return the lines to keep (only points can be removed). */
+    private boolean[] getSimplification(PolylineSimplifier.Algorithm algorithm, double tolerance) {
+        final int n = lines.size();
+        final int index[] = new int[n];
+        final double x[] = new double[n], y[] = new double[n];
+        int nb = 0;
+        for( int i = 0; i < n; i++) {
+            final GCode p = lines.get(i);
+            if ( p.isAPoint()) {
+                x[nb] = p.getX();
+                y[nb] = p.getY();
+                index[nb++] = i;
+            }
+        }
+        final boolean closed = (nb > 2) && (x[0] == x[nb-1]) && (y[0] == y[nb-1]);
+        final boolean keepPoint[] = PolylineSimplifier.simplify(x, y, nb, closed, algorithm, tolerance);
+        final boolean res[] = new boolean[n];
+        java.util.Arrays.fill(res, true);
+        for( int i = 0; i < nb; i++) res[index[i]] = keepPoint[i];
+        return res;
+    }
+    
+    /** 
+     * Keep only some lines (in one pass, ArrayList.removeAll() is quadratic).
+     * @return the number of lines removed
+     */
+    private int keepLines(boolean keep[]) {
+        final ArrayList<GCode> res = new ArrayList<>(lines.size());
+        for( int i = 0; i < keep.length; i++) if ( keep[i]) res.add(lines.get(i));
+        final int removed = lines.size() - res.size();
+        if ( removed > 0) {
+            lines = res;
+            informAboutChange();
+        }
+        return removed;
+    }
+    
+    /** Remove all these lines (in one pass). */
+    private void removeLines(Collection<GCode> toRemove) {
+        if ( toRemove.isEmpty()) return;
+        final Set<GCode> set = Collections.newSetFromMap(new IdentityHashMap<>());
+        set.addAll(toRemove);
+        final boolean keep[] = new boolean[lines.size()];
+        for( int i = 0; i < keep.length; i++) keep[i] = ! set.contains(lines.get(i));
+        keepLines(keep);
     }
 
     /**
@@ -586,70 +709,70 @@ public class G1Path extends GElement implements Iterable<GCode> {
 
     @Override
     public void rotate(Point2D center, double angle) {
-        lines.stream().filter((p) -> ( p .isAPoint())).forEach((p) -> {
-            double d = center.distance(p);
-            double a = getAngleInRadian(center, p);
-            p.setLocation( center.getX() + Math.cos(a+angle)*d,
-                    center.getY() + Math.sin(a+angle)*d);
-        });
-        informAboutChange(); 
+        BulkTransform.transform(this, AffineTransform.getRotateInstance(angle, center.getX(), center.getY()));
     }
 
     @Override
     public void scale(Point2D center, double ratioX, double ratioY) {
-        lines.stream().filter((p) -> ( p .isAPoint())).forEach((p) -> {      
-            double d = center.distance(p);
-            double a = getAngleInRadian(center, p);
-            p.setLocation( center.getX() + Math.cos(a)*d*ratioX,
-                    center.getY() + Math.sin(a)*d*ratioY);
-        });
-        informAboutChange();
+        BulkTransform.transform(this, BulkTransform.getScaleInstance(center, ratioX, ratioY));
     }
 
     /** Color used to paint line and points in editionMode */
     public static Color editionColor = new Color(127, 127, 255);
     
     @Override
-    public void paint(PaintContext pc) {
-        if ( renderedShape == null) {
-            // recalculate visualisation shape
-            
+    public void preparePaint(PaintContext pc) {
+        getBounds();
+        getRenderedLOD().getShape(pc.zoomFactor);
+    }
+    
+    /**
+     * @return the visualisation shapes, built before being shared (painted by several tile threads)
+     */
+    private PolylineLOD getRenderedLOD() {
+        final int version = getVersion();
+        PolylineLOD lod = Versioned.get(renderedLOD, version);
+        if ( lod == null) {
             // TODO verrify wind
-            renderedShape = new GeneralPath.Double(GeneralPath.WIND_EVEN_ODD, lines.size());
-            final Iterable<GCode> pi = getPointsIterator();
+            final GeneralPath.Double shape = new GeneralPath.Double(GeneralPath.WIND_EVEN_ODD, lines.size());
             GCode g0 = null;
+            int nbPoints = 0;
             
             for( GCode l : lines) {
                 if ( l.isAPoint()) {
+                    nbPoints++;
                     if (g0 == null) {
                         assert l.getG() == 0;
                         g0 = l;
-                        renderedShape.moveTo(g0.getX(), g0.getY());
-                        continue;
+                        shape.moveTo(g0.getX(), g0.getY());
                     } else {
                         assert l.getG() == 1;
-                        renderedShape.lineTo(l.getX(), l.getY());
+                        shape.lineTo(l.getX(), l.getY());
                     }
-
                 }
             }
-            if ( bounds == null) {
-                bounds = (Rectangle2D.Double)renderedShape.getBounds2D();
-                if (bounds.width == 0) bounds.width = 10e-6;
-                if (bounds.height == 0) bounds.height = 10e-6;
-            }
-        }      
-        
+            lod = new PolylineLOD(shape, nbPoints);
+            renderedLOD = new Versioned<>(lod, version);
+        }
+        return lod;
+    }
+    
+    @Override
+    public void paint(PaintContext pc) {
+        final PolylineLOD lod = getRenderedLOD();
         final double zoomFactor = pc.zoomFactor;
         final Graphics2D g = pc.g; 
-        final Graphics2D g2 = (Graphics2D)pc.g.create();
-
-        // paint path
-        g2.scale(zoomFactor, -zoomFactor);
-        g2.setStroke(new BasicStroke((float)(1f / zoomFactor)));
-        if ( pc.editedElement == this) g2.setColor(PaintContext.EDIT_COLOR);
-        else g2.setColor(pc.color);
-        g2.draw(renderedShape);
+
+        // paint path (all points when edited)
+        final AffineTransform t = g.getTransform();
+        final java.awt.Stroke stroke = g.getStroke();
+        g.scale(zoomFactor, -zoomFactor);
+        g.setStroke(PATH_STROKE);
+        if ( pc.editedElement == this) g.setColor(PaintContext.EDIT_COLOR);
+        else g.setColor(pc.color);
+        g.draw((pc.editedElement == this) ? lod.getFullShape() : lod.getShape(zoomFactor));
+        g.setTransform(t);
+        g.setStroke(stroke);
         
         // paint first point
         if ( (pc.color != Color.darkGray) && pc.showStartPoints) {
@@ -714,15 +837,12 @@ public class G1Path extends GElement implements Iterable<GCode> {
     public boolean changeFirstPoint(GCode p) {
         if ( (getNbPoints() < 3) || ! lines.contains(p)) return false;
         
-        GCode fp; 
-        boolean closed = (fp=getFirstPoint()).distance(getLastPoint()) < 0.00001;
-        if ( closed) {
+        final GCode fp = getFirstPoint();
+        if ( isClosed()) {
             if ( lines.get(lines.size()-1) != p) remove(lines.size()-1);
             fp.setG(1);
-            while( (fp=getFirstPoint()) != p) {
-                lines.remove(fp);
-                lines.add(fp); 
-            }
+            final int first = lines.indexOf(fp);
+            Collections.rotate(lines.subList(first, lines.size()), first - lines.indexOf(p));
             add((GCode) p.clone());
         } else {
             if ( getLastPoint() == p) {// invert direction
@@ -769,6 +889,7 @@ public class G1Path extends GElement implements Iterable<GCode> {
         return svg + "\"\n style=\"fill:none;stroke:black;stroke-width:1px\" />\n";
     } 
 
+    /** The test of the loops, that can start at any point (changeFirstPoint, MoveOptimizer). */
     @Override
     public boolean isClosed() {
         if ( getNbPoints() < 1) return false;
@@ -875,7 +996,7 @@ public class G1Path extends GElement implements Iterable<GCode> {
                 prevPoint = p;
             }
         }
-        lines.removeAll(toRemove);
+        removeLines(toRemove);
     }
     
     /** Change line value.
@@ -1090,9 +1211,13 @@ public class G1Path extends GElement implements Iterable<GCode> {
      * @return 
      */
     public static G1Path makeLinkedPath(String name, ArrayList<GElement> paths) {
-        GGroup.optimizeMoves(paths, null, true);
+        // the optimizer can reverse the paths
+        final ArrayList<GElement> l = new ArrayList<>(paths.size());
+        paths.forEach((e) -> { l.add(e.clone()); });
+        // the groups are optimized by their own makeLinkedPath()
+        GGroup.optimizeMoves(l, null, false);
         final G1Path res = new G1Path(name);
-        for ( GElement e : paths) 
+        for ( GElement e : l) 
             if ( e instanceof GGroup) 
                 res.append( makeLinkedPath("sub", ((GGroup)e).getAll()));
             else
@@ -1109,6 +1234,149 @@ public class G1Path extends GElement implements Iterable<GCode> {
     }
     
     public static GGroup makePocket( ArrayList<GElement>elements, double offset) {
+        return makePocket(elements, offset, () -> false);
+    }
+
+    /**
+     * Split closed shapes into independent pockets : each shape that is not inside another one,
+     * with the shapes inside it as islands.
+     * @param closed the shapes (groups are replaced by their content, open paths are ignored)
+     * @return the shapes of each pocket, its boundary first
+     */
+    public static ArrayList<ArrayList<GElement>> getPocketIslands(ArrayList<GElement> closed) {
+        final ArrayList<GElement> shapes = GGroup.toList(closed);
+        shapes.removeIf((e) -> (e.getFirstPoint() == null) || ! e.isClosed());
+        final Rectangle2D bounds[] = new Rectangle2D[shapes.size()];
+        for( int i = 0; i < bounds.length; i++) bounds[i] = shapes.get(i).getBounds();
+
+        final ArrayList<ArrayList<GElement>> res = new ArrayList<>();
+        for( int i = 0; i < bounds.length; i++) {
+            boolean inside = false;
+            for( int j = 0; (j < bounds.length) && ! inside; j++)
+                inside = (j != i) && bounds[j].contains(bounds[i]) && ((j < i) || ! bounds[i].equals(bounds[j]));
+            if ( inside) continue;
+
+            final ArrayList<GElement> island = new ArrayList<>();
+            island.add(shapes.get(i));
+            for( int j = 0; j < bounds.length; j++)
+                if ( (j != i) && bounds[i].contains(bounds[j])) island.add(shapes.get(j));
+            res.add(island);
+        }
+        return res;
+    }
+
+    /**
+     * Make the pockets of independent islands in parallel (in the common fork-join pool).
+     * @param islands the shapes of each pocket (see getPocketIslands)
+     * @param offset
+     * @param cancelled polled between two rings
+     * @param progress called with the number of pockets done (from worker threads)
+     * @return a group by island (in the same order), or null if cancelled
+     */
+    public static ArrayList<GGroup> makePockets(ArrayList<ArrayList<GElement>> islands, double offset, BooleanSupplier cancelled, IntConsumer progress) {
+        final AtomicInteger done = new AtomicInteger();
+        final List<GGroup> res = islands.parallelStream().map((shapes) -> {
+            final GGroup g = makePocket(new ArrayList<>(shapes), offset, cancelled);
+            progress.accept(done.incrementAndGet());
+            return g;
+        }).collect(Collectors.toList());
+        return cancelled.getAsBoolean() ? null : new ArrayList<>(res);
+    }
+
+    /**
+     * Link the rings of a pocket into continuous paths : from the end of a ring, the tool goes
+     * down to the nearest point of the nearest ring if this move is shorter than <i>maxLink</i>
+     * and doesn't cross any ring (so it stays into the material to remove). Each ring is rotated
+     * to start at the point reached, the retract and plunge between them are removed.
+     * @param rings the closed rings made by makePocket (in their cutting order)
+     * @param maxLink the longer link allowed (twice the offset between rings)
+     * @return a group with the linked paths
+     */
+    public static GGroup linkPocketRings(GGroup rings, double maxLink) {
+        final ArrayList<G1Path> paths = new ArrayList<>();
+        for( GElement e : rings.getAll()) 
+            if ( (e instanceof G1Path) && (e.getNbPoints() > 1)) paths.add((G1Path)e);
+        final Rectangle2D bounds[] = new Rectangle2D[paths.size()];
+        for( int i = 0; i < bounds.length; i++) bounds[i] = paths.get(i).getBounds();
+        
+        final ArrayList<GElement> res = new ArrayList<>();
+        final boolean done[] = new boolean[paths.size()];
+        for( int i = 0; i < paths.size(); i++) {
+            if ( done[i]) continue;
+            done[i] = true;
+            final G1Path linked = new G1Path(paths.get(i).getName());
+            for( GCode p : paths.get(i).lines) if ( p.isAPoint()) linked.add(new GCode(p.getX(), p.getY()));
+            
+            while ( true) {
+                final GCode end = linked.getLastPoint();
+                int best = -1, bestPoint = -1;
+                double bestDist = maxLink;
+                for( int j = 0; j < paths.size(); j++) {
+                    if ( done[j] || (bounds[j].getMinX() - maxLink > end.getX()) || (bounds[j].getMaxX() + maxLink < end.getX()) ||
+                            (bounds[j].getMinY() - maxLink > end.getY()) || (bounds[j].getMaxY() + maxLink < end.getY())) continue;
+                    final ArrayList<GCode> l = paths.get(j).lines;
+                    for( int k = 0; k < l.size() - 1; k++) {
+                        final double d = l.get(k).distance(end);
+                        if ( l.get(k).isAPoint() && (d < bestDist) && ! crossRings(paths, bounds, end, l.get(k))) {
+                            best = j;
+                            bestPoint = k;
+                            bestDist = d;
+                        }
+                    }
+                }
+                if ( best == -1) break;
+                
+                // the ring from the point reached, until this point again
+                done[best] = true;
+                final ArrayList<GCode> l = paths.get(best).lines;
+                int n = l.size();
+                if ( l.get(0).isAtSamePosition(l.get(n - 1))) n--;
+                for( int k = 0; k <= n; k++) {
+                    final GCode p = l.get((bestPoint + k) % n);
+                    if ( p.isAPoint()) linked.add(new GCode(p.getX(), p.getY()));
+                }
+            }
+            res.add(linked);
+        }
+        return new GGroup(rings.getName(), res);
+    }
+    
+    /** @return true if the segment (a,b) crosses a segment of a path. */
+    private static boolean crossRings(ArrayList<G1Path> paths, Rectangle2D bounds[], GCode a, GCode b) {
+        final double minX = Math.min(a.getX(), b.getX()), maxX = Math.max(a.getX(), b.getX());
+        final double minY = Math.min(a.getY(), b.getY()), maxY = Math.max(a.getY(), b.getY());
+        for( int i = 0; i < paths.size(); i++) {
+            if ( (bounds[i].getMinX() > maxX) || (bounds[i].getMaxX() < minX) || (bounds[i].getMinY() > maxY) || (bounds[i].getMaxY() < minY)) continue;
+            GCode last = null;
+            for( GCode p : paths.get(i).lines) {
+                if ( ! p.isAPoint()) continue;
+                if ( (last != null) && properlyIntersects(a, b, last, p)) return true;
+                last = p;
+            }
+        }
+        return false;
+    }
+    
+    /** @return true if the segments (a,b) and (c,d) cross, touching is not crossing. */
+    private static boolean properlyIntersects(GCode a, GCode b, GCode c, GCode d) {
+        final double d1 = orientation(a, b, c), d2 = orientation(a, b, d);
+        final double d3 = orientation(c, d, a), d4 = orientation(c, d, b);
+        return ((d1 > 0) && (d2 < 0) || (d1 < 0) && (d2 > 0)) && ((d3 > 0) && (d4 < 0) || (d3 < 0) && (d4 > 0));
+    }
+    
+    private static double orientation(GCode a, GCode b, GCode c) {
+        final double o = (b.getX() - a.getX()) * (c.getY() - a.getY()) - (b.getY() - a.getY()) * (c.getX() - a.getX());
+        // aligned under 1e-9 mm
+        return (Math.abs(o) < 1e-9 * (Math.abs(b.getX() - a.getX()) + Math.abs(b.getY() - a.getY()))) ? 0 : o;
+    }
+
+    /**
+     * @param elements the boundary of the pocket first, then its islands (modified)
+     * @param offset distance between rings
+     * @param cancelled polled between two rings
+     * @return the rings of the pocket
+     */
+    public static GGroup makePocket( ArrayList<GElement>elements, double offset, BooleanSupplier cancelled) {
         final GElement biggerBlock = elements.get(0); // pocket of the first of the list, not the biggest     
         final Rectangle2D rMax  = biggerBlock.getBounds();
                
@@ -1116,19 +1384,15 @@ public class G1Path extends GElement implements Iterable<GCode> {
         final ArrayList<GElement> originalBlocks = GGroup.toList(elements);
         originalBlocks.remove(biggerBlock);
         boolean added;
-        Area area = null;
+        PolygonOffset area = null;
         do {
-            for ( GElement b : elements) {
-                Area a = b.getOffsetArea(offset);
-                if ( a==null) {
-                    a = b.getOffsetArea(offset);
-                    System.out.println("a==null");
-                }
-                if ( area == null) area = a;
-                else area.add(a);   
-            }
+            // offsets of the last rings, added to the previous ones
+            final PolygonOffset o = new PolygonOffset(offset, PolygonOffset.Join.ROUND);
+            if ( area != null) o.addFilled(area);
+            for ( GElement b : elements) o.add(b);
+            area = o;
 
-            newBlocks = G1Path.makeElementsFromArea( "pocket", area);
+            newBlocks = G1Path.makeElementsFromArea( "pocket", area.getPath());
             elements.clear();
             added = false;
             for ( GElement b : newBlocks) {
@@ -1146,7 +1410,7 @@ public class G1Path extends GElement implements Iterable<GCode> {
                     added= true;
                 }
             }                
-        } while ( added );
+        } while ( added && ! cancelled.getAsBoolean());
 
         return new GGroup("pocket-"+biggerBlock.getName(), offsets);
     }
@@ -1222,23 +1486,9 @@ public class G1Path extends GElement implements Iterable<GCode> {
     @Override
     public Area getOffsetArea( double distance) {
         if ( getNbPoints() < 2) return null;
-        final Area a = new Area();
-        GCode lastPoint = null;
-
-        for( GCode p : lines) {
-            if ( p.isAPoint()) {
-                if ( lastPoint != null) {
-                    a.add( new Area(new Ellipse2D.Double(lastPoint.getX()-distance, lastPoint.getY()-distance, 2*distance, 2*distance)));
-                    a.add( new Area(getLineOffset(lastPoint, p, distance)));
-                    
-                }
-                lastPoint = p;
-            }
-        }
-        if ( ! isClosed())
-            a.add( new Area(new Ellipse2D.Double(lastPoint.getX()-distance, lastPoint.getY()-distance, 2*distance, 2*distance)));
-        
-        return a;
+        final PolygonOffset o = new PolygonOffset(distance, PolygonOffset.Join.ROUND);
+        o.addPolyline(lines);
+        return o.getArea();
     }
         
     public static ArrayList<GElement> makeElementsFromArea( String name, Shape a) {
@@ -1247,15 +1497,15 @@ public class G1Path extends GElement implements Iterable<GCode> {
         G1Path currentBlock = null;
         final PathIterator pi = a.getPathIterator(null, 0.1);
         int number=0;
+        final double[] coordinates = new double[6];
         while (pi.isDone() == false) {
-            final double[] coordinates = new double[6];
             final int type = pi.currentSegment(coordinates);
             switch (type) {
             case PathIterator.SEG_MOVETO:
                     final GCode p = new GCode(coordinates[0], coordinates[1]);
                     if ( (currentBlock != null) &&  ! currentBlock.isEmpty() && (currentBlock.getLastPoint().distance(p) > 0.00001)) {
                         
-                        currentBlock.simplify(100, 0.1);
+                        currentBlock.simplify(PolylineSimplifier.Algorithm.DOUGLAS_PEUCKER, 0.01);
                         currentBlock.removeByDistance(null, 0.01);
                         if ( currentBlock.size() > 0) {
                             res.add(currentBlock);
@@ -1421,8 +1671,8 @@ public class G1Path extends GElement implements Iterable<GCode> {
             double cy = -1*(cx - (p1.getX()+p2.getX())/2)/aSlope +  (p1.getY()+p2.getY())/2;
             return new Point2D.Double(cx, cy);
         }
-        if ( bounds != null) getBounds();
-        return new Point2D.Double(bounds.getCenterX(), bounds.getCenterY());
+        final Rectangle2D b = getBounds();
+        return (b == null) ? null : new Point2D.Double(b.getCenterX(), b.getCenterY());
     }
     
     public double getSurfaceValue() {
@@ -1481,29 +1731,44 @@ public class G1Path extends GElement implements Iterable<GCode> {
      * @return the G1 points added
      */
     public ArrayList<GCode> addIntersectionPointsWith(ArrayList<G1Path> shapes) {
-        final ArrayList<GCode> res = new ArrayList<>();
-        GCode last=null;
-           
-        // Find points by segments intersections
-        for( int lineNumber=0; lineNumber < lines.size();) {
-            GCode pt = lines.get(lineNumber);
-            lineNumber++;
-            if ( ! pt.isAPoint()) continue;
-            if ( last != null) {
-                for ( G1Path shape : shapes)
-                    if (shape != this) {    
-                        for( Segment2D s : ((G1Path)shape).getSegmentIterator()) {
-                            s.sortPointsByY();
-                            GCode iP = new Segment2D(last, pt).intersectionPoint(s);
-                            if ( (iP != null) && ! contains(iP)) {
-                                iP.setG(1);
-                                add(lineNumber-1, pt = iP);
-                                res.add(iP);
-                            }
-                        }
-                    }
+        final SegmentIntersector si = new SegmentIntersector();
+        si.add(this, 0);
+        for ( G1Path shape : shapes)
+            if (shape != this) si.add(shape, 1);
+        return addCrossings(si.getCrossings().get(0));
+    }
+
+    /**
+     * Insert points into this path in one pass.
+     * @param crossings points on the segments of this path, sorted along it (see SegmentIntersector)
+     * @return the G1 points added
+     */
+    public ArrayList<GCode> addCrossings(List<SegmentIntersector.Crossing> crossings) {
+        final ArrayList<GCode> res = new ArrayList<>(crossings.size());
+        if ( crossings.isEmpty()) return res;
+        
+        final ArrayList<GCode> l = new ArrayList<>(lines.size() + crossings.size());
+        GCode last = null;
+        int segment = -1, k = 0;
+        for( GCode p : lines) {
+            if ( p.isAPoint()) {
+                // points of the segment ending at p
+                for( ; (k < crossings.size()) && (crossings.get(k).segment <= segment); k++) {
+                    final SegmentIntersector.Crossing c = crossings.get(k);
+                    final GCode pt = new GCode(c.x, c.y);
+                    if ( (c.segment != segment) || (last.distance(pt) < SegmentIntersector.MIN_DISTANCE) || 
+                         (p.distance(pt) < SegmentIntersector.MIN_DISTANCE)) continue;
+                    l.add(last = pt);
+                    res.add(pt);
+                }
+                segment++;
+                last = p;
             }
-            last = pt;
+            l.add(p);
+        }
+        if ( ! res.isEmpty()) {
+            lines = l;
+            informAboutChange();
         }
         return res;
     }
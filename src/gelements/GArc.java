@@ -61,7 +61,7 @@ public class GArc extends GElement {
     GCode end;
     
     private Arc2D.Double shape;
-    G1Path flatten;
+    final Flattener.Cache flatten = new Flattener.Cache();
     private Rectangle2D bounds;
 
     
@@ -291,9 +291,7 @@ public class GArc extends GElement {
         if ( start == p) start.translate(dx, dy);
         else if ( end == p) end.translate(dx, dy);
         else if ( center == p) center.translate(dx, dy);
-        else if ( (flatten != null) && flatten.contains(p)) {
-            int pn = flatten.indexOf(p);
-            
+        else if ( getFlatten().contains(p)) {
             p.translate(dx, dy);
             // try to calculate new circle from 3 points
             GCode c = getCenterOf3Points(start, end, p);           
@@ -301,24 +299,23 @@ public class GArc extends GElement {
             revalidate();
 
             // put the selected point from old flat to the new one
-            getFlatten();
-            GCode tmp = flatten.getCloserPoint(p, Math.max(Math.abs(dx),Math.abs(dy))+1, null, true);  
+            GCode tmp = getFlatten().getCloserPoint(p, Math.max(Math.abs(dx),Math.abs(dy))+1, null, true);  
             
             if ( tmp == null) {
                 // try to flip G2G3
                 center.set( c);
                 clockwise = ! clockwise;
                 revalidate();
-                getFlatten();
-                tmp = flatten.getCloserPoint(p, radius, null, true);  
+                tmp = getFlatten().getCloserPoint(p, radius, null, true);  
                 if ( tmp == null) clockwise = ! clockwise;
             }
             
             if ( tmp != null) {
-                int i = flatten.indexOf(tmp);            
+                final G1Path f = getFlatten();
+                int i = f.indexOf(tmp);            
                 p.set(tmp);
-                flatten.remove(i);
-                flatten.insertLine(i, p);
+                f.remove(i);
+                f.insertLine(i, p);
             }
             return true;
         }
@@ -629,21 +626,12 @@ public class GArc extends GElement {
     
     /**
      * Generate the flat path if needed and return it.
-     * @return the content of 'flatten'
+     * @return the content of 'flatten' (not a copy)
      */
     G1Path getFlatten() { 
-        if ( flatten == null) {
-            flatten = new G1Path("flattenArc-"+name);
-            int nbp = 12 * (int)((2 * Math.PI * radius * (arcExtend/360))/12);
-            double angle = arcStart, a = (clockwise?-(360-((arcExtend==360)?0:arcExtend)):arcExtend) / nbp;
-            while(nbp-- > 0) {
-                flatten.add(GCode.newAngularPoint(center, radius, angle, false));
-                angle+=a;
-            }
-        }
-        G1Path res =  (G1Path)flatten.clone();
-        if ( properties != null) res.properties = properties.clone();
-        return res;
+        return flatten.get(this, (tolerance) -> 
+            Flattener.arc("flattenArc-"+name, center, radius, arcStart, 
+                            clockwise ? -(360-((arcExtend==360)?0:arcExtend)) : arcExtend, tolerance));
     }
     
     /**
@@ -655,6 +643,11 @@ public class GArc extends GElement {
         if ( properties != null) res.properties = properties.clone();
         return res;
     }
+
+    @Override
+    public G1Path getFlatView() {
+        return getFlatten();
+    }
     
 
     @Override
@@ -671,6 +664,11 @@ public class GArc extends GElement {
         return radius;
     }
 
+    /** @return true for a G2 arc */
+    public boolean isClockwise() {
+        return clockwise;
+    }
+
     @Override
     public void toDXF(OutputStreamWriter out) throws IOException {
         getFlatten().toDXF(out);
@@ -717,7 +715,7 @@ public class GArc extends GElement {
      * move center according to start & end points and update arcStart, arcLen.
      */
     public void revalidate() {
-        flatten = null;   
+        flatten.clear();   
         if ( ! start.isAtSamePosition(end)) {
 
             Segment2D t = new Segment2D(start, end).getTangentSegment();
@@ -35,6 +35,8 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.ListModel;
@@ -49,9 +51,9 @@ import javax.swing.event.ListDataListener;
 public abstract class GElement implements ListModel<Object>, Iterable<GCode> {
 
     /**
-     * Used to create uniq element ID.
+     * Used to create uniq element ID (elements can be created by several threads).
      */
-    protected static int curID = 1;
+    protected static final AtomicInteger curID = new AtomicInteger(1);
 
     /**
      * A uniq ID.
@@ -66,6 +68,31 @@ public abstract class GElement implements ListModel<Object>, Iterable<GCode> {
 
     ArrayList<ListDataListener> dataListener = new ArrayList<>();
 
+    /** The group that contains this element, warned when this element changes. */
+    GGroup parent;
+
+    /**
+     * Values of a group cached until the group or one of its children changes.
+     */
+    static final class Summary {
+        Rectangle2D bounds, enabledBounds;
+        int enableChanges;
+        int nbPoints;
+        GCode firstPoint, lastPoint;
+    }
+    volatile Summary summary;
+
+    /** Number of calls to informAboutChange() on any element (atomic : elements are changed by several threads). */
+    private static final AtomicInteger changeCount = new AtomicInteger();
+
+    /** Number of calls to informAboutChange() on this element (see Flattener.Cache), incremented with VERSION. */
+    private volatile int version;
+    private static final AtomicIntegerFieldUpdater<GElement> VERSION = AtomicIntegerFieldUpdater.newUpdater(GElement.class, "version");
+
+    /** The last undo snapshot of this element, valid while version == undoVersion (see UndoManager). */
+    UndoManager.Node undoNode;
+    int undoVersion;
+
     public EngravingProperties properties = new EngravingProperties();
 
     ;
@@ -75,7 +102,7 @@ public abstract class GElement implements ListModel<Object>, Iterable<GCode> {
      * @param name0 
      */
     public GElement(String name0) {
-        id = curID++;
+        id = curID.getAndIncrement();
         name = name0;
     }
 
@@ -100,14 +127,16 @@ public abstract class GElement implements ListModel<Object>, Iterable<GCode> {
      * Change my ID to a new uniq ID.
      */
     public void newID() {
-        id = curID++;
+        if ( parent != null) parent.unindex(this);
+        id = curID.getAndIncrement();
+        if ( parent != null) parent.index(this);
     }
 
     /**
      * @return a uniq ID
      */
     public static int getUniqID() {
-        return curID++;
+        return curID.getAndIncrement();
     }
 
     public int getID() {
@@ -132,6 +161,22 @@ public abstract class GElement implements ListModel<Object>, Iterable<GCode> {
     @Override
     abstract public Object getElementAt(int index);
 
+    /**
+     * @return a counter incremented each time an element has changed (used to know if the view must be repainted)
+     */
+    public static int getChangeCount() {
+        return changeCount.get();
+    }
+
+    /**
+     * Clear the cached summary of this element and of all groups that contain it.
+     */
+    void invalidateSummary() {
+        summary = null;
+        // a group without summary has no parent with a summary
+        for( GGroup g = parent; (g != null) && (g.summary != null); g = g.parent) g.summary = null;
+    }
+
     @Override
     public void addListDataListener(ListDataListener l) {
         dataListener.add(l);
@@ -148,6 +193,9 @@ public abstract class GElement implements ListModel<Object>, Iterable<GCode> {
      */
     protected void informAboutChange() {
         modified = true;
+        changeCount.incrementAndGet();
+        VERSION.incrementAndGet(this);
+        invalidateSummary();
         dataListener.forEach((l) -> {
             l.contentsChanged(new ListDataEvent(this, ListDataEvent.CONTENTS_CHANGED, 0, getSize()));
         });
@@ -438,6 +486,16 @@ public abstract class GElement implements ListModel<Object>, Iterable<GCode> {
 
     abstract public void paint(PaintContext pc);
 
+    /**
+     * Build on the calling thread (the EDT) all the values paint() caches, so that paint()
+     * can then be called by several tile threads at once. The caches are stamped with the
+     * version of the element : a tile painting an element changed meanwhile doesn't keep them.
+     * @param pc the context of the next paints
+     */
+    public void preparePaint(PaintContext pc) {
+        getBounds();
+    }
+
     /**
      * @return true if this element must be scaled with isometric ratio.
      */
@@ -452,6 +510,19 @@ public abstract class GElement implements ListModel<Object>, Iterable<GCode> {
      */
     abstract public GElement flatten();
 
+    /**
+     * Like flatten() but the result can be shared with this element (a cache or itself)
+     * and must not be modified : use it to read the flat path only.
+     * @return the flat path of this element
+     */
+    public GElement getFlatView() {
+        return flatten();
+    }
+
+    int getVersion() {
+        return version;
+    }
+
     /**
      * @return The center of the path or null if none (contains no feed code)
      */
@@ -559,6 +630,9 @@ public abstract class GElement implements ListModel<Object>, Iterable<GCode> {
         if (line.startsWith(GTextOnPath.HEADER_STRING)) {
             return GTextOnPath.class;
         }
+        if (line.startsWith(GInstance.HEADER_STRING)) {
+            return GInstance.class;
+        }
         return null;
     };
 
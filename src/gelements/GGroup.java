@@ -31,7 +31,12 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
 
 /**
@@ -47,6 +52,12 @@ public class GGroup extends GElement implements Iterator<GElement> {
 
     ArrayList<GElement> elements;
     
+    /** ID of all elements of the tree (only in the root group, created by the first getElementID()). */
+    private HashMap<Integer,GElement> idIndex;
+    
+    /** True if this group contains elements that stay linked to another group (see adopt()). */
+    boolean sharedElements;
+    
     public GGroup(String name0) {
         super(name0);
         elements = new ArrayList<>();
@@ -58,8 +69,10 @@ public class GGroup extends GElement implements Iterator<GElement> {
      */
     public GGroup(ArrayList<GElement> elements, boolean useClones) {
         this("group");
+        sharedElements = ! useClones;
         elements.forEach((e) -> { 
-            this.elements.add( useClones ? e.clone() : e); 
+            // don't take shared elements from their group
+            this.elements.add( useClones ? adopt(e.clone()) : e); 
         });
     }
     
@@ -69,7 +82,7 @@ public class GGroup extends GElement implements Iterator<GElement> {
      */
     public GGroup(String name0, ArrayList<GElement> elements) {
         this(name0);
-        elements.forEach((e) -> { this.elements.add( e.clone()); });
+        elements.forEach((e) -> { this.elements.add( adopt(e.clone())); });
     }
 
     @Override
@@ -87,12 +100,12 @@ public class GGroup extends GElement implements Iterator<GElement> {
     }
     
     public void add( GElement e) {
-        elements.add(e);
+        elements.add(adopt(e));
         informAboutChange();
     }
     
     public void add( int i, GElement e) {
-        elements.add(i, e);
+        elements.add(i, adopt(e));
         informAboutChange();
     }
     
@@ -144,7 +157,7 @@ public class GGroup extends GElement implements Iterator<GElement> {
         GGroup clone = new GGroup(name);
         if ( properties != null) clone.properties = properties.clone();
         elements.forEach((b) -> { 
-            clone.elements.add((GElement) b.clone());
+            clone.elements.add(clone.adopt(b.clone()));
         });
             
         return clone;
@@ -156,7 +169,7 @@ public class GGroup extends GElement implements Iterator<GElement> {
         clone.id = id;
         if ( properties != null) clone.properties = properties.clone();
         elements.forEach((b) -> { 
-            clone.elements.add((GElement) b.cloneWithSameID());
+            clone.elements.add(clone.adopt(b.cloneWithSameID()));
         });
             
         return clone;     
@@ -170,6 +183,7 @@ public class GGroup extends GElement implements Iterator<GElement> {
      */
     public boolean remove(GElement e) {
         if ( elements.remove(e)) {
+            release(e);
             informAboutChange();
             return true;
         }
@@ -178,7 +192,7 @@ public class GGroup extends GElement implements Iterator<GElement> {
     
     @Override
     public GElement remove( int i) {
-        GElement e = elements.remove(i); 
+        GElement e = release(elements.remove(i)); 
         informAboutChange();
         return e;
     }
@@ -199,30 +213,22 @@ public class GGroup extends GElement implements Iterator<GElement> {
 
     @Override
     public void rotate(Point2D transformationOrigin, double d) {
-        elements.forEach((e) -> {
-            e.rotate(transformationOrigin, d);            
-        });
+        BulkTransform.rotate(elements, transformationOrigin, d);
     }
 
     @Override
     public void scale(Point2D transformationOrigin, double d, double d0) {
-        elements.forEach((e) -> {
-            e.scale(transformationOrigin, d, d0);        
-        });
+        BulkTransform.scale(elements, transformationOrigin, d, d0);
     }
 
     @Override
     public void translate(double d, double d0) {
-        elements.forEach((e) -> { 
-            e.translate(d, d0);
-        });
+        BulkTransform.translate(elements, d, d0);
     }
     
     @Override
     public void transform(AffineTransform t) {
-        elements.forEach((o) -> { 
-            o.transform( t);
-        });
+        BulkTransform.transform(elements, t);
     }
     
     @Override
@@ -234,11 +240,7 @@ public class GGroup extends GElement implements Iterator<GElement> {
 
     @Override
     public Area getOffsetArea(double param) {
-        Area a = new Area();
-        elements.forEach((e) -> {
-            a.add( e.getOffsetArea(param));
-        });
-        return a;
+        return PolygonOffset.getOffsetArea(elements, param);
     }
 
     /**
@@ -246,6 +248,7 @@ public class GGroup extends GElement implements Iterator<GElement> {
      * @param paths 
      */
     public void addAll(ArrayList<GElement> paths) {
+        paths.forEach((e) -> { adopt(e); });
         elements.addAll( paths);
         informAboutChange();
     }
@@ -300,9 +303,12 @@ public class GGroup extends GElement implements Iterator<GElement> {
         if ( e instanceof GGroup) {
             int i = elements.indexOf(e);
             
-            elements.remove(e);
+            elements.remove(release(e));
             ArrayList<GElement> els = ((GGroup) e).clear();
-            if ( els != null) elements.addAll(i, els); 
+            if ( els != null) {
+                els.forEach((c) -> { adopt(c); });
+                elements.addAll(i, els); 
+            }
             informAboutChange();
             return true;
         }
@@ -316,6 +322,7 @@ public class GGroup extends GElement implements Iterator<GElement> {
     public ArrayList<GElement> clear() {
         ArrayList<GElement> res = elements;
         elements = new ArrayList<>();
+        res.forEach((e) -> { release(e); });
         informAboutChange();
         return res;
     }
@@ -324,10 +331,11 @@ public class GGroup extends GElement implements Iterator<GElement> {
         if ( els.isEmpty()) return null;
         int pos = elements.indexOf(els.get(0));
         elements.removeAll(els);
+        els.forEach((e) -> { release(e); });
         if ( elements.isEmpty()) pos = 0;
         else if ( pos >= elements.size()) pos = elements.size()-1;
         GGroup g;
-        elements.add( pos, g = new GGroup(groupName != null ? groupName:"group", els));
+        elements.add( pos, g = adopt(new GGroup(groupName != null ? groupName:"group", els)));
         informAboutChange();
         return g;
     }
@@ -364,12 +372,17 @@ public class GGroup extends GElement implements Iterator<GElement> {
      * @return the direct parent of e in this group or null if e is not found in this group.
      */
     public GGroup getParent(GElement el) {
+        if ( ! getRoot().sharedElements) {
+            final GGroup p = el.parent;
+            return ((p == this) || isParentOf(p)) ? p : null;
+        }
         
         if ( elements.contains(el)) return this;
         else {
+            GGroup res;
             for( GElement e : elements) 
-                if ((e instanceof GGroup) && (((GGroup)e).getParent(el) != null)) 
-                    return (GGroup) e;
+                if ((e instanceof GGroup) && ((res=((GGroup)e).getParent(el)) != null)) 
+                    return res;
         }
         return null;
     }
@@ -394,14 +407,21 @@ public class GGroup extends GElement implements Iterator<GElement> {
    
     @Override
     public Rectangle2D getBounds() {
-        return getBounds(elements);
+        final Rectangle2D r = getCachedSummary().bounds;
+        return (r == null) ? null : (Rectangle2D) r.clone();
     }
     
     /** 
      * @return  the bounding box of all enabled path of this Group.
      */
     public Rectangle2D getEnabledBounds() {
-        return getEnabledBounds(elements);
+        final Summary s = getCachedSummary();
+        final int changes = EngravingProperties.getEnableChanges();
+        if ( (s.enabledBounds == null) || (s.enableChanges != changes)) {
+            s.enabledBounds = getEnabledBounds(elements);
+            s.enableChanges = changes;
+        }
+        return (s.enabledBounds == null) ? null : (Rectangle2D) s.enabledBounds.clone();
     }
     
     /**
@@ -414,7 +434,7 @@ public class GGroup extends GElement implements Iterator<GElement> {
         for ( GElement e : elements) {
             if ( ! e.isEnabled()) continue;
             Rectangle2D r2;
-            if ( e instanceof GGroup) r2 = getEnabledBounds(((GGroup) e).elements);
+            if ( e instanceof GGroup) r2 = ((GGroup) e).getEnabledBounds();
             else r2 = e.getBounds();
             
             if ( r == null) r = r2;
@@ -425,19 +445,67 @@ public class GGroup extends GElement implements Iterator<GElement> {
 
     @Override
     public GCode getLastPoint() {
-        if ( ! elements.isEmpty()) 
-            for ( int i = elements.size()-1; i > 0; i--)
-                if ( elements.get(i).getLastPoint() != null)
-                    return elements.get(i).getLastPoint();
-        return null;
+        return getCachedSummary().lastPoint;
     }
 
     @Override
     public GCode getFirstPoint() {
-        if ( ! elements.isEmpty()) 
-            for( GElement e : elements)
-                if ( e.getFirstPoint() != null) return e.getFirstPoint();
-        return null;
+        return getCachedSummary().firstPoint;
+    }
+
+    /**
+     * Link <i>e</i> to this group, so the cached summary of this group is cleared when <i>e</i> changes.
+     * @param e an element added into this group
+     * @return e
+     */
+    <T extends GElement> T adopt(T e) {
+        if ( e.parent != this) {
+            if ( e.parent != null) {
+                e.parent.invalidateSummary();
+                e.parent.unindex(e);
+            }
+            e.parent = this;
+            if ( e instanceof GGroup) {
+                ((GGroup)e).idIndex = null; // no more a root
+                if ( ((GGroup)e).sharedElements) getRoot().sharedElements = true;
+            }
+            index(e);
+        }
+        return e;
+    }
+
+    private GElement release(GElement e) {
+        if ( (e != null) && (e.parent == this)) {
+            unindex(e);
+            e.parent = null;
+        }
+        return e;
+    }
+
+    /**
+     * Compute (or return) bounds, number of points, first and last point of this group.<br>
+     * The summary is kept only if all children are linked to this group and have their own summary,
+     * so informAboutChange() of any element of the tree clears it.
+     * @return the summary of this group
+     */
+    Summary getCachedSummary() {
+        Summary s = summary;
+        if ( s != null) return s;
+
+        s = new Summary();
+        boolean cacheable = true;
+        for( GElement e : elements) {
+            final Rectangle2D r = e.getBounds();
+            if ( s.bounds == null) s.bounds = (r == null) ? null : (Rectangle2D) r.clone();
+            else if ( r != null) s.bounds.add(r);
+            s.nbPoints += e.getNbPoints();
+            final GCode last = e.getLastPoint();
+            if ( s.firstPoint == null) s.firstPoint = e.getFirstPoint();
+            if ( last != null) s.lastPoint = last;
+            cacheable &= (e.parent == this) && ( ! (e instanceof GGroup) || (e.summary != null));
+        }
+        if ( cacheable) summary = s;
+        return s;
     }
 
     @Override
@@ -492,16 +560,29 @@ public class GGroup extends GElement implements Iterator<GElement> {
         for( GElement e: elements)
             if ( e.getID() == element.getID()) {
                 int i = elements.indexOf(e);
-                elements.remove(e);
-                elements.add( i, element);
+                elements.remove(release(e));
+                elements.add( i, adopt(element));
                 informAboutChange();
                 return true;
             }
-        elements.add( element);
+        elements.add( adopt(element));
         informAboutChange();
         return false;
     }
 
+    /**
+     * Replace the content of this group, the elements can come from other groups.
+     * @param els the new content (used by this group)
+     */
+    void setElements(ArrayList<GElement> els) {
+        final Set<GElement> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+        kept.addAll(els);
+        elements.forEach((e) -> { if ( ! kept.contains(e)) release(e); });
+        elements = els;
+        els.forEach((e) -> { adopt(e); });
+        informAboutChange();
+    }
+
     /**
      * @return a list of all element contained in this group.
      */
@@ -514,6 +595,12 @@ public class GGroup extends GElement implements Iterator<GElement> {
     /**
      * @param it *  @return true if this group contains this eleent. */
     public boolean isParentOf(GElement it) {
+        if ( it == null) return false;
+        if ( ! getRoot().sharedElements) {
+            for( GGroup p = it.parent; p != null; p = p.parent)
+                if ( p == this) return true;
+            return false;
+        }
         if ( elements.contains( it)) return true;
         return elements.stream().filter((e) -> ( e instanceof GGroup)).anyMatch((e) -> (((GGroup)e).isParentOf(it))); 
     } 
@@ -557,51 +644,49 @@ public class GGroup extends GElement implements Iterator<GElement> {
      * @return true if at least two elements have been joined. 
      */
     public boolean joinElements(double tolerance) {
-        boolean joined;
         boolean modif = false;
-        do
-        {
-            joined=false;
-            for (GElement s1 : elements) {;
-                if ( s1 instanceof GGroup) 
-                    if (joined |= ((GGroup) s1).joinElements(tolerance)) {
-                        if ( s1.size()==1) {
-                            elements.add(((GGroup) s1).get(0));
-                            elements.remove(s1);
-                        }             
-                        break;
-                    }
-                if ( ! (s1 instanceof G1Path) ) continue;
-
-                for( GElement s2 : elements) {
-                    if ( ! (s2 instanceof G1Path) || (s1 instanceof GPocket3D)) continue;
-
-                    if ( s1 != s2) {
-                        if ((s1.getFirstPoint() == null) || (s2.getFirstPoint() == null)) continue;
-                        if ( s1.getFirstPoint().distance(s2.getLastPoint()) < tolerance) {
-                            elements.remove(s1);
-                            s2.concat(s1, tolerance);
-                            joined=true;
-                            break;
-                        } else if ( (s1.getFirstPoint().distance(s2.getFirstPoint()) < tolerance) ||
-                                    (s1.getLastPoint().distance(s2.getLastPoint()) < tolerance) )
-                        {  
-                            elements.remove(s2);
-                            s2.reverse();
-                            s1.concat(s2, tolerance);
-                            joined=true;
-                            break;
-                        }
-                    }   
+        final ArrayList<GElement> paths = new ArrayList<>();
+        for( int i = 0; i < elements.size(); i++) {
+            GElement e = elements.get(i);
+            if ( (e instanceof GGroup) && ((GGroup) e).joinElements(tolerance)) {
+                modif = true;
+                if ( e.size()==1) {
+                    final GElement s = e;
+                    elements.set(i, e = adopt(((GGroup) s).get(0)));
+                    release(s);
                 }
-                if ( joined) break;
             }
-            modif |= joined;
-        } while ( joined);
-        if ( modif) informAboutChange();
+            if ( (e instanceof G1Path) && ! (e instanceof GPocket3D) && (e.getFirstPoint() != null)) paths.add(e);
+        }
+        
+        final Set<GElement> joined = Collections.newSetFromMap(new IdentityHashMap<>());
+        for( int[] chain : PathJoiner.getChains(paths, tolerance)) {
+            final GElement head = paths.get(chain[0] >> 1);
+            if ( (chain[0] & 1) != 0) head.reverse();
+            for( int i = 1; i < chain.length; i++) {
+                final GElement e = paths.get(chain[i] >> 1);
+                head.concat(e, tolerance);
+                joined.add(e);
+            }
+        }
+        if ( removeElements(joined) > 0) modif = true;
+        else if ( modif) informAboutChange();
         return modif;
     }
     
+    /**
+     * Remove these elements of this group in one pass.
+     * @param toRemove
+     * @return the number of elements removed
+     */
+    public int removeElements(Set<GElement> toRemove) {
+        final int size = elements.size();
+        if ( toRemove.isEmpty() || ! elements.removeIf((e) -> toRemove.contains(e))) return 0;
+        toRemove.forEach((e) -> { release(e); });
+        informAboutChange();
+        return size - elements.size();
+    }
+    
     public GCode getCloserPoint(GCode pt, double dmax, ArrayList<GElement> discareElement, ArrayList<GCode> discarePoints) {
         GCode closer, closest = null;
         double d;
@@ -624,70 +709,178 @@ public class GGroup extends GElement implements Iterator<GElement> {
      * @return the GElement with same 'id' or null
      */
     public GElement getElementID(int id) {
+        if ( this.id == id) return this;
+        final GGroup root = getRoot();
+        if ( root.sharedElements) return findElementID(id);
+        
+        if ( root.idIndex == null) {
+            root.idIndex = new HashMap<>();
+            root.elements.forEach((e) -> { root.addToIndex(e); });
+        }
+        final GElement res = root.idIndex.get(id);
+        return isParentOf(res) ? res : null;
+    }
+    
+    private GElement findElementID(int id) {
         if ( this.id == id) return this;
         GElement res;
         for( GElement e : elements)
             if ( e.getID() == id) return e;
             else if ( (e instanceof GGroup) && 
-                      ((res=((GGroup)e).getElementID(id))!=null)) 
+                      ((res=((GGroup)e).findElementID(id))!=null)) 
                         return res;
         return null;
     }
     
+    /** @return the top group of the tree that contains this group */
+    GGroup getRoot() {
+        GGroup r = this;
+        while ( r.parent != null) r = r.parent;
+        return r;
+    }
+    
+    /** Add <i>e</i> (and its content) to the ID index of the tree if any. */
+    void index(GElement e) {
+        final GGroup root = getRoot();
+        if ( root.idIndex != null) root.addToIndex(e);
+    }
+    
+    /** Remove <i>e</i> (and its content) from the ID index of the tree if any. */
+    void unindex(GElement e) {
+        final GGroup root = getRoot();
+        if ( root.idIndex != null) root.removeFromIndex(e);
+    }
+    
+    private void addToIndex(GElement e) {
+        idIndex.put(e.id, e);
+        if ( e instanceof GGroup) ((GGroup)e).elements.forEach((c) -> { addToIndex(c); });
+    }
+    
+    private void removeFromIndex(GElement e) {
+        idIndex.remove(e.id, e);
+        if ( e instanceof GGroup) ((GGroup)e).elements.forEach((c) -> { 
+            if ( c.parent == e) removeFromIndex(c); // else it has been moved
+        });
+    }
+    
+    /**
+     * Verify parent links and the ID index of this tree (used to debug and to test).
+     * @return the list of errors found (empty if none)
+     */
+    public ArrayList<String> checkConsistency() {
+        final ArrayList<String> errors = new ArrayList<>();
+        final Set<GElement> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        checkConsistency(errors, visited);
+        
+        final GGroup root = getRoot();
+        if ( (root == this) && (idIndex != null)) {
+            visited.forEach((e) -> {
+                if ( idIndex.get(e.id) != e) errors.add(e + " (ID " + e.id + ") is not indexed");
+            });
+            idIndex.forEach((id, e) -> {
+                if ( ! visited.contains(e)) errors.add(e + " (ID " + id + ") is indexed but not in the tree");
+                else if ( e.id != id) errors.add(e + " is indexed with the old ID " + id);
+            });
+        }
+        return errors;
+    }
+    
+    private void checkConsistency(ArrayList<String> errors, Set<GElement> visited) {
+        for( GElement e : elements) {
+            if ( ! visited.add(e)) {
+                errors.add(e + " is present several times in the tree");
+                continue;
+            }
+            if ( (e.parent != this) && ! sharedElements) 
+                errors.add(e + " is in " + this + " but linked to " + e.parent);
+            if ( e instanceof GGroup) {
+                if ( ((GGroup)e).idIndex != null) errors.add(e + " has its own ID index");
+                ((GGroup)e).checkConsistency(errors, visited);
+            }
+        }
+    }
+    
     public static double moveLength;
+    
+    /** Time (ms) allowed to the optimization of the moves asked by the user. */
+    public static final long OPTIMIZE_TIME_LIMIT_MS = 2000;
+    
     /**
-     * Sort this array of GElement to optimise CNC move between each.
+     * Sort this array of GElement to optimise CNC move between each.<br>
+     * Open paths can be reversed and closed paths can start at another point (see MoveOptimizer).
      * @param selection the elements to optimizeMoves
      * @param lastPosition the last position of the head at start. (can be null)
      * @param recursive to optimizeMoves GGroup recursively
      * @return last position of sorted paths
      */
     public static GCode optimizeMoves(ArrayList<GElement> selection, Point2D lastPosition, boolean recursive) {
-        //GCode lastPointOfCloser;
-        if ( selection.isEmpty()) return (lastPosition != null) ? new GCode(lastPosition) : null;          
-        
-        GElement closer;
-        for( int i = 0; i < selection.size(); i++) {
-            GElement e = selection.get(i);
-            
-            //System.out.println(i + "=" + e);
-            if ( e.getFirstPoint() == null) continue;           
-            if (lastPosition==null) lastPosition = e.getFirstPoint();
-            double dmin = Double.POSITIVE_INFINITY;
-            
-            closer=null;
-            for( int j = i; j < selection.size(); j++) {
-                e = selection.get(j);
-                final GCode firstPoint = e.getFirstPoint();
-                if ( firstPoint == null) continue;
-                final double d=lastPosition.distance(firstPoint);
-                
-                // TODO in the betters closed next paths : try choosing the first that have endPoint near all others
-                if ( (d<dmin) /*&& ((lastPointOfCloser==null) ||
-                        (e.getLastPoint().distance(lastPosition) < lastPointOfCloser.distance(lastPosition)))*/) {
-                    closer = e;
-                    //lastPointOfCloser=closer.getLastPoint();
-                    dmin=d;
-                }
-            }
-            if ( closer == null) 
-                break; // no more elements to optimizeMoves 
-            
-            selection.remove(closer);
-            selection.add(i,closer); 
-            moveLength += dmin;
-            if ( recursive && (closer instanceof GGroup)) ((GGroup)closer).sort( lastPosition, true);
-            lastPosition=closer.getLastPoint();
-        }
-        return selection.get(selection.size()-1).getLastPoint();
+        return optimizeMoves(selection, lastPosition, recursive, 0);
+    }
+    
+    /**
+     * Same as optimizeMoves(selection, lastPosition, recursive) with a time limit.
+     * @param selection
+     * @param lastPosition
+     * @param recursive
+     * @param timeLimit in ms, 0 for the same order whatever the speed of the computer
+     * @return last position of sorted paths
+     */
+    public static GCode optimizeMoves(ArrayList<GElement> selection, Point2D lastPosition, boolean recursive, long timeLimit) {
+        final Point2D end = new MoveOptimizer(timeLimit).optimize(selection, lastPosition, recursive);
+        moveLength += getMovesLength(selection, lastPosition);
+        if ( end == null) return null;
+        return (end instanceof GCode) ? (GCode)end : new GCode(end);
     } 
     
+    /**
+     * @param elements
+     * @param lastPosition the position of the head at start (can be null)
+     * @return the length of the moves between the elements, and into the groups
+     */
+    public static double getMovesLength(List<GElement> elements, Point2D lastPosition) {
+        double res = 0;
+        for( GElement e : elements) {
+            final GCode first = e.getFirstPoint();
+            if ( first == null) continue;
+            if ( e instanceof GGroup) res += getMovesLength(((GGroup)e).elements, lastPosition);
+            else if ( lastPosition != null) res += lastPosition.distance(first);
+            lastPosition = e.getLastPoint();
+        }
+        return res;
+    }
+    
+    /**
+     * Put these elements of this group in this order, at the places they have.
+     * @param sorted elements of this group (the others are ignored)
+     */
+    public void reorder(List<GElement> sorted) {
+        final Set<GElement> in = Collections.newSetFromMap(new IdentityHashMap<>());
+        in.addAll(elements);
+        final ArrayList<GElement> l = new ArrayList<>(sorted.size());
+        for( GElement e : sorted) if ( in.contains(e)) l.add(e);
+        in.clear();
+        in.addAll(l);
+        int k = 0;
+        for( int i = 0; i < elements.size(); i++)
+            if ( in.contains(elements.get(i))) elements.set(i, l.get(k++));
+        informAboutChange();
+    }
+    
     /** Reorder elements of this group.
      * @param lastPosition
      * @param recursive
      * @return the last point of the last element of this group. */
     public GCode sort( Point2D lastPosition, boolean recursive) {
-        GCode c = optimizeMoves(elements, lastPosition, recursive);
+        return sort(lastPosition, recursive, 0);
+    }
+    
+    /** Reorder elements of this group.
+     * @param lastPosition
+     * @param recursive
+     * @param timeLimit in ms, 0 for none
+     * @return the last point of the last element of this group. */
+    public GCode sort( Point2D lastPosition, boolean recursive, long timeLimit) {
+        GCode c = optimizeMoves(elements, lastPosition, recursive, timeLimit);
         informAboutChange();
         return c;
     }
@@ -769,7 +962,7 @@ public class GGroup extends GElement implements Iterator<GElement> {
             else 
                 if ( flattenSPline && ((e instanceof GMixedPath) ||
                         (e instanceof GSpline)))
-                            e.flatten().toDXF(out);
+                            e.getFlatView().toDXF(out);
                 else e.toDXF(out);
     }
     
@@ -792,7 +985,7 @@ public class GGroup extends GElement implements Iterator<GElement> {
     private static void exportToSVG(OutputStreamWriter out, GGroup gGroup, Rectangle2D origin) throws IOException {
         for(GElement element : gGroup.elements) {
             if ( element instanceof GGroup) exportToSVG(out, (GGroup)element, origin);
-            else out.write(element.flatten().toSVG(origin).toString());
+            else out.write(element.getFlatView().toSVG(origin).toString());
         }
     }
 
@@ -859,6 +1052,12 @@ public class GGroup extends GElement implements Iterator<GElement> {
         for ( GElement e : elements) e.paint(pc);
     }
     
+    @Override
+    public void preparePaint(PaintContext pc) {
+        getCachedSummary();
+        for ( GElement e : elements) e.preparePaint(pc);
+    }
+    
     @Override
     public int getIndexOfPoint(GCode highlitedPoint) {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
@@ -866,9 +1065,7 @@ public class GGroup extends GElement implements Iterator<GElement> {
 
     @Override
     public int getNbPoints() {
-        int res = 0;
-        res = elements.stream().map((e) -> e.getNbPoints()).reduce(res, Integer::sum);
-        return res;
+        return getCachedSummary().nbPoints;
     }
 
     /*@Override
@@ -993,12 +1190,7 @@ public class GGroup extends GElement implements Iterator<GElement> {
 
     @Override
     public Point2D getCenter() {        
-        Rectangle2D bounds = null;        
-        for ( GElement e : elements) {
-            if ( e.getBounds() != null)
-                if ( bounds == null) bounds = e.getBounds();
-                else bounds.add(e.getBounds());
-        }
+        final Rectangle2D bounds = getCachedSummary().bounds;
         if ( bounds == null) return null;
         return new Point2D.Double( bounds.getCenterX(), bounds.getCenterY());  
     }
@@ -1020,7 +1212,7 @@ public class GGroup extends GElement implements Iterator<GElement> {
                 if ( e instanceof GGroup) {  
                     ((GGroup)e).removeExtraGroups();
                     
-                    if (((GGroup)e).size() == 1) elements.add(((GGroup)e).remove(0));
+                    if (((GGroup)e).size() == 1) elements.add(adopt(((GGroup)e).remove(0)));
                     
                     if (((GGroup)e).isEmpty()) {
                         remove(e);
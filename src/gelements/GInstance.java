@@ -0,0 +1,562 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gelements;
+
+import gcodeeditor.GCode;
+import gcodeeditor.PaintContext;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+
+/**
+ * A copy of an other element (the master) placed with its own transformation.<br>
+ * The geometry is not copied : the instance paints the master through its transformation,
+ * and follows all the changes of the master. The real coordinates are calculated only
+ * when needed (G-Code generation and exports) with <i>expand()</i>.<br>
+ * The master stays a normal element of the document (or of an other document if it was removed).
+ *
+ * @author Clément
+ */
+public class GInstance extends GElement {
+
+    public static final String HEADER_STRING = "(Instance-name: ";
+    public static final String TRANSFORM_HEADER = "(Transform: ";
+    public static final String MASTER_HEADER = "(Master: ";
+    public static final String INLINE_MASTER = "inline";
+
+    private volatile GElement master;
+    /** To find the master again when it has been replaced (by undo/redo). */
+    private int masterID;
+    /** False if the master is not in a document (glyphs, inline masters). */
+    private boolean findByID;
+    /** The position of the master read from a file, resolved when the document is loaded. */
+    private String masterPath;
+    private final AffineTransform transform = new AffineTransform();
+
+    /** Cached values, built before being shared (read by the tile threads). */
+    private volatile Versioned<Rectangle2D> bounds;
+    private volatile int masterStamp;
+    private volatile int checkedChangeCount = -1;
+
+    /**
+     * Create a new instance.
+     * @param master the element to copy (if it is an instance, its own master is used)
+     * @param transform the position of the copy
+     */
+    public GInstance(GElement master, AffineTransform transform) {
+        super(master.getName());
+        if ( master.properties != null) properties = master.properties.clone();
+        if ( master instanceof GInstance) {
+            this.transform.setTransform(((GInstance)master).transform);
+            master = ((GInstance)master).getMaster();
+        }
+        this.transform.preConcatenate(transform);
+        setMaster(master);
+    }
+
+    /**
+     * Create an unitialised instance.
+     * @param name0
+     */
+    public GInstance(String name0) {
+        super(name0);
+    }
+
+    private synchronized void setMaster(GElement m) {
+        master = m;
+        masterID = m.getID();
+        findByID = m.parent != null;
+        masterPath = null;
+        checkedChangeCount = -1;
+    }
+
+    /**
+     * @return the copied element, or null if it is not yet known (during the loading of a document)
+     */
+    public synchronized GElement getMaster() {
+        if ( masterPath != null) {
+            final GElement m = findMaster(masterPath);
+            if ( m == null) return null;
+            setMaster(m);
+        }
+        if ( findByID && (master.parent == null) && (parent != null)) {
+            // the master has been replaced by a clone (undo/redo) ?
+            final GElement m = parent.getRoot().getElementID(masterID);
+            if ( (m != null) && (m != this) && (m != master)) setMaster(m);
+        }
+        return master;
+    }
+
+    /** @return a copy of the transformation applied to the master */
+    public AffineTransform getTransform() {
+        return new AffineTransform(transform);
+    }
+
+    /**
+     * @return a real copy of the master at the position of this instance (G1Path or GGroup)
+     */
+    public GElement expand() {
+        final GElement m = getMaster();
+        final GElement res = (m == null) ? new G1Path(name) : copy(m, isSimilarity());
+        res.setName(name);
+        res.properties = properties.clone();
+        return res;
+    }
+
+    /**
+     * @return true if the transformation keeps the shapes (circles stay circles) and their way :
+     *         a mirrored arc would keep its clockwise flag and become the other arc
+     */
+    private boolean isSimilarity() {
+        final double e = 1e-9 * (Math.abs(transform.getScaleX()) + Math.abs(transform.getShearX()));
+        return (Math.abs(transform.getScaleX() - transform.getScaleY()) < e) && (Math.abs(transform.getShearX() + transform.getShearY()) < e);
+    }
+
+    /**
+     * @param e
+     * @param similarity true to transform the curves before their flattening (to keep the chord error in real size)
+     * @return a flat and transformed copy of <i>e</i> that keeps the groups and the drill points
+     */
+    private GElement copy(GElement e, boolean similarity) {
+        if ( e instanceof GGroup) {
+            final GGroup res = new GGroup(e.getName());
+            for( GElement c : ((GGroup)e).elements) res.add(copy(c, similarity));
+            if ( e.properties != null) res.properties = e.properties.clone();
+            return res;
+        }
+        if ( similarity && ((e instanceof GArc) || (e instanceof GSpline) || (e instanceof GMixedPath))) {
+            final GElement res = e.clone();
+            res.transform(transform);
+            return res.flatten();
+        }
+        final GElement res = (e instanceof GDrillPoint) ? e.clone() : e.flatten();
+        BulkTransform.transform(Collections.singletonList(res), transform);
+        return res;
+    }
+
+    /**
+     * Forget the cached values when the master has changed.
+     */
+    private void checkMaster() {
+        if ( checkedChangeCount == getChangeCount()) return;
+        synchronized (this) {
+            updateMaster();
+        }
+    }
+
+    private void updateMaster() {
+        if ( checkedChangeCount == getChangeCount()) return;
+        checkedChangeCount = getChangeCount();
+        final GElement m = getMaster();
+        final int stamp = (m == null) ? 0 : getDeepVersion(m);
+        if ( stamp != masterStamp) {
+            masterStamp = stamp;
+            bounds = null;
+            invalidateSummary();
+        }
+    }
+
+    private static int getDeepVersion(GElement e) {
+        int v = e.getVersion();
+        if ( e instanceof GGroup)
+            for( GElement c : ((GGroup)e).elements) v = 31 * v + getDeepVersion(c);
+        return v;
+    }
+
+    /**
+     * @param path "levels_up index index ..." from the parent of this instance
+     * @return the element or null if not found
+     */
+    private GElement findMaster(String path) {
+        final String v[] = path.trim().split(" ");
+        GElement e = this;
+        for( int up = Integer.parseInt(v[0]); up > 0; up--)
+            if ( (e = e.parent) == null) return null;
+        for( int i = 1; i < v.length; i++) {
+            final int n = Integer.parseInt(v[i]);
+            if ( ! (e instanceof GGroup) || (n >= ((GGroup)e).elements.size())) return null;
+            e = ((GGroup)e).elements.get(n);
+        }
+        return e;
+    }
+
+    /**
+     * @return the position of the master from the parent of this instance, or null if it is not in the same document
+     */
+    private String getMasterPath() {
+        final ArrayList<GGroup> ancestors = new ArrayList<>();
+        for( GGroup g = parent; g != null; g = g.parent) ancestors.add(g);
+        String down = "";
+        for( GElement e = master; e.parent != null; e = e.parent) {
+            down = " " + e.parent.elements.indexOf(e) + down;
+            for( int up = 0; up < ancestors.size(); up++)
+                if ( ancestors.get(up) == e.parent) return (up + 1) + down;
+        }
+        return null;
+    }
+
+    private GCode transformed(GCode p) {
+        if ( p == null) return null;
+        final Point2D r = transform.transform(p, null);
+        return new GCode(p.getG(), r.getX(), r.getY());
+    }
+
+    /** @return the ratio of the lengths for a transformation without distortion */
+    private double getRatio() {
+        return Math.sqrt(Math.abs(transform.getDeterminant()));
+    }
+
+    @Override
+    public void preparePaint(PaintContext pc) {
+        final GElement m = getMaster();
+        if ( m == null) return;
+        checkMaster();
+        getBounds();
+        m.preparePaint(pc);
+    }
+
+    @Override
+    public void paint(PaintContext pc) {
+        final GElement m = getMaster();
+        if ( m == null) return;
+        checkMaster();
+        // paint the master in the coordinates of this instance (zoom x transform x 1/zoom)
+        final Graphics2D g = pc.g;
+        final AffineTransform t = g.getTransform();
+        g.scale(pc.zoomFactor, -pc.zoomFactor);
+        g.transform(transform);
+        g.scale(1 / pc.zoomFactor, -1 / pc.zoomFactor);
+        final PaintContext pc2 = pc.clone();
+        pc2.color = pc.color;
+        pc2.paintReperes = false;
+        pc2.editedElement = null;
+        m.paint(pc2);
+        g.setTransform(t);
+    }
+
+    @Override
+    public Rectangle2D getBounds() {
+        checkMaster();
+        // made from this version of the instance and of its master
+        final long stamp = ((long)getVersion() << 32) | (masterStamp & 0xffffffffL);
+        Rectangle2D r = Versioned.get(bounds, stamp);
+        if ( r == null) {
+            final GElement m = getMaster();
+            final Rectangle2D b = (m == null) ? null : m.getBounds();
+            if ( b == null) return null;
+            r = transform.createTransformedShape(b).getBounds2D();
+            bounds = new Versioned<>(r, stamp);
+        }
+        return (Rectangle2D) r.clone();
+    }
+
+    @Override
+    public Point2D getCenter() {
+        final GElement m = getMaster();
+        return (m == null) ? null : transform.transform(m.getCenter(), null);
+    }
+
+    @Override
+    public void translate(double dx, double dy) {
+        transform.preConcatenate(AffineTransform.getTranslateInstance(dx, dy));
+        informAboutChange();
+    }
+
+    @Override
+    public void rotate(Point2D origin, double angle) {
+        transform.preConcatenate(AffineTransform.getRotateInstance(angle, origin.getX(), origin.getY()));
+        informAboutChange();
+    }
+
+    @Override
+    public void scale(Point2D origin, double sx, double sy) {
+        transform.preConcatenate(BulkTransform.getScaleInstance(origin, sx, sy));
+        informAboutChange();
+    }
+
+    @Override
+    public void transform(AffineTransform t) {
+        transform.preConcatenate(t);
+        informAboutChange();
+    }
+
+    @Override
+    protected void informAboutChange() {
+        bounds = null;
+        super.informAboutChange();
+    }
+
+    @Override
+    public GElement clone() {
+        final GInstance clone = new GInstance(name);
+        clone.properties = properties.clone();
+        clone.transform.setTransform(transform);
+        clone.master = master;
+        clone.masterID = masterID;
+        clone.findByID = findByID;
+        clone.masterPath = masterPath;
+        return clone;
+    }
+
+    @Override
+    public GCode saveToStream(FileWriter fw, GCode lastPoint) throws IOException {
+        final double m[] = new double[6];
+        transform.getMatrix(m);
+        fw.append(HEADER_STRING + name + ")\n");
+        fw.append(properties.toString() + "\n");
+        fw.append(TRANSFORM_HEADER + m[0] + " " + m[1] + " " + m[2] + " " + m[3] + " " + m[4] + " " + m[5] + ")\n");
+        getMaster();
+        final String path = (master == null) ? masterPath : getMasterPath();
+        if ( path != null) {
+            fw.append(MASTER_HEADER + path + ")\n");
+        } else {
+            // the master is not in the document
+            fw.append(MASTER_HEADER + INLINE_MASTER + ")\n");
+            master.saveToStream(fw, lastPoint);
+        }
+        return getLastPoint();
+    }
+
+    @Override
+    public String loadFromStream(BufferedReader stream, GCode lastGState) throws IOException {
+        String line = super.loadFromStream(stream, lastGState);
+        if ( (line == null) || ! line.startsWith(TRANSFORM_HEADER)) throw new IOException("No transformation for instance " + name);
+        final double m[] = Arrays.stream(line.substring(TRANSFORM_HEADER.length(), line.length() - 1).trim().split(" "))
+                                 .mapToDouble(Double::parseDouble).toArray();
+        transform.setTransform(m[0], m[1], m[2], m[3], m[4], m[5]);
+        line = stream.readLine();
+        if ( (line == null) || ! line.startsWith(MASTER_HEADER)) throw new IOException("No master for instance " + name);
+        masterPath = line.substring(MASTER_HEADER.length(), line.length() - 1);
+        if ( masterPath.equals(INLINE_MASTER)) {
+            masterPath = null;
+            final GElement m0 = buildGElement(stream.readLine());
+            if ( m0 == null) throw new IOException("Bad master for instance " + name);
+            line = m0.loadFromStream(stream, lastGState);
+            setMaster(m0);
+            return line;
+        }
+        return stream.readLine();
+    }
+
+    @Override
+    public GElement flatten() {
+        return expand();
+    }
+
+    @Override
+    public CharSequence toSVG(Rectangle2D origin) {
+        return expand().toSVG(origin);
+    }
+
+    @Override
+    public void toDXF(OutputStreamWriter out) throws IOException {
+        expand().toDXF(out);
+    }
+
+    @Override
+    public Area getOffsetArea(double param) {
+        return expand().getOffsetArea(param);
+    }
+
+    @Override
+    public GCode getFirstPoint() {
+        final GElement m = getMaster();
+        return (m == null) ? null : transformed(m.getFirstPoint());
+    }
+
+    @Override
+    public GCode getLastPoint() {
+        final GElement m = getMaster();
+        return (m == null) ? null : transformed(m.getLastPoint());
+    }
+
+    @Override
+    public GCode getCloserPoint(Point2D from, double dmax, ArrayList<GCode> discareIt, boolean excludeFirst) {
+        final GElement m = getMaster();
+        if ( m == null) return null;
+        try {
+            final Point2D p = transform.inverseTransform(from, null);
+            return transformed(m.getCloserPoint(p, dmax / getRatio(), null, excludeFirst));
+        } catch ( NoninvertibleTransformException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public double getDistanceTo(GCode pt) {
+        final GElement m = getMaster();
+        if ( m == null) return Double.MAX_VALUE;
+        try {
+            final Point2D p = transform.inverseTransform(pt, null);
+            return m.getDistanceTo(new GCode(p.getX(), p.getY())) * getRatio();
+        } catch ( NoninvertibleTransformException ex) {
+            return Double.MAX_VALUE;
+        }
+    }
+
+    @Override
+    double getLength() {
+        final GElement m = getMaster();
+        return (m == null) ? 0 : m.getLength() * getRatio();
+    }
+
+    @Override
+    public Iterable<GCode> getPointsIterator() {
+        final GElement m = getMaster();
+        if ( m == null) return Collections.emptyList();
+        return () -> new Iterator<GCode>() {
+            final Iterator<GCode> it = m.getPointsIterator().iterator();
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+            @Override
+            public GCode next() {
+                return transformed(it.next());
+            }
+        };
+    }
+
+    @Override
+    public int getNbPoints() {
+        final GElement m = getMaster();
+        return (m == null) ? 0 : m.getNbPoints();
+    }
+
+    @Override
+    public boolean isClosed() {
+        final GElement m = getMaster();
+        return (m != null) && m.isClosed();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        final GElement m = getMaster();
+        return (m == null) || m.isEmpty();
+    }
+
+    @Override
+    public String getSummary() {
+        final GElement m = getMaster();
+        return "<html>Instance of <i>" + ((m == null) ? "?" : m.getName()) + "</i><br>" +
+               "It follows the changes of its master.</html>";
+    }
+
+    @Override
+    public String toString() {
+        return name + "(instance)";
+    }
+
+    // The lines shown in the editor : the instance has no editable line
+
+    @Override
+    public GCode getLine(int i) {
+        if ( i == 0) return new GCode("; Instance of " + ((getMaster() == null) ? "?" : master.getName()));
+        final double m[] = new double[6];
+        transform.getMatrix(m);
+        return new GCode("; Transform=" + Arrays.toString(m));
+    }
+
+    @Override
+    public Object getElementAt(int index) {
+        return getLine(index);
+    }
+
+    @Override
+    public int getSize() {
+        return 2;
+    }
+
+    @Override
+    public int size() {
+        return 2;
+    }
+
+    @Override
+    public Iterator<GCode> iterator() {
+        return Arrays.asList(getLine(0), getLine(1)).iterator();
+    }
+
+    @Override
+    public void setLine(int row, GCode value) { }
+
+    @Override
+    public boolean add(GCode line) {
+        return false;
+    }
+
+    @Override
+    public void add(int pos, GCode line) { }
+
+    @Override
+    public boolean concat(GElement element, double tolerance) {
+        return false;
+    }
+
+    @Override
+    public boolean contains(GCode point) {
+        return false;
+    }
+
+    @Override
+    public double getLenOfSegmentTo(GCode point) {
+        return Double.NaN;
+    }
+
+    @Override
+    public int getIndexOfPoint(GCode point) {
+        return -1;
+    }
+
+    @Override
+    public boolean movePoint(GCode point, double dx, double dy) {
+        return false;
+    }
+
+    @Override
+    public boolean movePoints(ArrayList<GCode> selectedPoints, double dx, double dy) {
+        return false;
+    }
+
+    @Override
+    public Object remove(int i) {
+        return null;
+    }
+
+    @Override
+    public void removeAll(ArrayList<GCode> lines) { }
+
+    @Override
+    public void removeByDistance(ArrayList<GCode> points, double distance) { }
+
+    @Override
+    public void reverse() { }
+
+    @Override
+    public void simplify(double angleMin, double distanceMax) { }
+}
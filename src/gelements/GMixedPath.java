@@ -23,7 +23,6 @@ import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
-import java.awt.geom.Ellipse2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.io.BufferedReader;
@@ -44,8 +43,9 @@ public class GMixedPath extends GElement {
    /** Contains GCode or GArc or GSpline. Always start with a GCode or is empty */
     ArrayList<Object> gContent; 
     
-    private Rectangle2D bounds;
+    private volatile Versioned<Rectangle2D> bounds;
     private int nbPoints = -1;
+    private final Flattener.Cache flatten = new Flattener.Cache();
 
     public GMixedPath(String name0) {
         super(name0);
@@ -160,39 +160,72 @@ public class GMixedPath extends GElement {
     
     @Override
     public G1Path flatten() {
-        
-        G1Path f = new G1Path("flat-"+name);
-        gContent.forEach((o) -> {
-            if (o instanceof GCode) f.add(((GCode)o).clone());
-            else f.concat(((GElement)o).flatten(), 0.0002);
-        });      
-        return f;
+        return getFlatten().flatten();
+    }
+
+    @Override
+    public G1Path getFlatView() {
+        return getFlatten();
+    }
+
+    /** @return the cached flat path (not a copy) */
+    private G1Path getFlatten() {
+        return flatten.get(this, (tolerance) -> {
+            final G1Path f = new G1Path("flat-"+name, gContent.size());
+            for ( Object o : gContent) {
+                if (o instanceof GCode) f.add(((GCode)o).clone());
+                else {
+                    // the flat paths of the arcs and curves start at the end of the previous element
+                    final G1Path p = (G1Path)((GElement)o).getFlatView();
+                    final GCode last = f.getLastPoint();
+                    for( int i = ((last != null) && (last.distance(p.getFirstPoint()) < 0.0002)) ? 1 : 0; i < p.lines.size(); i++) {
+                        final GCode c = new GCode(p.lines.get(i));
+                        c.setG(f.lines.isEmpty() ? 0 : 1);
+                        f.lines.add(c);
+                    }
+                }
+            }
+            f.informAboutChange();
+            return f;
+        });
     }
     
     @Override
     public Rectangle2D getBounds() {    
-        if ( bounds == null) {
+        final int version = getVersion();
+        Rectangle2D b = Versioned.get(bounds, version);
+        if ( b == null) {
             if ( getNbPoints() == 0) return null;
-            gContent.forEach((o) -> {
+            // built before being shared (read by the tile threads)
+            for( Object o : gContent) {
                 if ( (o instanceof GCode) ) {
                     if (((GCode)o).isAPoint()) {
-                        if ( bounds == null) 
-                            bounds = new Rectangle2D.Double(((GCode)o).getX(), ((GCode)o).getY(), 0.00001, 0.00001);
-                        else bounds.add((GCode)o);
+                        if ( b == null) 
+                            b = new Rectangle2D.Double(((GCode)o).getX(), ((GCode)o).getY(), 0.00001, 0.00001);
+                        else b.add((GCode)o);
                     }
                 } else
-                    if ( bounds == null) bounds = ((GElement)o).getBounds();
-                    else bounds.add( ((GElement)o).getBounds());
-            });
+                    if ( b == null) b = ((GElement)o).getBounds();
+                    else b.add( ((GElement)o).getBounds());
+            }
+            bounds = new Versioned<>(b, version);
         }             
         
-        return (Rectangle2D) bounds.clone();     
+        return (Rectangle2D) b.clone();     
+    }
+    
+    @Override
+    public void preparePaint(PaintContext pc) {
+        getBounds();
+        for( Object o : gContent)
+            if ( o instanceof GElement) ((GElement)o).preparePaint(pc);
     }
 
     @Override
     public Point2D getCenter() {
-        if ( getBounds() != null)
-            return new GCode(bounds.getCenterX(), bounds.getCenterY());
+        final Rectangle2D b = getBounds();
+        if ( b != null)
+            return new GCode(b.getCenterX(), b.getCenterY());
         else 
             return null;
     }
@@ -437,33 +470,9 @@ public class GMixedPath extends GElement {
     @Override
     public Area getOffsetArea(double distance) {
         if ( getNbPoints() < 2) return null;
-        final Area a = new Area();
-        GCode lastPoint = null;
-        boolean lastIsAPoint = false;
-
-        for ( Object o : gContent)
-            if ( o instanceof GCode) {
-                if ( lastPoint != null) {
-                    a.add( new Area(new Ellipse2D.Double(lastPoint.getX()-distance, lastPoint.getY()-distance, 2*distance, 2*distance)));
-                    a.add(new Area(G1Path.getLineOffset(lastPoint, (GCode)o, distance)));
-                    
-                }
-                lastPoint = (GCode)o;
-                lastIsAPoint = true;
-            } else {
-                if ( (lastPoint != null) && lastIsAPoint) {
-                    a.add( new Area(new Ellipse2D.Double(lastPoint.getX()-distance, lastPoint.getY()-distance, 2*distance, 2*distance)));
-                    a.add( new Area(G1Path.getLineOffset(lastPoint, ((GElement)o).getFirstPoint(), distance)));
-                }
-                a.add( ((GElement)o).getOffsetArea(distance));
-                lastPoint = ((GElement)o).getLastPoint();
-                lastIsAPoint = false;
-            }
-       
-        if ( ! isClosed())
-            a.add( new Area(new Ellipse2D.Double(lastPoint.getX()-distance, lastPoint.getY()-distance, 2*distance, 2*distance)));
-        
-        return a;        
+        final PolygonOffset o = new PolygonOffset(distance, PolygonOffset.Join.ROUND);
+        o.add(this);
+        return o.getArea();
     }
 
     @Override
@@ -497,6 +506,7 @@ public class GMixedPath extends GElement {
     @Override
     protected void informAboutChange() {
         nbPoints=-1;
+        flatten.clear();
         bounds = null;
         revalidate();
         super.informAboutChange();
@@ -1056,6 +1066,7 @@ public class GMixedPath extends GElement {
             else
                  throw new AbstractMethodError( "" + o.getClass() + ".transform(t) not implemented");
         });
+        informAboutChange();
     }
 
     /**
@@ -47,9 +47,10 @@ public class GSpline extends GElement {
     public static final String HEADER_STRING = "(Spline-name: ";   
     GCode start, cp1, cp2, end;
     
-    private Rectangle2D bounds;
-    private Shape shape;
-    private G1Path flatten;
+    private volatile Versioned<Rectangle2D> bounds;
+    /** Built before being shared (painted by the tile threads). */
+    private volatile Versioned<Shape> shape;
+    private final Flattener.Cache flatten = new Flattener.Cache();
     
     public GSpline(String name0) {
         super(name0);
@@ -137,7 +138,7 @@ public class GSpline extends GElement {
     @Override
     protected void informAboutChange() {
         shape = null; 
-        flatten = null; 
+        flatten.clear(); 
         
         if (cp1 != null && end != null) {
             if ( cp1.isAtSamePosition(start) ||
@@ -295,8 +296,10 @@ public class GSpline extends GElement {
 
     @Override
     public Rectangle2D getBounds() {
-        updateShape();
-        return (Rectangle2D) bounds.clone();
+        final int version = getVersion();
+        Rectangle2D b = Versioned.get(bounds, version);
+        if ( b == null) bounds = new Versioned<>(b = getFlatten().getBounds(), version);
+        return (Rectangle2D) b.clone();
     }
 
     @Override
@@ -487,7 +490,7 @@ public class GSpline extends GElement {
         final int ex = (int)(end.getX()*zoomFactor);
         final int ey = -(int)(end.getY()*zoomFactor);  
         
-        updateShape();
+        final Shape shape = updateShape();
         if (pc.color == PaintContext.EDIT_COLOR) {
             
             int x1 = 0, y1 = 0;
@@ -570,10 +573,15 @@ public class GSpline extends GElement {
         return res;
     }
 
+    @Override
+    public G1Path getFlatView() {
+        return getFlatten();
+    }
+
     @Override
     public Point2D getCenter() {
-        updateShape();
-        return new Point2D.Double( bounds.getCenterX(), bounds.getCenterY());
+        final Rectangle2D b = getBounds();
+        return new Point2D.Double( b.getCenterX(), b.getCenterY());
     }
     
     @Override
@@ -620,15 +628,12 @@ public class GSpline extends GElement {
     
 
 
+    /** @return the cached flat path (not a copy) */
     private G1Path getFlatten() {
-        if ( flatten == null) {
-            updateShape();
-            ArrayList<GElement> flat = G1Path.makeElementsFromArea("flatten-spline", shape);
-            flatten = flat.isEmpty() ? 
-                        new G1Path("flatten-spline", start, end)
-                        : (G1Path)flat.get(0);
-        } 
-        return flatten;
+        return flatten.get(this, (tolerance) -> {
+            final G1Path flat = Flattener.curve("flatten-spline", makeShape(), tolerance);
+            return (flat.size() < 2) ? new G1Path("flatten-spline", start, end) : flat;
+        });
     }
 
     /**
@@ -651,21 +656,25 @@ public class GSpline extends GElement {
         informAboutChange();
     }
     
-    private void updateShape() {
-        if ( shape == null) {
-            if ( cp1 == null) {
-                shape = new GeneralPath();
-                ((GeneralPath)shape).moveTo(start.getX(), start.getY());
-                ((GeneralPath)shape).lineTo(end.getX(), end.getY());
-            }
-            else {
-                if ( cp2 == null)
-                    shape = new QuadCurve2D.Double(start.getX(), start.getY(), cp1.getX(), cp1.getY(), end.getX(), end.getY());
-                else
-                    shape = new CubicCurve2D.Double(start.getX(), start.getY(), cp1.getX(), cp1.getY(), cp2.getX(), cp2.getY(), end.getX(), end.getY());
-            }
-            
-            bounds = getFlatten().getBounds();
+    private Shape updateShape() {
+        final int version = getVersion();
+        Shape s = Versioned.get(shape, version);
+        if ( s == null) shape = new Versioned<>(s = makeShape(), version);
+        return s;
+    }
+
+    private Shape makeShape() {
+        if ( cp1 == null) {
+            final GeneralPath line = new GeneralPath();
+            line.moveTo(start.getX(), start.getY());
+            line.lineTo(end.getX(), end.getY());
+            return line;
+        }
+        else {
+            if ( cp2 == null)
+                return new QuadCurve2D.Double(start.getX(), start.getY(), cp1.getX(), cp1.getY(), end.getX(), end.getY());
+            else
+                return new CubicCurve2D.Double(start.getX(), start.getY(), cp1.getX(), cp1.getY(), cp2.getX(), cp2.getY(), end.getX(), end.getY());
         }
     }
 
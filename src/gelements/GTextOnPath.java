@@ -58,7 +58,8 @@ public class GTextOnPath extends GElement implements ListDataListener {
     private GElement pathGuide;
     /** The rawTextPaths to map to path */
     private GGroup rawTextPaths;
-    private GGroup mappedText;
+    /** The text mapped on the path, built entirely before being shared (painted by the tile threads). */
+    private volatile Versioned<GGroup> mappedText;
     private double textHeight;
     
     /**
@@ -74,7 +75,7 @@ public class GTextOnPath extends GElement implements ListDataListener {
         this.text = text;
         this.font = font;
         if ( textPaths != null) rawTextPaths = textPaths;           
-        else rawTextPaths = font.getTextPaths(text); 
+        else rawTextPaths = font.getTextInstances(text); 
         setTextHeight( textHeight);
     }
     
@@ -116,7 +117,7 @@ public class GTextOnPath extends GElement implements ListDataListener {
 
     @Override
     public void paint(PaintContext pc) {
-        remapText();
+        final GGroup mappedText = remapText();
 
         if ( pc.editedElement == this) {
             PaintContext pc2 = pc.clone();
@@ -135,17 +136,31 @@ public class GTextOnPath extends GElement implements ListDataListener {
         }
     }
     
-    private void remapText() {
-        if ( mappedText != null) return;
+    @Override
+    public void preparePaint(PaintContext pc) {
+        remapText().preparePaint(pc);
+        if ( pathGuide != null) pathGuide.preparePaint(pc);
+    }
+    
+    /**
+     * @return the text mapped on the path (built if not done yet)
+     */
+    private GGroup remapText() {
+        final int version = getVersion();
+        GGroup res = Versioned.get(mappedText, version);
+        if ( res != null) return res;
         
-        mappedText = new GGroup("mappedText");
-        if ( pathGuide == null) return;
+        res = new GGroup("mappedText");
+        if ( pathGuide == null) {
+            mappedText = new Versioned<>(res, version);
+            return res;
+        }
         
         Segment2D s = null;
         double angle=0, len = -1, curLen = 0;
         GCode lastP = null;
         
-        GElement p = (pathGuide instanceof G1Path) ? pathGuide : pathGuide.flatten();
+        GElement p = pathGuide.getFlatView();
         
         Iterator<GCode> pts = p.getPointsIterator().iterator();
         boolean pathFinished = ! pts.hasNext();
@@ -171,8 +186,10 @@ public class GTextOnPath extends GElement implements ListDataListener {
                 clone.translate( pt.getX() - middle, pt.getY());
                 clone.rotate(pt, angle);
             }
-            mappedText.add(clone);
+            res.add(clone);
         }
+        mappedText = new Versioned<>(res, version);
+        return res;
     }
     
     @Override
@@ -200,7 +217,7 @@ public class GTextOnPath extends GElement implements ListDataListener {
         double height = Double.parseDouble(line.substring(HEIGHT_HEADER.length(), line.length()-1));
         line = stream.readLine();
         text = line.substring( TEXT_HEADER.length(), line.length()-1);
-        rawTextPaths = font.getTextPaths(text);
+        rawTextPaths = font.getTextInstances(text);
         // read the path
         pathGuide = buildGElement(stream.readLine());    
         line = pathGuide.loadFromStream(stream, lastGState);
@@ -255,12 +272,12 @@ public class GTextOnPath extends GElement implements ListDataListener {
                 break;
             case 1:
                 if ((s=value.toString()).startsWith(LINE_TEXT_HEADER)) {
-                    rawTextPaths = font.getTextPaths(text = s.split("=",2)[1]);
+                    rawTextPaths = font.getTextInstances(text = s.split("=",2)[1]);
                     setTextHeight(textHeight);
                     informAboutChange();
                 } else {
                     // Assume all is the text
-                  rawTextPaths = font.getTextPaths(text = s);
+                  rawTextPaths = font.getTextInstances(text = s);
                     //informAboutChange();
                     break;
                 }
@@ -338,8 +355,7 @@ public class GTextOnPath extends GElement implements ListDataListener {
     public GCode getCloserPoint(Point2D from, double dmax, ArrayList<GCode> discareIt, boolean excludeFirst) {
         GCode p = pathGuide.getCloserPoint(from, dmax, discareIt, excludeFirst);
         if ( p == null) {
-            remapText();
-            return mappedText.getCloserPoint(from, dmax, discareIt, excludeFirst);
+            return remapText().getCloserPoint(from, dmax, discareIt, excludeFirst);
         }
         return p;
     }
@@ -353,7 +369,11 @@ public class GTextOnPath extends GElement implements ListDataListener {
     }
     @Override
     public Rectangle2D getBounds() {
-        return pathGuide.getBounds();
+        // the glyphs are out of the path (needed to paint the tiles they cross)
+        final Rectangle2D r = pathGuide.getBounds(), t = remapText().getBounds();
+        if ( r == null) return t;
+        if ( t != null) r.add(t);
+        return r;
     }
     @Override
     public double getLenOfSegmentTo(GCode point) {
@@ -413,7 +433,7 @@ public class GTextOnPath extends GElement implements ListDataListener {
     
     public void changeFont(GFont choosedFont, double height) {
         font = choosedFont;
-        rawTextPaths = font.getTextPaths(text);      
+        rawTextPaths = font.getTextInstances(text);      
         setTextHeight(textHeight = ((height == Double.NaN) ? textHeight : height));
         informAboutChange();  
     }
@@ -450,30 +470,25 @@ public class GTextOnPath extends GElement implements ListDataListener {
 
     @Override
     public GElement flatten() {
-        remapText();
-        return mappedText.flatten();
+        return remapText().flatten();
     }
     @Override
     public Point2D getCenter() {
-        remapText();
-        return mappedText.getCenter();
+        return remapText().getCenter();
     }
     @Override
     public void toDXF(OutputStreamWriter out) throws IOException {
-        remapText();
-        mappedText.toDXF(out);
+        remapText().toDXF(out);
     }
     
     @Override
     public CharSequence toSVG(Rectangle2D origin) {
-        remapText();
-        return mappedText.toSVG(origin);
+        return remapText().toSVG(origin);
     }
     
     @Override
     public Area getOffsetArea(double param) {
-        remapText();
-        return mappedText.getOffsetArea(param);
+        return remapText().getOffsetArea(param);
     }
 
     @Override
@@ -491,8 +506,7 @@ public class GTextOnPath extends GElement implements ListDataListener {
      * @return
      */
     GGroup getGText() {
-        remapText();
-        return mappedText;
+        return remapText();
     }
 
     @Override
@@ -518,7 +532,7 @@ public class GTextOnPath extends GElement implements ListDataListener {
     /** Change the text to paint on path */
     public void setText(String choosedText) {
         text = "" + choosedText;
-        rawTextPaths = font.getTextPaths(text);
+        rawTextPaths = font.getTextInstances(text);
         informAboutChange();
     }
 }
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gelements;
+
+/**
+ * A static 2D tree of points belonging to owners, with removal.<br>
+ * The tree is implicit : the node of the range [lo,hi) of <i>idx</i> is at (lo+hi)/2 and
+ * splits its range on the larger side of its points. Each node counts the points not removed
+ * under it, so the searches skip the empty branches.
+ *
+ * @author Clément
+ */
+class KdTree {
+
+    private final double x[], y[];
+    /** Points in tree order, with their coordinates and owner (in tree order too). */
+    private final int idx[];
+    private final double tx[], ty[];
+    private final int owner[];
+    /** Position of each point into idx. */
+    private final int pos[];
+    /** Points not removed under each node. */
+    private final int alive[];
+    private final boolean splitX[];
+    /** Removed points, in tree order. */
+    private final boolean removed[];
+
+    /**
+     * @param x
+     * @param y
+     * @param owner the owner of each point
+     */
+    KdTree(double x[], double y[], int owner[]) {
+        this.x = x;
+        this.y = y;
+        final int n = x.length;
+        idx = new int[n];
+        tx = new double[n];
+        ty = new double[n];
+        this.owner = new int[n];
+        pos = new int[n];
+        alive = new int[n];
+        splitX = new boolean[n];
+        removed = new boolean[n];
+        for( int i = 0; i < n; i++) idx[i] = i;
+        build(0, n);
+        for( int i = 0; i < n; i++) {
+            pos[idx[i]] = i;
+            tx[i] = x[idx[i]];
+            ty[i] = y[idx[i]];
+            this.owner[i] = owner[idx[i]];
+        }
+    }
+
+    private void build(int lo, int hi) {
+        while ( hi - lo > 0) {
+            final int m = (lo + hi) >>> 1;
+            double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+            double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+            for( int i = lo; i < hi; i++) {
+                final int p = idx[i];
+                if ( x[p] < minX) minX = x[p];
+                if ( x[p] > maxX) maxX = x[p];
+                if ( y[p] < minY) minY = y[p];
+                if ( y[p] > maxY) maxY = y[p];
+            }
+            splitX[m] = (maxX - minX) >= (maxY - minY);
+            alive[m] = hi - lo;
+            select(lo, hi, m, splitX[m] ? x : y);
+            build(lo, m);
+            lo = m + 1;
+        }
+    }
+
+    /** Put at position k the k-th point of [lo,hi) by <i>v</i>, smaller before, bigger after. */
+    private void select(int lo, int hi, int k, double v[]) {
+        hi--;
+        while ( lo < hi) {
+            final double pivot = v[idx[(lo + hi) >>> 1]];
+            // three ways partition : [lo,lt) < pivot, [lt,gt] == pivot, (gt,hi] > pivot
+            int lt = lo, i = lo, gt = hi;
+            while ( i <= gt) {
+                final double c = v[idx[i]];
+                if ( c < pivot) swap(lt++, i++);
+                else if ( c > pivot) swap(i, gt--);
+                else i++;
+            }
+            if ( k < lt) hi = lt - 1;
+            else if ( k > gt) lo = gt + 1;
+            else return;
+        }
+    }
+
+    private void swap(int i, int j) {
+        final int t = idx[i];
+        idx[i] = idx[j];
+        idx[j] = t;
+    }
+
+    /** Remove the point <i>p</i> from the searches. */
+    void remove(int p) {
+        final int target = pos[p];
+        if ( removed[target]) return;
+        removed[target] = true;
+        int lo = 0, hi = idx.length;
+        while ( true) {
+            final int m = (lo + hi) >>> 1;
+            alive[m]--;
+            if ( target == m) return;
+            if ( target < m) hi = m;
+            else lo = m + 1;
+        }
+    }
+
+    /** @return the closest point not removed, or -1 */
+    int nearest(double qx, double qy) {
+        final Search s = new Search(1, -1);
+        search(s, 0, idx.length, qx, qy);
+        return s.size == 0 ? -1 : s.points[0];
+    }
+
+    /**
+     * The closest points of different owners.
+     * @param s the search, can be called with several query points
+     * @param qx
+     * @param qy
+     */
+    void nearestOwners(Search s, double qx, double qy) {
+        search(s, 0, idx.length, qx, qy);
+    }
+
+    private void search(Search s, int lo, int hi, double qx, double qy) {
+        while ( lo < hi) {
+            final int m = (lo + hi) >>> 1;
+            if ( alive[m] == 0) return;
+            final double dx = qx - tx[m], dy = qy - ty[m];
+            if ( ! removed[m]) s.offer(idx[m], owner[m], dx * dx + dy * dy);
+            final double d = splitX[m] ? dx : dy;
+            // the side of the query first, the other one if it can be closer
+            if ( d < 0) {
+                search(s, lo, m, qx, qy);
+                if ( d * d >= s.bound()) return;
+                lo = m + 1;
+            } else {
+                search(s, m + 1, hi, qx, qy);
+                if ( d * d >= s.bound()) return;
+                hi = m;
+            }
+        }
+    }
+
+    /** The <i>k</i> closest points of different owners found. */
+    static class Search {
+        final int owners[], points[];
+        final double dist[];
+        final int exclude;
+        int size;
+
+        /**
+         * @param k
+         * @param exclude an owner to ignore (or -1)
+         */
+        Search(int k, int exclude) {
+            owners = new int[k];
+            points = new int[k];
+            dist = new double[k];
+            this.exclude = exclude;
+        }
+
+        double bound() {
+            return (size < owners.length) ? Double.POSITIVE_INFINITY : dist[size - 1];
+        }
+
+        void offer(int p, int o, double d) {
+            if ( (o == exclude) || ((size == owners.length) && (d >= dist[size - 1]))) return;
+            int i = 0;
+            while ( (i < size) && (owners[i] != o)) i++;
+            if ( i < size) {
+                // already found, keep the closest point
+                if ( d >= dist[i]) return;
+            } else if ( size < owners.length) i = size++;
+            else if ( d < dist[size - 1]) i = size - 1;
+            else return;
+            // move it to its rank
+            while ( (i > 0) && (dist[i - 1] > d)) {
+                owners[i] = owners[i - 1];
+                points[i] = points[i - 1];
+                dist[i] = dist[i - 1];
+                i--;
+            }
+            owners[i] = o;
+            points[i] = p;
+            dist[i] = d;
+        }
+    }
+}
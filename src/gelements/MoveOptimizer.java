@@ -0,0 +1,483 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gelements;
+
+import gcodeeditor.GCode;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Order elements to reduce the moves between them.<br>
+ * The order is built by the nearest neighbour (searched into a k-d tree of the possible starts),
+ * then improved by 2-opt and Or-opt moves limited to the closest neighbours of each element.
+ * Open paths can be reversed, and closed paths can start at any of their points.<br>
+ * The improvement works in windows of the order that are optimized in parallel (their first and
+ * last elements stay in place), each one on its own copy of the order. The windows are shifted
+ * by half a window at each round, until no more improvement, a count of rounds or the optional
+ * time budget.
+ *
+ * @author Clément
+ */
+class MoveOptimizer {
+
+    private static final int NEIGHBOURS = 8;
+    private static final int WINDOW = 1000;
+    /** Limits of the improvement, that give the same order whatever the speed of the computer. */
+    private static final int MAX_ROUNDS = 16, MAX_PASSES = 32;
+    private static final double EPSILON = 1e-9;
+
+    private static final int FIXED = 0, REVERSIBLE = 1, LOOP = 2;
+
+    private final long budget;
+    private long deadline;
+
+    /** An optimizer whose result only depends on the elements. */
+    MoveOptimizer() {
+        this(0);
+    }
+
+    /**
+     * @param budget the time (ms) allowed to improve the order of all elements (recursively),
+     *               0 for no limit. The result can then depend on the speed of the computer.
+     */
+    MoveOptimizer(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Reorder <i>elements</i>, reverse or change the first point of some of them.
+     * @param elements elements to sort (modified)
+     * @param start the position of the head (can be null)
+     * @param recursive to sort the content of the groups
+     * @return the last position
+     */
+    Point2D optimize(ArrayList<GElement> elements, Point2D start, boolean recursive) {
+        final ArrayList<GElement> nodes = new ArrayList<>(elements.size()), others = new ArrayList<>();
+        for( GElement e : elements)
+            if ( e.getFirstPoint() == null) others.add(e);
+            else nodes.add(e);
+        if ( nodes.isEmpty()) return start;
+        if ( start == null) start = nodes.get(0).getFirstPoint();
+
+        final Tour t = new Tour(nodes, start);
+        t.build();
+        t.improve();
+        elements.clear();
+        for( int v : t.order) elements.add(t.apply(v));
+        elements.addAll(others);
+
+        Point2D pos = start;
+        for( GElement e : elements) {
+            if ( e.getFirstPoint() == null) continue;
+            if ( recursive && (e instanceof GGroup)) {
+                optimize(((GGroup)e).elements, pos, true);
+                e.informAboutChange();
+            }
+            pos = e.getLastPoint();
+        }
+        return pos;
+    }
+
+    /** The elements in their order, with their way. */
+    private class Tour {
+        final List<GElement> nodes;
+        final int n;
+        final double sx, sy;
+        final int type[];
+        /** First and last point of the elements, the start of a loop. */
+        final double fx[], fy[], lx[], ly[];
+        final boolean rev[];
+        final ArrayList<ArrayList<GCode>> loops = new ArrayList<>();
+        final int loopIndex[], vertex[];
+
+        final int order[], pos[];
+        /** Count of elements that can't be reversed before each position. */
+        final int fixedBefore[];
+        int neighbours[][];
+
+        Tour(List<GElement> nodes, Point2D start) {
+            this.nodes = nodes;
+            n = nodes.size();
+            sx = start.getX();
+            sy = start.getY();
+            type = new int[n];
+            fx = new double[n];
+            fy = new double[n];
+            lx = new double[n];
+            ly = new double[n];
+            rev = new boolean[n];
+            loopIndex = new int[n];
+            vertex = new int[n];
+            order = new int[n];
+            pos = new int[n];
+            fixedBefore = new int[n + 1];
+            for( int i = 0; i < n; i++) {
+                final GElement e = nodes.get(i);
+                final GCode f = e.getFirstPoint(), l = e.getLastPoint();
+                fx[i] = f.getX();
+                fy[i] = f.getY();
+                lx[i] = l.getX();
+                ly[i] = l.getY();
+                // same test as G1Path.changeFirstPoint()
+                if ( (e.getClass() == G1Path.class) && ((G1Path)e).isClosed() && (e.getNbPoints() > 3)) {
+                    type[i] = LOOP;
+                    final ArrayList<GCode> pts = new ArrayList<>(e.getNbPoints());
+                    for( GCode p : ((G1Path)e).lines) if ( p.isAPoint()) pts.add(p);
+                    pts.remove(pts.size() - 1);
+                    loopIndex[i] = loops.size();
+                    loops.add(pts);
+                } else if ( ! f.isAtSamePosition(l) &&
+                        (((e instanceof G1Path) && ! (e instanceof GPocket3D)) || (e instanceof GMixedPath) ||
+                         (e instanceof GSpline) || (e instanceof GArc)))
+                    type[i] = REVERSIBLE;
+            }
+        }
+
+        final double entryX(int v) { return rev[v] ? lx[v] : fx[v]; }
+        final double entryY(int v) { return rev[v] ? ly[v] : fy[v]; }
+        final double exitX(int v) { return rev[v] ? fx[v] : lx[v]; }
+        final double exitY(int v) { return rev[v] ? fy[v] : ly[v]; }
+
+        /** @return true if <i>v</i> can be run the other way. */
+        final boolean canReverse(int v) {
+            return (type[v] != FIXED) || ((fx[v] == lx[v]) && (fy[v] == ly[v]));
+        }
+
+        private void setVertex(int v, int k) {
+            final GCode p = loops.get(loopIndex[v]).get(k);
+            vertex[v] = k;
+            fx[v] = lx[v] = p.getX();
+            fy[v] = ly[v] = p.getY();
+        }
+
+        /** Nearest neighbour order, and the closest elements of each one. */
+        void build() {
+            int nb = 0;
+            for( int v = 0; v < n; v++)
+                nb += (type[v] == LOOP) ? loops.get(loopIndex[v]).size() : (type[v] == REVERSIBLE) ? 2 : 1;
+            final double x[] = new double[nb], y[] = new double[nb];
+            final int owner[] = new int[nb], code[] = new int[nb], first[] = new int[n + 1];
+            nb = 0;
+            for( int v = 0; v < n; v++) {
+                first[v] = nb;
+                if ( type[v] == LOOP) {
+                    final ArrayList<GCode> pts = loops.get(loopIndex[v]);
+                    for( int k = 0; k < pts.size(); k++, nb++) {
+                        x[nb] = pts.get(k).getX();
+                        y[nb] = pts.get(k).getY();
+                        owner[nb] = v;
+                        code[nb] = k;
+                    }
+                } else {
+                    x[nb] = fx[v];
+                    y[nb] = fy[v];
+                    owner[nb++] = v;
+                    if ( type[v] == REVERSIBLE) {
+                        x[nb] = lx[v];
+                        y[nb] = ly[v];
+                        owner[nb] = v;
+                        code[nb++] = 1;
+                    }
+                }
+            }
+            first[n] = nb;
+            final KdTree tree = new KdTree(x, y, owner);
+
+            // nothing is removed from the tree yet, it can be searched by several threads
+            neighbours = new int[n][];
+            IntStream.range(0, n).parallel().forEach((v) -> {
+                final KdTree.Search s = new KdTree.Search(NEIGHBOURS, v);
+                if ( type[v] == LOOP) {
+                    final int m = first[v + 1] - first[v];
+                    for( int k = 0; k < 4; k++) tree.nearestOwners(s, x[first[v] + k * m / 4], y[first[v] + k * m / 4]);
+                } else {
+                    tree.nearestOwners(s, fx[v], fy[v]);
+                    tree.nearestOwners(s, lx[v], ly[v]);
+                }
+                neighbours[v] = Arrays.copyOf(s.owners, s.size);
+            });
+
+            double px = sx, py = sy;
+            for( int i = 0; i < n; i++) {
+                final int c = tree.nearest(px, py);
+                final int v = owner[c];
+                for( int k = first[v]; k < first[v + 1]; k++) tree.remove(k);
+                if ( type[v] == LOOP) setVertex(v, code[c]);
+                else rev[v] = (code[c] == 1);
+                order[i] = v;
+                pos[v] = i;
+                fixedBefore[i + 1] = fixedBefore[i] + (canReverse(v) ? 0 : 1);
+                px = exitX(v);
+                py = exitY(v);
+            }
+        }
+
+        /** 2-opt and Or-opt by windows, then the best start of the loops. */
+        void improve() {
+            if ( (budget > 0) && (deadline == 0)) deadline = System.currentTimeMillis() + budget;
+            final int w = Math.max(2, Math.min(n, WINDOW));
+            int offset = 0, idle = 0;
+            for( int round = 0; (round < MAX_ROUNDS) && (idle < ((n <= w) ? 1 : 2)) && ! isLate(); round++) {
+                final ArrayList<Window> windows = new ArrayList<>();
+                for( int lo = 0, hi = (offset == 0) ? w : offset; lo < n; lo = hi, hi += w)
+                    windows.add(new Window(lo, Math.min(n, hi)));
+                // the windows only read the shared arrays, they are merged after the join
+                windows.parallelStream().forEach(Window::improve);
+                boolean improved = false;
+                for( Window win : windows) improved |= win.merge();
+                improved |= improveLoops();
+                idle = improved ? 0 : idle + 1;
+                offset = (offset == 0) ? w / 2 : 0;
+            }
+        }
+
+        /** @return true if the optional time limit is over. */
+        private boolean isLate() {
+            return (deadline != 0) && (System.currentTimeMillis() >= deadline);
+        }
+
+        /** @return the distance between (ax,ay) and (bx,by). */
+        private double d(double ax, double ay, double bx, double by) {
+            return Math.sqrt((ax - bx) * (ax - bx) + (ay - by) * (ay - by));
+        }
+
+        private double prevX(int i) { return (i == 0) ? sx : exitX(order[i - 1]); }
+        private double prevY(int i) { return (i == 0) ? sy : exitY(order[i - 1]); }
+
+        /**
+         * A part [lo,hi) of the order improved with its own copy of the order, the positions and the ways
+         * of its elements. Its first and last elements are kept (except at the ends of the order).<br>
+         * The arrays are indexed by the position minus <i>lo</i>, the element <i>v</i> is at the slot
+         * <i>Tour.pos[v] - lo</i> of <i>at</i> and <i>rev</i> (the shared positions of the last merge).
+         */
+        private class Window {
+            final int lo, hi;
+            final int order[], at[], fixedBefore[];
+            final boolean rev[];
+            boolean improved;
+
+            Window(int lo, int hi) {
+                this.lo = lo;
+                this.hi = hi;
+                order = Arrays.copyOfRange(Tour.this.order, lo, hi);
+                fixedBefore = Arrays.copyOfRange(Tour.this.fixedBefore, lo, hi + 1);
+                at = new int[hi - lo];
+                rev = new boolean[hi - lo];
+                for( int k = 0; k < order.length; k++) {
+                    at[k] = lo + k;
+                    rev[k] = Tour.this.rev[order[k]];
+                }
+            }
+
+            /** @return the position of <i>v</i>, or -1 if it is not in this window. */
+            private int pos(int v) {
+                final int k = Tour.this.pos[v] - lo;
+                return ((k >= 0) && (k < at.length)) ? at[k] : -1;
+            }
+
+            private int at(int i) { return order[i - lo]; }
+            private boolean rev(int v) { return rev[Tour.this.pos[v] - lo]; }
+            private int fixedBefore(int i) { return fixedBefore[i - lo]; }
+
+            private double entryX(int v) { return rev(v) ? lx[v] : fx[v]; }
+            private double entryY(int v) { return rev(v) ? ly[v] : fy[v]; }
+            private double exitX(int v) { return rev(v) ? fx[v] : lx[v]; }
+            private double exitY(int v) { return rev(v) ? fy[v] : ly[v]; }
+            private double prevX(int i) { return (i == 0) ? sx : exitX(at(i - 1)); }
+            private double prevY(int i) { return (i == 0) ? sy : exitY(at(i - 1)); }
+
+            /** Improve this window by a limited number of passes. */
+            void improve() {
+                final int a = (lo == 0) ? 0 : lo + 1, b = (hi == n) ? n : hi - 1;
+                if ( b - a < 1) return;
+                boolean again = true;
+                for( int pass = 0; again && (pass < MAX_PASSES) && ! isLate(); pass++) {
+                    again = false;
+                    for( int i = a; i < b; i++)
+                        if ( twoOpt(i, a, b) || orOpt(i, a, b)) again = improved = true;
+                }
+            }
+
+            /**
+             * Copy this window into the tour.
+             * @return true if it was improved
+             */
+            boolean merge() {
+                if ( ! improved) return false;
+                // the ways are indexed by the previous positions
+                for( int k = 0; k < order.length; k++) Tour.this.rev[Tour.this.order[lo + k]] = rev[k];
+                for( int k = 0; k < order.length; k++) {
+                    Tour.this.order[lo + k] = order[k];
+                    Tour.this.pos[order[k]] = lo + k;
+                }
+                System.arraycopy(fixedBefore, 0, Tour.this.fixedBefore, lo, fixedBefore.length);
+                return true;
+            }
+
+            /** Try to reverse [i,j] for the neighbours of the elements around position i. */
+            private boolean twoOpt(int i, int a, int b) {
+                final double px = prevX(i), py = prevY(i);
+                final int u = at(i);
+                if ( i > 0)
+                    for( int c : neighbours[at(i - 1)])
+                        if ( tryReverse(i, pos(c), a, b, px, py)) return true;
+                for( int c : neighbours[u]) {
+                    final int p = pos(c);
+                    if ( (p > 0) && tryReverse(i, p - 1, a, b, px, py)) return true;
+                }
+                return (b == n) && tryReverse(i, n - 1, a, b, px, py);
+            }
+
+            private boolean tryReverse(int i, int j, int a, int b, double px, double py) {
+                if ( (j < i) || (j >= b) || (i < a) || (fixedBefore(j + 1) != fixedBefore(i))) return false;
+                final int u = at(i), v = at(j);
+                double gain = d(px, py, entryX(u), entryY(u)) - d(px, py, exitX(v), exitY(v));
+                if ( j + 1 < n) {
+                    final int next = at(j + 1);
+                    gain += d(exitX(v), exitY(v), entryX(next), entryY(next)) - d(entryX(u), entryY(u), entryX(next), entryY(next));
+                }
+                if ( gain <= EPSILON) return false;
+                reverse(i, j);
+                return true;
+            }
+
+            private void reverse(int i, int j) {
+                for( int k = i, l = j; k <= l; k++, l--) {
+                    final int t = at(k);
+                    order[k - lo] = at(l);
+                    order[l - lo] = t;
+                    setPos(at(k), k);
+                    setPos(at(l), l);
+                    flip(at(k));
+                    if ( k != l) flip(at(l));
+                }
+                for( int k = i; k < j; k++) fixedBefore[k + 1 - lo] = fixedBefore(k) + (canReverse(at(k)) ? 0 : 1);
+            }
+
+            private void setPos(int v, int i) { at[Tour.this.pos[v] - lo] = i; }
+            private void flip(int v) { rev[Tour.this.pos[v] - lo] ^= true; }
+
+            /** Try to move the 1 to 3 elements from position i near the neighbours of the first of them. */
+            private boolean orOpt(int i, int a, int b) {
+                for( int len = 1; (len <= 3) && (i + len <= b); len++) {
+                    final int s1 = at(i), sL = at(i + len - 1);
+                    final boolean reversible = fixedBefore(i + len) == fixedBefore(i);
+                    final double px = prevX(i), py = prevY(i);
+                    // gain to remove the segment
+                    double removeGain = d(px, py, entryX(s1), entryY(s1));
+                    if ( i + len < n) {
+                        final int q = at(i + len);
+                        removeGain += d(exitX(sL), exitY(sL), entryX(q), entryY(q)) - d(px, py, entryX(q), entryY(q));
+                    }
+                    if ( removeGain <= EPSILON) continue;
+
+                    for( int c : neighbours[s1]) {
+                        final int p = pos(c);
+                        if ( p < 0) continue;
+                        for( int k = p - 1; k <= p; k++) {
+                            // insert between positions k and k+1
+                            if ( (k >= i - 1) && (k < i + len)) continue;
+                            if ( (k < a - 1) || (k + 1 > b)) continue;
+                            final double xx = (k == -1) ? sx : exitX(at(k)), xy = (k == -1) ? sy : exitY(at(k));
+                            final boolean hasNext = (k + 1 < n);
+                            final int y = hasNext ? at(k + 1) : -1;
+                            double base = hasNext ? d(xx, xy, entryX(y), entryY(y)) : 0;
+                            double add = d(xx, xy, entryX(s1), entryY(s1)) + (hasNext ? d(exitX(sL), exitY(sL), entryX(y), entryY(y)) : 0) - base;
+                            boolean reversed = false;
+                            if ( reversible) {
+                                final double addRev = d(xx, xy, exitX(sL), exitY(sL)) + (hasNext ? d(entryX(s1), entryY(s1), entryX(y), entryY(y)) : 0) - base;
+                                if ( addRev < add) {
+                                    add = addRev;
+                                    reversed = true;
+                                }
+                            }
+                            if ( removeGain - add > EPSILON) {
+                                move(i, len, k, reversed);
+                                return true;
+                            }
+                        }
+                    }
+                }
+                return false;
+            }
+
+            /** Move the elements [i,i+len) between positions k and k+1. */
+            private void move(int i, int len, int k, boolean reversed) {
+                final int seg[] = Arrays.copyOfRange(order, i - lo, i - lo + len);
+                final int from, to;
+                if ( k > i) {
+                    System.arraycopy(order, i + len - lo, order, i - lo, k - i - len + 1);
+                    System.arraycopy(seg, 0, order, k - len + 1 - lo, len);
+                    from = i;
+                    to = k;
+                } else {
+                    System.arraycopy(order, k + 1 - lo, order, k + 1 + len - lo, i - k - 1);
+                    System.arraycopy(seg, 0, order, k + 1 - lo, len);
+                    from = k + 1;
+                    to = i + len - 1;
+                }
+                for( int p = from; p <= to; p++) {
+                    setPos(at(p), p);
+                    fixedBefore[p + 1 - lo] = fixedBefore(p) + (canReverse(at(p)) ? 0 : 1);
+                }
+                if ( reversed) {
+                    if ( k > i) reverse(k - len + 1, k);
+                    else reverse(k + 1, k + len);
+                }
+            }
+        }
+
+        /** Start each loop at the point closest to the previous and the next elements. */
+        private boolean improveLoops() {
+            boolean res = false;
+            for( int i = 0; i < n; i++) {
+                final int v = order[i];
+                if ( type[v] != LOOP) continue;
+                final double px = prevX(i), py = prevY(i);
+                final boolean hasNext = i + 1 < n;
+                final double nx = hasNext ? entryX(order[i + 1]) : 0, ny = hasNext ? entryY(order[i + 1]) : 0;
+                final ArrayList<GCode> pts = loops.get(loopIndex[v]);
+                int best = vertex[v];
+                double min = d(px, py, fx[v], fy[v]) + (hasNext ? d(fx[v], fy[v], nx, ny) : 0) - EPSILON;
+                for( int k = 0; k < pts.size(); k++) {
+                    final GCode p = pts.get(k);
+                    final double c = d(px, py, p.getX(), p.getY()) + (hasNext ? d(p.getX(), p.getY(), nx, ny) : 0);
+                    if ( c < min) {
+                        min = c;
+                        best = k;
+                    }
+                }
+                if ( best != vertex[v]) {
+                    setVertex(v, best);
+                    res = true;
+                }
+            }
+            return res;
+        }
+
+        /** @return the element <i>v</i> reversed or started as choosen */
+        GElement apply(int v) {
+            final GElement e = nodes.get(v);
+            if ( (type[v] == REVERSIBLE) && rev[v]) e.reverse();
+            else if ( (type[v] == LOOP) && (vertex[v] != 0)) ((G1Path)e).changeFirstPoint(loops.get(loopIndex[v]).get(vertex[v]));
+            return e;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gelements;
+
+import gcodeeditor.GCode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Find the paths to join end to end.<br>
+ * The ends of the paths are put into a hash grid whose cells are of the size of the tolerance,
+ * so each end is compared only to the ends of the 9 cells around it. A union-find of the paths
+ * already linked avoids closing a chain on itself.
+ *
+ * @author Clément
+ */
+public class PathJoiner {
+
+    /**
+     * Each chain is an array of <i>(index of the path in paths) * 2 + reversed</i>, where
+     * <i>reversed</i> is 1 if the path must be reversed to continue the previous one.
+     * @param paths paths having a first and a last point
+     * @param tolerance the maximal distance to consider two ends joinable
+     * @return the chains of at least two paths
+     */
+    public static ArrayList<int[]> getChains(List<? extends GElement> paths, double tolerance) {
+        final ArrayList<int[]> res = new ArrayList<>();
+        final int n = paths.size();
+        if ( (n < 2) || ! (tolerance > 0)) return res;
+
+        // end 2*i is the first point of path i, 2*i+1 its last point
+        final double x[] = new double[2 * n], y[] = new double[2 * n];
+        for( int i = 0; i < n; i++) {
+            final GCode f = paths.get(i).getFirstPoint(), l = paths.get(i).getLastPoint();
+            x[2*i] = f.getX();
+            y[2*i] = f.getY();
+            x[2*i+1] = l.getX();
+            y[2*i+1] = l.getY();
+        }
+        final Grid grid = new Grid(x, y, tolerance);
+
+        // link each end to the closest free end of another chain
+        final int link[] = new int[2 * n], root[] = new int[n];
+        Arrays.fill(link, -1);
+        for( int i = 0; i < n; i++) root[i] = i;
+        final double t2 = tolerance * tolerance;
+        for( int e = 0; e < 2 * n; e++) {
+            if ( link[e] != -1) continue;
+            final int re = find(root, e >> 1);
+            int best = -1;
+            double min = t2;
+            final long cx = grid.cell(x[e]), cy = grid.cell(y[e]);
+            for( long gx = cx - 1; gx <= cx + 1; gx++)
+                for( long gy = cy - 1; gy <= cy + 1; gy++)
+                    for( int o = grid.first(gx, gy); o != -1; o = grid.next[o]) {
+                        if ( (link[o] != -1) || (find(root, o >> 1) == re)) continue;
+                        final double d = (x[o] - x[e]) * (x[o] - x[e]) + (y[o] - y[e]) * (y[o] - y[e]);
+                        if ( d < min) {
+                            min = d;
+                            best = o;
+                        }
+                    }
+            if ( best != -1) {
+                link[e] = best;
+                link[best] = e;
+                root[find(root, best >> 1)] = re;
+            }
+        }
+
+        // walk the chains from one of their free ends
+        final boolean done[] = new boolean[n];
+        final int chain[] = new int[n];
+        for( int i = 0; i < n; i++) {
+            if ( done[i] || ((link[2*i] != -1) && (link[2*i+1] != -1))) continue;
+            if ( (link[2*i] == -1) && (link[2*i+1] == -1)) {
+                done[i] = true;
+                continue;
+            }
+            int len = 0;
+            // enter by the free end
+            int e = (link[2*i] == -1) ? 2*i : 2*i+1;
+            while ( true) {
+                final int p = e >> 1;
+                done[p] = true;
+                chain[len++] = 2 * p + (e & 1);
+                final int exit = e ^ 1;
+                if ( link[exit] == -1) break;
+                e = link[exit];
+            }
+            res.add(Arrays.copyOf(chain, len));
+        }
+        return res;
+    }
+
+    private static int find(int root[], int i) {
+        while ( root[i] != i) {
+            root[i] = root[root[i]];
+            i = root[i];
+        }
+        return i;
+    }
+
+    /** Open addressing hash of the cells, with the ends of a cell in a linked list. */
+    private static class Grid {
+        final double size;
+        final long keyX[], keyY[];
+        final int head[], next[];
+        final int mask;
+
+        Grid(double x[], double y[], double size) {
+            this.size = size;
+            int cap = 16;
+            while ( cap < 2 * x.length) cap <<= 1;
+            mask = cap - 1;
+            keyX = new long[cap];
+            keyY = new long[cap];
+            head = new int[cap];
+            next = new int[x.length];
+            Arrays.fill(head, -1);
+            for( int e = x.length - 1; e >= 0; e--) {
+                final int s = slot(cell(x[e]), cell(y[e]));
+                next[e] = head[s];
+                head[s] = e;
+            }
+        }
+
+        final long cell(double v) {
+            return (long)Math.floor(v / size);
+        }
+
+        /** @return the slot of this cell, reserved if it was empty. */
+        private int slot(long cx, long cy) {
+            int s = hash(cx, cy);
+            while ( (head[s] != -1) && ((keyX[s] != cx) || (keyY[s] != cy))) s = (s + 1) & mask;
+            keyX[s] = cx;
+            keyY[s] = cy;
+            return s;
+        }
+
+        /** @return the first end of this cell, or -1 */
+        int first(long cx, long cy) {
+            int s = hash(cx, cy);
+            while ( head[s] != -1) {
+                if ( (keyX[s] == cx) && (keyY[s] == cy)) return head[s];
+                s = (s + 1) & mask;
+            }
+            return -1;
+        }
+
+        private int hash(long cx, long cy) {
+            long h = cx * 0x9E3779B97F4A7C15L + cy;
+            h ^= h >>> 29;
+            h *= 0xBF58476D1CE4E5B9L;
+            return (int)(h ^ (h >>> 32)) & mask;
+        }
+    }
+}
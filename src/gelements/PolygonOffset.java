@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gelements;
+
+import gcodeeditor.GCode;
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * Build the offset area of paths : all points closer than <i>distance</i> from the path.<br>
+ * Each segment gives a rectangle, each vertex a join on its convex side (a circle sector or
+ * a miter) and open ends get caps. All these convex pieces are counterclockwise, their union
+ * is made at once by PolygonUnion instead of one Area.add() by segment.<br>
+ * Coordinates are rounded on a grid of 1/SCALE mm (as Clipper does with integers) so that
+ * the pieces of consecutive segments share exactly the same vertices.
+ *
+ * @author Clément
+ */
+public class PolygonOffset {
+
+    public enum Join { ROUND, MITER }
+
+    /** Grid used to round coordinates (0.1 µm). */
+    public static final double SCALE = 10000;
+    /** Max distance between a round join and its polygon (mm). */
+    public static final double ARC_TOLERANCE = 0.02;
+    /** Miter longer than MITER_LIMIT * distance are beveled. */
+    public static final double MITER_LIMIT = 2;
+
+    private final double distance, arcStep;
+    private final Join join;
+    private final PolygonUnion union = new PolygonUnion();
+    /** Offsets of elements that are not paths (3D pockets). */
+    private Area others;
+    private double xs[] = new double[256], ys[] = new double[256];
+    /** The piece being built. */
+    private long piece[] = new long[64];
+    private int pieceLen;
+
+    /**
+     * @param distance the offset distance (must be positive)
+     * @param join how to fill the convex side of vertices
+     */
+    public PolygonOffset(double distance, Join join) {
+        this.distance = distance;
+        this.join = join;
+        // angle between two points of a round join to respect ARC_TOLERANCE
+        arcStep = (distance <= ARC_TOLERANCE) ? Math.PI / 4 : Math.min(Math.PI / 4, 2 * Math.acos(1 - ARC_TOLERANCE / distance));
+    }
+
+    /**
+     * @param elements
+     * @param distance
+     * @return the round offset area of all elements
+     */
+    public static Area getOffsetArea(Collection<? extends GElement> elements, double distance) {
+        final PolygonOffset o = new PolygonOffset(distance, Join.ROUND);
+        for( GElement e : elements) o.add(e);
+        return o.getArea();
+    }
+
+    /**
+     * @param elements
+     * @param distance
+     * @return the outlines of the round offset of all elements (faster than an Area)
+     */
+    public static Path2D getOffsetPath(Collection<? extends GElement> elements, double distance) {
+        return getOffsetPath(elements, distance, () -> false, (n) -> { });
+    }
+
+    /**
+     * Elements whose offsets can't touch are united separately, in parallel (common fork-join pool).
+     * @param elements
+     * @param distance
+     * @param cancelled polled between two groups of elements
+     * @param progress called with the number of elements done (from worker threads)
+     * @return the outlines of the round offset of all elements, or null if cancelled
+     */
+    public static Path2D getOffsetPath(Collection<? extends GElement> elements, double distance, BooleanSupplier cancelled, IntConsumer progress) {
+        final AtomicInteger done = new AtomicInteger();
+        final List<Path2D> paths = getClusters(elements, distance).parallelStream().map((c) -> {
+            if ( cancelled.getAsBoolean()) return null;
+            final PolygonOffset o = new PolygonOffset(distance, Join.ROUND);
+            for( GElement e : c) o.add(e);
+            final Path2D p = o.getPath();
+            progress.accept(done.addAndGet(c.size()));
+            return p;
+        }).collect(Collectors.toList());
+        if ( cancelled.getAsBoolean()) return null;
+
+        final Path2D.Double res = new Path2D.Double(Path2D.WIND_NON_ZERO);
+        for( Path2D p : paths) res.append(p, false);
+        return res;
+    }
+
+    /**
+     * @return the elements in groups whose bounds, enlarged by distance, don't overlap (in the order of elements)
+     */
+    private static ArrayList<ArrayList<GElement>> getClusters(Collection<? extends GElement> elements, double distance) {
+        final ArrayList<GElement> list = new ArrayList<>(elements);
+        final int n = list.size();
+        final Rectangle2D bounds[] = new Rectangle2D[n];
+        final int parent[] = new int[n];
+        final Integer order[] = new Integer[n];
+        for( int i = 0; i < n; i++) {
+            final Rectangle2D r = list.get(i).getBounds();
+            if ( r != null) r.setRect(r.getX() - distance, r.getY() - distance, r.getWidth() + 2 * distance, r.getHeight() + 2 * distance);
+            bounds[i] = r;
+            parent[i] = i;
+            order[i] = i;
+        }
+        // sweep along X : only overlapping intervals are compared
+        Arrays.sort(order, (a, b) -> Double.compare(getMinX(bounds[a]), getMinX(bounds[b])));
+        for( int i = 0; i < n; i++) {
+            final Rectangle2D r = bounds[order[i]];
+            if ( r == null) continue;
+            for( int j = i + 1; (j < n) && (bounds[order[j]] != null) && (bounds[order[j]].getMinX() <= r.getMaxX()); j++)
+                if ( r.intersects(bounds[order[j]])) union(parent, order[i], order[j]);
+        }
+        final ArrayList<ArrayList<GElement>> res = new ArrayList<>();
+        final int cluster[] = new int[n];
+        Arrays.fill(cluster, -1);
+        for( int i = 0; i < n; i++) {
+            final int root = find(parent, i);
+            if ( cluster[root] == -1) {
+                cluster[root] = res.size();
+                res.add(new ArrayList<>());
+            }
+            res.get(cluster[root]).add(list.get(i));
+        }
+        return res;
+    }
+
+    private static double getMinX(Rectangle2D r) {
+        return (r == null) ? Double.POSITIVE_INFINITY : r.getMinX();
+    }
+
+    private static int find(int parent[], int i) {
+        while ( parent[i] != i) i = parent[i] = parent[parent[i]];
+        return i;
+    }
+
+    private static void union(int parent[], int a, int b) {
+        parent[find(parent, a)] = find(parent, b);
+    }
+
+    /**
+     * Add the offset of <i>e</i> (and of its children).
+     * @param e
+     */
+    public void add(GElement e) {
+        if ( e instanceof GGroup)
+            for( GElement c : ((GGroup)e).getIterable()) add(c);
+        else if ( e instanceof G1Path)
+            addPolyline(((G1Path)e).lines);
+        else if ( (e instanceof GMixedPath) || (e instanceof GArc) || (e instanceof GSpline))
+            addPolyline(((G1Path)e.getFlatView()).lines);
+        else {
+            final Area a = e.getOffsetArea(distance);
+            if ( a != null) {
+                if ( others == null) others = a;
+                else others.add(a);
+            }
+        }
+    }
+
+    /**
+     * Add the result of another offset as a filled area (used to grow pockets).
+     * @param o
+     */
+    public void addFilled(PolygonOffset o) {
+        union.addRings(o.union.getRings());
+        if ( o.others != null) {
+            if ( others == null) others = new Area(o.others);
+            else others.add(o.others);
+        }
+    }
+
+    /**
+     * Add the offset of a polyline, closed if its first and last points are the same.
+     * @param lines the G-Code lines of the path (only points are used)
+     */
+    public void addPolyline(Iterable<GCode> lines) {
+        if ( ! (distance > 0)) return;
+        int n = 0;
+        for( GCode p : lines) {
+            if ( ! p.isAPoint()) continue;
+            final double x = Math.rint(p.getX() * SCALE), y = Math.rint(p.getY() * SCALE);
+            if ( (n > 0) && (xs[n-1] == x) && (ys[n-1] == y)) continue;
+            if ( n == xs.length) {
+                xs = Arrays.copyOf(xs, n * 2);
+                ys = Arrays.copyOf(ys, n * 2);
+            }
+            xs[n] = x;
+            ys[n++] = y;
+        }
+        if ( n == 0) return;
+
+        final double d = distance * SCALE;
+        if ( n == 1) {
+            addSector(xs[0], ys[0], d, 0, 2 * Math.PI);
+            return;
+        }
+        final boolean closed = (n > 2) && (xs[0] == xs[n-1]) && (ys[0] == ys[n-1]);
+        if ( closed) n--;
+
+        for( int i = 0; i < n; i++) {
+            if ( closed || ((i > 0) && (i < n - 1))) {
+                final int p = (i == 0) ? n - 1 : i - 1, q = (i == n - 1) ? 0 : i + 1;
+                addJoin(xs[p], ys[p], xs[i], ys[i], xs[q], ys[q], d);
+            }
+            if ( i < n - 1) addSegment(xs[i], ys[i], xs[i+1], ys[i+1], d);
+            else if ( closed) addSegment(xs[n-1], ys[n-1], xs[0], ys[0], d);
+        }
+
+        if ( ! closed) {
+            // caps
+            final double a0 = Math.atan2(ys[1] - ys[0], xs[1] - xs[0]);
+            final double a1 = Math.atan2(ys[n-1] - ys[n-2], xs[n-1] - xs[n-2]);
+            if ( join == Join.ROUND) {
+                addSector(xs[0], ys[0], d, a0 + Math.PI / 2, Math.PI);
+                addSector(xs[n-1], ys[n-1], d, a1 - Math.PI / 2, Math.PI);
+            } else {
+                addSegment(xs[0], ys[0], xs[0] - d * Math.cos(a0), ys[0] - d * Math.sin(a0), d);
+                addSegment(xs[n-1], ys[n-1], xs[n-1] + d * Math.cos(a1), ys[n-1] + d * Math.sin(a1), d);
+            }
+        }
+    }
+
+    /** @return the outlines of the union of all offsets added (in mm). */
+    public Path2D getPath() {
+        final Path2D.Double p = new Path2D.Double(Path2D.WIND_NON_ZERO);
+        for( long ring[] : union.getRings()) {
+            p.moveTo(ring[0] / SCALE, ring[1] / SCALE);
+            for( int i = 2; i < ring.length; i += 2) p.lineTo(ring[i] / SCALE, ring[i+1] / SCALE);
+            p.closePath();
+        }
+        if ( others == null) return p;
+        final Area a = new Area(p);
+        a.add(others);
+        return new Path2D.Double(a);
+    }
+
+    /** @return the union of all offsets added. */
+    public Area getArea() {
+        return new Area(getPath());
+    }
+
+    private void point(double x, double y) {
+        if ( pieceLen + 2 > piece.length) piece = Arrays.copyOf(piece, piece.length * 2);
+        piece[pieceLen++] = (long)Math.rint(x);
+        piece[pieceLen++] = (long)Math.rint(y);
+    }
+
+    private void endPiece() {
+        union.addRing(piece, pieceLen / 2);
+        pieceLen = 0;
+    }
+
+    /** Rectangle around the segment (counterclockwise). */
+    private void addSegment(double x1, double y1, double x2, double y2, double d) {
+        final double len = Math.hypot(x2 - x1, y2 - y1);
+        final double nx = (y2 - y1) / len * d, ny = -(x2 - x1) / len * d;
+        point(x1 + nx, y1 + ny);
+        point(x2 + nx, y2 + ny);
+        point(x2 - nx, y2 - ny);
+        point(x1 - nx, y1 - ny);
+        endPiece();
+    }
+
+    /** Fill the convex side of the vertex (x,y) between segments from (px,py) and to (qx,qy). */
+    private void addJoin(double px, double py, double x, double y, double qx, double qy, double d) {
+        final double a1 = Math.atan2(y - py, x - px), a2 = Math.atan2(qy - y, qx - x);
+        double turn = a2 - a1;
+        if ( turn > Math.PI) turn -= 2 * Math.PI;
+        else if ( turn <= -Math.PI) turn += 2 * Math.PI;
+        if ( Math.abs(turn) < 1e-9) return;
+
+        // normal of the convex side of the first segment
+        final double start = (turn > 0) ? a1 - Math.PI / 2 : a2 + Math.PI / 2;
+        final double extent = Math.abs(turn);
+        if ( join == Join.ROUND)
+            addSector(x, y, d, start, extent);
+        else {
+            point(x, y);
+            point(x + d * Math.cos(start), y + d * Math.sin(start));
+            final double m = d / Math.cos(extent / 2);
+            if ( m <= MITER_LIMIT * d)
+                point(x + m * Math.cos(start + extent / 2), y + m * Math.sin(start + extent / 2));
+            point(x + d * Math.cos(start + extent), y + d * Math.sin(start + extent));
+            endPiece();
+        }
+    }
+
+    /** Circle sector (counterclockwise) from angle <i>start</i>. */
+    private void addSector(double x, double y, double d, double start, double extent) {
+        final int steps = Math.max(1, (int)Math.ceil(extent / arcStep));
+        final boolean full = extent >= 2 * Math.PI;
+        if ( ! full) point(x, y);
+        for( int i = full ? 1 : 0; i <= steps; i++) {
+            final double a = start + extent * i / steps;
+            point(x + d * Math.cos(a), y + d * Math.sin(a));
+        }
+        endPiece();
+    }
+}
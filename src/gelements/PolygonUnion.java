@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gelements;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * Union of polygons with integer coordinates (NON_ZERO filling).<br>
+ * <ol><li>edges are split where they cross or touch (pairs found with a grid),
+ * <li>identical edges are merged (their windings are added),
+ * <li>a sweep line gives the winding number on each side of each edge,
+ * <li>edges between inside and outside are linked into rings.</ol>
+ * Coordinates must stay under 10^9 so that all orientation tests are exact.
+ *
+ * @author Clément
+ */
+class PolygonUnion {
+
+    /** Edges from the lower point (x1,y1) to the greater (x2,y2) in (x,y) order, w is +1 or -1 if reversed. */
+    private long x1[] = new long[1024], y1[] = new long[1024], x2[] = new long[1024], y2[] = new long[1024];
+    private int w[] = new int[1024];
+    private int nbEdges;
+
+    /** The result : inside on the left of each ring. */
+    private ArrayList<long[]> rings;
+
+    /**
+     * Add a closed polygon.
+     * @param xy coordinates x0,y0,x1,y1,... (the last point is linked to the first)
+     * @param n number of points
+     */
+    void addRing(long xy[], int n) {
+        for( int i = 0; i < n; i++) {
+            final int j = (i == n - 1) ? 0 : i + 1;
+            addEdge(xy[2*i], xy[2*i+1], xy[2*j], xy[2*j+1], 1);
+        }
+        rings = null;
+    }
+
+    /** Add all rings of a previous union. */
+    void addRings(ArrayList<long[]> r) {
+        for( long ring[] : r) addRing(ring, ring.length / 2);
+    }
+
+    private void addEdge(long ax, long ay, long bx, long by, int winding) {
+        if ( (ax == bx) && (ay == by)) return;
+        if ( nbEdges == x1.length) {
+            final int l = nbEdges * 2;
+            x1 = Arrays.copyOf(x1, l);
+            y1 = Arrays.copyOf(y1, l);
+            x2 = Arrays.copyOf(x2, l);
+            y2 = Arrays.copyOf(y2, l);
+            w = Arrays.copyOf(w, l);
+        }
+        if ( (ax < bx) || ((ax == bx) && (ay < by))) {
+            x1[nbEdges] = ax; y1[nbEdges] = ay; x2[nbEdges] = bx; y2[nbEdges] = by; w[nbEdges] = winding;
+        } else {
+            x1[nbEdges] = bx; y1[nbEdges] = by; x2[nbEdges] = ax; y2[nbEdges] = ay; w[nbEdges] = -winding;
+        }
+        nbEdges++;
+    }
+
+    /**
+     * @return the rings of the union, as x0,y0,x1,y1,... with the inside on their left
+     */
+    ArrayList<long[]> getRings() {
+        if ( rings == null) {
+            for( int pass = 0; (pass < 4) && splitEdges(); pass++) ;
+            mergeEdges();
+            rings = linkBoundaries(computeWindings());
+        }
+        return rings;
+    }
+
+    /** @return the orientation of c relative to the line a->b (&gt;0 if on its left). */
+    private static long orient(long ax, long ay, long bx, long by, long cx, long cy) {
+        return (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+    }
+
+    /* ----- Splitting ----- */
+
+    private int nbSplits;
+    private int splitEdge[] = new int[256];
+    private long splitX[] = new long[256], splitY[] = new long[256];
+
+    private void addSplit(int e, long x, long y) {
+        if ( ((x == x1[e]) && (y == y1[e])) || ((x == x2[e]) && (y == y2[e]))) return;
+        if ( nbSplits == splitEdge.length) {
+            splitEdge = Arrays.copyOf(splitEdge, nbSplits * 2);
+            splitX = Arrays.copyOf(splitX, nbSplits * 2);
+            splitY = Arrays.copyOf(splitY, nbSplits * 2);
+        }
+        splitEdge[nbSplits] = e;
+        splitX[nbSplits] = x;
+        splitY[nbSplits++] = y;
+    }
+
+    /** @return true if (x,y) is on the edge e (but not one of its ends). */
+    private boolean isInside(int e, long x, long y) {
+        if ( ((x == x1[e]) && (y == y1[e])) || ((x == x2[e]) && (y == y2[e]))) return false;
+        return (orient(x1[e], y1[e], x2[e], y2[e], x, y) == 0) &&
+               (Math.min(x1[e], x2[e]) <= x) && (x <= Math.max(x1[e], x2[e])) &&
+               (Math.min(y1[e], y2[e]) <= y) && (y <= Math.max(y1[e], y2[e]));
+    }
+
+    private void intersect(int a, int b) {
+        if ( (Math.max(x1[a], x2[a]) < Math.min(x1[b], x2[b])) || (Math.max(x1[b], x2[b]) < Math.min(x1[a], x2[a])) ||
+             (Math.max(y1[a], y2[a]) < Math.min(y1[b], y2[b])) || (Math.max(y1[b], y2[b]) < Math.min(y1[a], y2[a]))) return;
+
+        final long d1 = orient(x1[a], y1[a], x2[a], y2[a], x1[b], y1[b]);
+        final long d2 = orient(x1[a], y1[a], x2[a], y2[a], x2[b], y2[b]);
+        final long d3 = orient(x1[b], y1[b], x2[b], y2[b], x1[a], y1[a]);
+        final long d4 = orient(x1[b], y1[b], x2[b], y2[b], x2[a], y2[a]);
+
+        if ( ((d1 > 0) && (d2 < 0) || (d1 < 0) && (d2 > 0)) && ((d3 > 0) && (d4 < 0) || (d3 < 0) && (d4 > 0))) {
+            // proper crossing : rounded on the grid
+            final double t = (double)d3 / (d3 - d4);
+            final long x = Math.round(x1[a] + t * (x2[a] - x1[a])), y = Math.round(y1[a] + t * (y2[a] - y1[a]));
+            addSplit(a, x, y);
+            addSplit(b, x, y);
+            return;
+        }
+        // an end on the other edge (T junction or collinear overlap)
+        if ( (d1 == 0) && isInside(a, x1[b], y1[b])) addSplit(a, x1[b], y1[b]);
+        if ( (d2 == 0) && isInside(a, x2[b], y2[b])) addSplit(a, x2[b], y2[b]);
+        if ( (d3 == 0) && isInside(b, x1[a], y1[a])) addSplit(b, x1[a], y1[a]);
+        if ( (d4 == 0) && isInside(b, x2[a], y2[a])) addSplit(b, x2[a], y2[a]);
+    }
+
+    /**
+     * Test the edges two by two in each cell of a grid covering the rectangle, crowded cells
+     * are divided again (the points of a path are often much closer in some places).
+     */
+    private void intersectAll(int ids[], int n, long minX, long minY, long maxX, long maxY, int depth) {
+        final long w = maxX - minX + 1, h = maxY - minY + 1;
+        if ( (n <= MAX_CELL_EDGES) || (depth > 6) || ((w <= 2) && (h <= 2))) {
+            for( int a = 0; a < n; a++)
+                for( int b = a + 1; b < n; b++) intersect(ids[a], ids[b]);
+            return;
+        }
+        // about 2 edges by cell
+        final long cell = Math.max(1, (long)Math.ceil(Math.sqrt((double)w * h / (n / 2.0))));
+        final long nx = (w + cell - 1) / cell;
+
+        long keys[] = new long[n * 2];
+        int nbKeys = 0;
+        for( int i = 0; i < n; i++) {
+            final int e = ids[i];
+            final long c0 = (Math.max(x1[e], minX) - minX) / cell, c1 = (Math.min(x2[e], maxX) - minX) / cell;
+            for( long c = c0; c <= c1; c++) {
+                // part of the edge in this column
+                long ya, yb;
+                if ( x1[e] == x2[e]) {
+                    ya = y1[e];
+                    yb = y2[e];
+                } else {
+                    final long xa = Math.max(x1[e], minX + c * cell), xb = Math.min(x2[e], minX + (c + 1) * cell - 1);
+                    final double s = (double)(y2[e] - y1[e]) / (x2[e] - x1[e]);
+                    ya = (long)Math.floor(y1[e] + s * (xa - x1[e]));
+                    yb = (long)Math.ceil(y1[e] + s * (xb - x1[e]));
+                }
+                final long ra = Math.max(minY, Math.min(ya, yb)), rb = Math.min(maxY, Math.max(ya, yb));
+                for( long r = (ra - minY) / cell; (ra <= rb) && (r <= (rb - minY) / cell); r++) {
+                    if ( nbKeys == keys.length) keys = Arrays.copyOf(keys, nbKeys * 2);
+                    keys[nbKeys++] = ((r * nx + c) << 31) | e;
+                }
+            }
+        }
+        Arrays.sort(keys, 0, nbKeys);
+
+        final int cellIds[] = new int[n];
+        for( int i = 0; i < nbKeys; ) {
+            int j = i + 1;
+            final long cellKey = keys[i] >>> 31;
+            while ( (j < nbKeys) && ((keys[j] >>> 31) == cellKey)) j++;
+            final int m = j - i;
+            for( int k = 0; k < m; k++) cellIds[k] = (int)(keys[i + k] & 0x7FFFFFFF);
+            if ( (m <= MAX_CELL_EDGES) || (m == n))
+                for( int a = 0; a < m; a++)
+                    for( int b = a + 1; b < m; b++) intersect(cellIds[a], cellIds[b]);
+            else {
+                final long cx = minX + (cellKey % nx) * cell, cy = minY + (cellKey / nx) * cell;
+                intersectAll(Arrays.copyOf(cellIds, m), m, cx, cy, Math.min(maxX, cx + cell - 1), Math.min(maxY, cy + cell - 1), depth + 1);
+            }
+            i = j;
+        }
+    }
+
+    /** Max number of edges tested two by two, more are put in a finer grid. */
+    private static final int MAX_CELL_EDGES = 24;
+
+    /**
+     * Find the pairs of edges in the same cells of a grid, and split them where they cross.
+     * @return true if an edge has been split
+     */
+    private boolean splitEdges() {
+        if ( nbEdges < 2) return false;
+        long minX = Long.MAX_VALUE, minY = Long.MAX_VALUE, maxX = Long.MIN_VALUE, maxY = Long.MIN_VALUE;
+        for( int e = 0; e < nbEdges; e++) {
+            minX = Math.min(minX, x1[e]); maxX = Math.max(maxX, x2[e]);
+            minY = Math.min(minY, Math.min(y1[e], y2[e])); maxY = Math.max(maxY, Math.max(y1[e], y2[e]));
+        }
+        final int ids[] = new int[nbEdges];
+        for( int e = 0; e < nbEdges; e++) ids[e] = e;
+        nbSplits = 0;
+        intersectAll(ids, nbEdges, minX, minY, maxX, maxY, 0);
+        if ( nbSplits == 0) return false;
+
+        // sort the splits by edge, then along the edge
+        final int order[] = new int[nbSplits];
+        for( int i = 0; i < nbSplits; i++) order[i] = i;
+        sort(order, nbSplits, (p, q) -> {
+            if ( splitEdge[p] != splitEdge[q]) return Integer.compare(splitEdge[p], splitEdge[q]);
+            if ( splitX[p] != splitX[q]) return Long.compare(splitX[p], splitX[q]);
+            return Long.compare(splitY[p], splitY[q]);
+        });
+
+        final long ox1[] = x1, oy1[] = y1, ox2[] = x2, oy2[] = y2;
+        final int ow[] = w;
+        final int oldNb = nbEdges;
+        x1 = new long[oldNb + nbSplits + 16]; y1 = new long[x1.length]; x2 = new long[x1.length]; y2 = new long[x1.length];
+        w = new int[x1.length];
+        nbEdges = 0;
+        int s = 0;
+        for( int e = 0; e < oldNb; e++) {
+            long px = ox1[e], py = oy1[e];
+            for( ; (s < nbSplits) && (splitEdge[order[s]] == e); s++) {
+                final long sx = splitX[order[s]], sy = splitY[order[s]];
+                if ( (sx == px) && (sy == py)) continue;
+                addEdge(px, py, sx, sy, ow[e]);
+                px = sx;
+                py = sy;
+            }
+            addEdge(px, py, ox2[e], oy2[e], ow[e]);
+        }
+        return true;
+    }
+
+    /* ----- Merging ----- */
+
+    /** Add the windings of identical edges and remove edges without winding. */
+    private void mergeEdges() {
+        final int order[] = new int[nbEdges];
+        for( int i = 0; i < nbEdges; i++) order[i] = i;
+        sort(order, nbEdges, (p, q) -> {
+            if ( x1[p] != x1[q]) return Long.compare(x1[p], x1[q]);
+            if ( y1[p] != y1[q]) return Long.compare(y1[p], y1[q]);
+            if ( x2[p] != x2[q]) return Long.compare(x2[p], x2[q]);
+            return Long.compare(y2[p], y2[q]);
+        });
+        int n = 0;
+        final long nx1[] = new long[nbEdges], ny1[] = new long[nbEdges], nx2[] = new long[nbEdges], ny2[] = new long[nbEdges];
+        final int nw[] = new int[nbEdges];
+        for( int i = 0; i < nbEdges; ) {
+            final int e = order[i];
+            int sum = 0, j = i;
+            while ( (j < nbEdges) && (x1[order[j]] == x1[e]) && (y1[order[j]] == y1[e]) &&
+                    (x2[order[j]] == x2[e]) && (y2[order[j]] == y2[e])) sum += w[order[j++]];
+            if ( sum != 0) {
+                nx1[n] = x1[e]; ny1[n] = y1[e]; nx2[n] = x2[e]; ny2[n] = y2[e]; nw[n++] = sum;
+            }
+            i = j;
+        }
+        x1 = nx1; y1 = ny1; x2 = nx2; y2 = ny2; w = nw;
+        nbEdges = n;
+    }
+
+    /* ----- Sweep ----- */
+
+    private int compareEdges(int a, int b) {
+        if ( a == b) return 0;
+        long o;
+        if ( (x1[a] == x1[b]) && (y1[a] == y1[b])) {
+            o = orient(x1[a], y1[a], x2[a], y2[a], x2[b], y2[b]);
+            if ( o != 0) return (o > 0) ? -1 : 1;
+        } else if ( (x1[a] < x1[b]) || ((x1[a] == x1[b]) && (y1[a] < y1[b]))) {
+            // where b starts relative to a
+            o = orient(x1[a], y1[a], x2[a], y2[a], x1[b], y1[b]);
+            if ( o == 0) o = orient(x1[a], y1[a], x2[a], y2[a], x2[b], y2[b]);
+            if ( o != 0) return (o > 0) ? -1 : 1;
+        } else {
+            o = orient(x1[b], y1[b], x2[b], y2[b], x1[a], y1[a]);
+            if ( o == 0) o = orient(x1[b], y1[b], x2[b], y2[b], x2[a], y2[a]);
+            if ( o != 0) return (o > 0) ? 1 : -1;
+        }
+        return Integer.compare(a, b);
+    }
+
+    /**
+     * @return the winding number above (on the left of) each edge, the one below is windAbove - w
+     */
+    private int[] computeWindings() {
+        final int windAbove[] = new int[nbEdges];
+        // events : 2*e for the start of e, 2*e+1 for its end
+        final int events[] = new int[nbEdges * 2];
+        for( int i = 0; i < events.length; i++) events[i] = i;
+        sort(events, events.length, (p, q) -> {
+            final int a = p >> 1, b = q >> 1;
+            final long px = ((p & 1) == 0) ? x1[a] : x2[a], py = ((p & 1) == 0) ? y1[a] : y2[a];
+            final long qx = ((q & 1) == 0) ? x1[b] : x2[b], qy = ((q & 1) == 0) ? y1[b] : y2[b];
+            if ( px != qx) return Long.compare(px, qx);
+            if ( py != qy) return Long.compare(py, qy);
+            // ends before starts
+            return Integer.compare(q & 1, p & 1);
+        });
+
+        final TreeSet<Integer> active = new TreeSet<>(this::compareEdges);
+        final ArrayList<Integer> started = new ArrayList<>();
+        for( int i = 0; i < events.length; ) {
+            final int e0 = events[i] >> 1;
+            final long px = ((events[i] & 1) == 0) ? x1[e0] : x2[e0], py = ((events[i] & 1) == 0) ? y1[e0] : y2[e0];
+            started.clear();
+            for( ; i < events.length; i++) {
+                final int e = events[i] >> 1;
+                final boolean end = (events[i] & 1) == 1;
+                if ( end ? ((x2[e] != px) || (y2[e] != py)) : ((x1[e] != px) || (y1[e] != py))) break;
+                if ( end) active.remove(e);
+                else started.add(e);
+            }
+            // from the bottom to the top : the edge below is known
+            started.sort(this::compareEdges);
+            for( Integer e : started) {
+                active.add(e);
+                final Integer below = active.lower(e);
+                windAbove[e] = ((below == null) ? 0 : windAbove[below]) + w[e];
+            }
+        }
+        return windAbove;
+    }
+
+    /* ----- Rings ----- */
+
+    private ArrayList<long[]> linkBoundaries(int windAbove[]) {
+        // boundary edges, oriented with the inside on the left
+        int nb = 0;
+        final long sx[] = new long[nbEdges], sy[] = new long[nbEdges], tx[] = new long[nbEdges], ty[] = new long[nbEdges];
+        for( int e = 0; e < nbEdges; e++) {
+            final boolean insideAbove = windAbove[e] != 0, insideBelow = (windAbove[e] - w[e]) != 0;
+            if ( insideAbove == insideBelow) continue;
+            if ( insideAbove) {
+                sx[nb] = x1[e]; sy[nb] = y1[e]; tx[nb] = x2[e]; ty[nb++] = y2[e];
+            } else {
+                sx[nb] = x2[e]; sy[nb] = y2[e]; tx[nb] = x1[e]; ty[nb++] = y1[e];
+            }
+        }
+        final int order[] = new int[nb];
+        for( int i = 0; i < nb; i++) order[i] = i;
+        sort(order, nb, (p, q) -> (sx[p] != sx[q]) ? Long.compare(sx[p], sx[q]) : Long.compare(sy[p], sy[q]));
+
+        final boolean used[] = new boolean[nb];
+        final ArrayList<long[]> res = new ArrayList<>();
+        long ring[] = new long[64];
+        for( int k = 0; k < nb; k++) {
+            final int first = order[k];
+            if ( used[first]) continue;
+            int n = 0, e = first;
+            while ( (e != -1) && ! used[e]) {
+                used[e] = true;
+                if ( 2 * n + 2 > ring.length) ring = Arrays.copyOf(ring, ring.length * 2);
+                ring[2*n] = sx[e];
+                ring[2*n+1] = sy[e];
+                n++;
+                e = nextEdge(e, order, sx, sy, tx, ty, used);
+            }
+            n = removeAligned(ring, n);
+            if ( n >= 3) res.add(Arrays.copyOf(ring, 2 * n));
+        }
+        return res;
+    }
+
+    /** @return the unused edge starting at the end of e with the most left turn, or -1. */
+    private static int nextEdge(int e, int order[], long sx[], long sy[], long tx[], long ty[], boolean used[]) {
+        // first edge starting at (tx[e],ty[e])
+        int lo = 0, hi = order.length;
+        while ( lo < hi) {
+            final int m = (lo + hi) >>> 1;
+            final int o = order[m];
+            if ( (sx[o] < tx[e]) || ((sx[o] == tx[e]) && (sy[o] < ty[e]))) lo = m + 1;
+            else hi = m;
+        }
+        int best = -1;
+        double bestTurn = 0;
+        final double dx = tx[e] - sx[e], dy = ty[e] - sy[e];
+        for( int i = lo; (i < order.length) && (sx[order[i]] == tx[e]) && (sy[order[i]] == ty[e]); i++) {
+            final int o = order[i];
+            if ( used[o]) continue;
+            final double ox = tx[o] - sx[o], oy = ty[o] - sy[o];
+            final double turn = Math.atan2(dx * oy - dy * ox, dx * ox + dy * oy);
+            if ( (best == -1) || (turn > bestTurn)) {
+                best = o;
+                bestTurn = turn;
+            }
+        }
+        return best;
+    }
+
+    /** Remove points aligned with their neighbours. */
+    private static int removeAligned(long ring[], int n) {
+        boolean changed = true;
+        while ( changed && (n >= 3)) {
+            changed = false;
+            int m = 0;
+            for( int i = 0; i < n; i++) {
+                final int p = (m == 0) ? n - 1 : m - 1, q = (i + 1) % n;
+                final long px = (m == 0) ? ring[2*p] : ring[2*(m-1)], py = (m == 0) ? ring[2*p+1] : ring[2*(m-1)+1];
+                if ( orient(px, py, ring[2*i], ring[2*i+1], ring[2*q], ring[2*q+1]) == 0) {
+                    changed = true;
+                    continue;
+                }
+                ring[2*m] = ring[2*i];
+                ring[2*m+1] = ring[2*i+1];
+                m++;
+            }
+            n = m;
+        }
+        return n;
+    }
+
+    /* ----- Sort of int indexes without boxing ----- */
+
+    interface IntComparator {
+        int compare(int a, int b);
+    }
+
+    /** Merge sort of the n first values of a. */
+    static void sort(int a[], int n, IntComparator c) {
+        final int tmp[] = new int[n];
+        for( int width = 1; width < n; width *= 2) {
+            for( int lo = 0; lo < n - width; lo += 2 * width) {
+                final int mid = lo + width, hi = Math.min(lo + 2 * width, n);
+                if ( c.compare(a[mid - 1], a[mid]) <= 0) continue;
+                int i = lo, j = mid, k = lo;
+                while ( (i < mid) && (j < hi)) tmp[k++] = (c.compare(a[i], a[j]) <= 0) ? a[i++] : a[j++];
+                while ( i < mid) tmp[k++] = a[i++];
+                while ( j < hi) tmp[k++] = a[j++];
+                System.arraycopy(tmp, lo, a, lo, hi - lo);
+            }
+        }
+    }
+}
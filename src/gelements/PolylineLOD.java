@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gelements;
+
+import java.awt.Shape;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decimated shapes of a polyline, one by zoom level (power of 2).<br>
+ * Consecutive points falling into the same screen cell (a quarter of pixel at the lowest
+ * zoom of the level) are replaced by the first and the last of them, so the outline stays
+ * the same on the screen while a zoomed out dense path draws only a few points.
+ *
+ * @author Clément
+ */
+class PolylineLOD {
+
+    /** Smaller paths are always painted entirely. */
+    static final int MIN_POINTS = 64;
+    /** Number of levels kept. */
+    private static final int MAX_LEVELS = 8;
+
+    private final Shape fullShape;
+    private final int nbPoints;
+    private final ConcurrentHashMap<Integer, Shape> levels = new ConcurrentHashMap<>();
+
+    /**
+     * @param fullShape the shape containing all points (not modified while this object is used)
+     * @param nbPoints number of points of <i>fullShape</i>
+     */
+    PolylineLOD(Shape fullShape, int nbPoints) {
+        this.fullShape = fullShape;
+        this.nbPoints = nbPoints;
+    }
+
+    /** @return the shape with all the points */
+    Shape getFullShape() {
+        return fullShape;
+    }
+
+    /**
+     * @param zoomFactor
+     * @return the shape to paint at this zoom (can be called by several threads)
+     */
+    Shape getShape(double zoomFactor) {
+        if ( (nbPoints < MIN_POINTS) || ! (zoomFactor > 0)) return fullShape;
+        final int level = Math.getExponent(zoomFactor);
+        Shape s = levels.get(level);
+        if ( s == null) {
+            if ( levels.size() >= MAX_LEVELS) levels.clear();
+            s = decimate(Math.scalb(0.25, -level));
+            levels.put(level, s);
+        }
+        return s;
+    }
+
+    /**
+     * Screen-space vertex clustering.
+     * @param cell size of a cell in document units
+     * @return the decimated shape, or the full one if few points are removed
+     */
+    private Shape decimate(double cell) {
+        final Path2D.Float res = new Path2D.Float(Path2D.WIND_EVEN_ODD, Math.min(nbPoints, 1024));
+        long cx = Long.MIN_VALUE, cy = 0;
+        final double p[] = new double[6];
+        double px = 0, py = 0;
+        boolean pending = false;
+        int n = 0;
+        // read the immutable shape, not the points of the path (the EDT can change them)
+        for( PathIterator it = fullShape.getPathIterator(null); ! it.isDone(); it.next()) {
+            it.currentSegment(p);
+            final long x = (long)Math.floor(p[0] / cell), y = (long)Math.floor(p[1] / cell);
+            if ( cx == Long.MIN_VALUE) {
+                res.moveTo(p[0], p[1]);
+                n++;
+            } else if ( (x == cx) && (y == cy)) {
+                px = p[0];
+                py = p[1];
+                pending = true;
+                continue;
+            } else {
+                // leave the cell from its last point
+                if ( pending) {
+                    res.lineTo(px, py);
+                    n++;
+                }
+                res.lineTo(p[0], p[1]);
+                n++;
+            }
+            cx = x;
+            cy = y;
+            pending = false;
+        }
+        if ( pending) {
+            res.lineTo(px, py);
+            n++;
+        }
+        return (n * 4 > nbPoints * 3) ? fullShape : res;
+    }
+}
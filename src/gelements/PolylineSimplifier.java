@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gelements;
+
+/**
+ * Simplification of polylines, on arrays of coordinates.<br>
+ * <ul><li>DOUGLAS_PEUCKER keeps the path at less than <i>tolerance</i> of the original points
+ * (iterative, O(n log n) for usual paths),
+ * <li>VISVALINGAM removes the points making the smallest triangles with their neighbours while
+ * their area is less than <i>tolerance</i>² (with a heap, O(n log n)).</ul>
+ * The ends are always kept, and a closed path keeps at least 3 points.
+ *
+ * @author Clément
+ */
+public class PolylineSimplifier {
+
+    public enum Algorithm { DOUGLAS_PEUCKER, VISVALINGAM }
+
+    /**
+     * @param x
+     * @param y
+     * @param n number of points
+     * @param closed true if the first and last points are the same
+     * @param algorithm
+     * @param tolerance
+     * @return the points to keep
+     */
+    public static boolean[] simplify(double x[], double y[], int n, boolean closed, Algorithm algorithm, double tolerance) {
+        final boolean keep[] = new boolean[n];
+        if ( (n < 3) || ! (tolerance > 0)) {
+            java.util.Arrays.fill(keep, true);
+            return keep;
+        }
+        if ( algorithm == Algorithm.VISVALINGAM) visvalingam(x, y, n, closed, tolerance * tolerance, keep);
+        else douglasPeucker(x, y, n, closed, tolerance, keep);
+        return keep;
+    }
+
+    private static void douglasPeucker(double x[], double y[], int n, boolean closed, double tolerance, boolean keep[]) {
+        keep[0] = keep[n-1] = true;
+        final int stack[] = new int[2 * n];
+        int sp = 0;
+        if ( closed) {
+            // the ends are the same : split at the farthest point
+            int far = 1;
+            double max = -1;
+            for( int i = 1; i < n - 1; i++) {
+                final double d = (x[i] - x[0]) * (x[i] - x[0]) + (y[i] - y[0]) * (y[i] - y[0]);
+                if ( d > max) {
+                    max = d;
+                    far = i;
+                }
+            }
+            keep[far] = true;
+            stack[sp++] = 0; stack[sp++] = far;
+            stack[sp++] = far; stack[sp++] = n - 1;
+        } else {
+            stack[sp++] = 0; stack[sp++] = n - 1;
+        }
+        final double t2 = tolerance * tolerance;
+        while ( sp > 0) {
+            final int e = stack[--sp], s = stack[--sp];
+            if ( e - s < 2) continue;
+            int far = -1;
+            double max = t2;
+            for( int i = s + 1; i < e; i++) {
+                final double d = segmentDistanceSq(x[i], y[i], x[s], y[s], x[e], y[e]);
+                if ( d > max) {
+                    max = d;
+                    far = i;
+                }
+            }
+            if ( far != -1) {
+                keep[far] = true;
+                stack[sp++] = s; stack[sp++] = far;
+                stack[sp++] = far; stack[sp++] = e;
+            }
+        }
+        // a closed path with only 2 distinct points
+        if ( closed) {
+            int nb = 0;
+            for( boolean k : keep) if ( k) nb++;
+            for( int i = 1; (nb < 4) && (i < n - 1); i++)
+                if ( ! keep[i]) {
+                    keep[i] = true;
+                    nb++;
+                }
+        }
+    }
+
+    /** @return the square of the distance between (px,py) and the segment (a,b). */
+    private static double segmentDistanceSq(double px, double py, double ax, double ay, double bx, double by) {
+        final double dx = bx - ax, dy = by - ay, l = dx * dx + dy * dy;
+        double t = (l == 0) ? 0 : ((px - ax) * dx + (py - ay) * dy) / l;
+        if ( t < 0) t = 0;
+        else if ( t > 1) t = 1;
+        final double ex = ax + t * dx - px, ey = ay + t * dy - py;
+        return ex * ex + ey * ey;
+    }
+
+    private static void visvalingam(double x[], double y[], int n, boolean closed, double maxArea, boolean keep[]) {
+        final int prev[] = new int[n], next[] = new int[n];
+        final double area[] = new double[n];
+        // indexed min heap of the inner points
+        final int heap[] = new int[n], pos[] = new int[n];
+        int size = 0;
+        for( int i = 0; i < n; i++) {
+            keep[i] = true;
+            prev[i] = i - 1;
+            next[i] = i + 1;
+        }
+        for( int i = 1; i < n - 1; i++) {
+            area[i] = triangleArea(x, y, i - 1, i, i + 1);
+            heap[size] = i;
+            pos[i] = size++;
+        }
+        for( int i = size / 2 - 1; i >= 0; i--) siftDown(heap, pos, area, size, i);
+
+        int remaining = n;
+        while ( (size > 0) && (area[heap[0]] < maxArea) && (! closed || (remaining > 4))) {
+            final int i = heap[0];
+            final double a = area[i];
+            heap[0] = heap[--size];
+            pos[heap[0]] = 0;
+            siftDown(heap, pos, area, size, 0);
+            keep[i] = false;
+            remaining--;
+
+            final int p = prev[i], q = next[i];
+            next[p] = q;
+            prev[q] = p;
+            // the area of the neighbours can't decrease below the one of the removed point
+            if ( p > 0) update(heap, pos, area, size, p, Math.max(a, triangleArea(x, y, prev[p], p, q)));
+            if ( q < n - 1) update(heap, pos, area, size, q, Math.max(a, triangleArea(x, y, p, q, next[q])));
+        }
+    }
+
+    private static double triangleArea(double x[], double y[], int a, int b, int c) {
+        return Math.abs((x[b] - x[a]) * (y[c] - y[a]) - (y[b] - y[a]) * (x[c] - x[a])) / 2;
+    }
+
+    private static void update(int heap[], int pos[], double area[], int size, int i, double a) {
+        final double old = area[i];
+        area[i] = a;
+        if ( a < old) siftUp(heap, pos, area, pos[i]);
+        else siftDown(heap, pos, area, size, pos[i]);
+    }
+
+    private static void siftUp(int heap[], int pos[], double area[], int k) {
+        final int i = heap[k];
+        while ( k > 0) {
+            final int parent = (k - 1) / 2;
+            if ( area[heap[parent]] <= area[i]) break;
+            heap[k] = heap[parent];
+            pos[heap[k]] = k;
+            k = parent;
+        }
+        heap[k] = i;
+        pos[i] = k;
+    }
+
+    private static void siftDown(int heap[], int pos[], double area[], int size, int k) {
+        final int i = heap[k];
+        while ( 2 * k + 1 < size) {
+            int child = 2 * k + 1;
+            if ( (child + 1 < size) && (area[heap[child + 1]] < area[heap[child]])) child++;
+            if ( area[i] <= area[heap[child]]) break;
+            heap[k] = heap[child];
+            pos[heap[k]] = k;
+            k = child;
+        }
+        heap[k] = i;
+        pos[i] = k;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gelements;
+
+import gcodeeditor.GCode;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Find where the segments of several polylines cross each other.<br>
+ * The segments are put into the cells of a grid they cross (about 2 segments by cell, crowded
+ * cells are divided again) and only the segments of a same cell are tested two by two.
+ * A pair is kept only by the cell containing its crossing point, so it is found once.
+ * Crossings are searched only between paths of different groups.
+ *
+ * @author Clément
+ */
+public class SegmentIntersector {
+
+    /** Crossings closer than this distance to an end of the segment are not reported. */
+    public static final double MIN_DISTANCE = 0.00001;
+    /** Max number of segments tested two by two, more are put in a finer grid. */
+    private static final int MAX_CELL_SEGMENTS = 24;
+    private static final int MAX_DEPTH = 6;
+
+    /** A point where a segment of a path is crossed by another path. */
+    public static class Crossing {
+        /** Index of the path (see add()). */
+        public final int path;
+        /** The segment from the point <i>segment</i> of the path to the next one. */
+        public final int segment;
+        /** Position along the segment (0..1). */
+        public final double t;
+        public final double x, y;
+
+        Crossing(int path, int segment, double t, double x, double y) {
+            this.path = path;
+            this.segment = segment;
+            this.t = t;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private int nbPaths, nbSegments;
+    private int segPath[] = new int[256], segIndex[] = new int[256], segGroup[] = new int[256];
+    private double x1[] = new double[256], y1[] = new double[256], x2[] = new double[256], y2[] = new double[256];
+    private final ArrayList<Crossing> crossings = new ArrayList<>();
+
+    /**
+     * @param path
+     * @param group crossings are searched only between paths of different groups
+     * @return the index of this path in the results
+     */
+    public int add(G1Path path, int group) {
+        final double x[] = new double[path.lines.size()], y[] = new double[x.length];
+        int n = 0;
+        for( GCode p : path.lines)
+            if ( p.isAPoint()) {
+                x[n] = p.getX();
+                y[n++] = p.getY();
+            }
+        return add(x, y, n, group);
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @param n number of points of the polyline
+     * @param group crossings are searched only between paths of different groups
+     * @return the index of this path in the results
+     */
+    public int add(double x[], double y[], int n, int group) {
+        for( int i = 0; i + 1 < n; i++) {
+            if ( (x[i] == x[i + 1]) && (y[i] == y[i + 1])) continue;
+            if ( nbSegments == x1.length) {
+                final int l = nbSegments * 2;
+                segPath = Arrays.copyOf(segPath, l);
+                segIndex = Arrays.copyOf(segIndex, l);
+                segGroup = Arrays.copyOf(segGroup, l);
+                x1 = Arrays.copyOf(x1, l);
+                y1 = Arrays.copyOf(y1, l);
+                x2 = Arrays.copyOf(x2, l);
+                y2 = Arrays.copyOf(y2, l);
+            }
+            segPath[nbSegments] = nbPaths;
+            segIndex[nbSegments] = i;
+            segGroup[nbSegments] = group;
+            x1[nbSegments] = x[i];
+            y1[nbSegments] = y[i];
+            x2[nbSegments] = x[i + 1];
+            y2[nbSegments++] = y[i + 1];
+        }
+        return nbPaths++;
+    }
+
+    /** @return the crossings of each path, sorted along the path */
+    public ArrayList<ArrayList<Crossing>> getCrossings() {
+        crossings.clear();
+        if ( nbSegments > 1) {
+            double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+            for( int s = 0; s < nbSegments; s++) {
+                minX = Math.min(minX, Math.min(x1[s], x2[s]));
+                maxX = Math.max(maxX, Math.max(x1[s], x2[s]));
+                minY = Math.min(minY, Math.min(y1[s], y2[s]));
+                maxY = Math.max(maxY, Math.max(y1[s], y2[s]));
+            }
+            final int ids[] = new int[nbSegments];
+            for( int s = 0; s < nbSegments; s++) ids[s] = s;
+            intersectAll(ids, nbSegments, minX, minY, maxX, maxY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                         Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, 0);
+        }
+
+        crossings.sort((a, b) -> {
+            if ( a.path != b.path) return Integer.compare(a.path, b.path);
+            if ( a.segment != b.segment) return Integer.compare(a.segment, b.segment);
+            return Double.compare(a.t, b.t);
+        });
+        final ArrayList<ArrayList<Crossing>> res = new ArrayList<>(nbPaths);
+        for( int p = 0; p < nbPaths; p++) res.add(new ArrayList<>());
+        crossings.forEach((c) -> { res.get(c.path).add(c); });
+        return res;
+    }
+
+    /**
+     * Test the segments two by two in each cell of a grid covering [minX,maxX]x[minY,maxY].
+     * Only the crossings into [cx0,cx1)x[cy0,cy1) are kept.
+     */
+    private void intersectAll(int ids[], int n, double minX, double minY, double maxX, double maxY,
+                              double cx0, double cy0, double cx1, double cy1, int depth) {
+        final double w = maxX - minX, h = maxY - minY;
+        double cell = Math.sqrt(w * h / (n / 2.0));
+        if ( ! (cell > 0)) cell = Math.max(w, h) / (n / 2.0);
+        if ( (n <= MAX_CELL_SEGMENTS) || (depth > MAX_DEPTH) || ! (cell > 0)) {
+            for( int a = 0; a < n; a++)
+                for( int b = a + 1; b < n; b++) intersect(ids[a], ids[b], cx0, cy0, cx1, cy1);
+            return;
+        }
+        final int nx = (int)Math.min(1 << 15, Math.floor(w / cell) + 1), ny = (int)Math.min(1 << 15, Math.floor(h / cell) + 1);
+        final double cw = w / nx * (1 + 1e-12) + 1e-12, ch = h / ny * (1 + 1e-12) + 1e-12;
+        final double pad = 1e-9 * Math.max(cw, ch);
+
+        long keys[] = new long[n * 2];
+        int nbKeys = 0;
+        for( int i = 0; i < n; i++) {
+            final int s = ids[i];
+            final double ax = Math.min(x1[s], x2[s]), bx = Math.max(x1[s], x2[s]);
+            final int c0 = column(ax - pad, minX, cw, nx), c1 = column(bx + pad, minX, cw, nx);
+            for( int c = c0; c <= c1; c++) {
+                // part of the segment into this column
+                double ya, yb;
+                if ( (c0 == c1) || (x1[s] == x2[s])) {
+                    ya = Math.min(y1[s], y2[s]);
+                    yb = Math.max(y1[s], y2[s]);
+                } else {
+                    final double xa = Math.max(ax, minX + c * cw), xb = Math.min(bx, minX + (c + 1) * cw);
+                    final double k = (y2[s] - y1[s]) / (x2[s] - x1[s]);
+                    final double ta = y1[s] + k * (xa - x1[s]), tb = y1[s] + k * (xb - x1[s]);
+                    ya = Math.max(Math.min(y1[s], y2[s]), Math.min(ta, tb));
+                    yb = Math.min(Math.max(y1[s], y2[s]), Math.max(ta, tb));
+                }
+                final int r0 = column(ya - pad, minY, ch, ny), r1 = column(yb + pad, minY, ch, ny);
+                for( int r = r0; r <= r1; r++) {
+                    if ( nbKeys == keys.length) keys = Arrays.copyOf(keys, nbKeys * 2);
+                    keys[nbKeys++] = (((long)r * nx + c) << 31) | s;
+                }
+            }
+        }
+        Arrays.sort(keys, 0, nbKeys);
+
+        final int cellIds[] = new int[n];
+        for( int i = 0; i < nbKeys; ) {
+            int j = i + 1;
+            final long cellKey = keys[i] >>> 31;
+            while ( (j < nbKeys) && ((keys[j] >>> 31) == cellKey)) j++;
+            final int m = j - i;
+            final int c = (int)(cellKey % nx), r = (int)(cellKey / nx);
+            // the cells at the border own the outside too
+            final double x0 = (c == 0) ? cx0 : minX + c * cw, xe = (c == nx - 1) ? cx1 : minX + (c + 1) * cw;
+            final double y0 = (r == 0) ? cy0 : minY + r * ch, ye = (r == ny - 1) ? cy1 : minY + (r + 1) * ch;
+            if ( m > 1) {
+                for( int k = 0; k < m; k++) cellIds[k] = (int)(keys[i + k] & 0x7FFFFFFF);
+                if ( (m <= MAX_CELL_SEGMENTS) || (m == n))
+                    for( int a = 0; a < m; a++)
+                        for( int b = a + 1; b < m; b++) intersect(cellIds[a], cellIds[b], x0, y0, xe, ye);
+                else
+                    intersectAll(Arrays.copyOf(cellIds, m), m, minX + c * cw, minY + r * ch, minX + (c + 1) * cw, minY + (r + 1) * ch,
+                                 x0, y0, xe, ye, depth + 1);
+            }
+            i = j;
+        }
+    }
+
+    private static int column(double v, double min, double size, int nb) {
+        return (int)Math.max(0, Math.min(nb - 1, Math.floor((v - min) / size)));
+    }
+
+    /** Keep the crossings of the segments a and b into [cx0,cx1)x[cy0,cy1). */
+    private void intersect(int a, int b, double cx0, double cy0, double cx1, double cy1) {
+        if ( segGroup[a] == segGroup[b]) return;
+        if ( (Math.max(x1[a], x2[a]) < Math.min(x1[b], x2[b])) || (Math.max(x1[b], x2[b]) < Math.min(x1[a], x2[a])) ||
+             (Math.max(y1[a], y2[a]) < Math.min(y1[b], y2[b])) || (Math.max(y1[b], y2[b]) < Math.min(y1[a], y2[a]))) return;
+
+        final double dxa = x2[a] - x1[a], dya = y2[a] - y1[a], dxb = x2[b] - x1[b], dyb = y2[b] - y1[b];
+        final double la = Math.sqrt(dxa * dxa + dya * dya), lb = Math.sqrt(dxb * dxb + dyb * dyb);
+        final double qx = x1[b] - x1[a], qy = y1[b] - y1[a];
+        final double den = dxa * dyb - dya * dxb;
+
+        if ( Math.abs(den) <= 1e-12 * la * lb) {
+            // parallel : only the ends of a segment lying on the other one if they are aligned
+            if ( Math.abs(qx * dya - qy * dxa) > 1e-9 * la) return;
+            addEnd(a, x1[b], y1[b], la, cx0, cy0, cx1, cy1);
+            addEnd(a, x2[b], y2[b], la, cx0, cy0, cx1, cy1);
+            addEnd(b, x1[a], y1[a], lb, cx0, cy0, cx1, cy1);
+            addEnd(b, x2[a], y2[a], lb, cx0, cy0, cx1, cy1);
+            return;
+        }
+        final double t = (qx * dyb - qy * dxb) / den, u = (qx * dya - qy * dxa) / den;
+        final double ea = MIN_DISTANCE / la, eb = MIN_DISTANCE / lb;
+        if ( (t < -ea) || (t > 1 + ea) || (u < -eb) || (u > 1 + eb)) return;
+
+        double x = x1[a] + t * dxa, y = y1[a] + t * dya;
+        // the same cell for a and b whatever the rounding
+        x = Math.max(Math.max(Math.min(x1[a], x2[a]), Math.min(x1[b], x2[b])), Math.min(x, Math.min(Math.max(x1[a], x2[a]), Math.max(x1[b], x2[b]))));
+        y = Math.max(Math.max(Math.min(y1[a], y2[a]), Math.min(y1[b], y2[b])), Math.min(y, Math.min(Math.max(y1[a], y2[a]), Math.max(y1[b], y2[b]))));
+        if ( (x < cx0) || (x >= cx1) || (y < cy0) || (y >= cy1)) return;
+        if ( (t > ea) && (t < 1 - ea)) crossings.add(new Crossing(segPath[a], segIndex[a], t, x, y));
+        if ( (u > eb) && (u < 1 - eb)) crossings.add(new Crossing(segPath[b], segIndex[b], u, x, y));
+    }
+
+    /** Keep (x,y) if it is inside the segment s (aligned with it). */
+    private void addEnd(int s, double x, double y, double l, double cx0, double cy0, double cx1, double cy1) {
+        if ( (x < cx0) || (x >= cx1) || (y < cy0) || (y >= cy1)) return;
+        final double t = ((x - x1[s]) * (x2[s] - x1[s]) + (y - y1[s]) * (y2[s] - y1[s])) / (l * l);
+        final double e = MIN_DISTANCE / l;
+        if ( (t > e) && (t < 1 - e)) crossings.add(new Crossing(segPath[s], segIndex[s], t, x, y));
+    }
+}
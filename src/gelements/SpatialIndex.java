@@ -0,0 +1,455 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gelements;
+
+import gcodeeditor.GCode;
+import gcodeeditor.Segment2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+/**
+ * A uniform grid that indexes the points and the segments of all G1Path of a document,
+ * used to find quickly the element or the point under the mouse.<br>
+ *
+ * The index listens all the elements of the document (informAboutChange()) and updates
+ * only the modified ones before the next query. Other elements (arcs, splines, texts,
+ * pockets, ...) are few and are tested directly.<br>
+ *
+ * The results are the same than GGroup.getCloserPoint() and GGroup.getElementFromPoint().
+ *
+ * @author Clément
+ */
+public class SpatialIndex implements ListDataListener {
+
+    /** Segments that cross more cells are stored into <i>largeItems</i>. */
+    static final int MAX_CELLS_PER_ITEM = 64;
+    /** Queries that cross more cells use the linear search. */
+    static final int MAX_CELLS_PER_QUERY = 4096;
+
+    /** A point (p2 == null) or a segment of an indexed element. */
+    static final class Item {
+        final Entry owner;
+        final GCode p1, p2;
+        Item(Entry owner, GCode p1, GCode p2) {
+            this.owner = owner;
+            this.p1 = p1;
+            this.p2 = p2;
+        }
+    }
+
+    /** An element of the document. */
+    static final class Entry {
+        final GElement element;
+        GGroup parent;
+        /** Last known content of a group. */
+        ArrayList<GElement> children;
+        /** Cells where items of this element are stored. */
+        final HashSet<Long> cells = new HashSet<>();
+        boolean large, opaque;
+        int nbItems;
+        Entry(GElement element, GGroup parent) {
+            this.element = element;
+            this.parent = parent;
+        }
+    }
+
+    private final GGroup document;
+    private final IdentityHashMap<GElement, Entry> entries = new IdentityHashMap<>();
+    private final HashMap<Long, ArrayList<Item>> grid = new HashMap<>();
+    private final ArrayList<Item> largeItems = new ArrayList<>();
+    private final ArrayList<Entry> opaqueEntries = new ArrayList<>();
+    private final Set<GElement> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean rebuild = true;
+    private double cellSize = 1;
+    private int nbItems, nbItemsAtBuild;
+
+    /**
+     * Create the index of the document, it will be built at the first query.
+     * @param document
+     */
+    public SpatialIndex(GGroup document) {
+        this.document = document;
+    }
+
+    /**
+     * Force a complete rebuild of the index at the next query.
+     */
+    public synchronized void invalidate() {
+        rebuild = true;
+    }
+
+    /**
+     * Stop listening the document.
+     */
+    public synchronized void dispose() {
+        clear();
+        rebuild = true;
+    }
+
+    @Override
+    public void intervalAdded(ListDataEvent e) {
+        contentsChanged(e);
+    }
+
+    @Override
+    public void intervalRemoved(ListDataEvent e) {
+        contentsChanged(e);
+    }
+
+    @Override
+    public synchronized void contentsChanged(ListDataEvent e) {
+        // called inside informAboutChange() : the update is done at the next query
+        if ( e.getSource() instanceof GElement) dirty.add((GElement)e.getSource());
+    }
+
+    /**
+     * Same as document.getCloserPoint(pt, dmax, discareElement, discarePoints)
+     * @param pt
+     * @param dmax discar all point away from <i>dmax</i>
+     * @param discareElement the elements (and their content) to ignore, can be null
+     * @param discarePoints the points to ignore, can be null
+     * @return the closest point or null if none
+     */
+    public synchronized GCode getCloserPoint(Point2D pt, double dmax, ArrayList<GElement> discareElement, ArrayList<GCode> discarePoints) {
+        update();
+        final long[] r = getCellRange(pt, dmax);
+        if ( r == null) return document.getCloserPoint(new GCode(pt.getX(), pt.getY()), dmax, discareElement, discarePoints);
+
+        final IdentityHashMap<Entry,Boolean> discared = new IdentityHashMap<>();
+        GCode res = null;
+        double d;
+        for( long x = r[0]; x <= r[2]; x++)
+            for( long y = r[1]; y <= r[3]; y++) {
+                final ArrayList<Item> cell = grid.get(getKey(x, y));
+                if ( cell != null)
+                    for( Item it : cell)
+                        if ( (it.p2 == null) && ((d = pt.distance(it.p1)) < dmax) &&
+                                ((discarePoints == null) || ! discarePoints.contains(it.p1)) &&
+                                ! isDiscared(it.owner, discareElement, discared)) {
+                            res = it.p1;
+                            dmax = d;
+                        }
+            }
+
+        for( Entry e : opaqueEntries) {
+            if ( isDiscared(e, discareElement, discared)) continue;
+            GCode p = e.element.getCloserPoint(pt, dmax, discarePoints, false);
+            if ( (p != null) && ((d = pt.distance(p)) < dmax) && ((discarePoints == null) || ! discarePoints.contains(p))) {
+                res = p;
+                dmax = d;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Same as el.getCloserPoint(pt, dmax, null, false)
+     * @param el an element of the document
+     * @param pt
+     * @param dmax
+     * @return the closest point of <i>el</i> or null
+     */
+    public synchronized GCode getCloserPoint(GElement el, Point2D pt, double dmax) {
+        update();
+        final Entry e = entries.get(el);
+        final long[] r = getCellRange(pt, dmax);
+        if ( (e == null) || e.opaque || (e.children != null) || (r == null))
+            return el.getCloserPoint(pt, dmax, null, false);
+
+        GCode res = null;
+        double d;
+        for( long x = r[0]; x <= r[2]; x++)
+            for( long y = r[1]; y <= r[3]; y++) {
+                final ArrayList<Item> cell = grid.get(getKey(x, y));
+                if ( cell != null)
+                    for( Item it : cell)
+                        if ( (it.owner == e) && (it.p2 == null) && ((d = pt.distance(it.p1)) < dmax)) {
+                            res = it.p1;
+                            dmax = d;
+                        }
+            }
+        return res;
+    }
+
+    /**
+     * Same as group.getElementFromPoint(pt, dmin, intoThis)
+     * @param group a group of the document
+     * @param pt
+     * @param dmin
+     * @param intoThis if not empty, search only into these elements
+     * @return the child of <i>group</i> closest to <i>pt</i> or null if none
+     */
+    public synchronized GElement getElementFromPoint(GGroup group, GCode pt, double dmin, ArrayList<GElement> intoThis) {
+        update();
+        final long[] r = getCellRange(pt, dmin);
+        if ( ((intoThis != null) && ! intoThis.isEmpty()) || (r == null) || ! entries.containsKey(group))
+            return group.getElementFromPoint(pt, dmin, intoThis);
+
+        GElement res = null, c;
+        double d;
+        for( long x = r[0]; x <= r[2]; x++)
+            for( long y = r[1]; y <= r[3]; y++) {
+                final ArrayList<Item> cell = grid.get(getKey(x, y));
+                if ( cell != null)
+                    for( Item it : cell) {
+                        d = (it.p2 == null) ? it.p1.distance(pt) : Math.abs(new Segment2D(it.p1, it.p2).distanceTo(pt));
+                        if ( (dmin > d) && ((c = getChildOf(group, it.owner)) != null)) {
+                            res = c;
+                            dmin = d;
+                        }
+                    }
+            }
+        for( Item it : largeItems) {
+            d = Math.abs(new Segment2D(it.p1, it.p2).distanceTo(pt));
+            if ( (dmin > d) && ((c = getChildOf(group, it.owner)) != null)) {
+                res = c;
+                dmin = d;
+            }
+        }
+        for( Entry e : opaqueEntries)
+            if ( ((c = getChildOf(group, e)) != null) && (dmin > (d = e.element.getDistanceTo(pt)))) {
+                res = c;
+                dmin = d;
+            }
+        return res;
+    }
+
+    /**
+     * @param group a group of the document
+     * @param r
+     * @return the children of <i>group</i> that have a point or a segment into <i>r</i> (or can't be indexed)
+     */
+    public synchronized ArrayList<GElement> getElementsIn(GGroup group, Rectangle2D r) {
+        update();
+        final long[] cr = getCellRange(new Point2D.Double(r.getCenterX(), r.getCenterY()), Math.max(r.getWidth(), r.getHeight())/2);
+        if ( (cr == null) || ! entries.containsKey(group)) return group.getAll();
+
+        final Set<GElement> found = Collections.newSetFromMap(new IdentityHashMap<>());
+        GElement c;
+        for( long x = cr[0]; x <= cr[2]; x++)
+            for( long y = cr[1]; y <= cr[3]; y++) {
+                final ArrayList<Item> cell = grid.get(getKey(x, y));
+                if ( cell != null)
+                    for( Item it : cell)
+                        if ( (c = getChildOf(group, it.owner)) != null) found.add(c);
+            }
+        for( Item it : largeItems)
+            if ( (c = getChildOf(group, it.owner)) != null) found.add(c);
+        for( Entry e : opaqueEntries)
+            if ( (c = getChildOf(group, e)) != null) found.add(c);
+
+        // keep the order of the group
+        ArrayList<GElement> res = new ArrayList<>(found.size());
+        for( GElement e : group.getIterable()) if ( found.contains(e)) res.add(e);
+        return res;
+    }
+
+    /** @return the number of points and segments indexed */
+    public synchronized int size() {
+        update();
+        return nbItems;
+    }
+
+    private GElement getChildOf(GGroup group, Entry e) {
+        while ( e.parent != group) {
+            if ( e.parent == null) return null;
+            if ( (e = entries.get(e.parent)) == null) return null;
+        }
+        return e.element;
+    }
+
+    private boolean isDiscared(Entry e, ArrayList<GElement> discareElement, IdentityHashMap<Entry,Boolean> cache) {
+        if ( (discareElement == null) || discareElement.isEmpty()) return false;
+        Boolean res = cache.get(e);
+        if ( res == null) {
+            if ( e.parent == null) res = false; // the document itself
+            else if ( discareElement.contains(e.element)) res = true;
+            else {
+                final Entry p = entries.get(e.parent);
+                res = (p != null) && isDiscared(p, discareElement, cache);
+            }
+            cache.put(e, res);
+        }
+        return res;
+    }
+
+    /** @return { x0, y0, x1, y1 } the cells around pt or null if too many */
+    private long[] getCellRange(Point2D pt, double d) {
+        if ( Double.isNaN(d) || Double.isInfinite(d)) return null;
+        final long[] r = { getCell(pt.getX()-d), getCell(pt.getY()-d), getCell(pt.getX()+d), getCell(pt.getY()+d) };
+        if ( (r[2]-r[0]+1) * (r[3]-r[1]+1) > MAX_CELLS_PER_QUERY) return null;
+        return r;
+    }
+
+    private long getCell(double v) {
+        return (long)Math.floor(v / cellSize);
+    }
+
+    private static Long getKey(long x, long y) {
+        return (x << 32) ^ (y & 0xffffffffL);
+    }
+
+    /** Apply all changes received since the last query. */
+    private void update() {
+        if ( rebuild || (nbItems > 4 * nbItemsAtBuild + 1024)) {
+            clear();
+            rebuild = false;
+            computeCellSize();
+            addTree(document, null);
+            nbItemsAtBuild = nbItems;
+            return;
+        }
+        if ( dirty.isEmpty()) return;
+
+        final ArrayList<GElement> changed = new ArrayList<>(dirty);
+        dirty.clear();
+        for( GElement el : changed) {
+            final Entry e = entries.get(el);
+            if ( e == null) continue; // not (or no more) in the document
+
+            if ( el instanceof GGroup) {
+                final ArrayList<GElement> content = ((GGroup)el).getAll();
+                final Set<GElement> now = Collections.newSetFromMap(new IdentityHashMap<>());
+                now.addAll(content);
+                for( GElement old : e.children) {
+                    final Entry oe = entries.get(old);
+                    if ( (oe != null) && (oe.parent == el) && ! now.contains(old)) removeTree(oe);
+                }
+                for( GElement c : content) {
+                    final Entry ce = entries.get(c);
+                    if ( ce == null) addTree(c, (GGroup)el);
+                    else ce.parent = (GGroup)el; // moved from another group
+                }
+                e.children = content;
+            } else {
+                removeItems(e);
+                addItems(e);
+            }
+        }
+    }
+
+    private void clear() {
+        entries.keySet().forEach((el) -> { el.removeListDataListener(this); });
+        entries.clear();
+        grid.clear();
+        largeItems.clear();
+        opaqueEntries.clear();
+        dirty.clear();
+        nbItems = 0;
+    }
+
+    /** Choose a cell size to have about one point per cell. */
+    private void computeCellSize() {
+        final Rectangle2D b = document.getBounds();
+        final int n = Math.max(1, document.getNbPoints());
+        cellSize = 1;
+        if ( b != null) {
+            final double w = b.getWidth(), h = b.getHeight();
+            final double s = ((w > 0) && (h > 0)) ? Math.sqrt(w * h / n) : Math.max(w, h) / n;
+            if ( (s > 0) && ! Double.isInfinite(s)) cellSize = s;
+        }
+    }
+
+    private void addTree(GElement el, GGroup parent) {
+        final Entry e = new Entry(el, parent);
+        entries.put(el, e);
+        el.addListDataListener(this);
+        if ( el instanceof GGroup) {
+            e.children = ((GGroup)el).getAll();
+            for( GElement c : e.children) addTree(c, (GGroup)el);
+        } else
+            addItems(e);
+    }
+
+    private void removeTree(Entry e) {
+        entries.remove(e.element);
+        e.element.removeListDataListener(this);
+        if ( e.children != null) {
+            for( GElement c : e.children) {
+                final Entry ce = entries.get(c);
+                if ( (ce != null) && (ce.parent == e.element)) removeTree(ce);
+            }
+        } else
+            removeItems(e);
+    }
+
+    private void addItems(Entry e) {
+        if ( ! (e.element instanceof G1Path) || (e.element instanceof GPocket3D)) {
+            e.opaque = true;
+            opaqueEntries.add(e);
+            return;
+        }
+        GCode last = null;
+        for( GCode p : ((G1Path)e.element).lines)
+            if ( p.isAPoint()) {
+                if ( Double.isNaN(p.getX()) || Double.isNaN(p.getY())) continue;
+                addItem(new Item(e, p, null));
+                if ( last != null) addItem(new Item(e, last, p));
+                last = p;
+            }
+    }
+
+    private void addItem(Item it) {
+        nbItems++;
+        it.owner.nbItems++;
+        final GCode p2 = (it.p2 == null) ? it.p1 : it.p2;
+        final long x0 = getCell(Math.min(it.p1.getX(), p2.getX())), x1 = getCell(Math.max(it.p1.getX(), p2.getX()));
+        final long y0 = getCell(Math.min(it.p1.getY(), p2.getY())), y1 = getCell(Math.max(it.p1.getY(), p2.getY()));
+        if ( (x1-x0+1) * (y1-y0+1) > MAX_CELLS_PER_ITEM) {
+            it.owner.large = true;
+            largeItems.add(it);
+            return;
+        }
+        for( long x = x0; x <= x1; x++)
+            for( long y = y0; y <= y1; y++) {
+                final Long key = getKey(x, y);
+                ArrayList<Item> cell = grid.get(key);
+                if ( cell == null) grid.put(key, cell = new ArrayList<>(4));
+                cell.add(it);
+                it.owner.cells.add(key);
+            }
+    }
+
+    private void removeItems(Entry e) {
+        if ( e.opaque) {
+            opaqueEntries.remove(e);
+            e.opaque = false;
+            return;
+        }
+        for( Long key : e.cells) {
+            final ArrayList<Item> cell = grid.get(key);
+            if ( cell == null) continue;
+            cell.removeIf((it) -> (it.owner == e));
+            if ( cell.isEmpty()) grid.remove(key);
+        }
+        e.cells.clear();
+        if ( e.large) {
+            largeItems.removeIf((it) -> (it.owner == e));
+            e.large = false;
+        }
+        nbItems -= e.nbItems;
+        e.nbItems = 0;
+    }
+}
@@ -17,30 +17,100 @@ package gelements;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import gcodeeditor.EngravingProperties;
+import gcodeeditor.GCode;
+import gcodeeditor.GWord;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
- * manage Undo/Redo records of the modifications of a document.
+ * manage Undo/Redo records of the modifications of a document.<br>
+ * Each record is a tree of snapshots (Node) sharing the nodes of the elements not changed
+ * since the previous record, and undo/redo clone only the elements that differ from it.<br>
+ * The paths used only by old records are compressed, then written into a temporary file, and
+ * the oldest records are removed when the history uses more than its memory budget.
  * @author Clément Gérardin @ Marseille.fr
  */
 public class UndoManager {
-    
+
+    public static final int DEFAULT_MEMORY_MB = 256;
+    /** Records around the current one whose paths stay uncompressed. */
+    static final int LIVE_RECORDS = 8;
+    /** Delay to merge the changes of the same elements (ie. nudges) into one record. */
+    static final long MERGE_DELAY_MS = 1500;
+    /** Maximal number of elements changed by a record to merge it. */
+    static final int MAX_MERGED_ELEMENTS = 64;
+    /** Estimated memory used by a line of a path. */
+    private static final int LINE_SIZE = 200;
+
     /** [0 ... undo records  ... <undoStackPosition> ... redo record ... undoStack.size()] */
     ArrayList<UndoRecord> undoStack;
     /** The current stack position (for redo) */
     int undoStackPosition = 0;
-    
+
+    private long memoryBudget = (long)DEFAULT_MEMORY_MB << 20;
+    private boolean spillToDisk = true;
+    private File spillFile;
+    private RandomAccessFile spill;
+    /** Memory and disk used by the history at the last measure. */
+    private long memoryUsed, diskUsed;
+    /** Nodes written into the spill file at the last measure. */
+    private final ArrayList<Node> spilled = new ArrayList<>();
+    /** To mark the nodes already visited by a walk. */
+    private int epoch;
+    /** Elements changed by the last snapshot, and if the groups have changed too. */
+    private final ArrayList<Integer> changed = new ArrayList<>();
+    private boolean structural;
+
     public UndoManager() {
         undoStack = new ArrayList<>(100);
     }
 
+    /**
+     * @param bytes the memory that the history can use
+     * @param useDisk if true, the compressed old records are written into a temporary file
+     *                before being removed
+     */
+    public void setMemoryBudget(long bytes, boolean useDisk) {
+        memoryBudget = Math.max(bytes, 1 << 20);
+        spillToDisk = useDisk;
+        if ( ! undoStack.isEmpty()) compact();
+    }
+
+    /** @return the memory used by the history (estimation) */
+    public long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    /** @return the size of the records written into the temporary file */
+    public long getDiskUsed() {
+        return diskUsed;
+    }
+
+    public int size() {
+        return undoStack.size();
+    }
+
     /**
      * Erase all the content of this stack.
      */
     public void clear() {
         undoStack.clear();
         undoStackPosition = 0;
+        memoryUsed = diskUsed = 0;
+        spilled.clear();
+        closeSpill();
     }
 
     /**
@@ -57,41 +127,105 @@ public class UndoManager {
         rerturn false;*/
         return true;
     }
-    
+
     public boolean canRedo() {
         return undoStackPosition < undoStack.size();
     }
-    
+
     /**
-     * Get all modified elements of this group and erases their modified flag.
-     * @param document
-     * @param modified all modified element are in this group
+     * Make the snapshot of <i>e</i>, reusing the snapshots of the elements not changed since
+     * their last one : only the changed elements are cloned.
+     * @param e
+     * @return the snapshot of e
+     */
+    private Node snapshot(GElement e) {
+        final Node prev = isUnchanged(e) ? e.undoNode : null;
+        final Node res;
+        if ( e instanceof GGroup) {
+            final ArrayList<GElement> elements = ((GGroup)e).elements;
+            final Node children[] = new Node[elements.size()];
+            boolean same = (prev != null) && (prev.children.length == children.length);
+            for( int i = 0; i < children.length; i++) {
+                children[i] = snapshot(elements.get(i));
+                same = same && (prev.children[i] == children[i]);
+            }
+            if ( same) return prev;
+            // only the attributes of the group
+            GGroup attr = (prev != null) ? (GGroup)prev.element : null;
+            if ( attr == null) {
+                structural = true;
+                attr = new GGroup(e.name);
+                attr.id = e.id;
+                if ( e.properties != null) attr.properties = e.properties.clone();
+            }
+            res = new Node(attr, children);
+        } else {
+            if ( prev != null) return prev;
+            changed.add(e.id);
+            res = new Node(e.cloneWithSameID(), null);
+        }
+        e.undoNode = res;
+        e.undoVersion = e.getVersion();
+        e.modified = false;
+        return res;
+    }
+
+    /** @return true if <i>e</i> has not changed since its last snapshot */
+    private static boolean isUnchanged(GElement e) {
+        return (e.undoNode != null) && ! e.modified && (e.undoVersion == e.getVersion());
+    }
+
+    /**
+     * Set the content of <i>group</i> as in the snapshot <i>n</i>, the elements of the document
+     * that are already in the state of the snapshot are kept, the others are cloned from it.
+     * @param group
+     * @param n
+     * @param live the elements of the document by ID, those reused are removed
      */
-    private void getModified(GGroup group, ArrayList<GElement> modified, boolean onlyClear) {
-        if ( group.modified) {
-            group.modified = false;
-            if ( ! onlyClear) 
-                modified.add(group);
-            
-            group.getAll().forEach((e) -> {  
-                if ( e instanceof GGroup) 
-                    getModified((GGroup)e, null, true);
+    private void restore(GGroup group, Node n, HashMap<Integer, GElement> live) {
+        if ( (group.undoNode != n) || ! isUnchanged(group)) {
+            group.name = n.element.name;
+            group.properties = (n.element.properties != null) ? n.element.properties.clone() : null;
+        }
+        final ArrayList<GElement> content = new ArrayList<>(n.children.length);
+        boolean same = group.elements.size() == n.children.length;
+        for( Node c : n.children) {
+            GElement e = live.remove(c.id);
+            if ( c.children != null) {
+                if ( ! (e instanceof GGroup)) {
+                    e = new GGroup(c.element.name);
+                    e.id = c.id;
+                }
+                restore((GGroup)e, c, live);
+            } else if ( (e == null) || (e.undoNode != c) || ! isUnchanged(e)) {
+                e = getElement(c);
+                e.undoNode = c;
+                e.undoVersion = e.getVersion();
                 e.modified = false;
-            });
-        } else
-            group.getAll().forEach((e) -> {  
-                if ( e instanceof GGroup)
-                    getModified((GGroup)e, modified, onlyClear);
-                else 
-                    if ( e.modified) {
-                        if ( ! onlyClear) 
-                            modified.add(e);
-                        
-                    }
-                e.modified = false;    
-            });
+            }
+            same = same && (group.elements.get(content.size()) == e);
+            content.add(e);
+        }
+        if ( ! same) group.setElements(content);
+        group.undoNode = n;
+        group.undoVersion = group.getVersion();
+        group.modified = false;
+    }
+
+    /** Set the document as in the snapshot <i>root</i>. */
+    private void restore(GGroup document, Node root) {
+        final HashMap<Integer, GElement> live = new HashMap<>();
+        addAll(document, live);
+        restore(document, root, live);
     }
-    
+
+    private void addAll(GGroup group, HashMap<Integer, GElement> live) {
+        for( GElement e : group.elements) {
+            live.putIfAbsent(e.id, e);
+            if ( e instanceof GGroup) addAll((GGroup)e, live);
+        }
+    }
+
     /**
      * Apply last undo record on the document
      * @param document
@@ -99,229 +233,344 @@ public class UndoManager {
      */
     public GElement undo(GGroup document) {
         assert( undoStack.size() > 0);
-                
-        GElement res = null;
-        if ( undoStackPosition > 1) --undoStackPosition;
-        
-        UndoRecord prev = undoStack.get(undoStackPosition); 
-        System.out.println("UndoRec="+prev);
-        System.out.println("undo stack["+undoStackPosition+" / "+ undoStack.size()+"]");
-        System.out.flush();
-
-        // full restoration of the document
-        if ( (prev.modified.length==1) && (prev.modified[0].getID() == document.getID())) {     
-            document.clear();
-            ((GGroup)prev.modified[0]).getAll().forEach((l) -> { document.elements.add((GElement)l.cloneWithSameID()); });
-            clearModifiedFlagOn(document);
-            return document;
-        }
+        if ( undoStack.isEmpty()) return document;
 
-        // restore previous version of what have changed at last backup
-        for( GElement m : prev.modified) {
-            GElement last = findLastVersionOf(m.getID());
-            if ( last == null) {
-                // that was a new element, we remove it
-                last = document.getElementID(m.getID()); 
-                GGroup g = document.getParent(last);
-                g.remove( last);
-                g.modified = false;
-                return g;
-            } else {
-                if ( last instanceof GGroup) {
-                    // restore all modified element of this group since his last backup
-                    restoreLastStateOfElementsOf((GGroup)last);
-                }
-                GGroup g = document.getParent(document.getElementID(last.getID()));
-                if ( g == null) {
-                    // no parent, that is the root group
-                    document.clear();
-                    if ( last instanceof GGroup)
-                        document.addAll(((GGroup)last).cloneWithSameID().getAll());
-                    else
-                        document.add( last.cloneWithSameID());
-
-                    document.modified = false;
-                    res = document;
-                } else {
-                    g.remplace(last);
-                    g.modified = false;
-                    res = g;
-                }   
-                clearModifiedFlagOn(res);
-            }
-        }
-        return document.getElementID(prev.editedElement);     
+        if ( undoStackPosition > 1) --undoStackPosition;
+        // the record undone gives the element edited
+        final UndoRecord undone = undoStack.get(Math.min(undoStackPosition, undoStack.size()-1));
+        restore(document, undoStack.get(undoStackPosition-1).root);
+        final GElement res = document.getElementID(undone.editedElement);
+        return (res != null) ? res : document;
     }
-    
+
     /**
      * Apply undo on the document
      * @param document
      * @return the edited element or group at save time
      */
     public GElement redo(GGroup document) {
-        if ( canRedo()) {                
+        if ( canRedo()) {
             UndoRecord rec = undoStack.get(undoStackPosition++);
-            System.out.println("RedoRec="+rec);
-            System.out.println("redo stack["+undoStackPosition+" / "+ undoStack.size()+"]");
-            System.out.flush();
-            
-            for ( GElement e : rec.modified)
-                updateElement(document, e);
-            
-            clearModifiedFlagOn(document);
-            return document.getElementID(rec.editedElement);
+            restore(document, rec.root);
+            final GElement res = document.getElementID(rec.editedElement);
+            return (res != null) ? res : document;
         }
         return null;
     }
-    
-    /**
-     * Return the newer version of a element on the stack.
-     * @param id the ID of the element to find
-     * @return a clone of the element or null if not found.
-     */
-    private GElement findLastVersionOf(int id) {
-        //GElement e;
-        int recNum = undoStackPosition;
-        while ( recNum > 0) {
-            recNum--;
-            UndoRecord r = undoStack.get(recNum);
-            for( GElement e : r.modified) {
-                if ( e.getID() == id)
-                    return e.cloneWithSameID();
-                else 
-                    if ( e instanceof GGroup) {
-                        GElement el = ((GGroup)e).getElementID(id);
-                        if (el != null) 
-                            return el.cloneWithSameID();
-                    }
-            }
-        }
-        return null;
-    }
-    
+
     /**
-     * Save all modifications of the document into the stack if needed.
+     * Save all modifications of the document into the stack if needed.<br>
+     * The record is merged with the last one if it changes the same elements shortly after it.
      * @param document
-     * @param editedElement 
+     * @param editedElement
      */
     public void saveState( GGroup document, int editedElement) {
         // Remove unused saved states
         while( undoStackPosition < undoStack.size()) {
             undoStack.remove(undoStack.size()-1);
         }
-        
-        ArrayList<GElement> modified = new ArrayList<>();
-        getModified(document, modified, false);
-        if ( modified.isEmpty()) return;
-        
-        UndoRecord r = new UndoRecord(modified.size());
-        int i = 0;
-        for( GElement e : modified) {
-            r.modified[i++] = e.cloneWithSameID();           
+
+        changed.clear();
+        structural = false;
+        final Node root = snapshot(document);
+        if ( ! undoStack.isEmpty() && (undoStack.get(undoStack.size()-1).root == root)) return;
+
+        int ids[] = null;
+        if ( ! structural && ! changed.isEmpty() && (changed.size() <= MAX_MERGED_ELEMENTS)) {
+            ids = changed.stream().mapToInt(Integer::intValue).sorted().toArray();
+        }
+        final long now = System.currentTimeMillis();
+        final UndoRecord last = undoStack.isEmpty() ? null : undoStack.get(undoStack.size()-1);
+        if ( (undoStack.size() > 1) && (ids != null) && (last.changed != null) &&
+                (last.editedElement == editedElement) && Arrays.equals(ids, last.changed) &&
+                (now - last.time < MERGE_DELAY_MS)) {
+            // the previous state of these elements is in the record before
+            last.root = root;
+            last.time = now;
+        } else {
+            UndoRecord r = new UndoRecord(root);
+            r.editedElement = editedElement;
+            r.changed = ids;
+            r.time = now;
+            undoStack.add(r);
+            undoStackPosition++;
         }
+        compact();
+    }
 
-        r.editedElement = editedElement;
-        System.out.println("Add: " + r);
-        undoStack.add(r);
-        undoStackPosition++;
-        
-        System.out.println("stack["+undoStackPosition+" / "+ undoStack.size()+"]");
-        System.out.flush();
-        StackTraceElement[] stackTrace = Thread.getAllStackTraces().get(Thread.currentThread());
-        for( i = 2; i < 6; i++) System.err.println(stackTrace[i]);
-        System.err.println();
-        System.err.flush();
+    /** Compress the old records, then spill or remove the oldest ones while the history is too big. */
+    private void compact() {
+        measure(LIVE_RECORDS);
+        // then compress all the records but the current one
+        if ( memoryUsed > memoryBudget) measure(0);
+        while ( (memoryUsed > memoryBudget) || (diskUsed > 4 * memoryBudget)) {
+            if ( (memoryUsed > memoryBudget) && spillToDisk && spillOldest()) {
+                measure(0);
+                continue;
+            }
+            // keep the current state
+            if ( undoStackPosition <= 1) break;
+            undoStack.remove(0);
+            undoStackPosition--;
+            measure(0);
+        }
+        if ( (spill != null) && spilled.isEmpty()) closeSpill();
+        else if ( spill != null) {
+            try {
+                if ( spill.length() > 2 * diskUsed + (1 << 20)) rewriteSpill();
+            } catch ( IOException e) {
+                spillError(e);
+            }
+        }
     }
 
     /**
-     * Eventualy update newE into the <i>document</i>.
-     * @param document
-     * @param newE
-     * @return 
+     * Compute the memory and disk used by the history (the nodes shared by several records
+     * are counted once) and compress the paths used only by old records.
+     * @param live the number of records before the current one to keep uncompressed
      */
-    private GElement updateElement(GGroup document, GElement newE) {
-        GElement old = document.getElementID(newE.getID());
-        if ( old == null){
-            System.err.println("updateElement: newE is not in this group");
-            return null;
+    private void measure(int live) {
+        epoch++;
+        memoryUsed = diskUsed = 0;
+        spilled.clear();
+        // from the newest so the nodes used by a live record are never compressed
+        for( int i = undoStack.size()-1; i >= 0; i--)
+            measure(undoStack.get(i).root, i < undoStackPosition - 1 - live);
+    }
+
+    private void measure(Node n, boolean compress) {
+        if ( n.mark == epoch) return;
+        n.mark = epoch;
+        if ( n.children != null) {
+            memoryUsed += 64 + 8 * n.children.length;
+            for( Node c : n.children) measure(c, compress);
+            return;
+        }
+        if ( compress && (n.element != null) && canEncode(n.element)) {
+            try {
+                n.data = encode(n.element);
+                n.element = null;
+            } catch ( IOException e) {
+                e.printStackTrace();
+            }
+        }
+        memoryUsed += 32;
+        if ( n.element != null) memoryUsed += n.size;
+        if ( n.data != null) memoryUsed += n.data.length;
+        if ( n.offset >= 0) {
+            diskUsed += n.length;
+            spilled.add(n);
         }
-        GGroup p = (GGroup)document.getParent(old);
-        if ( p == null) {
-            // thas is the root group
-            document.clear();
-            document.addAll( ((GGroup)newE).cloneWithSameID().getAll());
-            document.modified = false;
-            return document;
-        } else {
-            int i = p.indexOf(old);
-            p.remove(old);
-            p.add(i, old=newE.cloneWithSameID()); 
-            p.modified = false;
-            return old;
-        } 
     }
 
-    private void clearModifiedFlagOn(GElement el) {
-        if ( el instanceof GGroup) {
-            ((GGroup)el).elements.forEach((e) -> { clearModifiedFlagOn(e); });
+    /**
+     * Write the compressed nodes of the oldest records into the spill file.
+     * @return true if some memory was freed
+     */
+    private boolean spillOldest() {
+        epoch++;
+        long freed = 0;
+        try {
+            for( UndoRecord r : undoStack) {
+                freed += spill(r.root, memoryUsed - memoryBudget - freed);
+                if ( memoryUsed - freed <= memoryBudget) break;
+            }
+        } catch ( IOException e) {
+            spillError(e);
         }
-        el.modified = false;
+        return freed > 0;
     }
 
-    private void restoreLastStateOfElementsOf(GGroup group) {
-        HashMap<Integer, GElement> mostRecents = new HashMap<>();
-        int i, recNum = undoStackPosition;
-        
-        // retreive all modifications into 'group' since his last recording
-        while ( recNum > 0) {
-            recNum--;
-            UndoRecord r = undoStack.get(recNum);
-            for( GElement e : r.modified) {
-                if ( (e.id != group.id) && ( group.getElementID(e.id) != null)) {
-                    if ( mostRecents.get(e.id)==null) {
-                        mostRecents.put(e.id, e);
-                        if ( e instanceof GGroup)
-                            restoreLastStateOfElementsOf((GGroup)e);
-                    }
+    private long spill(Node n, long toFree) throws IOException {
+        if ( (n.mark == epoch) || (toFree <= 0)) return 0;
+        n.mark = epoch;
+        long freed = 0;
+        if ( n.children != null) {
+            for( Node c : n.children)
+                if ( (freed += spill(c, toFree - freed)) >= toFree) break;
+        } else if ( n.data != null) {
+            if ( spill == null) {
+                spillFile = File.createTempFile("undo", ".bin");
+                spillFile.deleteOnExit();
+                spill = new RandomAccessFile(spillFile, "rw");
+            }
+            n.offset = spill.length();
+            n.length = n.data.length;
+            spill.seek(n.offset);
+            spill.write(n.data);
+            freed = n.data.length;
+            n.data = null;
+        }
+        return freed;
+    }
+
+    /** Copy the nodes still used into a new spill file. */
+    private void rewriteSpill() throws IOException {
+        final File f = File.createTempFile("undo", ".bin");
+        f.deleteOnExit();
+        final RandomAccessFile out = new RandomAccessFile(f, "rw");
+        for( Node n : spilled) {
+            final byte b[] = new byte[n.length];
+            spill.seek(n.offset);
+            spill.readFully(b);
+            n.offset = out.getFilePointer();
+            out.write(b);
+        }
+        closeSpill();
+        spillFile = f;
+        spill = out;
+    }
+
+    private void spillError(IOException e) {
+        e.printStackTrace();
+        spillToDisk = false;
+    }
 
+    private void closeSpill() {
+        if ( spill == null) return;
+        try {
+            spill.close();
+        } catch ( IOException e) { }
+        spillFile.delete();
+        spill = null;
+        spillFile = null;
+    }
+
+    /** @return a new element in the state of the snapshot <i>n</i> */
+    private GElement getElement(Node n) {
+        if ( n.element != null) return n.element.cloneWithSameID();
+        try {
+            byte b[] = n.data;
+            if ( b == null) {
+                b = new byte[n.length];
+                spill.seek(n.offset);
+                spill.readFully(b);
+            }
+            return decode(b);
+        } catch ( IOException e) {
+            // should not happen, the file is ours
+            throw new IllegalStateException("Undo record lost", e);
+        }
+    }
+
+    private static boolean canEncode(GElement e) {
+        return e.getClass() == G1Path.class;
+    }
+
+    /**
+     * @param e a G1Path
+     * @return the path into a compressed binary form
+     */
+    private static byte[] encode(GElement e) throws IOException {
+        final G1Path p = (G1Path)e;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(p.lines.size() * 8 + 64);
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_SPEED)))) {
+            out.writeInt(p.id);
+            out.writeUTF(p.name);
+            out.writeUTF((p.properties != null) ? p.properties.toString() : "");
+            out.writeInt(p.lines.size());
+            for( GCode l : p.lines) {
+                final int g = l.getG();
+                if ( (l.size() == 3) && l.isAPoint() && ((g == 0) || (g == 1)) && (l.get(0).getLetter() == 'G') &&
+                        (l.get(0).getValue() == g) && (l.get(1).getLetter() == 'X')) {
+                    out.writeByte(g);
+                    out.writeDouble(l.getX());
+                    out.writeDouble(l.getY());
+                } else if ( hasText(l)) {
+                    out.writeByte(2);
+                    out.writeUTF(l.toString());
                 } else {
-                    // apply modifications on 'group'
-                    mostRecents.keySet().forEach((id) -> {
-                        updateElement(group, mostRecents.get(id));
-                    });
-                    return;
+                    out.writeByte(3);
+                    out.writeShort(l.size());
+                    for( GWord w : l) {
+                        out.writeChar(w.getLetter());
+                        out.writeDouble(w.getValue());
+                    }
                 }
             }
-        } 
-        
+        }
+        return bytes.toByteArray();
+    }
+
+    private static boolean hasText(GCode l) {
+        for( GWord w : l)
+            if ( w.isComment() || (w.getLetter() == '$')) return true;
+        return false;
     }
-        
-    class UndoRecord {  
-        /*
-        public static final int FULL_DUMP_RECORD = 0;
-        public static final int ADDED_RECORD = 1;
-        public static final int MODIFIED_RECORD = 2;
-        public static final int REMOVED_RECORD = 3;
-        int recordType;
-        ArrayList<GElement> addedElements;
-        ArrayList<int> modifiedOrRemovedIds;   
-        */
-
-        GElement modified[];
+
+    private static G1Path decode(byte b[]) throws IOException {
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(b)))) {
+            final int id = in.readInt();
+            final G1Path p = new G1Path(in.readUTF());
+            p.id = id;
+            final String props = in.readUTF();
+            p.properties = props.isEmpty() ? null : EngravingProperties.decode(props);
+            final int n = in.readInt();
+            p.lines.ensureCapacity(n);
+            for( int i = 0; i < n; i++) {
+                final int kind = in.readByte();
+                switch ( kind) {
+                    case 0:
+                    case 1:
+                        p.lines.add(new GCode(kind, in.readDouble(), in.readDouble()));
+                        break;
+                    case 2:
+                        p.lines.add(new GCode(in.readUTF()));
+                        break;
+                    default:
+                        final GCode l = new GCode();
+                        for( int w = in.readShort(); w > 0; w--) l.add(new GWord(in.readChar(), in.readDouble()));
+                        p.lines.add(l);
+                }
+            }
+            return p;
+        }
+    }
+
+    /**
+     * The state of an element at a save : a clone for a path, the attributes and the
+     * children for a group.<br>
+     * The state of a node never changes (only its storage), so the records share the nodes
+     * of the elements that have not changed between them.
+     */
+    static final class Node {
+        final int id;
+        /** The clone of the element, or null when it is compressed. */
+        GElement element;
+        final Node children[];
+        /** Estimated memory used by the clone. */
+        final long size;
+        /** The compressed element, or null if not compressed or written into the spill file. */
+        byte data[];
+        /** Position of the compressed element into the spill file, or -1 */
+        long offset = -1;
+        int length;
+        int mark;
+
+        Node(GElement element, Node children[]) {
+            this.id = element.id;
+            this.element = element;
+            this.children = children;
+            size = (children == null) ? 64 + (long)LINE_SIZE * element.size() : 0;
+        }
+    }
+
+    class UndoRecord {
+        Node root;
         int editedElement;
+        /** Sorted IDs of the elements changed by this record if it can be merged with the next one, or null. */
+        int changed[];
+        long time;
 
-        public UndoRecord(int size) {
-            modified = new GElement[size];
+        public UndoRecord(Node root) {
+            this.root = root;
         }
 
         @Override
         public String toString() {
-            String res = "UndoRecord[";
-            for( GElement e : modified)
-                res += e.toString() + ",";
-            return res + "] edit="+ editedElement + "}";
+            return "UndoRecord[" + root.element + "(" + root.children.length + ")] edit="+ editedElement + "}";
         }
     }
 
-    
+
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2019 Clément Gérardin @ Marseille.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gelements;
+
+/**
+ * A value computed from an element, with the version of the element it was made from.<br>
+ * The stamp is read before computing the value : if the element is changed meanwhile (by the EDT
+ * while a tile thread paints it), the stored value is stale and is computed again by the next call.
+ *
+ * @author Clément
+ * @param <T> the type of the value
+ */
+final class Versioned<T> {
+
+    final T value;
+    final long stamp;
+
+    Versioned(T value, long stamp) {
+        this.value = value;
+        this.stamp = stamp;
+    }
+
+    /**
+     * @param <T>
+     * @param cache the cached value (can be null)
+     * @param stamp the current version of its element
+     * @return the value, or null if it is not made from this version
+     */
+    static <T> T get(Versioned<T> cache, long stamp) {
+        return ((cache != null) && (cache.stamp == stamp)) ? cache.value : null;
+    }
+}